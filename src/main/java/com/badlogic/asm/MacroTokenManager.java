@@ -0,0 +1,167 @@
+package com.badlogic.asm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token manager that expands parameterized macros before the tokens
+ * reach the {@link AsmInternalParser}. A macro is defined via
+ *
+ * <pre>
+ * .macro name param1, param2
+ *    set param1, param2
+ * .endm
+ * </pre>
+ *
+ * and invoked at the start of a line (optionally after a label) via
+ * <code>name a, [0x1000+i]</code>. Expansion happens in the token stream
+ * in a single pass, each token is looked at exactly once per expansion level,
+ * so assembling macro heavy sources stays linear in the size of the expanded
+ * output. Macros may invoke other macros, recursion is cut off at
+ * {@link #MAX_DEPTH} levels.
+ */
+class MacroTokenManager extends AsmInternalParserTokenManager {
+	static final int MAX_DEPTH = 64;
+
+	static class Macro {
+		final String name;
+		final List<String> params = new ArrayList<String>();
+		final List<Token> body = new ArrayList<Token>();
+
+		Macro(String name) {
+			this.name = name;
+		}
+	}
+
+	/** token created by a macro expansion, remembers its nesting depth **/
+	static class ExpandedToken extends Token {
+		private static final long serialVersionUID = 1L;
+		final int depth;
+
+		ExpandedToken(Token source, int depth) {
+			super(source.kind, source.image);
+			this.beginLine = source.beginLine;
+			this.beginColumn = source.beginColumn;
+			this.endLine = source.endLine;
+			this.endColumn = source.endColumn;
+			this.depth = depth;
+		}
+	}
+
+	private final Map<String, Macro> macros = new HashMap<String, Macro>();
+	private final LinkedList<Token> pending = new LinkedList<Token>();
+	private int lastKind = NEWLINE;
+	private int lastLastKind = NEWLINE;
+
+	public MacroTokenManager (SimpleCharStream stream) {
+		super(stream);
+	}
+
+	@Override
+	public Token getNextToken () {
+		while(true) {
+			Token token = nextRawToken();
+			boolean statementStart = lastKind == NEWLINE || (lastKind == IDENT && lastLastKind == COLON);
+			if(token.kind == MACRO && lastKind == NEWLINE) {
+				define(token);
+				continue;
+			}
+			if(token.kind == IDENT && statementStart) {
+				Macro macro = macros.get(token.image);
+				if(macro != null) {
+					expand(macro, token);
+					continue;
+				}
+			}
+			lastLastKind = lastKind;
+			lastKind = token.kind;
+			return token;
+		}
+	}
+
+	private Token nextRawToken() {
+		if(!pending.isEmpty()) return pending.removeFirst();
+		return super.getNextToken();
+	}
+
+	private static int depth(Token token) {
+		return token instanceof ExpandedToken? ((ExpandedToken)token).depth: 0;
+	}
+
+	private TokenMgrError error(Token token, String message) {
+		return new TokenMgrError("Line " + token.beginLine + ", column " + token.beginColumn + ": " + message, TokenMgrError.LEXICAL_ERROR);
+	}
+
+	private void define(Token start) {
+		Token name = nextRawToken();
+		if(name.kind != IDENT) throw error(name, "Expected macro name after .macro");
+		if(macros.containsKey(name.image)) throw error(name, "Macro '" + name.image + "' is already defined");
+		Macro macro = new Macro(name.image);
+
+		Token token = nextRawToken();
+		while(token.kind != NEWLINE) {
+			if(token.kind != IDENT) throw error(token, "Expected parameter name in definition of macro '" + macro.name + "'");
+			macro.params.add(token.image);
+			token = nextRawToken();
+			if(token.kind == COMMA) token = nextRawToken();
+		}
+
+		token = nextRawToken();
+		while(token.kind != ENDM) {
+			if(token.kind == EOF) throw error(start, "Missing .endm for macro '" + macro.name + "'");
+			if(token.kind == MACRO) throw error(token, "Macro definitions can not be nested");
+			macro.body.add(token);
+			token = nextRawToken();
+		}
+		macros.put(macro.name, macro);
+	}
+
+	private void expand(Macro macro, Token invocation) {
+		int depth = depth(invocation) + 1;
+		if(depth > MAX_DEPTH) throw error(invocation, "Macro expansion of '" + macro.name + "' nested too deeply");
+
+		// gather the arguments, split at commas outside of parentheses and brackets
+		List<List<Token>> args = new ArrayList<List<Token>>();
+		List<Token> arg = new ArrayList<Token>();
+		int nesting = 0;
+		Token token = nextRawToken();
+		while(token.kind != NEWLINE && token.kind != EOF) {
+			if(token.kind == LPAREN || token.kind == LBRACKET) nesting++;
+			if(token.kind == RPAREN || token.kind == RBRACKET) nesting--;
+			if(token.kind == COMMA && nesting == 0) {
+				args.add(arg);
+				arg = new ArrayList<Token>();
+			} else {
+				arg.add(token);
+			}
+			token = nextRawToken();
+		}
+		if(!arg.isEmpty() || !args.isEmpty()) args.add(arg);
+		if(args.size() != macro.params.size()) {
+			throw error(invocation, "Macro '" + macro.name + "' expects " + macro.params.size() + " arguments, got " + args.size());
+		}
+
+		// push the line end back first, then the substituted body in front of it
+		pending.addFirst(token);
+		List<Token> expansion = new ArrayList<Token>(macro.body.size());
+		for(Token bodyToken: macro.body) {
+			int param = bodyToken.kind == IDENT? macro.params.indexOf(bodyToken.image): -1;
+			if(param == -1) {
+				expansion.add(new ExpandedToken(bodyToken, depth));
+			} else {
+				// compound arguments are parenthesized so they keep their precedence
+				List<Token> argTokens = args.get(param);
+				boolean group = argTokens.size() > 1 && argTokens.get(0).kind != LBRACKET;
+				if(group) expansion.add(new ExpandedToken(Token.newToken(LPAREN, "("), depth));
+				for(Token argToken: argTokens) {
+					expansion.add(new ExpandedToken(argToken, depth));
+				}
+				if(group) expansion.add(new ExpandedToken(Token.newToken(RPAREN, ")"), depth));
+			}
+		}
+		pending.addAll(0, expansion);
+	}
+}
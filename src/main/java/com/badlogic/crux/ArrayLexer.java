@@ -0,0 +1,444 @@
+package com.badlogic.crux;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.badlogic.dcpu.IntArray;
+
+/**
+ * {@link Lexer} that reads the whole source into a char[] and scans it by index.
+ * Tokens are stored as (type, start, length) triples, the keyword index is kept in
+ * the upper bits of the type. {@link #next()} returns the index of the next token
+ * and the accessors decode it, so scanning doesn't allocate anything but the text
+ * of literals. Identifiers and numbers are interned in a {@link Symbols} table, so
+ * each distinct name is a single String. {@link #nextToken()} wraps the triples in
+ * {@link Token}s for the existing parsers.
+ */
+public class ArrayLexer extends Lexer {
+	static final TokenType[] TYPES = TokenType.values();
+	static final String[] TEXTS = new String[TYPES.length];
+	static final boolean[] IDENTIFIER_PART = new boolean[128];
+
+	static {
+		String[] texts = { "[", "]", "(", ")", ",", ";", ":", ".", "#", "@", "+", "-", "/", "*", "%", "<<", ">>", "&", "&&", "|", "||", "!", "^", "^^",
+			">", "<", ">=", "<=", "==", "!=", "=" };
+		System.arraycopy(texts, 0, TEXTS, 0, texts.length);
+		TEXTS[TokenType.EOL.ordinal()] = "unknown";
+		for(int c = 0; c < 128; c++) IDENTIFIER_PART[c] = Character.isJavaIdentifierPart(c);
+	}
+
+	/**
+	 * Interns char sequences without creating a String per lookup. Each symbol gets
+	 * an id in the order it was first seen.
+	 */
+	public static class Symbols {
+		String[] table = new String[256];
+		int[] ids = new int[256];
+		List<String> symbols = new ArrayList<String>();
+
+		public String intern (char[] chars, int start, int length) {
+			return symbols.get(internId(chars, start, length));
+		}
+
+		/** @return the id of the interned symbol **/
+		public int internId (char[] chars, int start, int length) {
+			int hash = 0;
+			for(int i = start; i < start + length; i++) hash = 31 * hash + chars[i];
+			int mask = table.length - 1;
+			for(int index = hash & mask;; index = (index + 1) & mask) {
+				String symbol = table[index];
+				if(symbol == null) {
+					symbol = new String(chars, start, length);
+					table[index] = symbol;
+					int id = symbols.size();
+					ids[index] = id;
+					symbols.add(symbol);
+					if(symbols.size() * 2 > table.length) grow();
+					return id;
+				}
+				if(symbol.hashCode() == hash && equals(symbol, chars, start, length)) return ids[index];
+			}
+		}
+
+		public String intern (String symbol) {
+			return intern(symbol.toCharArray(), 0, symbol.length());
+		}
+
+		/** @return the id of the interned symbol or -1 **/
+		public int id (String symbol) {
+			int mask = table.length - 1;
+			for(int index = symbol.hashCode() & mask; table[index] != null; index = (index + 1) & mask) {
+				if(table[index].equals(symbol)) return ids[index];
+			}
+			return -1;
+		}
+
+		public String get (int id) {
+			return symbols.get(id);
+		}
+
+		public int size () {
+			return symbols.size();
+		}
+
+		private static boolean equals (String symbol, char[] chars, int start, int length) {
+			if(symbol.length() != length) return false;
+			for(int i = 0; i < length; i++) {
+				if(symbol.charAt(i) != chars[start + i]) return false;
+			}
+			return true;
+		}
+
+		private void grow () {
+			String[] oldTable = table;
+			int[] oldIds = ids;
+			table = new String[oldTable.length * 2];
+			ids = new int[table.length];
+			int mask = table.length - 1;
+			for(int i = 0; i < oldTable.length; i++) {
+				if(oldTable[i] == null) continue;
+				int index = oldTable[i].hashCode() & mask;
+				while(table[index] != null) index = (index + 1) & mask;
+				table[index] = oldTable[i];
+				ids[index] = oldIds[i];
+			}
+		}
+	}
+
+	final char[] source;
+	final int length;
+	final Symbols symbols;
+	int pos;
+	int line = 1;
+	/** (type, start, length) per token **/
+	final IntArray tokens = new IntArray();
+	final IntArray lines = new IntArray();
+	/** the start of each line, for the columns **/
+	final IntArray lineStarts = new IntArray();
+	/** the text of identifiers, numbers, literals and errors, by token index **/
+	final List<String> texts = new ArrayList<String>();
+	/** keyword index + 2 by symbol id, 0 if the symbol was not looked up yet **/
+	int[] symbolKeywords = new int[64];
+
+	public ArrayLexer (InputStream in) {
+		this(in, false, true);
+	}
+
+	public ArrayLexer (InputStream in, boolean reportEol, boolean reportShift) {
+		this(read(in), reportEol, reportShift, new Symbols());
+	}
+
+	public ArrayLexer (String source, boolean reportEol, boolean reportShift) {
+		this(source.toCharArray(), reportEol, reportShift, new Symbols());
+	}
+
+	public ArrayLexer (char[] source, boolean reportEol, boolean reportShift, Symbols symbols) {
+		super(reportEol, reportShift);
+		this.source = source;
+		this.length = source.length;
+		this.symbols = symbols;
+		lineStarts.add(0);
+	}
+
+	static char[] read (InputStream in) {
+		try {
+			Reader reader = new InputStreamReader(in, "UTF-8");
+			char[] buffer = new char[4096];
+			int size = 0;
+			while(true) {
+				if(size == buffer.length) {
+					char[] tmp = new char[buffer.length * 2];
+					System.arraycopy(buffer, 0, tmp, 0, size);
+					buffer = tmp;
+				}
+				int read = reader.read(buffer, size, buffer.length - size);
+				if(read == -1) break;
+				size += read;
+			}
+			reader.close();
+			char[] source = new char[size];
+			System.arraycopy(buffer, 0, source, 0, size);
+			return source;
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void setKeywords (KeywordTable keywords) {
+		super.setKeywords(keywords);
+		symbolKeywords = new int[64];
+	}
+
+	@Override
+	public Token nextToken () {
+		int token = next();
+		return new Token(type(token), text(token), line(token), col(token), keyword(token));
+	}
+
+	public TokenType type (int token) {
+		return TYPES[tokens.get(token * 3) & 0xff];
+	}
+
+	/** @return the index of the keyword or -1, see {@link #setKeywords(KeywordTable)} **/
+	public int keyword (int token) {
+		return (tokens.get(token * 3) >> 8) - 1;
+	}
+
+	public int start (int token) {
+		return tokens.get(token * 3 + 1);
+	}
+
+	public int length (int token) {
+		return tokens.get(token * 3 + 2);
+	}
+
+	public String text (int token) {
+		String text = texts.get(token);
+		return text != null? text: TEXTS[tokens.get(token * 3) & 0xff];
+	}
+
+	public int line (int token) {
+		return lines.get(token);
+	}
+
+	public int col (int token) {
+		return start(token) - lineStarts.get(line(token) - 1) + 1;
+	}
+
+	/** @return the number of tokens scanned so far **/
+	public int size () {
+		return lines.size();
+	}
+
+	public Symbols getSymbols () {
+		return symbols;
+	}
+
+	private int token (TokenType type, int start, String text) {
+		return token(type, start, pos - start, line, text, -1);
+	}
+
+	private int token (TokenType type, int start, int length, int line, String text, int keyword) {
+		tokens.add(type.ordinal() | (keyword + 1) << 8);
+		tokens.add(start);
+		tokens.add(length);
+		lines.add(line);
+		texts.add(text);
+		return lines.size() - 1;
+	}
+
+	private void newLine (int start) {
+		line++;
+		lineStarts.add(start);
+	}
+
+	private boolean accept (char c) {
+		if(pos < length && source[pos] == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean isIdentifierPart (int c) {
+		return c < 128? IDENTIFIER_PART[c]: Character.isJavaIdentifierPart(c);
+	}
+
+	private static boolean isHexDigit (char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	/** scans the next token, see {@link Lexer#nextToken()} for the rules **/
+	public int next () {
+		char[] source = this.source;
+		int length = this.length;
+
+		while(pos < length) {
+			char c = source[pos];
+			if(c == ' ' || c == '\t') {
+				pos++;
+			} else if(c == '\n' && !reportEol) {
+				newLine(++pos);
+			} else if(c == '\r' && !reportEol) {
+				pos++;
+			} else if(c == '/' && pos + 1 < length && source[pos + 1] == '/') {
+				// comments eat their line break
+				while(pos < length && source[pos] != '\n') pos++;
+				if(pos < length) newLine(++pos);
+			} else {
+				break;
+			}
+		}
+
+		int start = pos;
+		if(pos == length) {
+			// like the Lexer, EOF is reported at the last character
+			int last = Math.max(0, length - 1);
+			return token(TokenType.EOF, last, 0, length > 0 && source[last] == '\n'? line - 1: line, null, -1);
+		}
+
+		char c = source[pos++];
+		switch(c) {
+		case '\r':
+			if(accept('\n')) {
+				int token = token(TokenType.EOL, start, null);
+				newLine(pos);
+				return token;
+			}
+			return next();
+		case '\n': {
+			int token = token(TokenType.EOL, start, null);
+			newLine(pos);
+			return token;
+		}
+		case '(': return token(TokenType.L_PARA, start, null);
+		case ')': return token(TokenType.R_PARA, start, null);
+		case '[': return token(TokenType.L_BRACK, start, null);
+		case ']': return token(TokenType.R_BRACK, start, null);
+		case ';': return token(TokenType.SEMICOLON, start, null);
+		case ':': return token(TokenType.COLON, start, null);
+		case ',': return token(TokenType.COMMA, start, null);
+		case '.': return token(TokenType.PERIOD, start, null);
+		case '#': return token(TokenType.HASH, start, null);
+		case '@': return token(TokenType.AT, start, null);
+		case '+': return token(TokenType.PLUS, start, null);
+		case '-': return token(TokenType.MINUS, start, null);
+		case '/': return token(TokenType.DIV, start, null);
+		case '*': return token(TokenType.MUL, start, null);
+		case '%': return token(TokenType.MOD, start, null);
+		case '^': return token(TokenType.XOR, start, null);
+		case '&': return token(accept('&')? TokenType.LAND: TokenType.AND, start, null);
+		case '|': return token(accept('|')? TokenType.LOR: TokenType.OR, start, null);
+		case '!': return token(accept('=')? TokenType.NOTEQUAL: TokenType.NOT, start, null);
+		case '=': return token(accept('=')? TokenType.EQUAL: TokenType.ASSIGN, start, null);
+		case '<':
+			if(reportShift && accept('<')) return token(TokenType.SHL, start, null);
+			return token(accept('=')? TokenType.LESSE: TokenType.LESS, start, null);
+		case '>':
+			if(reportShift && accept('>')) return token(TokenType.SHR, start, null);
+			return token(accept('=')? TokenType.GREATERE: TokenType.GREATER, start, null);
+		case '"':
+			return literal(start);
+		}
+
+		// identifier/keyword, works like in Java, except that the first char
+		// can only be '_' or a letter.
+		if((c == '_' && pos < length && isIdentifierPart(source[pos])) || Character.isLetter(c)) {
+			while(pos < length && isIdentifierPart(source[pos])) pos++;
+			return identifier(start);
+		}
+
+		// hex number
+		if(c == '0' && accept('x')) {
+			if(pos == length || !isHexDigit(source[pos])) return token(TokenType.ERROR, start, "expected '0'-'f'");
+			while(pos < length && isHexDigit(source[pos])) pos++;
+			return token(TokenType.NUMBER, start, symbols.intern(source, start, pos - start));
+		}
+
+		// bin number
+		if(c == '0' && accept('b')) {
+			if(pos == length || (source[pos] != '0' && source[pos] != '1')) return token(TokenType.ERROR, start, "expected '0' or '1'");
+			while(pos < length && (source[pos] == '0' || source[pos] == '1')) pos++;
+			return token(TokenType.NUMBER, start, symbols.intern(source, start, pos - start));
+		}
+
+		// number
+		if(Character.isDigit(c)) {
+			while(pos < length && Character.isDigit(source[pos])) pos++;
+			return token(TokenType.NUMBER, start, symbols.intern(source, start, pos - start));
+		}
+
+		return token(TokenType.ERROR, start, "unexpected character '" + c + "'");
+	}
+
+	/** identifiers are classified as keywords once per distinct symbol **/
+	private int identifier (int start) {
+		int symbol = symbols.internId(source, start, pos - start);
+		int keyword = -1;
+		if(keywords != null) {
+			if(symbol >= symbolKeywords.length) {
+				int[] tmp = new int[Math.max(symbol + 1, symbolKeywords.length * 2)];
+				System.arraycopy(symbolKeywords, 0, tmp, 0, symbolKeywords.length);
+				symbolKeywords = tmp;
+			}
+			if(symbolKeywords[symbol] == 0) symbolKeywords[symbol] = keywords.lookup(source, start, pos - start) + 2;
+			keyword = symbolKeywords[symbol] - 2;
+		}
+		return token(TokenType.IDENTIFIER, start, pos - start, line, symbols.get(symbol), keyword);
+	}
+
+	/** literal with support for \n \r \t \" and \\ to escape \ **/
+	private int literal (int start) {
+		StringBuilder text = null;
+		int from = pos;
+		while(true) {
+			if(pos == length) return token(TokenType.ERROR, start, "expected closing '\"'");
+			char c = source[pos++];
+			if(c == '"') break;
+			if(c == '\n') newLine(pos);
+			if(c == '\\') {
+				if(text == null) text = new StringBuilder();
+				text.append(source, from, pos - 1 - from);
+				char escaped = pos < length? source[pos++]: 0;
+				switch(escaped) {
+				case 'n': text.append('\n'); break;
+				case 'r': text.append('\r'); break;
+				case 't': text.append('\t'); break;
+				case '"': text.append('"'); break;
+				case '\\': text.append('\\'); break;
+				default: return token(TokenType.ERROR, start, "expected \\r, \\n, \\t, \\\" or \\\\");
+				}
+				from = pos;
+			}
+		}
+		if(text == null) return token(TokenType.LITERAL, start, new String(source, from, pos - 1 - from));
+		text.append(source, from, pos - 1 - from);
+		return token(TokenType.LITERAL, start, text.toString());
+	}
+
+	/**
+	 * Compares the tokens per second of the {@link Lexer} and the ArrayLexer on the
+	 * Crux files in the given directory (data/bench by default), repeated to about 4MB.
+	 */
+	public static void main (String[] args) throws FileNotFoundException {
+		StringBuilder builder = new StringBuilder();
+		File[] files = new File(args.length > 0? args[0]: "data/bench").listFiles();
+		while(builder.length() < 4 * 1024 * 1024) {
+			for(File file: files) {
+				if(file.getName().endsWith(".crux")) builder.append(new String(read(new FileInputStream(file))));
+			}
+		}
+		byte[] bytes = builder.toString().getBytes(Charset.forName("UTF-8"));
+
+		for(int run = 0; run < 10; run++) {
+			long start = System.nanoTime();
+			Lexer lexer = new Lexer(new ByteArrayInputStream(bytes), false, true);
+			int count = 0;
+			while(lexer.nextToken().type != TokenType.EOF) count++;
+			long lexerTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			ArrayLexer tokens = new ArrayLexer(new ByteArrayInputStream(bytes), false, true);
+			while(tokens.nextToken().type != TokenType.EOF);
+			long arrayTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			ArrayLexer indices = new ArrayLexer(new ByteArrayInputStream(bytes), false, true);
+			while(indices.type(indices.next()) != TokenType.EOF);
+			long indexTime = System.nanoTime() - start;
+
+			System.out.println(String.format("%d tokens, Lexer: %.1fM tokens/s, ArrayLexer.nextToken(): %.1fM tokens/s, ArrayLexer.next(): %.1fM tokens/s", count,
+				count * 1000f / lexerTime, count * 1000f / arrayTime, count * 1000f / indexTime));
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package com.badlogic.crux;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.dcpu.IntArray;
+
+/**
+ * Struct of arrays storage for syntax trees. A node is an index into parallel int
+ * arrays holding its kind and a value packed into one int, the span of tokens it was
+ * parsed from and the index of its next sibling. Nodes are stored in document order,
+ * so the first child of a node is the node after it. The meaning of kinds and values
+ * is up to the parser building the tree, strings like identifiers are stored once
+ * and referenced by id. Parsers build the tree top down via {@link #begin(int, int, int)},
+ * {@link #end(int)} and {@link #leaf(int, int, int, int)}. A node only known after its
+ * first child, like the left operand of a binary expression, is inserted before the child
+ * via {@link #wrap(int, int, int, int)}. {@link #reset()} empties the arena but keeps the
+ * arrays, so it can be reused without allocating.
+ */
+public class AstArena {
+	public static final int NONE = -1;
+	/** kinds are stored in the low 7 bits, values in the upper 24 bits **/
+	public static final int MAX_KIND = 127, MAX_VALUE = (1 << 23) - 1;
+	static final int CHILDREN = 1 << 7;
+
+	/** called for every node of a subtree in document order by {@link AstArena#visit(int, Visitor)} **/
+	public interface Visitor {
+		/** @return whether to visit the children of the node **/
+		public boolean enter (AstArena arena, int node);
+
+		public void leave (AstArena arena, int node);
+	}
+
+	int[] nodes = new int[64];
+	int[] starts = new int[64];
+	int[] lengths = new int[64];
+	int[] nextSiblings = new int[64];
+	int size;
+	final List<String> strings = new ArrayList<String>();
+	final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+	/** the nodes begun but not ended and their last child so far **/
+	final IntArray open = new IntArray();
+	final IntArray lastChildren = new IntArray();
+	final IntArray stack = new IntArray();
+
+	/**
+	 * Adds a node as the last child of the innermost node that was begun but not ended.
+	 * Its children are the nodes added until {@link #end(int)} is called.
+	 * @param start the index of the first token of the node
+	 * @return the node
+	 */
+	public int begin (int kind, int value, int start) {
+		if(kind < 0 || kind > MAX_KIND) throw new RuntimeException("Node kind " + kind + " out of range");
+		if(value < -MAX_VALUE - 1 || value > MAX_VALUE) throw new RuntimeException("Node value " + value + " out of range");
+		if(size == nodes.length) grow();
+		int node = size++;
+		nodes[node] = kind | (value << 8);
+		starts[node] = start;
+		lengths[node] = 0;
+		nextSiblings[node] = NONE;
+		if(open.size() > 0) {
+			int top = open.size() - 1;
+			int last = lastChildren.get(top);
+			if(last == NONE) nodes[open.get(top)] |= CHILDREN;
+			else nextSiblings[last] = node;
+			lastChildren.set(top, node);
+		}
+		open.add(node);
+		lastChildren.add(NONE);
+		return node;
+	}
+
+	/**
+	 * Ends the innermost node that was begun.
+	 * @param end the index of the token after the node
+	 */
+	public void end (int end) {
+		int node = open.pop();
+		lastChildren.pop();
+		lengths[node] = end - starts[node];
+	}
+
+	/** adds a node without children, see {@link #begin(int, int, int)} **/
+	public int leaf (int kind, int value, int start, int length) {
+		int node = begin(kind, value, start);
+		end(start + length);
+		return node;
+	}
+
+	/**
+	 * Begins a node in place of the child, which becomes its first child. The child must be
+	 * the last child of the innermost node that was begun and ended already. The child and
+	 * its descendants move up by one index, this copies them, so wrapping a long chain of
+	 * operands costs quadratic time.
+	 * @param start the index of the first token of the node
+	 * @return the node, the index the child had
+	 */
+	public int wrap (int kind, int value, int start, int child) {
+		if(open.size() == 0 || lastChildren.get(open.size() - 1) != child) throw new RuntimeException("Node " + child + " isn't the last child of the open node");
+		if(kind < 0 || kind > MAX_KIND) throw new RuntimeException("Node kind " + kind + " out of range");
+		if(value < -MAX_VALUE - 1 || value > MAX_VALUE) throw new RuntimeException("Node value " + value + " out of range");
+		if(size == nodes.length) grow();
+		int count = size - child;
+		System.arraycopy(nodes, child, nodes, child + 1, count);
+		System.arraycopy(starts, child, starts, child + 1, count);
+		System.arraycopy(lengths, child, lengths, child + 1, count);
+		System.arraycopy(nextSiblings, child, nextSiblings, child + 1, count);
+		size++;
+		// only siblings within the moved subtree point behind the child
+		for(int i = child + 1; i < size; i++) {
+			if(nextSiblings[i] != NONE) nextSiblings[i]++;
+		}
+		nodes[child] = kind | (value << 8) | CHILDREN;
+		starts[child] = start;
+		lengths[child] = 0;
+		nextSiblings[child] = NONE;
+		open.add(child);
+		lastChildren.add(child + 1);
+		return child;
+	}
+
+	public void setValue (int node, int value) {
+		if(value < -MAX_VALUE - 1 || value > MAX_VALUE) throw new RuntimeException("Node value " + value + " out of range");
+		nodes[node] = (nodes[node] & 0xff) | (value << 8);
+	}
+
+	/**
+	 * Removes the nodes from the given index on, like the nodes of a construct that had a
+	 * syntax error, nodes among them that were begun count as ended.
+	 * @param size the number of nodes to keep
+	 */
+	public void truncate (int size) {
+		while(open.size() > 0 && open.get(open.size() - 1) >= size) {
+			open.pop();
+			lastChildren.pop();
+		}
+		this.size = Math.min(this.size, size);
+		if(open.size() == 0) return;
+		int top = open.size() - 1;
+		if(lastChildren.get(top) < size) return;
+		int parent = open.get(top);
+		int last = NONE;
+		for(int child = firstChild(parent); child != NONE && child < size; child = nextSiblings[child]) last = child;
+		if(last == NONE) nodes[parent] &= ~CHILDREN;
+		else nextSiblings[last] = NONE;
+		lastChildren.set(top, last);
+	}
+
+	private void grow () {
+		int capacity = nodes.length * 2;
+		nodes = copy(nodes, capacity);
+		starts = copy(starts, capacity);
+		lengths = copy(lengths, capacity);
+		nextSiblings = copy(nextSiblings, capacity);
+	}
+
+	private int[] copy (int[] array, int capacity) {
+		int[] tmp = new int[capacity];
+		System.arraycopy(array, 0, tmp, 0, size);
+		return tmp;
+	}
+
+	/** @return the id of the string, the same string always gets the same id **/
+	public int string (String string) {
+		Integer id = stringIds.get(string);
+		if(id == null) {
+			id = strings.size();
+			strings.add(string);
+			stringIds.put(string, id);
+		}
+		return id;
+	}
+
+	public String getString (int id) {
+		return strings.get(id);
+	}
+
+	public int kind (int node) {
+		return nodes[node] & MAX_KIND;
+	}
+
+	public int value (int node) {
+		return nodes[node] >> 8;
+	}
+
+	public int start (int node) {
+		return starts[node];
+	}
+
+	public int length (int node) {
+		return lengths[node];
+	}
+
+	/** @return the first child or {@link #NONE} **/
+	public int firstChild (int node) {
+		return (nodes[node] & CHILDREN) != 0? node + 1: NONE;
+	}
+
+	/** @return the next sibling or {@link #NONE} **/
+	public int nextSibling (int node) {
+		return nextSiblings[node];
+	}
+
+	public int childCount (int node) {
+		int count = 0;
+		for(int child = firstChild(node); child != NONE; child = nextSiblings[child]) count++;
+		return count;
+	}
+
+	/** @return the number of nodes **/
+	public int size () {
+		return size;
+	}
+
+	/** removes all nodes and strings, the arrays are kept **/
+	public void reset () {
+		size = 0;
+		open.clear();
+		lastChildren.clear();
+		strings.clear();
+		stringIds.clear();
+	}
+
+	/** @return the number of bytes used by the node arrays **/
+	public long getMemory () {
+		return 4L * nodes.length * 4;
+	}
+
+	/** visits the subtree of the node without recursion, so deep trees don't overflow the stack **/
+	public void visit (int node, Visitor visitor) {
+		IntArray stack = this.stack;
+		int base = stack.size();
+		// a node on the stack is entered, ~node is left
+		stack.add(node);
+		while(stack.size() > base) {
+			int top = stack.pop();
+			if(top < 0) {
+				visitor.leave(this, ~top);
+				continue;
+			}
+			stack.add(~top);
+			if(!visitor.enter(this, top)) continue;
+			int children = stack.size();
+			for(int child = firstChild(top); child != NONE; child = nextSiblings[child]) stack.add(child);
+			// children were pushed in order, reverse them so the first is on top
+			for(int i = children, j = stack.size() - 1; i < j; i++, j--) {
+				int tmp = stack.get(i);
+				stack.set(i, stack.get(j));
+				stack.set(j, tmp);
+			}
+		}
+	}
+}
@@ -131,7 +131,7 @@ public interface AstNode {
 	}
 	
 	public static class ReturnStatement implements Statement {
-		Expression expression; // can be null
+		public Expression expression; // can be null
 	}
 	
 	public static interface Expression extends AstNode {
@@ -159,9 +159,9 @@ public interface AstNode {
 			And,
 			Xor
 		}
-		BinaryOperator operator;
-		Expression left;
-		Expression right;
+		public BinaryOperator operator;
+		public Expression left;
+		public Expression right;
 	}
 	
 	public static class UnaryExpression implements Expression {
@@ -169,8 +169,8 @@ public interface AstNode {
 			Negate,
 			Not
 		}
-		UnaryOperator operator;
-		Expression factor;
+		public UnaryOperator operator;
+		public Expression factor;
 	}
 	
 	public interface Factor extends Expression {
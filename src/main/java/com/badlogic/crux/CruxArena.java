@@ -0,0 +1,43 @@
+package com.badlogic.crux;
+
+/**
+ * Node kinds of Crux programs in an {@link AstArena}, built by {@link CruxParser#parse(AstArena)}.
+ * Names are string ids, operators the ordinals of the {@link AstNode} enums. Optional
+ * children are left out, the kind of a child tells which one it is. Each node spans its
+ * tokens, a missing else BLOCK has none.
+ *
+ * <pre>
+ * PROGRAM             parts
+ * VARIABLE            value: name, children: type
+ * STRUCT              value: name, children: VARIABLE fields
+ * FUNCTION            value: name, children: SIGNATURE, statements
+ * SIGNATURE           children: VARIABLE arguments, RETURN_TYPE?
+ * FUNCTION_TYPE_SIGNATURE children: argument types, RETURN_TYPE?
+ * RETURN_TYPE         children: type
+ * NUMBER_TYPE         value: references
+ * STRUCT_TYPE         value: references, children: NAME
+ * FUNCTION_TYPE       value: references, children: FUNCTION_TYPE_SIGNATURE
+ * NAME                value: name
+ * ASSIGNMENT          children: lvalue, expression
+ * CALL                children: lvalue, argument expressions
+ * IF                  children: condition, BLOCK, BLOCK
+ * BLOCK               children: statements
+ * WHILE               children: condition, statements
+ * BREAK
+ * RETURN              children: expression?
+ * BINARY              value: operator, children: left, right
+ * UNARY               value: operator, children: factor
+ * NUMBER, LITERAL     value: text
+ * DEREFERENCE         children: lvalue, FIELD?
+ * OFFSET_DEREFERENCE  value: name, children: offset expression?, FIELD?
+ * FIELD               children: lvalue
+ * RVALUE              value: references, children: lvalue
+ * RETURN_VALUE        value: references, children: CALL
+ * </pre>
+ */
+public class CruxArena {
+	public static final int PROGRAM = 0, VARIABLE = 1, STRUCT = 2, FUNCTION = 3, SIGNATURE = 4, FUNCTION_TYPE_SIGNATURE = 5,
+		RETURN_TYPE = 6, NUMBER_TYPE = 7, STRUCT_TYPE = 8, FUNCTION_TYPE = 9, NAME = 10, ASSIGNMENT = 11, CALL = 12, IF = 13,
+		BLOCK = 14, WHILE = 15, BREAK = 16, RETURN = 17, BINARY = 18, UNARY = 19, NUMBER = 20, LITERAL = 21, DEREFERENCE = 22,
+		OFFSET_DEREFERENCE = 23, FIELD = 24, RVALUE = 25, RETURN_VALUE = 26;
+}
@@ -0,0 +1,1231 @@
+package com.badlogic.crux;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.crux.AstNode.Assignment;
+import com.badlogic.crux.AstNode.BinaryExpression;
+import com.badlogic.crux.AstNode.BinaryExpression.BinaryOperator;
+import com.badlogic.crux.AstNode.BreakStatement;
+import com.badlogic.crux.AstNode.Dereference;
+import com.badlogic.crux.AstNode.Expression;
+import com.badlogic.crux.AstNode.FunctionCall;
+import com.badlogic.crux.AstNode.FunctionDefinition;
+import com.badlogic.crux.AstNode.FunctionReturnValue;
+import com.badlogic.crux.AstNode.IfStatement;
+import com.badlogic.crux.AstNode.LValue;
+import com.badlogic.crux.AstNode.Literal;
+import com.badlogic.crux.AstNode.Number;
+import com.badlogic.crux.AstNode.OffsetDereference;
+import com.badlogic.crux.AstNode.Program;
+import com.badlogic.crux.AstNode.ProgramPart;
+import com.badlogic.crux.AstNode.RValue;
+import com.badlogic.crux.AstNode.ReturnStatement;
+import com.badlogic.crux.AstNode.Statement;
+import com.badlogic.crux.AstNode.StructureDeclaration;
+import com.badlogic.crux.AstNode.Type;
+import com.badlogic.crux.AstNode.TypeDefinition;
+import com.badlogic.crux.AstNode.UnaryExpression;
+import com.badlogic.crux.AstNode.UnaryExpression.UnaryOperator;
+import com.badlogic.crux.AstNode.VariableDeclaration;
+import com.badlogic.crux.AstNode.WhileStatement;
+import com.badlogic.dcpu.Assembler;
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+import com.badlogic.dcpu.Disassembler;
+
+/**
+ * Compiles a Crux {@link Program} to dcpu-16 code via the {@link Assembler}.</p>
+ *
+ * Calling convention: arguments are pushed from right to left, structs are
+ * passed by value, the return value is passed in A. J is the frame pointer,
+ * [J] holds the caller's J, [J+1] the return address, arguments start at [J+2],
+ * locals and spill slots live below J.</p>
+ *
+ * Registers: A, B and C are caller saved temporaries used for expression evaluation,
+ * X, Y, Z and I are callee saved and hold the most frequently used scalar locals and
+ * arguments of a function (uses are weighted by loop depth). Locals whose address is
+ * taken or that don't fit a register live in the frame.</p>
+ *
+ * Program layout: a JSR to main followed by a halt, the functions, the globals.
+ */
+public class CruxCompiler {
+	static final Register[] TEMPORARIES = { Register.A, Register.B, Register.C };
+	static final Register[] VARIABLES = { Register.X, Register.Y, Register.Z, Register.I };
+
+	public static class Struct {
+		final StructureDeclaration declaration;
+		public final Map<String, Field> fields = new LinkedHashMap<String, Field>();
+		public int size = -1;
+
+		Struct(StructureDeclaration declaration) {
+			this.declaration = declaration;
+		}
+	}
+
+	public static class Field {
+		public TypeDefinition type;
+		public int offset;
+	}
+
+	/** global, argument or local variable **/
+	public static class Variable {
+		public final String name;
+		public final TypeDefinition type;
+		public final int size;
+		public String label; // globals
+		Register register; // promoted locals and arguments
+		int offset; // relative to J
+		boolean argument;
+		boolean addressTaken;
+		int weight;
+
+		Variable(String name, TypeDefinition type, int size) {
+			this.name = name;
+			this.type = type;
+			this.size = size;
+		}
+	}
+
+	final Program program;
+	final Map<String, Struct> structs = new HashMap<String, Struct>();
+	public final Map<String, Variable> globals = new LinkedHashMap<String, Variable>();
+	public final Map<String, FunctionDefinition> functions = new LinkedHashMap<String, FunctionDefinition>();
+
+	public CruxCompiler(Program program) {
+		this.program = program;
+		for(ProgramPart part: program.parts) {
+			if(part instanceof StructureDeclaration) {
+				StructureDeclaration decl = (StructureDeclaration)part;
+				if(structs.put(decl.name, new Struct(decl)) != null) error("struct '" + decl.name + "' declared twice");
+			}
+		}
+		for(ProgramPart part: program.parts) {
+			if(part instanceof VariableDeclaration) {
+				VariableDeclaration decl = (VariableDeclaration)part;
+				Variable global = new Variable(decl.identifier, decl.typeDef, size(decl.typeDef));
+				global.label = decl.identifier;
+				if(globals.put(decl.identifier, global) != null) error("global '" + decl.identifier + "' declared twice");
+			} else if(part instanceof FunctionDefinition) {
+				FunctionDefinition func = (FunctionDefinition)part;
+				if(functions.put(func.identifier, func) != null) error("function '" + func.identifier + "' defined twice");
+				if(globals.containsKey(func.identifier)) error("function '" + func.identifier + "' clashes with a global");
+			}
+		}
+		if(!functions.containsKey("main")) error("no main function defined");
+	}
+
+	/**
+	 * Compiles the whole program.
+	 * @param asm the assembler to emit to
+	 */
+	public void compile(Assembler asm) {
+		emitEntry(asm);
+		for(FunctionDefinition func: functions.values()) {
+			compileFunction(func, asm);
+		}
+		emitGlobals(asm);
+	}
+
+	/**
+	 * Emits the entry point, a call to main followed by a halt.
+	 */
+	public void emitEntry(Assembler asm) {
+		asm.eop(Opcode.JSR, asm.label("main"));
+		asm.val((short)0);
+	}
+
+	/**
+	 * Emits the zero initialized storage for all globals.
+	 */
+	public void emitGlobals(Assembler asm) {
+		for(Variable global: globals.values()) {
+			asm.markLabel(global.label);
+			for(int i = 0; i < global.size; i++) asm.val((short)0);
+		}
+	}
+
+	/**
+	 * Compiles a single function, only reads the program wide symbol tables so
+	 * functions can be compiled independently and linked via {@link Assembler#append(Assembler)}.
+	 */
+	public void compileFunction(FunctionDefinition func, Assembler asm) {
+		new FunctionCompiler(func).compile(asm);
+	}
+
+	public static void error(String message) {
+		throw new RuntimeException("error: " + message);
+	}
+
+	/** lays out the struct on first use, synchronized as functions may be compiled in parallel **/
+	public synchronized Struct struct(String name) {
+		Struct struct = structs.get(name);
+		if(struct == null) error("unknown struct '" + name + "'");
+		if(struct.size == -1) {
+			struct.size = -2;
+			int offset = 0;
+			for(VariableDeclaration decl: struct.declaration.fields) {
+				Field field = new Field();
+				field.type = decl.typeDef;
+				field.offset = offset;
+				offset += size(decl.typeDef);
+				if(struct.fields.put(decl.identifier, field) != null) error("field '" + decl.identifier + "' declared twice in struct '" + name + "'");
+			}
+			struct.size = offset;
+		} else if(struct.size == -2) {
+			error("struct '" + name + "' contains itself");
+		}
+		return struct;
+	}
+
+	public int size(TypeDefinition type) {
+		if(type.references > 0 || type.type != Type.Struct) return 1;
+		return struct(type.name).size;
+	}
+
+	public static boolean isStructValue(TypeDefinition type) {
+		return type.references == 0 && type.type == Type.Struct;
+	}
+
+	public static TypeDefinition pointee(TypeDefinition type) {
+		if(type.references == 0) error("can't dereference non-reference type '" + type.name + "'");
+		TypeDefinition pointee = new TypeDefinition();
+		pointee.references = type.references - 1;
+		pointee.type = type.type;
+		pointee.name = type.name;
+		pointee.funcSig = type.funcSig;
+		return pointee;
+	}
+
+	public static int parseNumber(String text) {
+		if(text.startsWith("0x")) return Integer.parseInt(text.substring(2), 16) & 0xffff;
+		if(text.startsWith("0b")) return Integer.parseInt(text.substring(2), 2) & 0xffff;
+		return Integer.parseInt(text) & 0xffff;
+	}
+
+	/** @return the opcode of an arithmetic operator or null for comparisons and logical operators **/
+	static Opcode arithmetic(BinaryOperator operator) {
+		switch(operator) {
+		case Add: return Opcode.ADD;
+		case Subtract: return Opcode.SUB;
+		case Multiply: return Opcode.MUL;
+		case Divide:
+		case SignedDivide: return Opcode.DIV;
+		case Modulo: return Opcode.MOD;
+		case ShiftLeft: return Opcode.SHL;
+		case ShiftRight: return Opcode.SHR;
+		case And: return Opcode.AND;
+		case Or: return Opcode.BOR;
+		case Xor: return Opcode.XOR;
+		default: return null;
+		}
+	}
+
+	/** evaluates the operator on constants as signed words like the dcpu-16, divisions by zero are 0 **/
+	static int fold(BinaryOperator operator, int l, int r) {
+		l = (short)l;
+		r = (short)r;
+		switch(operator) {
+		case Add: return l + r;
+		case Subtract: return l - r;
+		case Multiply: return l * r;
+		case Divide:
+		case SignedDivide: return r == 0? 0: l / r;
+		case Modulo: return r == 0? 0: l % r;
+		case ShiftLeft: return l << r;
+		case ShiftRight: return l >>> r;
+		case And: return l & r;
+		case Or: return l | r;
+		case Xor: return l ^ r;
+		case Less: return l < r? 1: 0;
+		case LessEqual: return l <= r? 1: 0;
+		case Equal: return l == r? 1: 0;
+		case NotEqual: return l != r? 1: 0;
+		case GreaterEqual: return l >= r? 1: 0;
+		case Greater: return l > r? 1: 0;
+		case LogicalAnd: return l != 0 && r != 0? 1: 0;
+		case LogicalOr: return l != 0 || r != 0? 1: 0;
+		default: error("unknown operator " + operator); return 0;
+		}
+	}
+
+	/**
+	 * Value of an expression: a constant, the home of a variable or
+	 * a temporary owned by the expression, held in a register or a spill slot.
+	 */
+	static class Operand {
+		Arg arg;
+		boolean constant;
+		int value;
+		boolean temporary;
+		Register register; // temporaries only
+		int slot = -1; // temporaries only
+		boolean pinned;
+	}
+
+	/**
+	 * Storage location of an lvalue: a register, a global, a frame
+	 * slot or memory pointed to by a temporary.
+	 */
+	static class Place {
+		TypeDefinition type;
+		Register register;
+		String label;
+		boolean frame;
+		Operand base;
+		int offset;
+	}
+
+	class FunctionCompiler {
+		final FunctionDefinition func;
+		final Assembler asm = new Assembler();
+		final Map<OffsetDereference, Variable> resolved = new IdentityHashMap<OffsetDereference, Variable>();
+		final Map<VariableDeclaration, Variable> declared = new IdentityHashMap<VariableDeclaration, Variable>();
+		final List<Variable> variables = new ArrayList<Variable>();
+		final LinkedList<Map<String, Variable>> scopes = new LinkedList<Map<String, Variable>>();
+		final LinkedList<String> breakLabels = new LinkedList<String>();
+		final List<String> literals = new ArrayList<String>();
+		final Operand[] temporaries = new Operand[TEMPORARIES.length];
+		final LinkedList<Operand> registerTemporaries = new LinkedList<Operand>();
+		final LinkedList<Integer> freeSlots = new LinkedList<Integer>();
+		final List<Register> saved = new ArrayList<Register>();
+		int localWords;
+		int slots;
+		int labels;
+		Statement tail;
+
+		FunctionCompiler(FunctionDefinition func) {
+			this.func = func;
+		}
+
+		void compile(Assembler out) {
+			resolve();
+			allocate();
+			if(!func.statements.isEmpty()) tail = func.statements.get(func.statements.size() - 1);
+			statements(func.statements);
+
+			// prologue, the frame size is only known after the body was generated
+			boolean frame = localWords + slots > 0 || !func.signature.arguments.isEmpty();
+			out.markLabel(func.identifier);
+			if(frame) {
+				out.op(Opcode.SET, Arg.push(), Arg.reg(Register.J));
+				out.op(Opcode.SET, Arg.reg(Register.J), Arg.sp());
+				if(localWords + slots > 0) out.op(Opcode.SUB, Arg.sp(), Arg.lit(localWords + slots));
+			}
+			for(Register register: saved) {
+				out.op(Opcode.SET, Arg.push(), Arg.reg(register));
+			}
+			for(Variable var: variables) {
+				if(var.argument && var.register != null) out.op(Opcode.SET, Arg.reg(var.register), Arg.mem(Register.J, var.offset));
+			}
+			out.append(asm);
+
+			// epilogue
+			out.markLabel(label("return"));
+			for(int i = saved.size() - 1; i >= 0; i--) {
+				out.op(Opcode.SET, Arg.reg(saved.get(i)), Arg.pop());
+			}
+			if(frame) {
+				if(localWords + slots > 0) out.op(Opcode.SET, Arg.sp(), Arg.reg(Register.J));
+				out.op(Opcode.SET, Arg.reg(Register.J), Arg.pop());
+			}
+			out.op(Opcode.SET, Arg.pc(), Arg.pop());
+
+			// string literals
+			for(int i = 0; i < literals.size(); i++) {
+				out.markLabel(label("literal" + i));
+				for(char c: literals.get(i).toCharArray()) out.val((short)c);
+				out.val((short)0);
+			}
+		}
+
+		String label(String name) {
+			return func.identifier + "." + name;
+		}
+
+		String newLabel() {
+			return label(Integer.toString(labels++));
+		}
+
+		// ---------------------------------------------------------------------
+		// resolution of identifiers and use counts
+		// ---------------------------------------------------------------------
+
+		void resolve() {
+			scopes.push(new HashMap<String, Variable>());
+			int offset = 2;
+			for(VariableDeclaration decl: func.signature.arguments) {
+				Variable var = declare(decl);
+				var.argument = true;
+				var.offset = offset;
+				offset += var.size;
+			}
+			scopes.push(new HashMap<String, Variable>());
+			resolveStatements(func.statements, 0);
+			scopes.pop();
+			scopes.pop();
+		}
+
+		Variable declare(VariableDeclaration decl) {
+			Variable var = new Variable(decl.identifier, decl.typeDef, size(decl.typeDef));
+			if(scopes.peek().put(decl.identifier, var) != null) error("variable '" + decl.identifier + "' declared twice in function '" + func.identifier + "'");
+			declared.put(decl, var);
+			variables.add(var);
+			return var;
+		}
+
+		Variable lookup(String identifier) {
+			for(Map<String, Variable> scope: scopes) {
+				Variable var = scope.get(identifier);
+				if(var != null) return var;
+			}
+			return null;
+		}
+
+		void resolveStatements(List<Statement> statements, int depth) {
+			for(Statement statement: statements) {
+				if(statement instanceof VariableDeclaration) {
+					declare((VariableDeclaration)statement);
+				} else if(statement instanceof Assignment) {
+					resolveLValue(((Assignment)statement).lvalue, depth);
+					resolveExpression(((Assignment)statement).rvalue, depth);
+				} else if(statement instanceof FunctionCall) {
+					resolveCall((FunctionCall)statement, depth);
+				} else if(statement instanceof IfStatement) {
+					IfStatement ifStmt = (IfStatement)statement;
+					resolveExpression(ifStmt.condition, depth);
+					scopes.push(new HashMap<String, Variable>());
+					resolveStatements(ifStmt.trueStatements, depth);
+					scopes.pop();
+					scopes.push(new HashMap<String, Variable>());
+					resolveStatements(ifStmt.elseStatements, depth);
+					scopes.pop();
+				} else if(statement instanceof WhileStatement) {
+					WhileStatement whileStmt = (WhileStatement)statement;
+					resolveExpression(whileStmt.condition, depth + 1);
+					scopes.push(new HashMap<String, Variable>());
+					resolveStatements(whileStmt.statements, depth + 1);
+					scopes.pop();
+				} else if(statement instanceof ReturnStatement) {
+					if(((ReturnStatement)statement).expression != null) resolveExpression(((ReturnStatement)statement).expression, depth);
+				}
+			}
+		}
+
+		void resolveLValue(LValue lvalue, int depth) {
+			if(lvalue instanceof OffsetDereference) {
+				OffsetDereference deref = (OffsetDereference)lvalue;
+				Variable var = lookup(deref.identifier);
+				if(var != null) {
+					resolved.put(deref, var);
+					var.weight += depth > 4? 10000: (int)Math.pow(10, depth);
+				}
+				if(deref.offsetExpression != null) resolveExpression(deref.offsetExpression, depth);
+			} else {
+				resolveLValue(((Dereference)lvalue).lvalue, depth);
+			}
+			for(LValue field = lvalue.fieldAccess; field != null; field = field.fieldAccess) {
+				if(!(field instanceof OffsetDereference)) error("expected field name in function '" + func.identifier + "'");
+				if(((OffsetDereference)field).offsetExpression != null) resolveExpression(((OffsetDereference)field).offsetExpression, depth);
+			}
+		}
+
+		void resolveCall(FunctionCall call, int depth) {
+			resolveLValue(call.lvalue, depth);
+			for(Expression arg: call.arguments) resolveExpression(arg, depth);
+		}
+
+		void resolveExpression(Expression expr, int depth) {
+			if(expr instanceof BinaryExpression) {
+				resolveExpression(((BinaryExpression)expr).left, depth);
+				resolveExpression(((BinaryExpression)expr).right, depth);
+			} else if(expr instanceof UnaryExpression) {
+				resolveExpression(((UnaryExpression)expr).factor, depth);
+			} else if(expr instanceof RValue) {
+				RValue rvalue = (RValue)expr;
+				resolveLValue(rvalue.lvalue, depth);
+				if(rvalue.references > 0 && rvalue.lvalue instanceof OffsetDereference) {
+					Variable var = resolved.get(rvalue.lvalue);
+					if(var != null) var.addressTaken = true;
+				}
+			} else if(expr instanceof FunctionReturnValue) {
+				resolveCall(((FunctionReturnValue)expr).functionCall, depth);
+			}
+		}
+
+		// ---------------------------------------------------------------------
+		// register and frame allocation
+		// ---------------------------------------------------------------------
+
+		void allocate() {
+			List<Variable> candidates = new ArrayList<Variable>();
+			for(Variable var: variables) {
+				if(var.size == 1 && !var.addressTaken && !isStructValue(var.type) && var.weight > 0) candidates.add(var);
+			}
+			Collections.sort(candidates, new Comparator<Variable>() {
+				public int compare (Variable a, Variable b) {
+					return b.weight - a.weight;
+				}
+			});
+			for(int i = 0; i < candidates.size() && i < VARIABLES.length; i++) {
+				candidates.get(i).register = VARIABLES[i];
+				saved.add(VARIABLES[i]);
+			}
+			for(Variable var: variables) {
+				if(var.argument || var.register != null) continue;
+				localWords += var.size;
+				var.offset = -localWords;
+			}
+		}
+
+		// ---------------------------------------------------------------------
+		// temporaries
+		// ---------------------------------------------------------------------
+
+		Operand constant(int value) {
+			Operand op = new Operand();
+			op.constant = true;
+			op.value = value & 0xffff;
+			op.arg = Arg.lit(op.value);
+			return op;
+		}
+
+		Operand fixed(Arg arg) {
+			Operand op = new Operand();
+			op.arg = arg;
+			return op;
+		}
+
+		/** claims a temporary register, spilling the oldest unpinned temporary if none is free **/
+		Register claimRegister(Operand owner) {
+			int index = -1;
+			for(int i = 0; i < TEMPORARIES.length; i++) {
+				if(temporaries[i] == null) {
+					index = i;
+					break;
+				}
+			}
+			if(index == -1) {
+				Operand victim = null;
+				for(Operand op: registerTemporaries) {
+					if(!op.pinned) {
+						victim = op;
+						break;
+					}
+				}
+				if(victim == null) error("out of registers in function '" + func.identifier + "'");
+				Register register = victim.register;
+				moveToSlot(victim);
+				asm.op(Opcode.SET, victim.arg, Arg.reg(register));
+				index = indexOf(register);
+			}
+			temporaries[index] = owner;
+			registerTemporaries.add(owner);
+			owner.temporary = true;
+			owner.register = TEMPORARIES[index];
+			owner.slot = -1;
+			owner.arg = Arg.reg(owner.register);
+			return owner.register;
+		}
+
+		int indexOf(Register register) {
+			for(int i = 0; i < TEMPORARIES.length; i++) {
+				if(TEMPORARIES[i] == register) return i;
+			}
+			return -1;
+		}
+
+		/** releases the register of the temporary and moves it to a spill slot, emits no code **/
+		void moveToSlot(Operand op) {
+			if(op.register != null) {
+				temporaries[indexOf(op.register)] = null;
+				registerTemporaries.remove(op);
+				op.register = null;
+			}
+			op.slot = freeSlots.isEmpty()? slots++: freeSlots.pop();
+			op.arg = Arg.mem(Register.J, -(localWords + op.slot + 1));
+		}
+
+		Operand temporary() {
+			Operand op = new Operand();
+			claimRegister(op);
+			return op;
+		}
+
+		/** @return a temporary holding the value of the operand, reuses the operand if it is a temporary **/
+		Operand own(Operand op) {
+			if(op.temporary) return op;
+			Operand temp = temporary();
+			asm.op(Opcode.SET, temp.arg, op.arg);
+			return temp;
+		}
+
+		/** makes sure the operand is a temporary held in a register **/
+		Register inRegister(Operand op) {
+			if(op.temporary && op.register != null) return op.register;
+			if(op.temporary) {
+				Arg slot = op.arg;
+				int index = op.slot;
+				claimRegister(op);
+				asm.op(Opcode.SET, op.arg, slot);
+				freeSlots.push(index);
+				return op.register;
+			}
+			Arg arg = op.arg;
+			claimRegister(op);
+			asm.op(Opcode.SET, op.arg, arg);
+			return op.register;
+		}
+
+		void release(Operand op) {
+			if(op == null || !op.temporary) return;
+			if(op.register != null) {
+				temporaries[indexOf(op.register)] = null;
+				registerTemporaries.remove(op);
+			} else if(op.slot != -1) {
+				freeSlots.push(op.slot);
+			}
+			op.temporary = false;
+			op.register = null;
+			op.slot = -1;
+			op.pinned = false;
+		}
+
+		void release(Place place) {
+			release(place.base);
+		}
+
+		// ---------------------------------------------------------------------
+		// statements
+		// ---------------------------------------------------------------------
+
+		void statements(List<Statement> statements) {
+			for(Statement statement: statements) {
+				statement(statement);
+			}
+		}
+
+		void statement(Statement statement) {
+			if(statement instanceof VariableDeclaration) {
+				// storage was allocated up front
+			} else if(statement instanceof Assignment) {
+				assignment((Assignment)statement);
+			} else if(statement instanceof FunctionCall) {
+				release(call((FunctionCall)statement));
+			} else if(statement instanceof IfStatement) {
+				ifStatement((IfStatement)statement);
+			} else if(statement instanceof WhileStatement) {
+				whileStatement((WhileStatement)statement);
+			} else if(statement instanceof BreakStatement) {
+				if(breakLabels.isEmpty()) error("break outside of loop in function '" + func.identifier + "'");
+				jump(breakLabels.peek());
+			} else if(statement instanceof ReturnStatement) {
+				ReturnStatement ret = (ReturnStatement)statement;
+				if(ret.expression != null) {
+					Operand value = expression(ret.expression);
+					if(value.register != Register.A) asm.op(Opcode.SET, Arg.reg(Register.A), value.arg);
+					release(value);
+				}
+				// the epilogue directly follows the last statement
+				if(statement != tail) jump(label("return"));
+			}
+		}
+
+		void jump(String label) {
+			asm.op(Opcode.SET, Arg.pc(), asm.label(label));
+		}
+
+		void assignment(Assignment assignment) {
+			// v = v op expr is done in place
+			if(assignment.rvalue instanceof BinaryExpression) {
+				BinaryExpression bin = (BinaryExpression)assignment.rvalue;
+				Opcode opcode = arithmetic(bin.operator);
+				Variable target = simpleVariable(assignment.lvalue);
+				if(opcode != null && target != null) {
+					if(target == simpleVariable(bin.left)) {
+						Operand right = expression(bin.right);
+						asm.op(opcode, home(target), right.arg);
+						release(right);
+						return;
+					}
+					if(target.register != null && !mentions(bin.right, target)) {
+						Operand left = expression(bin.left);
+						if(left.arg != home(target)) asm.op(Opcode.SET, home(target), left.arg);
+						release(left);
+						Operand right = expression(bin.right);
+						asm.op(opcode, home(target), right.arg);
+						release(right);
+						return;
+					}
+				}
+			}
+
+			Place place = place(assignment.lvalue);
+			if(isStructValue(place.type)) {
+				if(!(assignment.rvalue instanceof RValue) || ((RValue)assignment.rvalue).references != 0) error("expected struct value in assignment in function '" + func.identifier + "'");
+				Place source = place(((RValue)assignment.rvalue).lvalue);
+				if(!isStructValue(source.type) || !source.type.name.equals(place.type.name)) error("can't assign to struct '" + place.type.name + "' in function '" + func.identifier + "'");
+				for(int i = 0; i < size(place.type); i++) {
+					Arg to = arg(place, i);
+					asm.op(Opcode.SET, to, arg(source, i));
+					unpin(place);
+					unpin(source);
+				}
+				release(source);
+				release(place);
+				return;
+			}
+			Operand value = expression(assignment.rvalue);
+			Arg to = arg(place, 0);
+			asm.op(Opcode.SET, to, value.arg);
+			release(value);
+			release(place);
+		}
+
+		/** @return the variable if the expression or lvalue is just an identifier **/
+		Variable simpleVariable(AstNode node) {
+			if(node instanceof RValue && ((RValue)node).references == 0) node = ((RValue)node).lvalue;
+			if(!(node instanceof OffsetDereference)) return null;
+			OffsetDereference deref = (OffsetDereference)node;
+			if(deref.offsetExpression != null || deref.fieldAccess != null) return null;
+			Variable var = resolved.get(deref);
+			if(var == null) var = globals.get(deref.identifier);
+			if(var == null || var.size != 1 || isStructValue(var.type)) return null;
+			return var;
+		}
+
+		boolean mentions(Expression expr, Variable var) {
+			if(expr instanceof BinaryExpression) return mentions(((BinaryExpression)expr).left, var) || mentions(((BinaryExpression)expr).right, var);
+			if(expr instanceof UnaryExpression) return mentions(((UnaryExpression)expr).factor, var);
+			if(expr instanceof RValue) return mentions(((RValue)expr).lvalue, var);
+			if(expr instanceof FunctionReturnValue) {
+				FunctionCall call = ((FunctionReturnValue)expr).functionCall;
+				if(mentions(call.lvalue, var)) return true;
+				for(Expression arg: call.arguments) if(mentions(arg, var)) return true;
+			}
+			return false;
+		}
+
+		boolean mentions(LValue lvalue, Variable var) {
+			if(lvalue instanceof OffsetDereference) {
+				OffsetDereference deref = (OffsetDereference)lvalue;
+				if(resolved.get(deref) == var) return true;
+				if(deref.offsetExpression != null && mentions(deref.offsetExpression, var)) return true;
+			} else if(mentions(((Dereference)lvalue).lvalue, var)) {
+				return true;
+			}
+			for(LValue field = lvalue.fieldAccess; field != null; field = field.fieldAccess) {
+				if(((OffsetDereference)field).offsetExpression != null && mentions(((OffsetDereference)field).offsetExpression, var)) return true;
+			}
+			return false;
+		}
+
+		boolean hasCall(Expression expr) {
+			if(expr instanceof BinaryExpression) return hasCall(((BinaryExpression)expr).left) || hasCall(((BinaryExpression)expr).right);
+			if(expr instanceof UnaryExpression) return hasCall(((UnaryExpression)expr).factor);
+			return expr instanceof FunctionReturnValue;
+		}
+
+		void ifStatement(IfStatement ifStmt) {
+			String end = newLabel();
+			if(ifStmt.elseStatements.isEmpty()) {
+				branch(ifStmt.condition, end, false);
+				statements(ifStmt.trueStatements);
+			} else if(cheap(ifStmt.condition, false)) {
+				String elseLabel = newLabel();
+				branch(ifStmt.condition, elseLabel, false);
+				statements(ifStmt.trueStatements);
+				jump(end);
+				asm.markLabel(elseLabel);
+				statements(ifStmt.elseStatements);
+			} else {
+				String thenLabel = newLabel();
+				branch(ifStmt.condition, thenLabel, true);
+				statements(ifStmt.elseStatements);
+				jump(end);
+				asm.markLabel(thenLabel);
+				statements(ifStmt.trueStatements);
+			}
+			asm.markLabel(end);
+		}
+
+		void whileStatement(WhileStatement whileStmt) {
+			// the condition is placed after the body, one branch per iteration
+			String body = newLabel();
+			String condition = newLabel();
+			String end = newLabel();
+			jump(condition);
+			asm.markLabel(body);
+			breakLabels.push(end);
+			statements(whileStmt.statements);
+			breakLabels.pop();
+			asm.markLabel(condition);
+			branch(whileStmt.condition, body, true);
+			asm.markLabel(end);
+		}
+
+		// ---------------------------------------------------------------------
+		// conditions
+		// ---------------------------------------------------------------------
+
+		/** @return whether branching on the condition being true/false needs a single IFx **/
+		boolean cheap(Expression cond, boolean when) {
+			if(!(cond instanceof BinaryExpression)) return true;
+			switch(((BinaryExpression)cond).operator) {
+			case Less:
+			case Greater: return when;
+			case LessEqual:
+			case GreaterEqual: return !when;
+			default: return true;
+			}
+		}
+
+		/** jumps to the label if the condition evaluates to when, falls through otherwise **/
+		void branch(Expression cond, String label, boolean when) {
+			if(cond instanceof BinaryExpression) {
+				BinaryExpression bin = (BinaryExpression)cond;
+				switch(bin.operator) {
+				case LogicalAnd:
+				case LogicalOr: {
+					boolean and = bin.operator == BinaryOperator.LogicalAnd;
+					if(and != when) {
+						branch(bin.left, label, when);
+						branch(bin.right, label, when);
+					} else {
+						String skip = newLabel();
+						branch(bin.left, skip, !when);
+						branch(bin.right, label, when);
+						asm.markLabel(skip);
+					}
+					return;
+				}
+				case Less:
+				case LessEqual:
+				case Equal:
+				case NotEqual:
+				case GreaterEqual:
+				case Greater: {
+					Operand left = expression(bin.left);
+					if(!left.constant && !left.temporary && hasCall(bin.right)) left = own(left);
+					Operand right = expression(bin.right);
+					compare(bin.operator, left.arg, right.arg, label, when);
+					release(left);
+					release(right);
+					return;
+				}
+				default:
+				}
+			}
+			if(cond instanceof UnaryExpression && ((UnaryExpression)cond).operator == UnaryOperator.Not) {
+				branch(((UnaryExpression)cond).factor, label, !when);
+				return;
+			}
+			Operand value = expression(cond);
+			if(value.constant) {
+				if((value.value != 0) == when) jump(label);
+				return;
+			}
+			asm.op(when? Opcode.IFN: Opcode.IFE, value.arg, Arg.lit(0));
+			jump(label);
+			release(value);
+		}
+
+		void compare(BinaryOperator operator, Arg left, Arg right, String label, boolean when) {
+			switch(operator) {
+			case Equal:
+				asm.op(when? Opcode.IFE: Opcode.IFN, left, right);
+				jump(label);
+				return;
+			case NotEqual:
+				asm.op(when? Opcode.IFN: Opcode.IFE, left, right);
+				jump(label);
+				return;
+			case Greater:
+			case LessEqual:
+				// l > r is the IFG test, l <= r its negation
+				asm.op(Opcode.IFG, left, right);
+				break;
+			case Less:
+			case GreaterEqual:
+				asm.op(Opcode.IFG, right, left);
+				break;
+			default:
+				error("not a comparison " + operator);
+			}
+			boolean ifgMeans = operator == BinaryOperator.Greater || operator == BinaryOperator.Less;
+			if(ifgMeans == when) {
+				jump(label);
+			} else {
+				String skip = newLabel();
+				jump(skip);
+				jump(label);
+				asm.markLabel(skip);
+			}
+		}
+
+		// ---------------------------------------------------------------------
+		// expressions
+		// ---------------------------------------------------------------------
+
+		Operand expression(Expression expr) {
+			if(expr instanceof Number) return constant(parseNumber(((Number)expr).value));
+			if(expr instanceof Literal) {
+				literals.add(((Literal)expr).value);
+				return fixed(asm.label(label("literal" + (literals.size() - 1))));
+			}
+			if(expr instanceof RValue) return rvalue((RValue)expr);
+			if(expr instanceof FunctionReturnValue) {
+				FunctionReturnValue ret = (FunctionReturnValue)expr;
+				if(ret.references != 0) error("can't take the address of a return value in function '" + func.identifier + "'");
+				return call(ret.functionCall);
+			}
+			if(expr instanceof UnaryExpression) return unary((UnaryExpression)expr);
+			return binary((BinaryExpression)expr);
+		}
+
+		Operand unary(UnaryExpression unary) {
+			Operand value = expression(unary.factor);
+			if(unary.operator == UnaryOperator.Negate) {
+				if(value.constant) return constant(-value.value);
+				value = own(value);
+				asm.op(Opcode.MUL, value.arg, Arg.lit(0xffff));
+				return value;
+			}
+			if(value.constant) return constant(value.value == 0? 1: 0);
+			Operand result = temporary();
+			asm.op(Opcode.SET, result.arg, Arg.lit(0));
+			asm.op(Opcode.IFE, value.arg, Arg.lit(0));
+			asm.op(Opcode.SET, result.arg, Arg.lit(1));
+			release(value);
+			return result;
+		}
+
+		Operand binary(BinaryExpression bin) {
+			Opcode opcode = arithmetic(bin.operator);
+			if(opcode != null) {
+				Operand left = expression(bin.left);
+				if(!left.constant) left = own(left);
+				Operand right = expression(bin.right);
+				if(left.constant && right.constant) return constant(fold(bin.operator, left.value, right.value));
+				left = own(left);
+				asm.op(opcode, left.arg, right.arg);
+				release(right);
+				return left;
+			}
+
+			if(bin.operator == BinaryOperator.LogicalAnd || bin.operator == BinaryOperator.LogicalOr) return logical(bin);
+			Operand left = expression(bin.left);
+			if(!left.constant && !left.temporary && hasCall(bin.right)) left = own(left);
+			Operand right = expression(bin.right);
+			if(left.constant && right.constant) return constant(fold(bin.operator, left.value, right.value));
+			// comparisons as values are branches around a SET
+			Operand result = temporary();
+			String end = newLabel();
+			asm.op(Opcode.SET, result.arg, Arg.lit(0));
+			compare(bin.operator, left.arg, right.arg, end, false);
+			asm.op(Opcode.SET, result.arg, Arg.lit(1));
+			asm.markLabel(end);
+			release(left);
+			release(right);
+			return result;
+		}
+
+		/**
+		 * && and || as values, the right operand is only evaluated if the left one doesn't decide,
+		 * like in conditions. Temporaries the right operand spilled are moved back to their
+		 * registers, so both paths leave them in the same place.
+		 */
+		Operand logical(BinaryExpression bin) {
+			boolean and = bin.operator == BinaryOperator.LogicalAnd;
+			Operand left = expression(bin.left);
+			if(left.constant) {
+				if((left.value != 0) != and) return constant(and? 0: 1);
+				Operand right = expression(bin.right);
+				if(right.constant) return constant(right.value != 0? 1: 0);
+				Operand result = temporary();
+				asm.op(Opcode.SET, result.arg, Arg.lit(0));
+				asm.op(Opcode.IFN, right.arg, Arg.lit(0));
+				asm.op(Opcode.SET, result.arg, Arg.lit(1));
+				release(right);
+				return result;
+			}
+			Operand result = temporary();
+			String end = newLabel();
+			String one = newLabel();
+			asm.op(Opcode.SET, result.arg, Arg.lit(0));
+			asm.op(and? Opcode.IFE: Opcode.IFN, left.arg, Arg.lit(0));
+			jump(and? end: one);
+			release(left);
+			List<Operand> live = new ArrayList<Operand>(registerTemporaries);
+			Register[] registers = new Register[live.size()];
+			for(int i = 0; i < live.size(); i++) registers[i] = live.get(i).register;
+			Operand right = expression(bin.right);
+			boolean moved = false;
+			for(int i = 0; i < live.size(); i++) {
+				if(live.get(i).register != registers[i]) moved = true;
+			}
+			if(!moved) {
+				asm.op(Opcode.IFE, right.arg, Arg.lit(0));
+				jump(end);
+				release(right);
+			} else {
+				// the result is set before the spilled temporaries go back to their registers
+				asm.op(Opcode.IFN, right.arg, Arg.lit(0));
+				asm.op(Opcode.SET, result.arg, Arg.lit(1));
+				release(right);
+				for(int i = 0; i < live.size(); i++) {
+					Operand op = live.get(i);
+					if(op.register == registers[i]) continue;
+					if(temporaries[indexOf(registers[i])] != null) error("internal error, register of a spilled temporary in use in function '" + func.identifier + "'");
+					Arg slot = op.arg;
+					freeSlots.push(op.slot);
+					temporaries[indexOf(registers[i])] = op;
+					registerTemporaries.add(op);
+					op.register = registers[i];
+					op.slot = -1;
+					op.arg = Arg.reg(op.register);
+					asm.op(Opcode.SET, op.arg, slot);
+				}
+				jump(end);
+			}
+			asm.markLabel(one);
+			asm.op(Opcode.SET, result.arg, Arg.lit(1));
+			asm.markLabel(end);
+			return result;
+		}
+
+		Operand rvalue(RValue rvalue) {
+			// plain function names evaluate to the function's address
+			if(rvalue.lvalue instanceof OffsetDereference) {
+				OffsetDereference deref = (OffsetDereference)rvalue.lvalue;
+				if(resolved.get(deref) == null && !globals.containsKey(deref.identifier) && functions.containsKey(deref.identifier)) {
+					if(deref.offsetExpression != null || deref.fieldAccess != null || rvalue.references > 1) error("invalid use of function '" + deref.identifier + "'");
+					return fixed(asm.label(deref.identifier));
+				}
+			}
+			if(rvalue.references > 1) error("can't take the address of an address in function '" + func.identifier + "'");
+			Place place = place(rvalue.lvalue);
+			if(rvalue.references == 1) return address(place);
+			if(isStructValue(place.type)) error("struct '" + place.type.name + "' used as a value in function '" + func.identifier + "'");
+			return load(place);
+		}
+
+		Operand load(Place place) {
+			if(place.base != null) {
+				Arg from = arg(place, 0);
+				Operand value = place.base;
+				asm.op(Opcode.SET, value.arg, from);
+				value.pinned = false;
+				return value;
+			}
+			return fixed(arg(place, 0));
+		}
+
+		Operand address(Place place) {
+			if(place.register != null) error("internal error, address of register variable taken");
+			if(place.label != null) return fixed(asm.label(place.label, place.offset));
+			Operand address;
+			if(place.frame) {
+				address = temporary();
+				asm.op(Opcode.SET, address.arg, Arg.reg(Register.J));
+			} else {
+				address = place.base;
+			}
+			if(place.offset != 0) asm.op(Opcode.ADD, address.arg, Arg.lit(place.offset & 0xffff));
+			return address;
+		}
+
+		// ---------------------------------------------------------------------
+		// lvalues
+		// ---------------------------------------------------------------------
+
+		Arg home(Variable var) {
+			if(var.register != null) return Arg.reg(var.register);
+			if(var.label != null) return asm.labelMem(var.label, 0);
+			return Arg.mem(Register.J, var.offset);
+		}
+
+		/** @return the argument addressing the given word of the place, pins the base register until {@link #unpin(Place)} **/
+		Arg arg(Place place, int word) {
+			if(place.register != null) return Arg.reg(place.register);
+			if(place.label != null) return asm.labelMem(place.label, place.offset + word);
+			if(place.frame) return Arg.mem(Register.J, place.offset + word);
+			Register register = inRegister(place.base);
+			place.base.pinned = true;
+			int offset = place.offset + word;
+			return offset == 0? Arg.mem(register): Arg.mem(register, offset);
+		}
+
+		void unpin(Place place) {
+			if(place.base != null) place.base.pinned = false;
+		}
+
+		Place place(LValue lvalue) {
+			Place place = new Place();
+			if(lvalue instanceof OffsetDereference) {
+				OffsetDereference deref = (OffsetDereference)lvalue;
+				Variable var = resolved.get(deref);
+				if(var == null) var = globals.get(deref.identifier);
+				if(var == null) error("unknown variable '" + deref.identifier + "' in function '" + func.identifier + "'");
+				place.type = var.type;
+				place.register = var.register;
+				place.label = var.label;
+				place.frame = var.register == null && var.label == null;
+				place.offset = var.offset;
+				if(var.label != null) place.offset = 0;
+				if(deref.offsetExpression != null) place = index(place, deref.offsetExpression);
+			} else {
+				Place ref = place(((Dereference)lvalue).lvalue);
+				place = dereference(ref);
+			}
+			for(LValue field = lvalue.fieldAccess; field != null; field = field.fieldAccess) {
+				OffsetDereference name = (OffsetDereference)field;
+				if(!isStructValue(place.type)) error("field access '" + name.identifier + "' on non-struct in function '" + func.identifier + "'");
+				Field f = struct(place.type.name).fields.get(name.identifier);
+				if(f == null) error("unknown field '" + name.identifier + "' in struct '" + place.type.name + "'");
+				place.offset += f.offset;
+				place.type = f.type;
+				if(name.offsetExpression != null) place = index(place, name.offsetExpression);
+			}
+			return place;
+		}
+
+		/** loads the reference stored at the place into a temporary, the result points to the referenced value **/
+		Place dereference(Place ref) {
+			Place place = new Place();
+			place.type = pointee(ref.type);
+			Operand pointer = load(ref);
+			place.base = own(pointer);
+			return place;
+		}
+
+		Place index(Place ref, Expression offset) {
+			Place place = dereference(ref);
+			Operand index = expression(offset);
+			int size = size(place.type);
+			if(index.constant) {
+				place.offset = index.value * size;
+			} else {
+				if(size != 1) {
+					index = own(index);
+					asm.op(Opcode.MUL, index.arg, Arg.lit(size));
+				}
+				asm.op(Opcode.ADD, place.base.arg, index.arg);
+				release(index);
+			}
+			return place;
+		}
+
+		// ---------------------------------------------------------------------
+		// calls
+		// ---------------------------------------------------------------------
+
+		Operand call(FunctionCall call) {
+			FunctionDefinition callee = null;
+			List<TypeDefinition> parameters = new ArrayList<TypeDefinition>();
+			if(call.lvalue instanceof OffsetDereference && call.lvalue.fieldAccess == null) {
+				OffsetDereference deref = (OffsetDereference)call.lvalue;
+				if(deref.offsetExpression == null && resolved.get(deref) == null && !globals.containsKey(deref.identifier)) {
+					callee = functions.get(deref.identifier);
+					if(callee == null) error("unknown function '" + deref.identifier + "' in function '" + func.identifier + "'");
+					if(callee.signature.arguments.size() != call.arguments.size()) error("wrong number of arguments calling '" + deref.identifier + "' in function '" + func.identifier + "'");
+					for(VariableDeclaration arg: callee.signature.arguments) parameters.add(arg.typeDef);
+				}
+			}
+
+			// caller saved temporaries go to the stack and come back to the same registers, so
+			// code jumping around the call finds them in the same place, see logical()
+			List<Operand> stacked = new ArrayList<Operand>(registerTemporaries);
+			Register[] registers = new Register[stacked.size()];
+			for(int i = 0; i < stacked.size(); i++) {
+				Operand op = stacked.get(i);
+				registers[i] = op.register;
+				asm.op(Opcode.SET, Arg.push(), Arg.reg(op.register));
+				temporaries[indexOf(op.register)] = null;
+				registerTemporaries.remove(op);
+				op.register = null;
+			}
+
+			int words = 0;
+			for(int i = call.arguments.size() - 1; i >= 0; i--) {
+				Expression arg = call.arguments.get(i);
+				if(i < parameters.size() && isStructValue(parameters.get(i))) {
+					if(!(arg instanceof RValue) || ((RValue)arg).references != 0) error("expected struct value as argument " + i + " in function '" + func.identifier + "'");
+					Place place = place(((RValue)arg).lvalue);
+					int size = size(place.type);
+					for(int j = size - 1; j >= 0; j--) {
+						asm.op(Opcode.SET, Arg.push(), arg(place, j));
+						unpin(place);
+					}
+					release(place);
+					words += size;
+				} else {
+					Operand value = expression(arg);
+					asm.op(Opcode.SET, Arg.push(), value.arg);
+					release(value);
+					words++;
+				}
+			}
+
+			if(callee != null) {
+				asm.eop(Opcode.JSR, asm.label(callee.identifier));
+			} else {
+				Place place = place(call.lvalue);
+				Operand target = load(place);
+				asm.eop(Opcode.JSR, target.arg);
+				release(target);
+			}
+			if(words > 0) asm.op(Opcode.ADD, Arg.sp(), Arg.lit(words));
+
+			for(int i = 0; i < stacked.size(); i++) {
+				Operand op = stacked.get(i);
+				temporaries[indexOf(registers[i])] = op;
+				registerTemporaries.add(op);
+				op.register = registers[i];
+			}
+			// the result takes a register left over or a spill slot, it's read before A is restored
+			Operand result = new Operand();
+			boolean free = false;
+			for(Operand temp: temporaries) if(temp == null) free = true;
+			if(free) {
+				claimRegister(result);
+			} else {
+				result.temporary = true;
+				moveToSlot(result);
+			}
+			if(result.register != Register.A) asm.op(Opcode.SET, result.arg, Arg.reg(Register.A));
+			for(int i = stacked.size() - 1; i >= 0; i--) {
+				asm.op(Opcode.SET, Arg.reg(registers[i]), Arg.pop());
+			}
+			return result;
+		}
+	}
+
+	public static short[] compile(Program program) {
+		Assembler asm = new Assembler();
+		new CruxCompiler(program).compile(asm);
+		return asm.getDump();
+	}
+
+	public static void main (String[] args) throws FileNotFoundException {
+		Lexer lexer = new Lexer(new FileInputStream("data/bench/fib.crux"), false, true);
+		CruxParser parser = new CruxParser(lexer);
+		parser.parse();
+		short[] dump = compile(parser.getProgram());
+		System.out.println(Disassembler.disassemble(dump, 0, dump.length));
+		Cpu cpu = new Cpu(dump);
+		cpu.runUntilHalted();
+		System.out.println("result: " + cpu.getRegValue(Register.A) + ", cycles: " + cpu.getCycles());
+	}
+}
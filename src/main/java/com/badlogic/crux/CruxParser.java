@@ -2,6 +2,8 @@ package com.badlogic.crux;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.badlogic.crux.AstNode.AnonymousFunctionSignature;
 import com.badlogic.crux.AstNode.Assignment;
@@ -20,6 +22,7 @@ import com.badlogic.crux.AstNode.Literal;
 import com.badlogic.crux.AstNode.Number;
 import com.badlogic.crux.AstNode.OffsetDereference;
 import com.badlogic.crux.AstNode.Program;
+import com.badlogic.crux.AstNode.ProgramPart;
 import com.badlogic.crux.AstNode.RValue;
 import com.badlogic.crux.AstNode.ReturnStatement;
 import com.badlogic.crux.AstNode.ReturnType;
@@ -31,48 +34,140 @@ import com.badlogic.crux.AstNode.UnaryExpression;
 import com.badlogic.crux.AstNode.UnaryExpression.UnaryOperator;
 import com.badlogic.crux.AstNode.VariableDeclaration;
 import com.badlogic.crux.AstNode.WhileStatement;
+import com.badlogic.crux.Lexer.Token;
 import com.badlogic.crux.Lexer.TokenType;
 
 /**
- * Parser for Crux, see data/crux.txt
+ * Parser for Crux, see data/crux.txt. Syntax errors don't stop the parser, a broken
+ * statement is skipped up to the start of the next statement, a broken variable,
+ * struct or function up to the next struct or function. {@link #parse()} throws
+ * a RuntimeException listing all errors, unless the parser is lenient.
  * @author mzechner
  *
  */
 public class CruxParser extends Parser {
+	static final String[] KEYWORDS = { "var", "num", "struct", "func", "end", "if", "then", "else", "while", "do", "return", "break" };
+	static final int VAR = 0, NUM = 1, STRUCT = 2, FUNC = 3, END = 4, IF = 5, THEN = 6, ELSE = 7, WHILE = 8, DO = 9, RETURN = 10, BREAK = 11;
+
+	/** binary operator and precedence by token type, from comparisons (1) to bit operations (5), 0 for other tokens **/
+	static final BinaryOperator[] OPERATORS = new BinaryOperator[TokenType.values().length];
+	static final int[] PRECEDENCES = new int[TokenType.values().length];
+	static {
+		operator(TokenType.LESS, BinaryOperator.Less, 1);
+		operator(TokenType.LESSE, BinaryOperator.LessEqual, 1);
+		operator(TokenType.EQUAL, BinaryOperator.Equal, 1);
+		operator(TokenType.NOTEQUAL, BinaryOperator.NotEqual, 1);
+		operator(TokenType.GREATERE, BinaryOperator.GreaterEqual, 1);
+		operator(TokenType.GREATER, BinaryOperator.Greater, 1);
+		operator(TokenType.LAND, BinaryOperator.LogicalAnd, 2);
+		operator(TokenType.LOR, BinaryOperator.LogicalOr, 2);
+		operator(TokenType.PLUS, BinaryOperator.Add, 3);
+		operator(TokenType.MINUS, BinaryOperator.Subtract, 3);
+		operator(TokenType.MUL, BinaryOperator.Multiply, 4);
+		operator(TokenType.DIV, BinaryOperator.Divide, 4);
+		operator(TokenType.MOD, BinaryOperator.Modulo, 4);
+		operator(TokenType.SHL, BinaryOperator.ShiftLeft, 5);
+		operator(TokenType.SHR, BinaryOperator.ShiftRight, 5);
+		operator(TokenType.OR, BinaryOperator.Or, 5);
+		operator(TokenType.AND, BinaryOperator.And, 5);
+		operator(TokenType.XOR, BinaryOperator.Xor, 5);
+	}
+
+	private static void operator (TokenType type, BinaryOperator operator, int precedence) {
+		OPERATORS[type.ordinal()] = operator;
+		PRECEDENCES[type.ordinal()] = precedence;
+	}
+
 	Program program;
+	boolean lenient;
 
 	public CruxParser (Lexer lexer) {
-		super(lexer, new String[] {
-			"var", "num", "struct", "func", "end", "if", "then", "else", "while", "do", "return", "break"
-		});
+		super(lexer, KEYWORDS);
 	}
 	
 	public Program getProgram() {
 		return program;
 	}
 
+	/**
+	 * If set, {@link #parse()} doesn't throw on syntax errors, they are available via
+	 * {@link #getDiagnostics()} and {@link #getProgram()} returns the parts that could
+	 * be parsed.
+	 */
+	public void setLenient(boolean lenient) {
+		this.lenient = lenient;
+	}
+
 	@Override
 	public void parse () {
+		recovering = true;
 		program = program();
+		reportErrors();
+	}
+
+	/**
+	 * Parses the program into the arena instead, without creating {@link AstNode}s, see
+	 * {@link CruxArena} for the node kinds. Errors are handled like by {@link #parse()},
+	 * the nodes of skipped statements and parts are removed.
+	 * @return the program node
+	 */
+	public int parse (AstArena arena) {
+		recovering = true;
+		int program = arena.begin(CruxArena.PROGRAM, 0, position);
+		while(token.type != TokenType.EOF) {
+			programPart(arena);
+		}
+		arena.end(position);
+		reportErrors();
+		return program;
+	}
+
+	private void reportErrors () {
+		if(!lenient && !diagnostics.isEmpty()) {
+			StringBuilder message = new StringBuilder();
+			for(Diagnostic diagnostic: diagnostics) {
+				if(message.length() > 0) message.append('\n');
+				message.append(diagnostic);
+			}
+			throw new RuntimeException(message.toString());
+		}
 	}
 
 	public Program program() {
 		Program program = new Program();
 
 		while(token.type != TokenType.EOF) {
-			if(accept("var")) {
-				program.parts.add(varDef());
-			} else if("struct".equals(token.text)) {
-				program.parts.add(structDecl());
-			} else if("func".equals(token.text)) {
-				program.parts.add(funcDef());
-			} else {
-				error("Expected variable definition, struct declaration or function definition");
-			}
+			ProgramPart part = programPart();
+			if(part != null) program.parts.add(part);
 		}
 		
 		return program;
 	}
+
+	/**
+	 * Parses a variable definition, struct declaration or function definition.
+	 * @return the part or null if it had a syntax error and was skipped
+	 */
+	public ProgramPart programPart() {
+		int start = position;
+		try {
+			switch(token.keyword) {
+			case VAR:
+				nextToken();
+				return varDef();
+			case STRUCT:
+				return structDecl();
+			case FUNC:
+				return funcDef();
+			default:
+				error("Expected variable definition, struct declaration or function definition");
+				return null;
+			}
+		} catch(SyntaxError e) {
+			synchronize(start, STRUCT, FUNC);
+			return null;
+		}
+	}
 	
 	public VariableDeclaration varDef() {
 		VariableDeclaration varDecl = new VariableDeclaration();
@@ -81,11 +176,11 @@ public class CruxParser extends Parser {
 			varDecl.typeDef.references++;
 		}
 		
-		if(accept("num")) {
+		if(accept(NUM)) {
 			expect(TokenType.IDENTIFIER);
 			varDecl.typeDef.type = Type.Number;
 			varDecl.identifier = lastToken.text;
-		} else if(accept("func")) {
+		} else if(accept(FUNC)) {
 			varDecl.typeDef.type = Type.Function;
 			varDecl.typeDef.name = "func";
 			expect(TokenType.IDENTIFIER);
@@ -106,13 +201,13 @@ public class CruxParser extends Parser {
 	public StructureDeclaration structDecl() {
 		StructureDeclaration structDecl = new StructureDeclaration();
 
-		expect("struct");
+		expect(STRUCT);
 		expect(TokenType.IDENTIFIER);
 		structDecl.name = lastToken.text;
 		do {
 			if(token.type == TokenType.EOF) error("expected end");
 			structDecl.fields.add(varDef());
-		} while(!accept("end"));
+		} while(!accept(END));
 		
 		return structDecl;
 	}
@@ -132,7 +227,7 @@ public class CruxParser extends Parser {
 		if (accept(TokenType.COLON)) {
 			funcSig.returnType = returnType();
 		}
-		return null;
+		return funcSig;
 	}
 	
 	public FunctionSignature funcSig() {
@@ -150,21 +245,21 @@ public class CruxParser extends Parser {
 		if (accept(TokenType.COLON)) {
 			funcSig.returnType = returnType();
 		}
-		return null;
+		return funcSig;
 	}
 	
 	public FunctionDefinition funcDef() {
 		FunctionDefinition funcDef = new FunctionDefinition();
 		
-		expect("func");
+		expect(FUNC);
 		expect(TokenType.IDENTIFIER);
 		funcDef.identifier = lastToken.text;
 		funcDef.signature = funcSig();
 		
 		// local vars and statements
-		while(!accept("end")) {
+		while(!accept(END)) {
 			if(token.type == TokenType.EOF) error("expected end");
-			funcDef.statements.add(statement());
+			statement(funcDef.statements);
 		}
 		return funcDef;
 	}
@@ -176,10 +271,10 @@ public class CruxParser extends Parser {
 			typeDef.references++;
 		}
 			
-		if(accept("num")) {
+		if(accept(NUM)) {
 			typeDef.type = Type.Number;
 			typeDef.name = "num";
-		} else if(accept("func")) {
+		} else if(accept(FUNC)) {
 			typeDef.type = Type.Function;
 			typeDef.name = "func";
 			typeDef.funcSig = anonymousFuncSig();
@@ -201,19 +296,40 @@ public class CruxParser extends Parser {
 		return returnType;
 	}
 	
+	/**
+	 * Parses a statement and adds it to the list. On a syntax error, skips to the next
+	 * statement keyword, 'end', 'else' or an identifier or '[' on a following line.
+	 */
+	private void statement(List<Statement> statements) {
+		int start = position;
+		try {
+			statements.add(statement());
+		} catch(SyntaxError e) {
+			int line = token.line;
+			if(position == start && token.type != TokenType.EOF) nextToken();
+			while(token.type != TokenType.EOF && !isKeyword(RETURN, IF, WHILE, BREAK, VAR, END, ELSE)) {
+				if(token.line > line && (token.type == TokenType.IDENTIFIER || token.type == TokenType.L_BRACK)) break;
+				nextToken();
+			}
+		}
+	}
+	
 	public Statement statement() {
-		if("return".equals(token.text)) {
+		switch(token.keyword) {
+		case RETURN:
 			return returnStatement();
-		} else if("if".equals(token.text)) {
+		case IF:
 			return ifStmt();
-		} else if("while".equals(token.text)) {
+		case WHILE:
 			return whileStmt();
-		} else if(accept("break")) {
+		case BREAK:
+			nextToken();
 			return new BreakStatement();
-		} else if(accept("var")) {
+		case VAR:
+			nextToken();
 			return varDef();
-		} else if(token.type == TokenType.IDENTIFIER ||
-			       "[".equals(token.text)) {
+		}
+		if(token.type == TokenType.IDENTIFIER || token.type == TokenType.L_BRACK) {
 			LValue lvalue = lvalue();
 			if(token.type == TokenType.ASSIGN) {
 				return assignment(lvalue);
@@ -229,7 +345,7 @@ public class CruxParser extends Parser {
 		LValue lvalue = null;
 		if(token.type == TokenType.L_BRACK) {
 			lvalue = dereference();
-		} else if(token.type == TokenType.IDENTIFIER) {
+		} else if(token.type == TokenType.IDENTIFIER && token.keyword == -1) {
 			lvalue = offsetDereference();
 		} else {
 			error("Expected value");
@@ -293,20 +409,21 @@ public class CruxParser extends Parser {
 	public IfStatement ifStmt() {
 		IfStatement ifStmt= new IfStatement();
 		
-		expect("if");
+		expect(IF);
 		ifStmt.condition = expression();
-		expect("then");
-		while(!("else".equals(token.text)) && !("end".equals(token.text))) {
-			ifStmt.trueStatements.add(statement());
+		expect(THEN);
+		while(token.keyword != ELSE && token.keyword != END) {
+			if(token.type == TokenType.EOF) error("Expected 'end'");
+			statement(ifStmt.trueStatements);
 		}
 		
-		if(accept("else")) {
-			while(!accept("end")) {
-				if(token.type == TokenType.EOL) error("Expected 'end'");
-				ifStmt.trueStatements.add(statement());
+		if(accept(ELSE)) {
+			while(!accept(END)) {
+				if(token.type == TokenType.EOF) error("Expected 'end'");
+				statement(ifStmt.elseStatements);
 			}
 		} else {
-			expect("end");
+			expect(END);
 		}
 		return ifStmt;
 	}
@@ -314,150 +431,94 @@ public class CruxParser extends Parser {
 	public WhileStatement whileStmt() {
 		WhileStatement whileStmt = new WhileStatement();
 		
-		expect("while");
+		expect(WHILE);
 		whileStmt.condition = expression();
-		expect("do");
+		expect(DO);
 		
-		while(!accept("end")) {
+		while(!accept(END)) {
 			if(token.type == TokenType.EOF) error("Expected 'end'");
-			whileStmt.statements.add(statement());
+			statement(whileStmt.statements);
 		}
 		
 		return whileStmt;
 	}
 	
 	public ReturnStatement returnStatement() {
-		expect("return");
-		// FIXME expression!
-		return new ReturnStatement();
+		ReturnStatement returnStmt = new ReturnStatement();
+		expect(RETURN);
+		// the return value has to start on the same line as the return keyword 
+		if(token.type != TokenType.EOF && token.line == lastToken.line &&
+			token.keyword != END && token.keyword != ELSE) {
+			returnStmt.expression = expression();
+		}
+		return returnStmt;
 	}
 	
 	public Expression expression() {
-		return comparisonExpr();
+		return expression(1);
 	}
 	
-	private Expression comparisonExpr () {
-		Expression expr = logicalExpr();
-		while(accept(TokenType.LESS) ||
-				accept(TokenType.LESSE) ||
-				accept(TokenType.EQUAL) ||
-				accept(TokenType.NOTEQUAL) ||
-				accept(TokenType.GREATERE) ||
-				accept(TokenType.GREATER)) {
-			BinaryExpression comp = new BinaryExpression();
-			
-			String op = lastToken.text;
-			if(op.equals("<")) comp.operator = BinaryOperator.Less;
-			else if(op.equals("<=")) comp.operator = BinaryOperator.LessEqual;
-			else if(op.equals("==")) comp.operator = BinaryOperator.Equal;
-			else if(op.equals("!=")) comp.operator = BinaryOperator.NotEqual;
-			else if(op.equals(">=")) comp.operator = BinaryOperator.GreaterEqual;
-			else if(op.equals(">")) comp.operator = BinaryOperator.Greater;
-			else error("Unknown logical operator '" + op + "', this should never happen");
-			
-			comp.left = expr;
-			comp.right = logicalExpr();
-			expr = comp;
-		}
-		return expr;
-	}
-
-	private Expression logicalExpr () {
-		Expression expr = additiveExpr();
-		while(accept(TokenType.LAND) ||
-			   accept(TokenType.LOR)) {
-			BinaryExpression log = new BinaryExpression();
-			log.operator = lastToken.text.equals("&&")?BinaryOperator.And: BinaryOperator.Or;
-			log.left = expr;
-			log.right = additiveExpr();
-			expr = log;
-		}
-		return expr;
-	}
-
-	private Expression additiveExpr () {
-		Expression expr = multiplicativeExpr();
-		while(accept(TokenType.PLUS) ||
-			   accept(TokenType.MINUS)) {
-			BinaryExpression add = new BinaryExpression();
-			add.operator = lastToken.text.equals("+")?BinaryOperator.Add: BinaryOperator.Subtract;
-			add.left = expr;
-			add.right = multiplicativeExpr();
-			expr = add;
-		}
-		return expr;
-	}
-
-	private Expression multiplicativeExpr () {
-		Expression expr = binaryExpr();
-		while(accept(TokenType.MUL) ||
-			   accept(TokenType.DIV) ||
-			   accept(TokenType.MOD)) {
-			BinaryExpression mul = new BinaryExpression();
-			String op = lastToken.text;
-			if("*".equals(op)) mul.operator = BinaryOperator.Multiply;
-			else if("/".equals(op)) mul.operator = BinaryOperator.Divide;
-			else if("%".equals(op)) mul.operator = BinaryOperator.Modulo;
-			else error("Unexpected multiplicative operator '" + op + "', this should never happen");
-			mul.left = expr;
-			mul.right = binaryExpr();
-			expr = mul;
-		}
-		return expr;
-	}
-
-	private Expression binaryExpr () {
+	/**
+	 * Precedence climbing: parses a unary expression followed by binary operators of
+	 * at least the given precedence, operands of an operator only take operators that
+	 * bind tighter, so all operators are left associative.
+	 */
+	private Expression expression (int precedence) {
 		Expression expr = unaryExpr();
-		while(accept(TokenType.SHL) ||
-			   accept(TokenType.SHR) ||
-			   accept(TokenType.OR) ||
-			   accept(TokenType.AND) ||
-			   accept(TokenType.XOR)) {
-			BinaryExpression bin = new BinaryExpression();
-			String op = lastToken.text;
-			if("<<".equals(op)) bin.operator = BinaryOperator.ShiftLeft;
-			else if(">>".equals(op)) bin.operator = BinaryOperator.ShiftRight;
-			else if("|".equals(op)) bin.operator = BinaryOperator.Or;
-			else if("&".equals(op)) bin.operator = BinaryOperator.And;
-			else if("^".equals(op)) bin.operator = BinaryOperator.Xor;
-			else error("Unexpected binary operator '" + op + "', this should never happen");
-			bin.left = expr;
-			bin.right = unaryExpr();
-			expr = bin;
-		}
-		return expr;
+		while(true) {
+			int type = token.type.ordinal();
+			int operatorPrecedence = PRECEDENCES[type];
+			if(operatorPrecedence < precedence) return expr;
+			nextToken();
+			BinaryExpression binary = new BinaryExpression();
+			binary.operator = OPERATORS[type];
+			binary.left = expr;
+			binary.right = expression(operatorPrecedence + 1);
+			expr = binary;
+		}
 	}
 
 	private Expression unaryExpr () {
-		if(accept(TokenType.MINUS)) {
-			UnaryExpression unary = new UnaryExpression();
-			unary.operator = UnaryOperator.Negate;
-			unary.factor = factor();
-			return unary;
-		} else if(accept(TokenType.NOT)) {
-			UnaryExpression unary = new UnaryExpression();
-			unary.operator = UnaryOperator.Not;
-			unary.factor = factor();
-			return unary;
-		} else {
+		switch(token.type) {
+		case MINUS:
+			nextToken();
+			return unaryExpr(UnaryOperator.Negate);
+		case NOT:
+			nextToken();
+			return unaryExpr(UnaryOperator.Not);
+		default:
 			return factor();
 		}
 	}
 
+	private Expression unaryExpr (UnaryOperator operator) {
+		UnaryExpression unary = new UnaryExpression();
+		unary.operator = operator;
+		unary.factor = factor();
+		return unary;
+	}
+
 	private Expression factor () {
-		if(accept(TokenType.NUMBER)) {
+		switch(token.type) {
+		case NUMBER: {
+			nextToken();
 			Number number = new Number();
 			number.value = lastToken.text;
 			return number;
-		} else if(accept(TokenType.LITERAL)) {
+		}
+		case LITERAL: {
+			nextToken();
 			Literal literal = new Literal();
 			literal.value = lastToken.text;
 			return literal;
-		} else if(accept(TokenType.L_PARA)) {
+		}
+		case L_PARA: {
+			nextToken();
 			Expression expr = expression();
 			expect(TokenType.R_PARA);
 			return expr;
-		}else {
+		}
+		default: {
 			int references = 0;
 			while(accept(TokenType.AT)) {
 				references++;
@@ -476,12 +537,414 @@ public class CruxParser extends Parser {
 				return rValue;
 			}
 		}
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// the same productions building into an arena, see parse(AstArena)
+	// -------------------------------------------------------------------------
+
+	private void programPart (AstArena arena) {
+		int start = position;
+		int mark = arena.size();
+		try {
+			switch(token.keyword) {
+			case VAR:
+				nextToken();
+				varDef(arena, start);
+				return;
+			case STRUCT:
+				structDecl(arena);
+				return;
+			case FUNC:
+				funcDef(arena);
+				return;
+			default:
+				error("Expected variable definition, struct declaration or function definition");
+			}
+		} catch(SyntaxError e) {
+			arena.truncate(mark);
+			synchronize(start, STRUCT, FUNC);
+		}
+	}
+
+	/** the name of the variable follows its type, it's set once parsed **/
+	private void varDef (AstArena arena, int start) {
+		int node = arena.begin(CruxArena.VARIABLE, 0, start);
+		int typeStart = position;
+		int references = 0;
+		while(accept(TokenType.AT)) {
+			references++;
+		}
+
+		if(accept(NUM)) {
+			arena.leaf(CruxArena.NUMBER_TYPE, references, typeStart, position - typeStart);
+			expect(TokenType.IDENTIFIER);
+			arena.setValue(node, arena.string(lastToken.text));
+		} else if(accept(FUNC)) {
+			arena.begin(CruxArena.FUNCTION_TYPE, references, typeStart);
+			expect(TokenType.IDENTIFIER);
+			arena.setValue(node, arena.string(lastToken.text));
+			anonymousFuncSig(arena);
+			arena.end(position);
+		} else if(accept(TokenType.IDENTIFIER)) {
+			arena.begin(CruxArena.STRUCT_TYPE, references, typeStart);
+			arena.leaf(CruxArena.NAME, arena.string(lastToken.text), position - 1, 1);
+			arena.end(position);
+			expect(TokenType.IDENTIFIER);
+			arena.setValue(node, arena.string(lastToken.text));
+		} else {
+			error("Expected 'num' or struct name");
+		}
+		arena.end(position);
+	}
+
+	private void structDecl (AstArena arena) {
+		int start = position;
+		expect(STRUCT);
+		expect(TokenType.IDENTIFIER);
+		arena.begin(CruxArena.STRUCT, arena.string(lastToken.text), start);
+		do {
+			if(token.type == TokenType.EOF) error("expected end");
+			varDef(arena, position);
+		} while(!accept(END));
+		arena.end(position);
+	}
+
+	private void anonymousFuncSig (AstArena arena) {
+		arena.begin(CruxArena.FUNCTION_TYPE_SIGNATURE, 0, position);
+		if(accept(TokenType.L_PARA)) {
+			typeDef(arena);
+			while(accept(TokenType.COMMA)) {
+				typeDef(arena);
+			}
+			expect(TokenType.R_PARA);
+		}
+		if(accept(TokenType.COLON)) {
+			returnType(arena);
+		}
+		arena.end(position);
+	}
+
+	private void funcSig (AstArena arena) {
+		arena.begin(CruxArena.SIGNATURE, 0, position);
+		if(accept(TokenType.L_PARA)) {
+			varDef(arena, position);
+			while(accept(TokenType.COMMA)) {
+				varDef(arena, position);
+			}
+			expect(TokenType.R_PARA);
+		}
+		if(accept(TokenType.COLON)) {
+			returnType(arena);
+		}
+		arena.end(position);
+	}
+
+	private void funcDef (AstArena arena) {
+		int start = position;
+		expect(FUNC);
+		expect(TokenType.IDENTIFIER);
+		arena.begin(CruxArena.FUNCTION, arena.string(lastToken.text), start);
+		funcSig(arena);
+		while(!accept(END)) {
+			if(token.type == TokenType.EOF) error("expected end");
+			statement(arena);
+		}
+		arena.end(position);
+	}
+
+	private void typeDef (AstArena arena) {
+		int start = position;
+		int references = 0;
+		while(accept(TokenType.AT)) {
+			references++;
+		}
+
+		if(accept(NUM)) {
+			arena.leaf(CruxArena.NUMBER_TYPE, references, start, position - start);
+		} else if(accept(FUNC)) {
+			arena.begin(CruxArena.FUNCTION_TYPE, references, start);
+			anonymousFuncSig(arena);
+			arena.end(position);
+		} else if(accept(TokenType.IDENTIFIER)) {
+			arena.begin(CruxArena.STRUCT_TYPE, references, start);
+			arena.leaf(CruxArena.NAME, arena.string(lastToken.text), position - 1, 1);
+			arena.end(position);
+		} else {
+			error("Expected 'num' or struct name");
+		}
+	}
+
+	private void returnType (AstArena arena) {
+		arena.begin(CruxArena.RETURN_TYPE, 0, position);
+		typeDef(arena);
+		arena.end(position);
+	}
+
+	/** like {@link #statement(List)}, the nodes of a statement with a syntax error are removed **/
+	private void statement (AstArena arena) {
+		int start = position;
+		int mark = arena.size();
+		try {
+			switch(token.keyword) {
+			case RETURN:
+				returnStatement(arena);
+				return;
+			case IF:
+				ifStmt(arena);
+				return;
+			case WHILE:
+				whileStmt(arena);
+				return;
+			case BREAK:
+				nextToken();
+				arena.leaf(CruxArena.BREAK, 0, start, 1);
+				return;
+			case VAR:
+				nextToken();
+				varDef(arena, start);
+				return;
+			}
+			// assignments and calls are only told apart after the lvalue
+			if(token.type == TokenType.IDENTIFIER || token.type == TokenType.L_BRACK) {
+				int lvalue = lvalue(arena);
+				if(token.type == TokenType.ASSIGN) {
+					arena.wrap(CruxArena.ASSIGNMENT, 0, start, lvalue);
+					expect(TokenType.ASSIGN);
+					expression(arena, 1);
+					arena.end(position);
+					return;
+				} else if(token.type == TokenType.L_PARA) {
+					arena.wrap(CruxArena.CALL, 0, start, lvalue);
+					arguments(arena);
+					arena.end(position);
+					return;
+				}
+			}
+			error("Expected assignment, function call, if, while, or return");
+		} catch(SyntaxError e) {
+			arena.truncate(mark);
+			int line = token.line;
+			if(position == start && token.type != TokenType.EOF) nextToken();
+			while(token.type != TokenType.EOF && !isKeyword(RETURN, IF, WHILE, BREAK, VAR, END, ELSE)) {
+				if(token.line > line && (token.type == TokenType.IDENTIFIER || token.type == TokenType.L_BRACK)) break;
+				nextToken();
+			}
+		}
+	}
+
+	/** @return the node of the lvalue **/
+	private int lvalue (AstArena arena) {
+		int start = position;
+		int node;
+		if(token.type == TokenType.L_BRACK) {
+			node = arena.begin(CruxArena.DEREFERENCE, 0, start);
+			nextToken();
+			lvalue(arena);
+			expect(TokenType.R_BRACK);
+		} else if(token.type == TokenType.IDENTIFIER && token.keyword == -1) {
+			nextToken();
+			node = arena.begin(CruxArena.OFFSET_DEREFERENCE, arena.string(lastToken.text), start);
+			if(accept(TokenType.L_BRACK)) {
+				expression(arena, 1);
+				expect(TokenType.R_BRACK);
+			}
+		} else {
+			error("Expected value");
+			return AstArena.NONE;
+		}
+		if(token.type == TokenType.PERIOD) {
+			arena.begin(CruxArena.FIELD, 0, position);
+			nextToken();
+			lvalue(arena);
+			arena.end(position);
+		}
+		arena.end(position);
+		return node;
+	}
+
+	/** the argument list of a call as children of the open CALL node **/
+	private void arguments (AstArena arena) {
+		expect(TokenType.L_PARA);
+		if(accept(TokenType.R_PARA)) return;
+		expression(arena, 1);
+		while(!accept(TokenType.R_PARA)) {
+			if(token.type == TokenType.EOF) error("Expected '('");
+			expect(TokenType.COMMA);
+			expression(arena, 1);
+		}
+	}
+
+	private void ifStmt (AstArena arena) {
+		arena.begin(CruxArena.IF, 0, position);
+		expect(IF);
+		expression(arena, 1);
+		expect(THEN);
+		arena.begin(CruxArena.BLOCK, 0, position);
+		while(token.keyword != ELSE && token.keyword != END) {
+			if(token.type == TokenType.EOF) error("Expected 'end'");
+			statement(arena);
+		}
+		arena.end(position);
+
+		if(accept(ELSE)) {
+			arena.begin(CruxArena.BLOCK, 0, position);
+			while(token.keyword != END) {
+				if(token.type == TokenType.EOF) error("Expected 'end'");
+				statement(arena);
+			}
+			arena.end(position);
+		} else {
+			arena.leaf(CruxArena.BLOCK, 0, position, 0);
+		}
+		expect(END);
+		arena.end(position);
+	}
+
+	private void whileStmt (AstArena arena) {
+		arena.begin(CruxArena.WHILE, 0, position);
+		expect(WHILE);
+		expression(arena, 1);
+		expect(DO);
+		while(!accept(END)) {
+			if(token.type == TokenType.EOF) error("Expected 'end'");
+			statement(arena);
+		}
+		arena.end(position);
+	}
+
+	private void returnStatement (AstArena arena) {
+		arena.begin(CruxArena.RETURN, 0, position);
+		expect(RETURN);
+		if(token.type != TokenType.EOF && token.line == lastToken.line &&
+			token.keyword != END && token.keyword != ELSE) {
+			expression(arena, 1);
+		}
+		arena.end(position);
+	}
+
+	/** precedence climbing like {@link #expression(int)}, the left operand is wrapped in the binary node **/
+	private int expression (AstArena arena, int precedence) {
+		int expr = unaryExpr(arena);
+		while(true) {
+			int type = token.type.ordinal();
+			int operatorPrecedence = PRECEDENCES[type];
+			if(operatorPrecedence < precedence) return expr;
+			nextToken();
+			arena.wrap(CruxArena.BINARY, OPERATORS[type].ordinal(), arena.start(expr), expr);
+			expression(arena, operatorPrecedence + 1);
+			arena.end(position);
+		}
 	}
 
+	private int unaryExpr (AstArena arena) {
+		UnaryOperator operator;
+		switch(token.type) {
+		case MINUS:
+			operator = UnaryOperator.Negate;
+			break;
+		case NOT:
+			operator = UnaryOperator.Not;
+			break;
+		default:
+			return factor(arena);
+		}
+		int node = arena.begin(CruxArena.UNARY, operator.ordinal(), position);
+		nextToken();
+		factor(arena);
+		arena.end(position);
+		return node;
+	}
+
+	private int factor (AstArena arena) {
+		int start = position;
+		switch(token.type) {
+		case NUMBER:
+			nextToken();
+			return arena.leaf(CruxArena.NUMBER, arena.string(lastToken.text), start, 1);
+		case LITERAL:
+			nextToken();
+			return arena.leaf(CruxArena.LITERAL, arena.string(lastToken.text), start, 1);
+		case L_PARA: {
+			nextToken();
+			int expr = expression(arena, 1);
+			expect(TokenType.R_PARA);
+			return expr;
+		}
+		default: {
+			int references = 0;
+			while(accept(TokenType.AT)) {
+				references++;
+			}
+
+			// the wrapping nodes take the index of the lvalue
+			int node = lvalue(arena);
+			if(token.type == TokenType.L_PARA) {
+				arena.wrap(CruxArena.CALL, 0, arena.start(node), node);
+				arguments(arena);
+				arena.end(position);
+				arena.wrap(CruxArena.RETURN_VALUE, references, start, node);
+			} else {
+				arena.wrap(CruxArena.RVALUE, references, start, node);
+			}
+			arena.end(position);
+			return node;
+		}
+		}
+	}
+
+	/** @return an expression with all binary operators, nested to the given depth **/
+	static String expression (int depth, int seed) {
+		if(depth == 0) return (seed & 1) == 0? "x": Integer.toString(seed);
+		String[] operators = { "<", "<=", "==", "!=", ">=", ">", "&&", "||", "+", "-", "*", "/", "%", "<<", ">>", "|", "&", "^" };
+		String left = expression(depth - 1, seed * 31 + 7);
+		String right = expression(depth - 1, seed * 17 + 3);
+		String operator = operators[(seed & 0x7fffffff) % operators.length];
+		return (seed & 2) == 0? "(" + left + " " + operator + " " + right + ")": "-(" + left + ") " + operator + " !(" + right + ")";
+	}
+
+	/** replays tokens lexed before, so the benchmark measures the parser only **/
+	static class TokenReplay extends Lexer {
+		final List<Token> tokens;
+		int index;
+
+		TokenReplay (List<Token> tokens) {
+			super(false, true);
+			this.tokens = tokens;
+		}
+
+		@Override
+		public Token nextToken () {
+			return tokens.get(Math.min(index++, tokens.size() - 1));
+		}
+	}
+
+	/**
+	 * Parses data/simple.crux, then measures the parse time of a function with
+	 * 2000 assignments of nested expressions, without lexing.
+	 */
 	public static void main (String[] args) throws FileNotFoundException {
 		Lexer lexer = new Lexer(new FileInputStream("data/simple.crux"), false, true);
 		CruxParser parser = new CruxParser(lexer);
 		parser.parse();
-		Program program = parser.getProgram();
+
+		StringBuilder source = new StringBuilder("func main\n   var num x\n");
+		for(int i = 0; i < 2000; i++) source.append("   x = ").append(expression(6, i)).append('\n');
+		source.append("end\n");
+		lexer = new ArrayLexer(source.toString(), false, true);
+		lexer.setKeywords(new KeywordTable(KEYWORDS));
+		List<Token> tokens = new ArrayList<Token>();
+		do {
+			tokens.add(lexer.nextToken());
+		} while(tokens.get(tokens.size() - 1).type != TokenType.EOF);
+
+		long best = Long.MAX_VALUE;
+		for(int run = 0; run < 50; run++) {
+			long start = System.nanoTime();
+			new CruxParser(new TokenReplay(tokens)).parse();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.println(String.format("%d tokens, best of 50 parses: %.2fms", tokens.size(), best / 1000000f));
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,208 @@
+package com.badlogic.crux;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.badlogic.crux.AstNode.Program;
+import com.badlogic.crux.AstNode.ProgramPart;
+import com.badlogic.crux.Lexer.Token;
+import com.badlogic.crux.Lexer.TokenType;
+import com.badlogic.crux.Parser.Diagnostic;
+
+/**
+ * Keeps the source of a Crux file and its {@link Program} up to date while the file
+ * is edited. The source is split into parts at the top level variable definitions,
+ * struct declarations and function definitions that start a line. An edit only re-lexes
+ * and re-parses the parts it touches plus the part before them, the {@link ProgramPart}
+ * nodes of all other parts are reused. If the last reparsed part has errors it might
+ * have been continued by the text after it, so the reparsed range grows part by part
+ * until it parses cleanly, the next part is free of errors as well, or the end of the
+ * file is reached. Errors are reported like {@link CruxParser} does when it's lenient.
+ */
+public class IncrementalParser {
+	/** a range of the source starting at a line, with the nodes and errors parsed from it **/
+	static class Part {
+		int offset;
+		int line;
+		final List<ProgramPart> nodes = new ArrayList<ProgramPart>();
+		/** the diagnostics with lines relative to the line of the part **/
+		final List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+
+		Part (int offset, int line) {
+			this.offset = offset;
+			this.line = line;
+		}
+	}
+
+	final StringBuilder source = new StringBuilder();
+	final List<Part> parts = new ArrayList<Part>();
+	final ArrayLexer.Symbols symbols = new ArrayLexer.Symbols();
+	/** the number of characters lexed by the last edit **/
+	int reparsed;
+
+	public IncrementalParser (String source) {
+		this.source.append(source);
+		parts.add(new Part(0, 1));
+		reparse(0, 1);
+	}
+
+	/** @return the current source **/
+	public String getSource () {
+		return source.toString();
+	}
+
+	/**
+	 * Replaces length characters at offset with the text and reparses the parts
+	 * the edit touched.
+	 */
+	public void edit (int offset, int length, String text) {
+		if(offset < 0 || length < 0 || offset + length > source.length()) throw new RuntimeException("Edit [" + offset + ", " + (offset + length) + ") out of bounds, source has " + source.length() + " characters");
+		int first = find(offset);
+		int last = find(offset + length);
+		int lines = count(text) - count(source.substring(offset, offset + length));
+		source.replace(offset, offset + length, text);
+		for(int i = last + 1; i < parts.size(); i++) {
+			Part part = parts.get(i);
+			part.offset += text.length() - length;
+			part.line += lines;
+		}
+		reparse(Math.max(0, first - 1), last + 1);
+	}
+
+	/** @return the index of the last part starting at or before offset **/
+	private int find (int offset) {
+		int low = 0, high = parts.size() - 1;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if(parts.get(mid).offset <= offset) low = mid;
+			else high = mid - 1;
+		}
+		return low;
+	}
+
+	private static int count (String text) {
+		int lines = 0;
+		for(int i = 0; i < text.length(); i++) {
+			if(text.charAt(i) == '\n') lines++;
+		}
+		return lines;
+	}
+
+	/** replaces the parts [first, end) with the parts parsed from their source **/
+	private void reparse (int first, int end) {
+		int offset = parts.get(first).offset;
+		int line = parts.get(first).line;
+		while(true) {
+			int regionEnd = end < parts.size()? parts.get(end).offset: source.length();
+			char[] region = new char[regionEnd - offset];
+			source.getChars(offset, regionEnd, region, 0);
+			reparsed = region.length;
+
+			List<Part> newParts = new ArrayList<Part>();
+			boolean openEnded = parse(region, offset, line, newParts);
+			if(end < parts.size() && (openEnded || !parts.get(end).diagnostics.isEmpty())) {
+				end++;
+				continue;
+			}
+			List<Part> replaced = parts.subList(first, end);
+			replaced.clear();
+			replaced.addAll(newParts);
+			return;
+		}
+	}
+
+	/**
+	 * Parses the region into parts.
+	 * @return whether the last part had errors and ran into the end of the region
+	 */
+	private boolean parse (char[] region, int offset, int line, List<Part> newParts) {
+		ArrayLexer lexer = new ArrayLexer(region, false, true, symbols);
+		CruxParser parser = new CruxParser(lexer);
+		parser.recovering = true;
+		Part part = new Part(offset, line);
+		newParts.add(part);
+		boolean empty = true;
+		boolean failed = false;
+
+		while(parser.token.type != TokenType.EOF) {
+			Token token = parser.token;
+			int lineStart = lexer.lineStarts.get(token.line - 1);
+			if(!empty && startsLine(region, lineStart, lineStart + token.col - 1)) {
+				part = new Part(offset + lineStart, line + token.line - 1);
+				newParts.add(part);
+			}
+			empty = false;
+
+			int diagnostics = parser.diagnostics.size();
+			ProgramPart node = parser.programPart();
+			if(node != null) part.nodes.add(node);
+			failed = parser.diagnostics.size() > diagnostics;
+			for(int i = diagnostics; i < parser.diagnostics.size(); i++) {
+				Diagnostic diagnostic = parser.diagnostics.get(i);
+				part.diagnostics.add(new Diagnostic(diagnostic.line + line - 1 - part.line, diagnostic.col, diagnostic.message));
+			}
+		}
+		return failed;
+	}
+
+	private static boolean startsLine (char[] region, int lineStart, int start) {
+		for(int i = lineStart; i < start; i++) {
+			if(region[i] != ' ' && region[i] != '\t') return false;
+		}
+		return true;
+	}
+
+	/** @return a new program with the nodes of all parts **/
+	public Program getProgram () {
+		Program program = new Program();
+		for(Part part: parts) program.parts.addAll(part.nodes);
+		return program;
+	}
+
+	public List<Diagnostic> getDiagnostics () {
+		List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+		for(Part part: parts) {
+			for(Diagnostic diagnostic: part.diagnostics) {
+				diagnostics.add(new Diagnostic(diagnostic.line + part.line, diagnostic.col, diagnostic.message));
+			}
+		}
+		return diagnostics;
+	}
+
+	/**
+	 * Compares an edit in the middle of files of growing size against parsing the whole
+	 * file, the files repeat the given file (data/bench/fib.crux by default).
+	 */
+	public static void main (String[] args) throws FileNotFoundException {
+		String unit = new String(ArrayLexer.read(new FileInputStream(new File(args.length > 0? args[0]: "data/bench/fib.crux"))));
+		for(int copies = 100; copies <= 3200; copies *= 2) {
+			StringBuilder builder = new StringBuilder();
+			for(int i = 0; i < copies; i++) {
+				builder.append(unit).append('\n');
+			}
+			String source = builder.toString();
+			int lines = count(source);
+			IncrementalParser parser = new IncrementalParser(source);
+			int offset = source.indexOf("calls + 1", source.length() / 2) + "calls + ".length();
+
+			long start = System.nanoTime();
+			for(int i = 0; i < 100; i++) {
+				parser.edit(offset, 1, i % 2 == 0? "2": "1");
+			}
+			long incremental = (System.nanoTime() - start) / 100;
+
+			start = System.nanoTime();
+			for(int i = 0; i < 10; i++) {
+				CruxParser full = new CruxParser(new ArrayLexer(parser.getSource(), false, true));
+				full.setLenient(true);
+				full.parse();
+			}
+			long full = (System.nanoTime() - start) / 10;
+			System.out.println(String.format("%d lines, %d parts, edit: %.3fms (%d chars reparsed), full parse: %.3fms", lines, parser.parts.size(),
+				incremental / 1000000f, parser.reparsed, full / 1000000f));
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.badlogic.crux;
+
+import java.util.Arrays;
+
+/**
+ * Perfect hash table for the keywords of a {@link Parser}. The seed of the hash
+ * function is searched when the table is built so that no two keywords share a slot,
+ * a lookup hashes the candidate once and compares it against at most one keyword.
+ * Keywords are identified by their index in the array the table was built from.
+ */
+public class KeywordTable {
+	final String[] keywords;
+	int[] slots;
+	int seed;
+	int minLength = Integer.MAX_VALUE;
+	int maxLength;
+
+	public KeywordTable (String[] keywords) {
+		this.keywords = keywords;
+		for(String keyword: keywords) {
+			minLength = Math.min(minLength, keyword.length());
+			maxLength = Math.max(maxLength, keyword.length());
+		}
+		int size = 1;
+		while(size < keywords.length * 2) size <<= 1;
+		while(!build(size)) size <<= 1;
+	}
+
+	private boolean build (int size) {
+		slots = new int[size];
+		for(seed = 1; seed < 1024; seed++) {
+			Arrays.fill(slots, -1);
+			boolean collision = false;
+			for(int i = 0; i < keywords.length && !collision; i++) {
+				int slot = hash(keywords[i]) & (size - 1);
+				if(slots[slot] != -1) collision = true;
+				slots[slot] = i;
+			}
+			if(!collision) return true;
+		}
+		return false;
+	}
+
+	private int hash (String text) {
+		int hash = text.length();
+		for(int i = 0; i < text.length(); i++) hash = hash * seed + text.charAt(i);
+		return hash ^ (hash >>> 16);
+	}
+
+	private int hash (char[] chars, int start, int length) {
+		int hash = length;
+		for(int i = start; i < start + length; i++) hash = hash * seed + chars[i];
+		return hash ^ (hash >>> 16);
+	}
+
+	/** @return the index of the keyword or -1 **/
+	public int lookup (String text) {
+		if(text.length() < minLength || text.length() > maxLength) return -1;
+		int keyword = slots[hash(text) & (slots.length - 1)];
+		return keyword != -1 && keywords[keyword].equals(text)? keyword: -1;
+	}
+
+	/** @return the index of the keyword or -1 **/
+	public int lookup (char[] chars, int start, int length) {
+		if(length < minLength || length > maxLength) return -1;
+		int keyword = slots[hash(chars, start, length) & (slots.length - 1)];
+		if(keyword == -1) return -1;
+		String text = keywords[keyword];
+		if(text.length() != length) return -1;
+		for(int i = 0; i < length; i++) {
+			if(text.charAt(i) != chars[start + i]) return -1;
+		}
+		return keyword;
+	}
+
+	public String getKeyword (int keyword) {
+		return keywords[keyword];
+	}
+
+	public int size () {
+		return keywords.length;
+	}
+}
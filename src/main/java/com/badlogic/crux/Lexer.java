@@ -12,8 +12,9 @@ import java.io.Reader;
  * @author mzechner */
 public class Lexer {
 	private final LookAheadReader in;
-	private final boolean reportEol;
-	private final boolean reportShift;
+	final boolean reportEol;
+	final boolean reportShift;
+	KeywordTable keywords;
 
 	public Lexer (InputStream in) {
 		this(in, false, true);
@@ -25,6 +26,18 @@ public class Lexer {
 		this.reportShift = reportShift;
 	}
 
+	/** for subclasses that read the input themselves and override {@link #nextToken()} **/
+	protected Lexer (boolean reportEol, boolean reportShift) {
+		this.in = null;
+		this.reportEol = reportEol;
+		this.reportShift = reportShift;
+	}
+
+	/** identifiers that are keywords get the index of the keyword in {@link Token#keyword} **/
+	public void setKeywords (KeywordTable keywords) {
+		this.keywords = keywords;
+	}
+
 	public Token nextToken () {
 		int c = in.read();
 
@@ -71,6 +84,8 @@ public class Lexer {
 		if (c == '%') return new Token(TokenType.MOD, "%");
 		if (reportShift && c == '<' && in.lookAhead('<')) return new Token(TokenType.SHL, "<<");
 		if (reportShift && c == '>' && in.lookAhead('>')) return new Token(TokenType.SHR, ">>");
+		if (c == '&' && in.lookAhead('&')) return new Token(TokenType.LAND, "&&");
+		if (c == '|' && in.lookAhead('|')) return new Token(TokenType.LOR, "||");
 		if (c == '&') return new Token(TokenType.AND, "&");
 		if (c == '|') return new Token(TokenType.OR, "|");
 		if (c == '^') return new Token(TokenType.XOR, "^");
@@ -232,15 +247,26 @@ public class Lexer {
 		public final int line;
 		public final int col;
 		public final String text;
+		/** the index of the keyword in the parser's keyword table, -1 if this is not a keyword **/
+		public final int keyword;
 
 		public Token (TokenType type, String text) {
 			this.type = type;
+			this.keyword = type == TokenType.IDENTIFIER && keywords != null? keywords.lookup(text): -1;
 			this.line = Lexer.this.in.line();
 			this.col = Lexer.this.in.col()
 				- (type != TokenType.ERROR && type != TokenType.EOL && type != TokenType.EOF ? text.length() - 1 : 0);
 			this.text = text;
 		}
 
+		public Token (TokenType type, String text, int line, int col, int keyword) {
+			this.type = type;
+			this.keyword = keyword;
+			this.line = line;
+			this.col = col;
+			this.text = text;
+		}
+
 		@Override
 		public String toString () {
 			return "Token [type=" + type + ", line=" + line + ", col=" + col + ", text=" + text + "]";
@@ -0,0 +1,202 @@
+package com.badlogic.crux;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.badlogic.crux.AstNode.FunctionDefinition;
+import com.badlogic.crux.AstNode.Program;
+import com.badlogic.crux.AstNode.ProgramPart;
+import com.badlogic.crux.Lexer.TokenType;
+import com.badlogic.dcpu.Assembler;
+import com.badlogic.dcpu.IntArray;
+
+/**
+ * Parses and compiles Crux source on an {@link ExecutorService}. A pre-scan over the
+ * tokens finds the top level variable definitions, struct declarations and function
+ * definitions that start a line, the source is cut into chunks of about equal size at
+ * those and the chunks are parsed in parallel. The symbol tables of the {@link CruxCompiler}
+ * are built in source order, after that they are only read, so every function is compiled
+ * to its own {@link Assembler} in parallel. Linking appends the function assemblers in
+ * source order, the result is the same code {@link CruxCompiler#compile(Program)} generates.
+ * If a chunk has syntax errors the whole source is parsed again by a {@link CruxParser}
+ * to report the same errors a sequential parse does.
+ */
+public class ParallelCompiler {
+	final ExecutorService executor;
+	final int chunks;
+
+	/**
+	 * @param chunks the number of chunks the source is parsed in, a few per thread
+	 * of the executor.
+	 */
+	public ParallelCompiler (ExecutorService executor, int chunks) {
+		this.executor = executor;
+		this.chunks = chunks;
+	}
+
+	public short[] compile (String source) {
+		return compile(parse(source));
+	}
+
+	public Program parse (final String source) {
+		IntArray cuts = split(source.toCharArray(), chunks);
+		List<Future<List<ProgramPart>>> futures = new ArrayList<Future<List<ProgramPart>>>();
+		for(int i = 0; i < cuts.size(); i++) {
+			final int start = cuts.get(i);
+			final int end = i + 1 < cuts.size()? cuts.get(i + 1): source.length();
+			futures.add(executor.submit(new Callable<List<ProgramPart>>() {
+				public List<ProgramPart> call () {
+					return parseChunk(source.substring(start, end));
+				}
+			}));
+		}
+
+		Program program = new Program();
+		for(Future<List<ProgramPart>> future: futures) {
+			List<ProgramPart> parts = get(future);
+			if(parts == null) {
+				CruxParser parser = new CruxParser(new ArrayLexer(source, false, true));
+				parser.parse();
+				return parser.getProgram();
+			}
+			program.parts.addAll(parts);
+		}
+		return program;
+	}
+
+	/** @return the parts of the chunk or null if it has syntax errors **/
+	static List<ProgramPart> parseChunk (String chunk) {
+		CruxParser parser = new CruxParser(new ArrayLexer(chunk, false, true));
+		parser.recovering = true;
+		List<ProgramPart> parts = new ArrayList<ProgramPart>();
+		while(parser.token.type != TokenType.EOF) {
+			ProgramPart part = parser.programPart();
+			if(part != null) parts.add(part);
+		}
+		return parser.getDiagnostics().isEmpty()? parts: null;
+	}
+
+	/**
+	 * Finds the top level parts that start a line. Nesting is tracked by counting the
+	 * struct, func, if and while keywords against the end keywords, a func after var,
+	 * '@', '(', ',' or ':' names a function type and doesn't start a definition.
+	 * @return the offsets of the chunks, the first chunk starts at 0
+	 */
+	static IntArray split (char[] source, int chunks) {
+		ArrayLexer lexer = new ArrayLexer(source, false, true, new ArrayLexer.Symbols());
+		lexer.setKeywords(new KeywordTable(CruxParser.KEYWORDS));
+		IntArray cuts = new IntArray();
+		cuts.add(0);
+		int size = source.length / Math.max(1, chunks);
+		int depth = 0;
+		boolean type = false;
+		for(int token = lexer.next(); lexer.type(token) != TokenType.EOF; token = lexer.next()) {
+			int keyword = lexer.keyword(token);
+			if(depth == 0 && (keyword == CruxParser.VAR || keyword == CruxParser.STRUCT || (keyword == CruxParser.FUNC && !type))) {
+				int lineStart = lexer.start(token) - lexer.col(token) + 1;
+				if(lineStart - cuts.get(cuts.size() - 1) >= size && isBlank(source, lineStart, lexer.start(token))) cuts.add(lineStart);
+				if(keyword != CruxParser.VAR) depth++;
+			} else if(depth > 0 && (keyword == CruxParser.IF || keyword == CruxParser.WHILE)) {
+				depth++;
+			} else if(depth > 0 && keyword == CruxParser.END) {
+				depth--;
+			}
+			TokenType tokenType = lexer.type(token);
+			type = keyword == CruxParser.VAR || tokenType == TokenType.AT || tokenType == TokenType.L_PARA || tokenType == TokenType.COMMA || tokenType == TokenType.COLON;
+		}
+		return cuts;
+	}
+
+	private static boolean isBlank (char[] source, int start, int end) {
+		for(int i = start; i < end; i++) {
+			if(source[i] != ' ' && source[i] != '\t') return false;
+		}
+		return true;
+	}
+
+	/** compiles the functions in parallel and links them **/
+	public short[] compile (Program program) {
+		final CruxCompiler compiler = new CruxCompiler(program);
+		List<Future<Assembler>> futures = new ArrayList<Future<Assembler>>();
+		for(final FunctionDefinition func: compiler.functions.values()) {
+			futures.add(executor.submit(new Callable<Assembler>() {
+				public Assembler call () {
+					Assembler asm = new Assembler();
+					compiler.compileFunction(func, asm);
+					return asm;
+				}
+			}));
+		}
+
+		Assembler asm = new Assembler();
+		compiler.emitEntry(asm);
+		for(Future<Assembler> future: futures) {
+			asm.append(get(future));
+		}
+		compiler.emitGlobals(asm);
+		return asm.getDump();
+	}
+
+	private static <T> T get (Future<T> future) {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/** @return a program with the given number of functions, each calling the previous one **/
+	static String generate (int functions) {
+		StringBuilder builder = new StringBuilder();
+		builder.append("struct Pair\n   num first\n   num second\nend\n\nvar Pair pair\n\n");
+		for(int i = 0; i < functions; i++) {
+			builder.append("func f" + i + "(num n): num\n");
+			builder.append("   var num total\n   var num i\n   i = 0\n");
+			builder.append("   while i < n do\n      if (i & 1) == 0 then\n         total = total + i * " + i + "\n      else\n         pair.first = pair.first + 1\n      end\n      i = i + 1\n   end\n");
+			builder.append(i == 0? "   return total\n": "   return total + f" + (i - 1) + "(n - 1)\n");
+			builder.append("end\n\n");
+		}
+		builder.append("func main: num\n   return f" + (functions - 1) + "(10)\nend\n");
+		return builder.toString();
+	}
+
+	/**
+	 * Compares the sequential and the parallel compiler on a program generated by
+	 * {@link #generate(int)} with the given number of functions (20000 by default).
+	 */
+	public static void main (String[] args) {
+		String source = generate(args.length > 0? Integer.parseInt(args[0]): 20000);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		ParallelCompiler compiler = new ParallelCompiler(executor, threads * 4);
+		for(int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			CruxParser parser = new CruxParser(new ArrayLexer(source, false, true));
+			parser.parse();
+			long parsed = System.nanoTime();
+			short[] sequential = CruxCompiler.compile(parser.getProgram());
+			long compiled = System.nanoTime();
+
+			Program program = compiler.parse(source);
+			long parallelParsed = System.nanoTime();
+			short[] parallel = compiler.compile(program);
+			long parallelCompiled = System.nanoTime();
+			if(!Arrays.equals(sequential, parallel)) throw new RuntimeException("parallel compiler generated different code");
+
+			System.out.println(String.format("%d lines, %d threads, sequential parse: %.1fms, compile: %.1fms, parallel parse: %.1fms, compile: %.1fms",
+				source.split("\n").length, threads, (parsed - start) / 1000000f, (compiled - parsed) / 1000000f,
+				(parallelParsed - compiled) / 1000000f, (parallelCompiled - parallelParsed) / 1000000f));
+		}
+		executor.shutdown();
+	}
+}
@@ -1,7 +1,7 @@
 package com.badlogic.crux;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.badlogic.crux.Lexer.Token;
 import com.badlogic.crux.Lexer.TokenType;
@@ -13,17 +13,60 @@ import com.badlogic.crux.Lexer.TokenType;
  *
  */
 public abstract class Parser {
+	/** a syntax error with the position of the token it was found at **/
+	public static class Diagnostic {
+		public final int line;
+		public final int col;
+		public final String message;
+
+		public Diagnostic (int line, int col, String message) {
+			this.line = line;
+			this.col = col;
+			this.message = message;
+		}
+
+		@Override
+		public String toString () {
+			return "error [" + line + ":" + col + "]: " + message;
+		}
+	}
+
+	/**
+	 * Thrown by {@link Parser#error(String)} while recovering, caught where the parser
+	 * can synchronize. Only thrown for errors, so it is shared and has no stack trace.
+	 */
+	protected static class SyntaxError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		static final SyntaxError INSTANCE = new SyntaxError();
+
+		@Override
+		public synchronized Throwable fillInStackTrace () {
+			return this;
+		}
+	}
+
 	protected final Lexer lexer;
 	protected Token lastToken;
 	protected Token token;
 	protected Token lookAhead;
-	protected Set<String> keywords = new HashSet<String>();
+	protected final KeywordTable keywords;
+	/** the number of tokens consumed so far **/
+	protected int position;
+	/** if set {@link #error(String)} records a {@link Diagnostic} and throws a {@link SyntaxError} **/
+	protected boolean recovering;
+	protected final List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+	private int lastErrorPosition = -1;
 	
+	/**
+	 * The lexer classifies identifiers that are keywords, {@link Token#keyword} is
+	 * the index of the keyword in the given array. Subclasses should use the index
+	 * with {@link #accept(int)} and {@link #expect(int)} or switch on it.
+	 */
 	public Parser(Lexer lexer, String[] keywords) {
 		this.lexer = lexer;
-		for(String keyword: keywords) {
-			this.keywords.add(keyword);
-		}
+		this.keywords = new KeywordTable(keywords);
+		lexer.setKeywords(this.keywords);
 		token = lexer.nextToken();
 		if(token.type == TokenType.EOF) lookAhead = token;
 		else lookAhead = lexer.nextToken();
@@ -31,10 +74,23 @@ public abstract class Parser {
 	
 	public abstract void parse();
 	
+	public List<Diagnostic> getDiagnostics() {
+		return diagnostics;
+	}
+	
 	protected void nextToken() {
 		lastToken = token;
 		token = lookAhead;
-		if(token.type == TokenType.ERROR) error(token.text);
+		position++;
+		if(token.type == TokenType.ERROR) {
+			if(!recovering) error(token.text);
+			// lexical errors are reported and skipped, the parser doesn't see them
+			while(token.type == TokenType.ERROR) {
+				diagnostics.add(new Diagnostic(token.line, token.col, token.text));
+				token = lexer.nextToken();
+			}
+			lookAhead = token;
+		}
 		if(token.type == TokenType.EOF) lookAhead = token;
 		else lookAhead = lexer.nextToken();
 	}
@@ -49,11 +105,16 @@ public abstract class Parser {
 	}
 	
 	protected boolean accept(String keyword) {
-		if(!keywords.contains(keyword)) {
+		int index = keywords.lookup(keyword);
+		if(index == -1) {
 			error("'" + keyword + "' is not a keyword, internal parser error");
 			return false;
 		}
-		if(token.type == TokenType.IDENTIFIER && keyword.equals(token.text)) {
+		return accept(index);
+	}
+	
+	protected boolean accept(int keyword) {
+		if(token.keyword == keyword) {
 			nextToken();
 			return true;
 		} else {
@@ -75,6 +136,12 @@ public abstract class Parser {
 		return false;
 	}
 	
+	protected boolean expect(int keyword) {
+		if(accept(keyword)) return true;
+		error("Expected '" + keywords.getKeyword(keyword) + "'");
+		return false;
+	}
+	
 	protected boolean lookAhead(String keyword) {
 		boolean result = keyword.equals(lookAhead.text);
 		if(result) nextToken();
@@ -88,6 +155,32 @@ public abstract class Parser {
 	}
 	
 	protected void error(String message) {
-		throw new RuntimeException("error [" +  token.line + ":" + token.col + "]: " + message + ", " + token);
+		if(!recovering) throw new RuntimeException("error [" +  token.line + ":" + token.col + "]: " + message + ", " + token);
+		// follow-up errors at the same token, e.g. several missing 'end's at EOF, are not reported
+		if(position != lastErrorPosition) {
+			diagnostics.add(new Diagnostic(token.line, token.col, message + ", found " + (token.type == TokenType.EOF? "end of file": "'" + token.text + "'")));
+			lastErrorPosition = position;
+		}
+		throw SyntaxError.INSTANCE;
+	}
+	
+	/**
+	 * Called after a {@link SyntaxError} was caught. Skips the current token if nothing
+	 * was consumed since start, so the parser makes progress, then skips tokens until one
+	 * of the given keywords or EOF.
+	 * @param start the {@link #position} at which the failed construct started
+	 */
+	protected void synchronize(int start, int... keywords) {
+		if(position == start && token.type != TokenType.EOF) nextToken();
+		while(token.type != TokenType.EOF && !isKeyword(keywords)) {
+			nextToken();
+		}
+	}
+	
+	protected boolean isKeyword(int... keywords) {
+		for(int keyword: keywords) {
+			if(token.keyword == keyword) return true;
+		}
+		return false;
 	}
 }
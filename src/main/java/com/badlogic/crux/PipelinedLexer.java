@@ -0,0 +1,129 @@
+package com.badlogic.crux;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs another {@link Lexer} on its own thread, the tokens are handed to the parser
+ * through a single producer, single consumer ring buffer. The lexer thread is started
+ * by the first {@link #nextToken()}, after the parser set its keywords, and ends after
+ * EOF. If the ring is full the lexer waits for the parser, so at most capacity tokens
+ * are buffered. An exception thrown by the lexer is rethrown by {@link #nextToken()}
+ * after the tokens lexed before it. Call {@link #close()} to stop the thread if the
+ * parser gives up before EOF.
+ */
+public class PipelinedLexer extends Lexer {
+	final Lexer lexer;
+	final Token[] ring;
+	final int mask;
+	/** the number of tokens written by the lexer thread and read by the parser **/
+	volatile long written;
+	volatile long read;
+	volatile boolean closed;
+	/** thrown by the lexer, set after the tokens before it were written **/
+	volatile RuntimeException error;
+	Thread thread;
+	/** returned again if the parser reads past EOF **/
+	Token eof;
+
+	public PipelinedLexer (Lexer lexer) {
+		this(lexer, 1024);
+	}
+
+	/** @param capacity the size of the ring, a power of two **/
+	public PipelinedLexer (Lexer lexer, int capacity) {
+		super(lexer.reportEol, lexer.reportShift);
+		if(capacity <= 0 || (capacity & (capacity - 1)) != 0) throw new RuntimeException("Capacity must be a power of two, got " + capacity);
+		this.lexer = lexer;
+		this.ring = new Token[capacity];
+		this.mask = capacity - 1;
+	}
+
+	@Override
+	public void setKeywords (KeywordTable keywords) {
+		if(thread != null) throw new RuntimeException("Keywords must be set before the first token is read");
+		lexer.setKeywords(keywords);
+	}
+
+	@Override
+	public Token nextToken () {
+		if(eof != null) return eof;
+		if(thread == null) start();
+		long read = this.read;
+		int spins = 0;
+		while(written == read) {
+			// the error is set after the last token was written, check for tokens again
+			if(error != null && written == read) throw error;
+			spins = idle(spins);
+		}
+		Token token = ring[(int)read & mask];
+		ring[(int)read & mask] = null;
+		this.read = read + 1;
+		if(token.type == TokenType.EOF) eof = token;
+		return token;
+	}
+
+	private void start () {
+		thread = new Thread("PipelinedLexer") {
+			@Override
+			public void run () {
+				produce();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void produce () {
+		long written = this.written;
+		try {
+			while(!closed) {
+				Token token = lexer.nextToken();
+				int spins = 0;
+				while(written - read == ring.length) {
+					if(closed) return;
+					spins = idle(spins);
+				}
+				ring[(int)written & mask] = token;
+				this.written = ++written;
+				if(token.type == TokenType.EOF) return;
+			}
+		} catch(RuntimeException e) {
+			error = e;
+		} catch(Error e) {
+			error = new RuntimeException(e);
+		}
+	}
+
+	/** yields the first times a side has to wait, then sleeps briefly so a stalled side doesn't burn a core **/
+	private static int idle (int spins) {
+		if(spins < 100) Thread.yield();
+		else LockSupport.parkNanos(50000);
+		return spins + 1;
+	}
+
+	/** stops the lexer thread, the tokens not read yet are dropped **/
+	public void close () {
+		closed = true;
+	}
+
+	/**
+	 * Compares the parse time of a generated Crux program with 20000 functions with the
+	 * {@link Lexer} called by the parser and running on its own thread.
+	 */
+	public static void main (String[] args) {
+		byte[] source = ParallelCompiler.generate(20000).getBytes(Charset.forName("UTF-8"));
+		for(int run = 0; run < 10; run++) {
+			long start = System.nanoTime();
+			new CruxParser(new Lexer(new ByteArrayInputStream(source))).parse();
+			long direct = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			new CruxParser(new PipelinedLexer(new Lexer(new ByteArrayInputStream(source)))).parse();
+			long pipelined = System.nanoTime() - start;
+			System.out.println(String.format("%d bytes, %d cores, direct: %.1fms, pipelined: %.1fms", source.length,
+				Runtime.getRuntime().availableProcessors(), direct / 1000000f, pipelined / 1000000f));
+		}
+	}
+}
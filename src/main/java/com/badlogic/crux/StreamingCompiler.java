@@ -0,0 +1,832 @@
+package com.badlogic.crux;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.crux.AstNode.BinaryExpression.BinaryOperator;
+import com.badlogic.crux.AstNode.FunctionSignature;
+import com.badlogic.crux.AstNode.Program;
+import com.badlogic.crux.AstNode.StructureDeclaration;
+import com.badlogic.crux.AstNode.Type;
+import com.badlogic.crux.AstNode.TypeDefinition;
+import com.badlogic.crux.AstNode.VariableDeclaration;
+import com.badlogic.crux.CruxCompiler.Field;
+import com.badlogic.crux.CruxCompiler.Struct;
+import com.badlogic.crux.CruxCompiler.Variable;
+import com.badlogic.crux.Lexer.TokenType;
+import com.badlogic.dcpu.Assembler;
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+
+/**
+ * Single pass Crux compiler, the statement and expression productions emit dcpu-16 code
+ * while they parse instead of building an {@link AstNode.Program}. Forward jumps are
+ * {@link Assembler} labels patched later, the frame size of a function is a label defined
+ * after its body. The compiler only keeps the symbols declared so far, the scopes, loops
+ * and operands of the constructs being parsed and the string literals of the current
+ * function, so its memory grows with the nesting depth, not with the size of the source.</p>
+ *
+ * The code is not as good as the {@link CruxCompiler}'s, there is no register allocation
+ * as the use counts of variables are only known after a function was parsed. Locals live
+ * in the frame, an expression nested n operands deep holds its value in the n-th of the
+ * {@link #REGISTERS} or in a spill slot below the locals. The condition of a while loop is
+ * emitted after the body, its code is kept aside until the body was compiled.</p>
+ *
+ * Differences to the {@link CruxCompiler}: structs and globals have to be declared before
+ * they are used, an unknown identifier names a function that may be defined later. The
+ * arguments of a call are pushed from left to right, so the first argument has the highest
+ * address, all registers but J are caller saved. && and || skip their right operand if
+ * the left one decides the result. Syntax errors are not recovered from, the first error
+ * is thrown.
+ */
+public class StreamingCompiler extends CruxParser {
+	/** hold the values of the operands nested 0 to 5 deep **/
+	static final Register[] REGISTERS = { Register.A, Register.B, Register.C, Register.X, Register.Y, Register.Z };
+	/** holds a pointer stored in a spill slot while it is dereferenced **/
+	static final Register SCRATCH = Register.I;
+
+	/**
+	 * Value of an expression: a constant, an argument that can be read at any time like a
+	 * variable or the address of a global, a value in the slot of its depth, a comparison
+	 * that was not evaluated yet or a struct, which can only be assigned or passed.
+	 */
+	static class Value {
+		static final int CONSTANT = 0, ARG = 1, SLOT = 2, COMPARISON = 3, STRUCT = 4;
+		int kind;
+		int value;
+		Arg arg;
+		int depth;
+		BinaryOperator operator;
+		Arg left;
+		Arg right;
+		Place place;
+	}
+
+	/** storage location of an lvalue: a global, a frame slot, memory pointed to by a slot or a function **/
+	static class Place {
+		TypeDefinition type;
+		String label;
+		boolean frame;
+		int depth = -1;
+		int offset;
+		String function;
+	}
+
+	final Assembler asm = new Assembler();
+	/** the assembler code is emitted to, the condition of a while loop goes to its own **/
+	Assembler out = asm;
+	final Map<String, Struct> structs = new HashMap<String, Struct>();
+	final Map<String, Variable> globals = new HashMap<String, Variable>();
+	/** the number of arguments of the functions defined so far and of the ones used before their definition, -1 if not called yet **/
+	final Map<String, Integer> functions = new HashMap<String, Integer>();
+	final Map<String, Integer> undefined = new HashMap<String, Integer>();
+
+	// state of the function being compiled
+	String function;
+	final LinkedList<Map<String, Variable>> scopes = new LinkedList<Map<String, Variable>>();
+	final LinkedList<String> breakLabels = new LinkedList<String>();
+	final List<String> literals = new ArrayList<String>();
+	int labels;
+	int locals;
+	int maxLocals;
+	int spills;
+	int blocks;
+
+	public StreamingCompiler (Lexer lexer) {
+		super(lexer);
+	}
+
+	/** compiles the program, the code is available via {@link #getDump()} **/
+	@Override
+	public void parse () {
+		recovering = false;
+		asm.eop(Opcode.JSR, asm.label("main"));
+		asm.val((short)0);
+		while(token.type != TokenType.EOF) {
+			switch(token.keyword) {
+			case VAR:
+				nextToken();
+				global(varDef());
+				break;
+			case STRUCT:
+				struct(structDecl());
+				break;
+			case FUNC:
+				function();
+				break;
+			default:
+				error("Expected variable definition, struct declaration or function definition");
+			}
+		}
+		if(!functions.containsKey("main")) error("no main function defined");
+		for(String name: undefined.keySet()) error("unknown function '" + name + "'");
+	}
+
+	public short[] getDump () {
+		return asm.getDump();
+	}
+
+	public static short[] compile (Lexer lexer) {
+		StreamingCompiler compiler = new StreamingCompiler(lexer);
+		compiler.parse();
+		return compiler.getDump();
+	}
+
+	// ---------------------------------------------------------------------
+	// declarations
+	// ---------------------------------------------------------------------
+
+	/** the storage of a global is emitted where it is declared, between the functions **/
+	private void global (VariableDeclaration decl) {
+		if(globals.containsKey(decl.identifier)) error("global '" + decl.identifier + "' declared twice");
+		if(functions.containsKey(decl.identifier)) error("global '" + decl.identifier + "' clashes with a function");
+		if(undefined.containsKey(decl.identifier)) error("global '" + decl.identifier + "' used before its declaration");
+		Variable global = new Variable(decl.identifier, decl.typeDef, size(decl.typeDef));
+		global.label = decl.identifier;
+		globals.put(decl.identifier, global);
+		asm.markLabel(global.label);
+		for(int i = 0; i < global.size; i++) asm.val((short)0);
+	}
+
+	private void struct (StructureDeclaration decl) {
+		if(structs.containsKey(decl.name)) error("struct '" + decl.name + "' declared twice");
+		Struct struct = new Struct(decl);
+		int offset = 0;
+		for(VariableDeclaration field: decl.fields) {
+			Field f = new Field();
+			f.type = field.typeDef;
+			f.offset = offset;
+			offset += size(field.typeDef);
+			if(struct.fields.put(field.identifier, f) != null) error("field '" + field.identifier + "' declared twice in struct '" + decl.name + "'");
+		}
+		struct.size = offset;
+		structs.put(decl.name, struct);
+	}
+
+	private int size (TypeDefinition type) {
+		if(type.references > 0 || type.type != Type.Struct) return 1;
+		return struct(type).size;
+	}
+
+	private Struct struct (TypeDefinition type) {
+		Struct struct = structs.get(type.name);
+		if(struct == null) error("unknown struct '" + type.name + "'");
+		return struct;
+	}
+
+	private void function () {
+		expect(FUNC);
+		expect(TokenType.IDENTIFIER);
+		String name = lastToken.text;
+		FunctionSignature signature = funcSig();
+		if(functions.containsKey(name)) error("function '" + name + "' defined twice");
+		if(globals.containsKey(name)) error("function '" + name + "' clashes with a global");
+		Integer calledWith = undefined.remove(name);
+		if(calledWith != null && calledWith != -1 && calledWith != signature.arguments.size()) error("wrong number of arguments calling '" + name + "'");
+		functions.put(name, signature.arguments.size());
+
+		function = name;
+		labels = 0;
+		locals = 0;
+		maxLocals = 0;
+		spills = 0;
+		literals.clear();
+
+		// the first argument was pushed first, so it has the highest address
+		scopes.push(new HashMap<String, Variable>());
+		int offset = 2;
+		for(int i = signature.arguments.size() - 1; i >= 0; i--) {
+			VariableDeclaration decl = signature.arguments.get(i);
+			Variable var = declare(decl);
+			var.argument = true;
+			var.offset = offset;
+			offset += var.size;
+		}
+
+		asm.markLabel(name);
+		asm.op(Opcode.SET, Arg.push(), Arg.reg(Register.J));
+		asm.op(Opcode.SET, Arg.reg(Register.J), Arg.sp());
+		asm.op(Opcode.SUB, Arg.sp(), asm.label(label("frame")));
+		block(END);
+		expect(END);
+		scopes.pop();
+
+		asm.markLabel(label("return"));
+		asm.op(Opcode.SET, Arg.sp(), Arg.reg(Register.J));
+		asm.op(Opcode.SET, Arg.reg(Register.J), Arg.pop());
+		asm.op(Opcode.SET, Arg.pc(), Arg.pop());
+		asm.defineLabel(label("frame"), maxLocals + spills);
+		asm.defineLabel(label("spill"), -maxLocals - 1);
+
+		for(int i = 0; i < literals.size(); i++) {
+			asm.markLabel(label("literal" + i));
+			for(char c: literals.get(i).toCharArray()) asm.val((short)c);
+			asm.val((short)0);
+		}
+
+		// the labels of the function are only used by its code
+		for(int i = 0; i < labels; i++) asm.resolveLabel(label(Integer.toString(i)));
+		for(int i = 0; i < literals.size(); i++) asm.resolveLabel(label("literal" + i));
+		asm.resolveLabel(label("return"));
+		asm.resolveLabel(label("frame"));
+		asm.resolveLabel(label("spill"));
+	}
+
+	private Variable declare (VariableDeclaration decl) {
+		Variable var = new Variable(decl.identifier, decl.typeDef, size(decl.typeDef));
+		if(scopes.peek().put(decl.identifier, var) != null) error("variable '" + decl.identifier + "' declared twice in function '" + function + "'");
+		return var;
+	}
+
+	private String label (String name) {
+		return function + "." + name;
+	}
+
+	private String newLabel () {
+		return label(Integer.toString(labels++));
+	}
+
+	// ---------------------------------------------------------------------
+	// statements
+	// ---------------------------------------------------------------------
+
+	/** compiles statements in a new scope up to one of the keywords, the frame words of its locals are reused afterwards **/
+	private void block (int end, int... ends) {
+		scopes.push(new HashMap<String, Variable>());
+		blocks++;
+		while(token.keyword != end && !isKeyword(ends)) {
+			if(token.type == TokenType.EOF) error("Expected 'end'");
+			compileStatement();
+		}
+		blocks--;
+		for(Variable var: scopes.pop().values()) locals -= var.size;
+	}
+
+	private void compileStatement () {
+		switch(token.keyword) {
+		case RETURN:
+			compileReturn();
+			return;
+		case IF:
+			compileIf();
+			return;
+		case WHILE:
+			compileWhile();
+			return;
+		case BREAK:
+			nextToken();
+			if(breakLabels.isEmpty()) error("break outside of loop in function '" + function + "'");
+			jump(breakLabels.peek());
+			return;
+		case VAR: {
+			nextToken();
+			Variable var = declare(varDef());
+			locals += var.size;
+			maxLocals = Math.max(maxLocals, locals);
+			var.offset = -locals;
+			return;
+		}
+		}
+		if(token.type == TokenType.IDENTIFIER || token.type == TokenType.L_BRACK) {
+			Place place = lvalue(0);
+			if(token.type == TokenType.ASSIGN) {
+				compileAssignment(place);
+				return;
+			} else if(token.type == TokenType.L_PARA) {
+				call(place, 0);
+				return;
+			}
+		}
+		error("Expected assignment, function call, if, while, or return");
+	}
+
+	private void compileReturn () {
+		expect(RETURN);
+		// the return value has to start on the same line as the return keyword
+		if(token.type != TokenType.EOF && token.line == lastToken.line && token.keyword != END && token.keyword != ELSE) {
+			load(expression(0), 0);
+		}
+		// the epilogue directly follows the last statement
+		if(blocks > 1 || token.keyword != END) jump(label("return"));
+	}
+
+	private void compileAssignment (Place place) {
+		expect(TokenType.ASSIGN);
+		if(place.function != null) error("can't assign to function '" + place.function + "'");
+		int depth = place.depth + 1;
+		Value value = expression(depth);
+		if(CruxCompiler.isStructValue(place.type)) {
+			if(value.kind != Value.STRUCT || !value.place.type.name.equals(place.type.name)) error("can't assign to struct '" + place.type.name + "' in function '" + function + "'");
+			for(int i = 0; i < size(place.type); i++) {
+				Arg to = arg(place, i);
+				out.op(Opcode.SET, to, arg(value.place, i));
+			}
+			return;
+		}
+		Arg from = arg(value, depth);
+		out.op(Opcode.SET, arg(place, 0), from);
+	}
+
+	private void compileIf () {
+		expect(IF);
+		String elseLabel = newLabel();
+		branch(expression(0), elseLabel, false);
+		expect(THEN);
+		block(ELSE, END);
+		if(accept(ELSE)) {
+			String end = newLabel();
+			jump(end);
+			out.markLabel(elseLabel);
+			block(END);
+			out.markLabel(end);
+		} else {
+			out.markLabel(elseLabel);
+		}
+		expect(END);
+	}
+
+	private void compileWhile () {
+		expect(WHILE);
+		String body = newLabel();
+		String condition = newLabel();
+		String end = newLabel();
+
+		// the condition is placed after the body, one branch per iteration
+		Assembler outer = out;
+		out = new Assembler();
+		branch(expression(0), body, true);
+		Assembler conditionCode = out;
+		out = outer;
+		expect(DO);
+
+		jump(condition);
+		out.markLabel(body);
+		breakLabels.push(end);
+		block(END);
+		expect(END);
+		breakLabels.pop();
+		out.markLabel(condition);
+		out.append(conditionCode);
+		out.markLabel(end);
+	}
+
+	private void jump (String label) {
+		out.op(Opcode.SET, Arg.pc(), out.label(label));
+	}
+
+	/** jumps to the label if the value is when, falls through otherwise **/
+	private void branch (Value value, String label, boolean when) {
+		switch(value.kind) {
+		case Value.CONSTANT:
+			if((value.value != 0) == when) jump(label);
+			return;
+		case Value.COMPARISON:
+			compare(value, label, when);
+			return;
+		default:
+			out.op(when? Opcode.IFN: Opcode.IFE, arg(value, value.depth), Arg.lit(0));
+			jump(label);
+		}
+	}
+
+	private void compare (Value comparison, String label, boolean when) {
+		Arg left = comparison.left;
+		Arg right = comparison.right;
+		switch(comparison.operator) {
+		case Equal:
+			out.op(when? Opcode.IFE: Opcode.IFN, left, right);
+			jump(label);
+			return;
+		case NotEqual:
+			out.op(when? Opcode.IFN: Opcode.IFE, left, right);
+			jump(label);
+			return;
+		case Greater:
+		case LessEqual:
+			// l > r is the IFG test, l <= r its negation
+			out.op(Opcode.IFG, left, right);
+			break;
+		default:
+			out.op(Opcode.IFG, right, left);
+		}
+		boolean ifgMeans = comparison.operator == BinaryOperator.Greater || comparison.operator == BinaryOperator.Less;
+		if(ifgMeans == when) {
+			jump(label);
+		} else {
+			String skip = newLabel();
+			jump(skip);
+			jump(label);
+			out.markLabel(skip);
+		}
+	}
+
+	// ---------------------------------------------------------------------
+	// expressions
+	// ---------------------------------------------------------------------
+
+	/** the register or spill slot holding values at the given depth **/
+	private Arg slot (int depth) {
+		if(depth < REGISTERS.length) return Arg.reg(REGISTERS[depth]);
+		spills = Math.max(spills, depth - REGISTERS.length + 1);
+		return out.label(Register.J, label("spill"), -(depth - REGISTERS.length));
+	}
+
+	private Value constant (int value) {
+		Value constant = new Value();
+		constant.kind = Value.CONSTANT;
+		constant.value = value & 0xffff;
+		return constant;
+	}
+
+	private Value fixed (Arg arg) {
+		Value value = new Value();
+		value.kind = Value.ARG;
+		value.arg = arg;
+		return value;
+	}
+
+	private Value inSlot (int depth) {
+		Value value = new Value();
+		value.kind = Value.SLOT;
+		value.depth = depth;
+		return value;
+	}
+
+	/** @return an argument reading the value, comparisons are evaluated to the slot of the depth **/
+	private Arg arg (Value value, int depth) {
+		switch(value.kind) {
+		case Value.CONSTANT:
+			return Arg.lit(value.value);
+		case Value.ARG:
+			return value.arg;
+		case Value.SLOT:
+			return slot(value.depth);
+		case Value.COMPARISON:
+			return slot(load(value, depth).depth);
+		default:
+			error("struct '" + value.place.type.name + "' used as a value in function '" + function + "'");
+			return null;
+		}
+	}
+
+	/** moves the value to the slot of the depth **/
+	private Value load (Value value, int depth) {
+		if(value.kind == Value.SLOT && value.depth == depth) return value;
+		if(value.kind == Value.COMPARISON) {
+			String one = newLabel();
+			String end = newLabel();
+			compare(value, one, true);
+			out.op(Opcode.SET, slot(depth), Arg.lit(0));
+			jump(end);
+			out.markLabel(one);
+			out.op(Opcode.SET, slot(depth), Arg.lit(1));
+			out.markLabel(end);
+		} else {
+			out.op(Opcode.SET, slot(depth), arg(value, depth));
+		}
+		return inSlot(depth);
+	}
+
+	private Value expression (int depth) {
+		return binaryExpression(1, depth);
+	}
+
+	/**
+	 * Precedence climbing like {@link CruxParser#expression()}. The left operand of an operator
+	 * is moved to the slot of the depth before the right operand is compiled one level deeper,
+	 * constants are kept for folding.
+	 */
+	private Value binaryExpression (int precedence, int depth) {
+		Value left = unary(depth);
+		while(true) {
+			int type = token.type.ordinal();
+			int operatorPrecedence = PRECEDENCES[type];
+			if(operatorPrecedence < precedence) return left;
+			nextToken();
+			BinaryOperator operator = OPERATORS[type];
+			if(left.kind != Value.CONSTANT) left = load(left, depth);
+			if(operator == BinaryOperator.LogicalAnd || operator == BinaryOperator.LogicalOr) {
+				left = logical(operator, left, operatorPrecedence, depth);
+				continue;
+			}
+			Value right = binaryExpression(operatorPrecedence + 1, depth + 1);
+			if(left.kind == Value.CONSTANT && right.kind == Value.CONSTANT) {
+				left = constant(CruxCompiler.fold(operator, left.value, right.value));
+				continue;
+			}
+			Opcode opcode = CruxCompiler.arithmetic(operator);
+			if(opcode != null) {
+				Arg rightArg = arg(right, depth + 1);
+				left = load(left, depth);
+				out.op(opcode, slot(depth), rightArg);
+			} else {
+				Value comparison = new Value();
+				comparison.kind = Value.COMPARISON;
+				comparison.depth = depth;
+				comparison.operator = operator;
+				comparison.left = arg(left, depth);
+				comparison.right = arg(right, depth + 1);
+				left = comparison;
+			}
+		}
+	}
+
+	/** && and || skip the right operand if the left one decides the result **/
+	private Value logical (BinaryOperator operator, Value left, int precedence, int depth) {
+		boolean and = operator == BinaryOperator.LogicalAnd;
+		String one = newLabel();
+		String end = newLabel();
+		boolean decided = left.kind == Value.CONSTANT && (left.value != 0) != and;
+		if(left.kind != Value.CONSTANT) {
+			out.op(and? Opcode.IFE: Opcode.IFN, slot(depth), Arg.lit(0));
+			jump(and? end: one);
+		} else if(decided) {
+			jump(end);
+		}
+		Value right = binaryExpression(precedence + 1, depth + 1);
+		if(decided) {
+			out.markLabel(end);
+			return constant(and? 0: 1);
+		}
+		// a constant left operand that doesn't decide leaves it to the right one
+		if(left.kind == Value.CONSTANT && right.kind == Value.CONSTANT) return constant(right.value != 0? 1: 0);
+		out.op(Opcode.SET, slot(depth), Arg.lit(0));
+		branch(right, end, false);
+		out.markLabel(one);
+		out.op(Opcode.SET, slot(depth), Arg.lit(1));
+		out.markLabel(end);
+		return inSlot(depth);
+	}
+
+	private Value unary (int depth) {
+		switch(token.type) {
+		case MINUS: {
+			nextToken();
+			Value value = factor(depth);
+			if(value.kind == Value.CONSTANT) return constant(-value.value);
+			value = load(value, depth);
+			out.op(Opcode.MUL, slot(depth), Arg.lit(0xffff));
+			return value;
+		}
+		case NOT: {
+			nextToken();
+			Value value = factor(depth);
+			if(value.kind == Value.CONSTANT) return constant(value.value == 0? 1: 0);
+			value = load(value, depth);
+			Arg slot = slot(depth);
+			out.op(Opcode.IFN, slot, Arg.lit(0));
+			out.op(Opcode.SET, slot, Arg.lit(1));
+			out.op(Opcode.XOR, slot, Arg.lit(1));
+			return value;
+		}
+		default:
+			return factor(depth);
+		}
+	}
+
+	private Value factor (int depth) {
+		switch(token.type) {
+		case NUMBER:
+			nextToken();
+			return constant(CruxCompiler.parseNumber(lastToken.text));
+		case LITERAL:
+			nextToken();
+			literals.add(lastToken.text);
+			return fixed(out.label(label("literal" + (literals.size() - 1))));
+		case L_PARA: {
+			nextToken();
+			Value value = expression(depth);
+			expect(TokenType.R_PARA);
+			return value;
+		}
+		default: {
+			int references = 0;
+			while(accept(TokenType.AT)) {
+				references++;
+			}
+			Place place = lvalue(depth);
+			if(token.type == TokenType.L_PARA) {
+				if(references != 0) error("can't take the address of a return value in function '" + function + "'");
+				return call(place, depth);
+			}
+			return rvalue(place, references, depth);
+		}
+		}
+	}
+
+	private Value rvalue (Place place, int references, int depth) {
+		// plain function names evaluate to the function's address
+		if(place.function != null) {
+			if(references > 1) error("invalid use of function '" + place.function + "'");
+			return fixed(out.label(place.function));
+		}
+		if(references > 1) error("can't take the address of an address in function '" + function + "'");
+		if(references == 1) {
+			if(place.label != null) return fixed(out.label(place.label, place.offset));
+			if(place.frame) out.op(Opcode.SET, slot(depth), Arg.reg(Register.J));
+			if(place.offset != 0) out.op(Opcode.ADD, slot(depth), Arg.lit(place.offset & 0xffff));
+			return inSlot(depth);
+		}
+		if(CruxCompiler.isStructValue(place.type)) {
+			Value value = new Value();
+			value.kind = Value.STRUCT;
+			value.place = place;
+			return value;
+		}
+		if(place.depth == -1) return fixed(arg(place, 0));
+		out.op(Opcode.SET, slot(depth), arg(place, 0));
+		return inSlot(depth);
+	}
+
+	// ---------------------------------------------------------------------
+	// lvalues
+	// ---------------------------------------------------------------------
+
+	/** @return the argument addressing the given word of the place, a pointer in a spill slot is loaded to the {@link #SCRATCH} register **/
+	private Arg arg (Place place, int word) {
+		if(place.label != null) return out.labelMem(place.label, place.offset + word);
+		if(place.frame) return Arg.mem(Register.J, place.offset + word);
+		Register register = SCRATCH;
+		if(place.depth < REGISTERS.length) register = REGISTERS[place.depth];
+		else out.op(Opcode.SET, Arg.reg(SCRATCH), slot(place.depth));
+		int offset = place.offset + word;
+		return offset == 0? Arg.mem(register): Arg.mem(register, offset);
+	}
+
+	/** parses an lvalue, pointers are loaded to the slot of the depth **/
+	private Place lvalue (int depth) {
+		Place place = null;
+		if(token.type == TokenType.L_BRACK) {
+			nextToken();
+			Place ref = lvalue(depth);
+			expect(TokenType.R_BRACK);
+			place = dereference(ref, depth);
+		} else if(token.type == TokenType.IDENTIFIER && token.keyword == -1) {
+			nextToken();
+			place = variable(lastToken.text);
+			if(accept(TokenType.L_BRACK)) {
+				place = index(place, depth);
+				expect(TokenType.R_BRACK);
+			}
+		} else {
+			error("Expected value");
+		}
+		while(accept(TokenType.PERIOD)) {
+			if(!expect(TokenType.IDENTIFIER) || place.function != null || !CruxCompiler.isStructValue(place.type)) {
+				error("field access '" + lastToken.text + "' on non-struct in function '" + function + "'");
+			}
+			Field field = struct(place.type).fields.get(lastToken.text);
+			if(field == null) error("unknown field '" + lastToken.text + "' in struct '" + place.type.name + "'");
+			place.offset += field.offset;
+			place.type = field.type;
+			if(accept(TokenType.L_BRACK)) {
+				place = index(place, depth);
+				expect(TokenType.R_BRACK);
+			}
+		}
+		return place;
+	}
+
+	private Place variable (String name) {
+		Place place = new Place();
+		Variable var = null;
+		for(Map<String, Variable> scope: scopes) {
+			var = scope.get(name);
+			if(var != null) break;
+		}
+		if(var == null) var = globals.get(name);
+		if(var == null) {
+			if(!functions.containsKey(name) && !undefined.containsKey(name)) undefined.put(name, -1);
+			place.function = name;
+			return place;
+		}
+		place.type = var.type;
+		place.label = var.label;
+		place.frame = var.label == null;
+		place.offset = var.label == null? var.offset: 0;
+		return place;
+	}
+
+	/** loads the reference stored at the place to the slot of the depth, the result points to the referenced value **/
+	private Place dereference (Place ref, int depth) {
+		if(ref.function != null) error("can't dereference function '" + ref.function + "'");
+		Place place = new Place();
+		place.type = CruxCompiler.pointee(ref.type);
+		out.op(Opcode.SET, slot(depth), arg(ref, 0));
+		place.depth = depth;
+		return place;
+	}
+
+	private Place index (Place ref, int depth) {
+		Place place = dereference(ref, depth);
+		Value index = expression(depth + 1);
+		int size = size(place.type);
+		if(index.kind == Value.CONSTANT) {
+			place.offset = index.value * size;
+		} else {
+			if(size != 1) {
+				index = load(index, depth + 1);
+				out.op(Opcode.MUL, slot(depth + 1), Arg.lit(size));
+			}
+			out.op(Opcode.ADD, slot(depth), arg(index, depth + 1));
+		}
+		return place;
+	}
+
+	// ---------------------------------------------------------------------
+	// calls
+	// ---------------------------------------------------------------------
+
+	/** calls the function or function pointer at the place, the result is moved to the slot of the depth **/
+	private Value call (Place place, int depth) {
+		expect(TokenType.L_PARA);
+		// the values of the enclosing expression are pushed, a pointer to the callee stays in its slot
+		int saved = Math.min(depth, REGISTERS.length);
+		for(int i = 0; i < saved; i++) {
+			out.op(Opcode.SET, Arg.push(), Arg.reg(REGISTERS[i]));
+		}
+		int arguments = 0;
+		int words = 0;
+		if(!accept(TokenType.R_PARA)) {
+			do {
+				Value value = expression(depth + 1);
+				if(value.kind == Value.STRUCT) {
+					for(int i = size(value.place.type) - 1; i >= 0; i--) {
+						out.op(Opcode.SET, Arg.push(), arg(value.place, i));
+						words++;
+					}
+				} else {
+					out.op(Opcode.SET, Arg.push(), arg(value, depth + 1));
+					words++;
+				}
+				arguments++;
+			} while(accept(TokenType.COMMA));
+			expect(TokenType.R_PARA);
+		}
+
+		if(place.function != null) {
+			Integer expected = functions.get(place.function);
+			if(expected == null) expected = undefined.get(place.function);
+			if(expected == -1) undefined.put(place.function, arguments);
+			else if(expected != arguments) error("wrong number of arguments calling '" + place.function + "'");
+			out.eop(Opcode.JSR, out.label(place.function));
+		} else {
+			if(place.type.type != Type.Function || place.type.references != 0) error("can't call a non-function in function '" + function + "'");
+			out.eop(Opcode.JSR, arg(place, 0));
+		}
+		if(words > 0) out.op(Opcode.ADD, Arg.sp(), Arg.lit(words));
+		if(depth != 0) out.op(Opcode.SET, slot(depth), Arg.reg(Register.A));
+		for(int i = saved - 1; i >= 0; i--) {
+			out.op(Opcode.SET, Arg.reg(REGISTERS[i]), Arg.pop());
+		}
+		return inSlot(depth);
+	}
+
+	/**
+	 * Compares the {@link CruxCompiler} and the streaming compiler on a program generated by
+	 * {@link ParallelCompiler#generate(int)} with the given number of functions (20000 by
+	 * default), read by a {@link Lexer} from a stream: compile time and the heap in use after
+	 * compiling, with the AST and the code respectively the compiler and its code referenced.
+	 */
+	public static void main (String[] args) {
+		byte[] source = ParallelCompiler.generate(args.length > 0? Integer.parseInt(args[0]): 20000).getBytes(Charset.forName("UTF-8"));
+		for(int run = 0; run < 5; run++) {
+			long before = usedMemory();
+			long start = System.nanoTime();
+			CruxParser parser = new CruxParser(new Lexer(new ByteArrayInputStream(source), false, true));
+			parser.parse();
+			Program program = parser.getProgram();
+			Assembler ast = new Assembler();
+			new CruxCompiler(program).compile(ast);
+			long astTime = System.nanoTime() - start;
+			long astMemory = usedMemory() - before;
+			int astWords = ast.size();
+			program = null;
+			ast = null;
+
+			before = usedMemory();
+			start = System.nanoTime();
+			StreamingCompiler compiler = new StreamingCompiler(new Lexer(new ByteArrayInputStream(source), false, true));
+			compiler.parse();
+			long streamingTime = System.nanoTime() - start;
+			long streamingMemory = usedMemory() - before;
+			int streamingWords = compiler.asm.size();
+			compiler = null;
+
+			System.out.println(String.format("%d bytes, AST: %.1fms, %.1fMB, %d words, streaming: %.1fms, %.1fMB, %d words", source.length,
+				astTime / 1000000f, astMemory / 1024f / 1024, astWords, streamingTime / 1000000f, streamingMemory / 1024f / 1024, streamingWords));
+		}
+	}
+
+	private static long usedMemory () {
+		for(int i = 0; i < 3; i++) System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
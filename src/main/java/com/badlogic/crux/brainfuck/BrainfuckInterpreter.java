@@ -0,0 +1,203 @@
+package com.badlogic.crux.brainfuck;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.badlogic.crux.AstArena;
+import com.badlogic.crux.Lexer;
+import com.badlogic.crux.brainfuck.AstNode.Program;
+import com.badlogic.crux.brainfuck.IrNode.Add;
+import com.badlogic.crux.brainfuck.IrNode.Input;
+import com.badlogic.crux.brainfuck.IrNode.Instruction;
+import com.badlogic.crux.brainfuck.IrNode.Loop;
+import com.badlogic.crux.brainfuck.IrNode.Move;
+import com.badlogic.crux.brainfuck.IrNode.MultiplyAdd;
+import com.badlogic.crux.brainfuck.IrNode.Output;
+import com.badlogic.crux.brainfuck.IrNode.Scan;
+import com.badlogic.crux.brainfuck.IrNode.Set;
+import com.badlogic.dcpu.IntArray;
+
+/**
+ * Interprets a {@link Program} without compiling it. The instructions of the
+ * {@link BrainfuckOptimizer} are flattened to an int[] of opcodes followed by their
+ * operands, loops jump to precomputed targets. Cells are bytes that wrap around, the
+ * tape grows in both directions as needed, reading past the end of the input yields 0.
+ */
+public class BrainfuckInterpreter {
+	static final int ADD = 0, SET = 1, MULTIPLY_ADD = 2, MOVE = 3, SCAN = 4, INPUT = 5, OUTPUT = 6, LOOP = 7, END_LOOP = 8;
+
+	final int[] code;
+	/** largest absolute offset of a cell access relative to the data pointer **/
+	int maxOffset;
+	byte[] tape;
+	int ptr;
+
+	public BrainfuckInterpreter (Program program) {
+		this(BrainfuckOptimizer.optimize(program));
+	}
+
+	public BrainfuckInterpreter (IrNode.Program program) {
+		IntArray code = new IntArray();
+		for(Instruction inst: program.instructions) {
+			flatten(inst, code);
+		}
+		this.code = new int[code.size()];
+		for(int i = 0; i < this.code.length; i++) this.code[i] = code.get(i);
+	}
+
+	private void flatten (Instruction inst, IntArray code) {
+		if(inst instanceof Add) emit(code, ADD, ((Add)inst).offset, ((Add)inst).value);
+		if(inst instanceof Set) emit(code, SET, ((Set)inst).offset, ((Set)inst).value);
+		if(inst instanceof MultiplyAdd) emit(code, MULTIPLY_ADD, ((MultiplyAdd)inst).offset, ((MultiplyAdd)inst).factor);
+		if(inst instanceof Move) {
+			code.add(MOVE);
+			code.add(((Move)inst).distance);
+		}
+		if(inst instanceof Scan) {
+			code.add(SCAN);
+			code.add(((Scan)inst).step);
+		}
+		if(inst instanceof Input) {
+			code.add(INPUT);
+			code.add(offset(((Input)inst).offset));
+		}
+		if(inst instanceof Output) {
+			code.add(OUTPUT);
+			code.add(offset(((Output)inst).offset));
+		}
+		if(inst instanceof Loop) {
+			// LOOP jumps behind the END_LOOP, END_LOOP back behind the LOOP
+			code.add(LOOP);
+			int start = code.size();
+			code.add(0);
+			for(Instruction child: ((Loop)inst).instructions) {
+				flatten(child, code);
+			}
+			code.add(END_LOOP);
+			code.add(start + 1);
+			code.set(start, code.size());
+		}
+	}
+
+	private void emit (IntArray code, int opcode, int offset, int value) {
+		code.add(opcode);
+		code.add(offset(offset));
+		code.add(value);
+	}
+
+	private int offset (int offset) {
+		maxOffset = Math.max(maxOffset, Math.abs(offset));
+		return offset;
+	}
+
+	/** makes sure all cells the instructions can address from the data pointer are on the tape **/
+	private void ensureTape () {
+		if(ptr - maxOffset < 0) {
+			int shift = Math.max(tape.length, maxOffset - ptr);
+			byte[] tmp = new byte[tape.length + shift];
+			System.arraycopy(tape, 0, tmp, shift, tape.length);
+			tape = tmp;
+			ptr += shift;
+		}
+		if(ptr + maxOffset >= tape.length) {
+			byte[] tmp = new byte[Math.max(tape.length * 2, ptr + maxOffset + 1)];
+			System.arraycopy(tape, 0, tmp, 0, tape.length);
+			tape = tmp;
+		}
+	}
+
+	/**
+	 * Runs the program on a new tape. Input and output are buffered, the output is
+	 * flushed when the program is done.
+	 */
+	public void run (InputStream input, OutputStream output) {
+		InputStream in = new BufferedInputStream(input);
+		OutputStream out = new BufferedOutputStream(output);
+		int[] code = this.code;
+		tape = new byte[4096];
+		ptr = 0;
+		ensureTape();
+		byte[] tape = this.tape;
+		int ptr = this.ptr;
+
+		try {
+			int pc = 0;
+			while(pc < code.length) {
+				switch(code[pc]) {
+				case ADD:
+					tape[ptr + code[pc + 1]] += code[pc + 2];
+					pc += 3;
+					break;
+				case SET:
+					tape[ptr + code[pc + 1]] = (byte)code[pc + 2];
+					pc += 3;
+					break;
+				case MULTIPLY_ADD:
+					tape[ptr + code[pc + 1]] += tape[ptr] * code[pc + 2];
+					pc += 3;
+					break;
+				case MOVE:
+					ptr += code[pc + 1];
+					if(ptr - maxOffset < 0 || ptr + maxOffset >= tape.length) {
+						this.ptr = ptr;
+						ensureTape();
+						tape = this.tape;
+						ptr = this.ptr;
+					}
+					pc += 2;
+					break;
+				case SCAN:
+					while(tape[ptr] != 0) {
+						ptr += code[pc + 1];
+						if(ptr - maxOffset < 0 || ptr + maxOffset >= tape.length) {
+							this.ptr = ptr;
+							ensureTape();
+							tape = this.tape;
+							ptr = this.ptr;
+						}
+					}
+					pc += 2;
+					break;
+				case INPUT:
+					int value = in.read();
+					tape[ptr + code[pc + 1]] = (byte)(value == -1? 0: value);
+					pc += 2;
+					break;
+				case OUTPUT:
+					out.write(tape[ptr + code[pc + 1]]);
+					pc += 2;
+					break;
+				case LOOP:
+					pc = tape[ptr] == 0? code[pc + 1]: pc + 2;
+					break;
+				case END_LOOP:
+					pc = tape[ptr] != 0? code[pc + 1]: pc + 2;
+					break;
+				default:
+					throw new RuntimeException("Unknown opcode " + code[pc] + " at " + pc);
+				}
+			}
+			out.flush();
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			this.tape = tape;
+			this.ptr = ptr;
+		}
+	}
+
+	public static void main (String[] args) throws IOException {
+		long start = System.nanoTime();
+		BrainfuckParser parser = new BrainfuckParser(new Lexer(new FileInputStream(args.length > 0? args[0]: "data/simple.brainfuck"), false, false));
+		AstArena arena = new AstArena();
+		BrainfuckInterpreter interpreter = new BrainfuckInterpreter(BrainfuckOptimizer.optimize(arena, parser.parse(arena)));
+		long parsed = System.nanoTime();
+		interpreter.run(System.in, System.out);
+		long done = System.nanoTime();
+		System.out.println("code: " + interpreter.code.length + " ints, parse: " + (parsed - start) / 1000000f + "ms, run: " + (done - parsed) / 1000000f + "ms");
+	}
+}
@@ -0,0 +1,163 @@
+package com.badlogic.crux.brainfuck;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.crux.AstArena;
+import com.badlogic.crux.brainfuck.AstNode.Loop;
+import com.badlogic.crux.brainfuck.AstNode.Simple;
+import com.badlogic.crux.brainfuck.AstNode.Simple.SimpleType;
+import com.badlogic.crux.brainfuck.IrNode.Add;
+import com.badlogic.crux.brainfuck.IrNode.Input;
+import com.badlogic.crux.brainfuck.IrNode.Instruction;
+import com.badlogic.crux.brainfuck.IrNode.Move;
+import com.badlogic.crux.brainfuck.IrNode.MultiplyAdd;
+import com.badlogic.crux.brainfuck.IrNode.Output;
+import com.badlogic.crux.brainfuck.IrNode.Program;
+import com.badlogic.crux.brainfuck.IrNode.Scan;
+import com.badlogic.crux.brainfuck.IrNode.Set;
+
+/**
+ * Translates a brainfuck {@link AstNode.Program} to an {@link IrNode.Program}. Runs of
+ * +/- and &lt;/&gt; are folded, pointer moves are deferred to the next loop so that the
+ * instructions in between address cells by offset, clear loops like [-] become a
+ * {@link Set}, multiply loops like [->+>++<<] become {@link MultiplyAdd}s and scan
+ * loops like [&gt;] become a {@link Scan}. Loops directly following another loop are
+ * removed, as the current cell is zero after a loop, as are loops at the start
+ * of the program. The program can also be given as an {@link AstArena} built by
+ * {@link BrainfuckParser#parse(AstArena)}.
+ */
+public class BrainfuckOptimizer {
+	public static Program optimize (AstNode.Program program) {
+		Program result = new Program();
+		// all cells are zero at the start, so leading loops (usually comments) never run
+		int start = 0;
+		while(start < program.instructions.size() && program.instructions.get(start) instanceof Loop) start++;
+		optimize(program.instructions.subList(start, program.instructions.size()), result.instructions);
+		return result;
+	}
+
+	/** @param program the program node of the arena **/
+	public static Program optimize (AstArena arena, int program) {
+		Program result = new Program();
+		int start = arena.firstChild(program);
+		while(start != AstArena.NONE && arena.kind(start) == BrainfuckParser.LOOP) start = arena.nextSibling(start);
+		optimize(arena, start, result.instructions);
+		return result;
+	}
+
+	static void optimize (List<AstNode.Instruction> instructions, List<Instruction> out) {
+		int offset = 0;
+		for(AstNode.Instruction inst: instructions) {
+			if(inst instanceof Simple) {
+				offset = simple(((Simple)inst).type, offset, out);
+			} else {
+				if(isDead(offset, out)) continue;
+				if(offset != 0) out.add(new Move(offset));
+				offset = 0;
+				IrNode.Loop result = new IrNode.Loop();
+				optimize(((Loop)inst).instructions, result.instructions);
+				loop(result, out);
+			}
+		}
+		if(offset != 0) out.add(new Move(offset));
+	}
+
+	/** optimizes the node and its following siblings **/
+	static void optimize (AstArena arena, int node, List<Instruction> out) {
+		int offset = 0;
+		for(; node != AstArena.NONE; node = arena.nextSibling(node)) {
+			if(arena.kind(node) == BrainfuckParser.SIMPLE) {
+				offset = simple(SimpleType.values()[arena.value(node)], offset, out);
+			} else {
+				if(isDead(offset, out)) continue;
+				if(offset != 0) out.add(new Move(offset));
+				offset = 0;
+				IrNode.Loop result = new IrNode.Loop();
+				optimize(arena, arena.firstChild(node), result.instructions);
+				loop(result, out);
+			}
+		}
+		if(offset != 0) out.add(new Move(offset));
+	}
+
+	/** @return the offset of the data pointer after the instruction **/
+	static int simple (SimpleType type, int offset, List<Instruction> out) {
+		switch(type) {
+		case IncreaseData: add(out, offset, 1); break;
+		case DecreaseData: add(out, offset, -1); break;
+		case IncreaseDataPointer: offset++; break;
+		case DecreaseDataPointer: offset--; break;
+		case InputData: out.add(new Input(offset)); break;
+		case OutputData: out.add(new Output(offset)); break;
+		}
+		return offset;
+	}
+
+	/** @return whether a loop at the offset never runs as the current cell is zero **/
+	static boolean isDead (int offset, List<Instruction> out) {
+		if(offset != 0 || out.size() == 0) return false;
+		Instruction last = out.get(out.size() - 1);
+		if(last instanceof IrNode.Loop || last instanceof Scan) return true;
+		return last instanceof Set && ((Set)last).offset == 0 && ((Set)last).value == 0;
+	}
+
+	/** adds the optimized loop to out, as a scan, multiplications or the loop itself **/
+	static void loop (IrNode.Loop result, List<Instruction> out) {
+		List<Instruction> body = result.instructions;
+
+		if(body.size() == 1 && body.get(0) instanceof Move) {
+			out.add(new Scan(((Move)body.get(0)).distance));
+			return;
+		}
+
+		// a body of adds only that decrements the current cell by one runs cell times
+		Map<Integer, Integer> adds = new LinkedHashMap<Integer, Integer>();
+		for(Instruction inst: body) {
+			if(!(inst instanceof Add)) {
+				out.add(result);
+				return;
+			}
+			Add add = (Add)inst;
+			Integer value = adds.get(add.offset);
+			adds.put(add.offset, (value == null? 0: value) + add.value);
+		}
+		Integer step = adds.remove(0);
+		if(step != null && (step == -1 || (step == 1 && adds.isEmpty()))) {
+			for(Map.Entry<Integer, Integer> entry: adds.entrySet()) {
+				if(entry.getValue() != 0) out.add(new MultiplyAdd(entry.getKey(), entry.getValue()));
+			}
+			set(out, 0, 0);
+		} else {
+			out.add(result);
+		}
+	}
+
+	static void add (List<Instruction> out, int offset, int value) {
+		if(out.size() > 0) {
+			Instruction last = out.get(out.size() - 1);
+			if(last instanceof Add && ((Add)last).offset == offset) {
+				out.remove(out.size() - 1);
+				value += ((Add)last).value;
+				if(value != 0) out.add(new Add(offset, value));
+				return;
+			}
+			if(last instanceof Set && ((Set)last).offset == offset) {
+				out.set(out.size() - 1, new Set(offset, ((Set)last).value + value));
+				return;
+			}
+		}
+		out.add(new Add(offset, value));
+	}
+
+	static void set (List<Instruction> out, int offset, int value) {
+		if(out.size() > 0) {
+			Instruction last = out.get(out.size() - 1);
+			if((last instanceof Add && ((Add)last).offset == offset) || (last instanceof Set && ((Set)last).offset == offset)) {
+				out.remove(out.size() - 1);
+			}
+		}
+		out.add(new Set(offset, value));
+	}
+}
@@ -3,6 +3,7 @@ package com.badlogic.crux.brainfuck;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 
+import com.badlogic.crux.AstArena;
 import com.badlogic.crux.Lexer;
 import com.badlogic.crux.Lexer.TokenType;
 import com.badlogic.crux.Parser;
@@ -20,10 +21,16 @@ import com.badlogic.crux.brainfuck.AstNode.Simple.SimpleType;
  * loop        ::= '[' instruction* ']'
  * simple      ::= '+' | '-' | '<' | '>' | '.' | ','
  * 
+ * The program is either built from {@link AstNode} objects or into an {@link AstArena}
+ * with the node kinds {@link #PROGRAM}, {@link #LOOP} and {@link #SIMPLE}, the value
+ * of a simple node is the ordinal of its {@link SimpleType}.
+ * 
  * @author mzechner
  *
  */
 public class BrainfuckParser extends Parser {
+	public static final int PROGRAM = 0, LOOP = 1, SIMPLE = 2;
+
 	protected Program program;
 	
 	public BrainfuckParser (Lexer lexer) {
@@ -47,6 +54,33 @@ public class BrainfuckParser extends Parser {
 		return program;
 	}
 	
+	/**
+	 * Parses the program into the arena without creating {@link AstNode}s.
+	 * @return the program node
+	 */
+	public int parse(AstArena arena) {
+		int program = arena.begin(PROGRAM, 0, position);
+		do {
+			instruction(arena);
+		} while(token.type != TokenType.EOF);
+		arena.end(position);
+		return program;
+	}
+	
+	private void instruction(AstArena arena) {
+		if(token.type == TokenType.L_BRACK) {
+			arena.begin(LOOP, 0, position);
+			expect(TokenType.L_BRACK);
+			do {
+				instruction(arena);
+			} while(!accept(TokenType.R_BRACK));
+			arena.end(position);
+		} else {
+			int start = position;
+			arena.leaf(SIMPLE, simpleType().ordinal(), start, 1);
+		}
+	}
+	
 	public Instruction instruction() {
 		if(token.type == TokenType.L_BRACK) {
 			return loop();
@@ -65,18 +99,22 @@ public class BrainfuckParser extends Parser {
 	}
 	
 	public Simple simple() {
+		return new Simple(simpleType());
+	}
+	
+	private SimpleType simpleType() {
 		if(accept(TokenType.PLUS)) {
-			return new Simple(SimpleType.IncreaseData);
+			return SimpleType.IncreaseData;
 		} else if(accept(TokenType.MINUS)) {
-			return new Simple(SimpleType.DecreaseData);
+			return SimpleType.DecreaseData;
 		} else if(accept(TokenType.LESS)) {
-			return new Simple(SimpleType.DecreaseDataPointer);
+			return SimpleType.DecreaseDataPointer;
 		} else if(accept(TokenType.GREATER)) {
-			return new Simple(SimpleType.IncreaseDataPointer);
+			return SimpleType.IncreaseDataPointer;
 		} else if(accept(TokenType.PERIOD)) {
-			return new Simple(SimpleType.OutputData);
+			return SimpleType.OutputData;
 		} else if(accept(TokenType.COMMA)) {
-			return new Simple(SimpleType.InputData);
+			return SimpleType.InputData;
 		} else {
 			error("Expected +, -, <, >, ., or ,");
 			return null;
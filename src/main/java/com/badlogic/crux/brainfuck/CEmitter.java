@@ -2,13 +2,19 @@ package com.badlogic.crux.brainfuck;
 
 import java.io.PrintStream;
 
-import com.badlogic.crux.brainfuck.AstNode.Instruction;
-import com.badlogic.crux.brainfuck.AstNode.Loop;
 import com.badlogic.crux.brainfuck.AstNode.Program;
-import com.badlogic.crux.brainfuck.AstNode.Simple;
+import com.badlogic.crux.brainfuck.IrNode.Add;
+import com.badlogic.crux.brainfuck.IrNode.Input;
+import com.badlogic.crux.brainfuck.IrNode.Instruction;
+import com.badlogic.crux.brainfuck.IrNode.Loop;
+import com.badlogic.crux.brainfuck.IrNode.Move;
+import com.badlogic.crux.brainfuck.IrNode.MultiplyAdd;
+import com.badlogic.crux.brainfuck.IrNode.Output;
+import com.badlogic.crux.brainfuck.IrNode.Scan;
+import com.badlogic.crux.brainfuck.IrNode.Set;
 
 /**
- * Takes a {@link Program} and outputs C code.
+ * Takes a {@link Program} and outputs C code, optimized via the {@link BrainfuckOptimizer}.
  * @author mzechner
  *
  */
@@ -22,9 +28,9 @@ public class CEmitter {
 		emit("#include <stdio.h>");
 		emit("");
 		emit("int main(int argc, char** argv) {");
-		emit("   char array[30000];");
+		emit("   static char array[30000];");
 		emit("   char *ptr=array;");
-		for(Instruction inst: program.instructions) {
+		for(Instruction inst: BrainfuckOptimizer.optimize(program).instructions) {
 			emitNode(inst);
 		}
 		emit("   return 0;");
@@ -36,18 +42,19 @@ public class CEmitter {
 		out.println(message);
 	}
 	
-	private void emitNode(AstNode node) {
+	private String cell(int offset) {
+		return offset == 0? "*ptr": "ptr[" + offset + "]";
+	}
+	
+	private void emitNode(IrNode node) {
 		depth++;
-		if(node instanceof Simple) {
-			switch(((Simple)node).type) {
-			case IncreaseData: emit("++*ptr;"); break;
-			case DecreaseData: emit("--*ptr;"); break;
-			case IncreaseDataPointer: emit("++ptr;"); break;
-			case DecreaseDataPointer: emit("--ptr;"); break;
-			case InputData: emit("*ptr=getchar();"); break;
-			case OutputData: emit("putchar(*ptr);"); break;
-			}
-		}
+		if(node instanceof Add) emit(cell(((Add)node).offset) + " += " + ((Add)node).value + ";");
+		if(node instanceof Set) emit(cell(((Set)node).offset) + " = " + ((Set)node).value + ";");
+		if(node instanceof MultiplyAdd) emit(cell(((MultiplyAdd)node).offset) + " += *ptr * " + ((MultiplyAdd)node).factor + ";");
+		if(node instanceof Move) emit("ptr += " + ((Move)node).distance + ";");
+		if(node instanceof Scan) emit("while(*ptr) ptr += " + ((Scan)node).step + ";");
+		if(node instanceof Input) emit(cell(((Input)node).offset) + "=getchar();");
+		if(node instanceof Output) emit("putchar(" + cell(((Output)node).offset) + ");");
 		if(node instanceof Loop) {
 			emit("while(*ptr) {");
 			for(Instruction inst: ((Loop)node).instructions) {
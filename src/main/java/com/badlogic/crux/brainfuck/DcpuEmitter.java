@@ -0,0 +1,155 @@
+package com.badlogic.crux.brainfuck;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+
+import com.badlogic.crux.Lexer;
+import com.badlogic.crux.brainfuck.AstNode.Program;
+import com.badlogic.crux.brainfuck.IrNode.Add;
+import com.badlogic.crux.brainfuck.IrNode.Input;
+import com.badlogic.crux.brainfuck.IrNode.Instruction;
+import com.badlogic.crux.brainfuck.IrNode.Loop;
+import com.badlogic.crux.brainfuck.IrNode.Move;
+import com.badlogic.crux.brainfuck.IrNode.MultiplyAdd;
+import com.badlogic.crux.brainfuck.IrNode.Output;
+import com.badlogic.crux.brainfuck.IrNode.Scan;
+import com.badlogic.crux.brainfuck.IrNode.Set;
+import com.badlogic.dcpu.Assembler;
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+
+/**
+ * Takes a {@link Program} and compiles it to dcpu-16 code, optimized via the
+ * {@link BrainfuckOptimizer}. I is the data pointer, the tape starts {@link #GUARD}
+ * words after the code, so moving left of the start doesn't overwrite the program.
+ * Cells are bytes like in the other backends or 16-bit words. Byte cells are kept
+ * modulo 256 only where that matters: loops test the low byte and clear the high
+ * one on entry, output is masked. Output goes to the screen at {@link #SCREEN},
+ * X is the cursor. Input is read from the 16 word keyboard ring buffer at
+ * {@link #KEYBOARD}, Y is the read position. Reading an empty slot yields 0,
+ * a key that was read is cleared. Loops are an IFE/SET PC pair that skips the
+ * loop and an IFN/SET PC pair at the end that jumps back to the body, IFB with
+ * 0xff for byte cells.
+ */
+public class DcpuEmitter {
+	public static final int SCREEN = 0x8000;
+	public static final int KEYBOARD = 0x9000;
+	/** the words between the code and the start of the tape **/
+	public static final int GUARD = 0x400;
+
+	final int cellMask;
+	Assembler asm;
+	int loops;
+
+	public DcpuEmitter() {
+		this(8);
+	}
+
+	/** @param cellBits 8 or 16 **/
+	public DcpuEmitter(int cellBits) {
+		if(cellBits != 8 && cellBits != 16) throw new RuntimeException("Cells must have 8 or 16 bits, got " + cellBits);
+		this.cellMask = (1 << cellBits) - 1;
+	}
+
+	public void emit(Assembler asm, Program program) {
+		this.asm = asm;
+		this.loops = 0;
+		asm.op(Opcode.SET, Arg.reg(Register.I), asm.label("tape", GUARD));
+		for(Instruction inst: BrainfuckOptimizer.optimize(program).instructions) {
+			emitNode(inst);
+		}
+		asm.val((short)0);
+		asm.markLabel("tape");
+	}
+
+	private Arg cell(int offset) {
+		return offset == 0? Arg.mem(Register.I): Arg.mem(Register.I, offset);
+	}
+
+	/** adds value to the destination, with SUB for negative values to keep small literals in the instruction **/
+	private void add(Arg dst, int value) {
+		if(value < 0) asm.op(Opcode.SUB, dst, Arg.lit(-value));
+		else asm.op(Opcode.ADD, dst, Arg.lit(value));
+	}
+
+	private void emitNode(IrNode node) {
+		if(node instanceof Add) add(cell(((Add)node).offset), ((Add)node).value);
+		if(node instanceof Set) asm.op(Opcode.SET, cell(((Set)node).offset), Arg.lit(((Set)node).value & cellMask));
+		if(node instanceof MultiplyAdd) {
+			MultiplyAdd mul = (MultiplyAdd)node;
+			asm.op(Opcode.SET, Arg.reg(Register.A), Arg.mem(Register.I));
+			int factor = Math.abs(mul.factor);
+			if(factor != 1) asm.op(Opcode.MUL, Arg.reg(Register.A), Arg.lit(factor));
+			asm.op(mul.factor < 0? Opcode.SUB: Opcode.ADD, cell(mul.offset), Arg.reg(Register.A));
+		}
+		if(node instanceof Move) add(Arg.reg(Register.I), ((Move)node).distance);
+		if(node instanceof Output) {
+			if(cellMask == 0xffff) {
+				asm.op(Opcode.SET, Arg.mem(Register.X, SCREEN), cell(((Output)node).offset));
+			} else {
+				asm.op(Opcode.SET, Arg.reg(Register.A), cell(((Output)node).offset));
+				asm.op(Opcode.AND, Arg.reg(Register.A), Arg.lit(cellMask));
+				asm.op(Opcode.SET, Arg.mem(Register.X, SCREEN), Arg.reg(Register.A));
+			}
+			asm.op(Opcode.ADD, Arg.reg(Register.X), Arg.lit(1));
+			asm.op(Opcode.AND, Arg.reg(Register.X), Arg.lit(KEYBOARD - SCREEN - 1));
+		}
+		if(node instanceof Input) {
+			asm.op(Opcode.SET, Arg.reg(Register.A), Arg.mem(Register.Y, KEYBOARD));
+			asm.op(Opcode.SET, Arg.mem(Register.Y, KEYBOARD), Arg.lit(0));
+			asm.op(Opcode.SET, cell(((Input)node).offset), Arg.reg(Register.A));
+			asm.op(Opcode.IFN, Arg.reg(Register.A), Arg.lit(0));
+			asm.op(Opcode.ADD, Arg.reg(Register.Y), Arg.lit(1));
+			asm.op(Opcode.AND, Arg.reg(Register.Y), Arg.lit(0xf));
+		}
+		if(node instanceof Scan || node instanceof Loop) {
+			String label = "loop" + loops++;
+			if(cellMask != 0xffff) asm.op(Opcode.AND, Arg.mem(Register.I), Arg.lit(cellMask));
+			asm.op(Opcode.IFE, Arg.mem(Register.I), Arg.lit(0));
+			asm.op(Opcode.SET, Arg.pc(), asm.label(label + ".end"));
+			asm.markLabel(label);
+			if(node instanceof Scan) {
+				add(Arg.reg(Register.I), ((Scan)node).step);
+			} else {
+				for(Instruction inst: ((Loop)node).instructions) {
+					emitNode(inst);
+				}
+			}
+			if(cellMask == 0xffff) asm.op(Opcode.IFN, Arg.mem(Register.I), Arg.lit(0));
+			else asm.op(Opcode.IFB, Arg.mem(Register.I), Arg.lit(cellMask));
+			asm.op(Opcode.SET, Arg.pc(), asm.label(label));
+			asm.markLabel(label + ".end");
+		}
+	}
+
+	public static short[] compile(Program program) {
+		return compile(program, 8);
+	}
+
+	public static short[] compile(Program program, int cellBits) {
+		Assembler asm = new Assembler();
+		new DcpuEmitter(cellBits).emit(asm, program);
+		return asm.getDump();
+	}
+
+	/** @return the characters written to the screen by a program compiled with this emitter **/
+	public static String getOutput(Cpu cpu) {
+		StringBuilder output = new StringBuilder();
+		for(int i = 0; i < cpu.getRegValue(Register.X); i++) {
+			output.append((char)cpu.getMemValue(SCREEN + i));
+		}
+		return output.toString();
+	}
+
+	public static void main (String[] args) throws FileNotFoundException {
+		BrainfuckParser parser = new BrainfuckParser(new Lexer(new FileInputStream(args.length > 0? args[0]: "data/simple.brainfuck"), false, false));
+		parser.parse();
+		short[] code = compile(parser.getProgram());
+		Cpu cpu = new Cpu(code);
+		cpu.runUntilHalted();
+		System.out.print(getOutput(cpu));
+		System.out.println("code: " + code.length + " words, cycles: " + cpu.getCycles());
+	}
+}
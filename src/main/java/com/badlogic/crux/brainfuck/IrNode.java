@@ -0,0 +1,112 @@
+package com.badlogic.crux.brainfuck;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optimized brainfuck instructions as produced by the {@link BrainfuckOptimizer}. Cell
+ * accesses are relative to the data pointer, so that runs of pointer moves don't have
+ * to be executed one by one.
+ */
+public interface IrNode {
+	/**
+	 * program consisting of a list of instructions.
+	 */
+	public static class Program implements IrNode {
+		public List<Instruction> instructions = new ArrayList<Instruction>();
+	}
+
+	public interface Instruction extends IrNode {
+	}
+
+	/**
+	 * adds value to the cell at ptr + offset.
+	 */
+	public static class Add implements Instruction {
+		public final int offset;
+		public final int value;
+
+		public Add (int offset, int value) {
+			this.offset = offset;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * sets the cell at ptr + offset to value, e.g. for [-].
+	 */
+	public static class Set implements Instruction {
+		public final int offset;
+		public final int value;
+
+		public Set (int offset, int value) {
+			this.offset = offset;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * adds factor times the cell at ptr to the cell at ptr + offset, e.g. for [->++<].
+	 * The loop counter itself is cleared by a following {@link Set}.
+	 */
+	public static class MultiplyAdd implements Instruction {
+		public final int offset;
+		public final int factor;
+
+		public MultiplyAdd (int offset, int factor) {
+			this.offset = offset;
+			this.factor = factor;
+		}
+	}
+
+	/**
+	 * adds distance to the data pointer.
+	 */
+	public static class Move implements Instruction {
+		public final int distance;
+
+		public Move (int distance) {
+			this.distance = distance;
+		}
+	}
+
+	/**
+	 * moves the data pointer by step until it points to a zero cell, e.g. for [>].
+	 */
+	public static class Scan implements Instruction {
+		public final int step;
+
+		public Scan (int step) {
+			this.step = step;
+		}
+	}
+
+	/**
+	 * reads a character into the cell at ptr + offset.
+	 */
+	public static class Input implements Instruction {
+		public final int offset;
+
+		public Input (int offset) {
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * writes the cell at ptr + offset.
+	 */
+	public static class Output implements Instruction {
+		public final int offset;
+
+		public Output (int offset) {
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * loop executed while the cell at ptr is not zero.
+	 */
+	public static class Loop implements Instruction {
+		public List<Instruction> instructions = new ArrayList<Instruction>();
+	}
+}
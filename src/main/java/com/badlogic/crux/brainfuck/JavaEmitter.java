@@ -2,13 +2,19 @@ package com.badlogic.crux.brainfuck;
 
 import java.io.PrintStream;
 
-import com.badlogic.crux.brainfuck.AstNode.Instruction;
-import com.badlogic.crux.brainfuck.AstNode.Loop;
 import com.badlogic.crux.brainfuck.AstNode.Program;
-import com.badlogic.crux.brainfuck.AstNode.Simple;
+import com.badlogic.crux.brainfuck.IrNode.Add;
+import com.badlogic.crux.brainfuck.IrNode.Input;
+import com.badlogic.crux.brainfuck.IrNode.Instruction;
+import com.badlogic.crux.brainfuck.IrNode.Loop;
+import com.badlogic.crux.brainfuck.IrNode.Move;
+import com.badlogic.crux.brainfuck.IrNode.MultiplyAdd;
+import com.badlogic.crux.brainfuck.IrNode.Output;
+import com.badlogic.crux.brainfuck.IrNode.Scan;
+import com.badlogic.crux.brainfuck.IrNode.Set;
 
 /**
- * Takes a {@link Program} and outputs Java code.
+ * Takes a {@link Program} and outputs Java code, optimized via the {@link BrainfuckOptimizer}.
  * @author mzechner
  *
  */
@@ -22,14 +28,15 @@ public class JavaEmitter {
 		emit("import java.io.*;");
 		emit("");
 		emit("public class " + className + " {");
-		emit("   public static void main(String[] argv) {");
+		emit("   public static void main(String[] argv) throws IOException {");
 		emit("      char[] array = new char[30000];");
 		emit("      int ptr=0;");
 		depth = 1;
-		for(Instruction inst: program.instructions) {
+		for(Instruction inst: BrainfuckOptimizer.optimize(program).instructions) {
 			emitNode(inst);
 		}		
 		depth = 0;
+		emit("      System.out.flush();");
 		emit("   }");
 		emit("}");
 	}
@@ -39,18 +46,19 @@ public class JavaEmitter {
 		out.println(message);
 	}
 	
-	private void emitNode(AstNode node) {
+	private String cell(int offset) {
+		return offset == 0? "array[ptr]": "array[ptr" + (offset > 0? "+": "") + offset + "]";
+	}
+	
+	private void emitNode(IrNode node) {
 		depth++;
-		if(node instanceof Simple) {
-			switch(((Simple)node).type) {
-			case IncreaseData: emit("++array[ptr];"); break;
-			case DecreaseData: emit("--array[ptr];"); break;
-			case IncreaseDataPointer: emit("++ptr;"); break;
-			case DecreaseDataPointer: emit("--ptr;"); break;
-			case InputData: emit("array[ptr]=System.in.read();"); break;
-			case OutputData: emit("System.out.print(array[ptr]);"); break;
-			}
-		}
+		if(node instanceof Add) emit(cell(((Add)node).offset) + " += " + ((Add)node).value + ";");
+		if(node instanceof Set) emit(cell(((Set)node).offset) + " = (char)" + ((Set)node).value + ";");
+		if(node instanceof MultiplyAdd) emit(cell(((MultiplyAdd)node).offset) + " += array[ptr] * " + ((MultiplyAdd)node).factor + ";");
+		if(node instanceof Move) emit("ptr += " + ((Move)node).distance + ";");
+		if(node instanceof Scan) emit("while(array[ptr] != 0) ptr += " + ((Scan)node).step + ";");
+		if(node instanceof Input) emit(cell(((Input)node).offset) + " = (char)System.in.read();");
+		if(node instanceof Output) emit("System.out.print(" + cell(((Output)node).offset) + ");");
 		if(node instanceof Loop) {
 			emit("while(array[ptr] != 0) {");
 			for(Instruction inst: ((Loop)node).instructions) {
@@ -61,4 +69,3 @@ public class JavaEmitter {
 		depth--;
 	}
 }
-
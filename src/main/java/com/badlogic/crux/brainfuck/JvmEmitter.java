@@ -0,0 +1,333 @@
+package com.badlogic.crux.brainfuck;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.crux.Lexer;
+import com.badlogic.crux.brainfuck.AstNode.Program;
+import com.badlogic.crux.brainfuck.IrNode.Add;
+import com.badlogic.crux.brainfuck.IrNode.Input;
+import com.badlogic.crux.brainfuck.IrNode.Instruction;
+import com.badlogic.crux.brainfuck.IrNode.Loop;
+import com.badlogic.crux.brainfuck.IrNode.Move;
+import com.badlogic.crux.brainfuck.IrNode.MultiplyAdd;
+import com.badlogic.crux.brainfuck.IrNode.Output;
+import com.badlogic.crux.brainfuck.IrNode.Scan;
+import com.badlogic.crux.brainfuck.IrNode.Set;
+
+/**
+ * Takes a {@link Program} and generates a JVM class file, optimized via the
+ * {@link BrainfuckOptimizer}, that is loaded and run in process without going
+ * through javac. The class has a single method
+ *
+ * <pre>
+ * public static void run(byte[] tape, InputStream in, OutputStream out)
+ * </pre>
+ *
+ * with the data pointer in local 3. Cells are bytes that wrap around, reading past
+ * the end of the input yields 0. Running off the tape throws a RuntimeException.
+ */
+public class JvmEmitter {
+	public static final int TAPE_SIZE = 65536;
+	static final String DESCRIPTOR = "([BLjava/io/InputStream;Ljava/io/OutputStream;)V";
+
+	/** defines each generated class in its own loader, so it can be collected with it **/
+	static class Loader extends ClassLoader {
+		Loader () {
+			super(JvmEmitter.class.getClassLoader());
+		}
+
+		Class<?> define (String name, byte[] classFile) {
+			return defineClass(name, classFile, 0, classFile.length);
+		}
+	}
+
+	List<byte[]> constants = new ArrayList<byte[]>();
+	Map<String, Integer> constantIndices = new HashMap<String, Integer>();
+	byte[] code = new byte[1024];
+	int size;
+
+	/**
+	 * @return the class file for the program, the class name uses '.' as separator.
+	 */
+	public byte[] emit(Program program, String className) {
+		constants.clear();
+		constantIndices.clear();
+		size = 0;
+		int thisClass = classConstant(className.replace('.', '/'));
+		int superClass = classConstant("java/lang/Object");
+		int name = utf8("run");
+		int descriptor = utf8(DESCRIPTOR);
+		int codeAttribute = utf8("Code");
+
+		u1(0x03); // iconst_0
+		u1(0x3e); // istore_3
+		for(Instruction inst: BrainfuckOptimizer.optimize(program).instructions) {
+			emitNode(inst);
+		}
+		u1(0xb1); // return
+		if(size > 65535) throw new RuntimeException("Program too large, " + size + " bytes of bytecode");
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xcafebabe);
+			// version 49, so the verifier doesn't need stack map frames
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(constants.size() + 1);
+			for(byte[] constant: constants) out.write(constant);
+			out.writeShort(0x21); // public super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+			out.writeShort(1); // methods
+			out.writeShort(0x9); // public static
+			out.writeShort(name);
+			out.writeShort(descriptor);
+			out.writeShort(1);
+			out.writeShort(codeAttribute);
+			out.writeInt(2 + 2 + 4 + size + 2 + 2);
+			out.writeShort(6); // max stack
+			out.writeShort(4); // max locals
+			out.writeInt(size);
+			out.write(code, 0, size);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // code attributes
+			out.writeShort(0); // class attributes
+			out.close();
+			return bytes.toByteArray();
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void emitNode(IrNode node) {
+		if(node instanceof Add) {
+			cell(((Add)node).offset);
+			u1(0x5c); // dup2
+			u1(0x33); // baload
+			push((byte)((Add)node).value);
+			u1(0x60); // iadd
+			u1(0x54); // bastore
+		}
+		if(node instanceof Set) {
+			cell(((Set)node).offset);
+			push((byte)((Set)node).value);
+			u1(0x54); // bastore
+		}
+		if(node instanceof MultiplyAdd) {
+			cell(((MultiplyAdd)node).offset);
+			u1(0x5c); // dup2
+			u1(0x33); // baload
+			cell(0);
+			u1(0x33); // baload
+			push((byte)((MultiplyAdd)node).factor);
+			u1(0x68); // imul
+			u1(0x60); // iadd
+			u1(0x54); // bastore
+		}
+		if(node instanceof Move) move(((Move)node).distance);
+		if(node instanceof Output) {
+			u1(0x2c); // aload_2
+			cell(((Output)node).offset);
+			u1(0x33); // baload
+			u1(0xb6); // invokevirtual
+			u2(methodConstant("java/io/OutputStream", "write", "(I)V"));
+		}
+		if(node instanceof Input) {
+			cell(((Input)node).offset);
+			u1(0x2b); // aload_1
+			u1(0xb8); // invokestatic
+			u2(methodConstant(JvmEmitter.class.getName().replace('.', '/'), "read", "(Ljava/io/InputStream;)I"));
+			u1(0x54); // bastore
+		}
+		if(node instanceof Scan || node instanceof Loop) {
+			// goto test, body, test: if(tape[ptr] != 0) goto body
+			int jump = size;
+			u1(0xa7); // goto
+			u2(0);
+			int body = size;
+			if(node instanceof Scan) {
+				move(((Scan)node).step);
+			} else {
+				for(Instruction inst: ((Loop)node).instructions) {
+					emitNode(inst);
+				}
+			}
+			patch(jump, size);
+			cell(0);
+			u1(0x33); // baload
+			branch(0x9a, body); // ifne
+		}
+	}
+
+	/** pushes the tape and the index of the cell at ptr + offset **/
+	private void cell(int offset) {
+		u1(0x2a); // aload_0
+		u1(0x1d); // iload_3
+		if(offset != 0) {
+			push(offset);
+			u1(0x60); // iadd
+		}
+	}
+
+	private void move(int distance) {
+		if(distance >= -128 && distance <= 127) {
+			u1(0x84); // iinc
+			u1(3);
+			u1(distance);
+		} else {
+			u1(0xc4); // wide
+			u1(0x84); // iinc
+			u2(3);
+			u2(distance);
+		}
+	}
+
+	private void push(int value) {
+		if(value >= -1 && value <= 5) {
+			u1(0x03 + value); // iconst_<value>
+		} else if(value >= -128 && value <= 127) {
+			u1(0x10); // bipush
+			u1(value);
+		} else {
+			u1(0x11); // sipush
+			u2(value);
+		}
+	}
+
+	private void branch(int opcode, int target) {
+		int offset = target - size;
+		if(offset < Short.MIN_VALUE) throw new RuntimeException("Loop too large, " + -offset + " bytes of bytecode");
+		u1(opcode);
+		u2(offset);
+	}
+
+	private void patch(int jump, int target) {
+		int offset = target - jump;
+		if(offset > Short.MAX_VALUE) throw new RuntimeException("Loop too large, " + offset + " bytes of bytecode");
+		code[jump + 1] = (byte)(offset >> 8);
+		code[jump + 2] = (byte)offset;
+	}
+
+	private void u1(int value) {
+		if(size == code.length) {
+			byte[] tmp = new byte[code.length * 2];
+			System.arraycopy(code, 0, tmp, 0, size);
+			code = tmp;
+		}
+		code[size++] = (byte)value;
+	}
+
+	private void u2(int value) {
+		u1(value >> 8);
+		u1(value);
+	}
+
+	private int constant(String key, byte[] constant) {
+		Integer index = constantIndices.get(key);
+		if(index == null) {
+			constants.add(constant);
+			index = constants.size();
+			constantIndices.put(key, index);
+		}
+		return index;
+	}
+
+	private int utf8(String value) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(1);
+			out.writeUTF(value);
+			return constant("utf8 " + value, bytes.toByteArray());
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private int classConstant(String name) {
+		int utf8 = utf8(name);
+		return constant("class " + name, new byte[] { 7, (byte)(utf8 >> 8), (byte)utf8 });
+	}
+
+	private int methodConstant(String owner, String name, String descriptor) {
+		int owningClass = classConstant(owner);
+		int methodName = utf8(name);
+		int methodDescriptor = utf8(descriptor);
+		int nameAndType = constant("nameAndType " + name + descriptor, new byte[] { 12, (byte)(methodName >> 8), (byte)methodName, (byte)(methodDescriptor >> 8), (byte)methodDescriptor });
+		return constant("method " + owner + "." + name + descriptor, new byte[] { 10, (byte)(owningClass >> 8), (byte)owningClass, (byte)(nameAndType >> 8), (byte)nameAndType });
+	}
+
+	/** called by the generated code for ',' **/
+	public static int read(InputStream in) {
+		try {
+			int value = in.read();
+			return value == -1? 0: value;
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Defines the class generated by {@link #emit(Program, String)} in a new class loader.
+	 * @return the run method of the class
+	 */
+	public static Method load(String className, byte[] classFile) {
+		try {
+			return new Loader().define(className, classFile).getMethod("run", byte[].class, InputStream.class, OutputStream.class);
+		} catch(NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Runs a method returned by {@link #load(String, byte[])} on a new tape. Input
+	 * and output are buffered, the output is flushed when the program is done.
+	 */
+	public static void run(Method method, InputStream in, OutputStream out) {
+		BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
+		try {
+			method.invoke(null, new byte[TAPE_SIZE], new BufferedInputStream(in), bufferedOut);
+			bufferedOut.flush();
+		} catch(InvocationTargetException e) {
+			if(e.getCause() instanceof ArrayIndexOutOfBoundsException) throw new RuntimeException("Data pointer left the tape", e.getCause());
+			if(e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		} catch(IllegalAccessException e) {
+			throw new RuntimeException(e);
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static void run(Program program, InputStream in, OutputStream out) {
+		run(load("Brainfuck", new JvmEmitter().emit(program, "Brainfuck")), in, out);
+	}
+
+	public static void main (String[] args) throws IOException {
+		long start = System.nanoTime();
+		BrainfuckParser parser = new BrainfuckParser(new Lexer(new FileInputStream(args.length > 0? args[0]: "data/simple.brainfuck"), false, false));
+		parser.parse();
+		byte[] classFile = new JvmEmitter().emit(parser.getProgram(), "Brainfuck");
+		Method method = load("Brainfuck", classFile);
+		long compiled = System.nanoTime();
+		run(method, System.in, System.out);
+		long done = System.nanoTime();
+		System.out.println("class: " + classFile.length + " bytes, compile: " + (compiled - start) / 1000000f + "ms, run: " + (done - compiled) / 1000000f + "ms");
+	}
+}
@@ -0,0 +1,116 @@
+package com.badlogic.crux.brainfuck;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PL/0 AST nodes, built by the {@link PL0Parser}.
+ */
+public interface PL0AstNode {
+	/**
+	 * A block declares constants, variables and procedures and has a
+	 * statement. The program is the outermost block.
+	 */
+	public static class Block implements PL0AstNode {
+		public List<ConstantDeclaration> constants = new ArrayList<ConstantDeclaration>();
+		public List<String> variables = new ArrayList<String>();
+		public List<Procedure> procedures = new ArrayList<Procedure>();
+		public Statement statement;
+	}
+
+	public static class ConstantDeclaration implements PL0AstNode {
+		public String name;
+		public int value;
+	}
+
+	public static class Procedure implements PL0AstNode {
+		public String name;
+		public Block block;
+	}
+
+	/**
+	 * An assignment, call, begin/end compound, if or while statement.
+	 */
+	public interface Statement extends PL0AstNode {
+	}
+
+	public static class Assignment implements Statement {
+		public String identifier;
+		public Expression expression;
+	}
+
+	public static class Call implements Statement {
+		public String identifier;
+	}
+
+	/**
+	 * A begin/end sequence of statements, also used for the empty statement.
+	 */
+	public static class Compound implements Statement {
+		public List<Statement> statements = new ArrayList<Statement>();
+	}
+
+	public static class IfStatement implements Statement {
+		public Condition condition;
+		public Statement statement;
+	}
+
+	public static class WhileStatement implements Statement {
+		public Condition condition;
+		public Statement statement;
+	}
+
+	/**
+	 * Either {@link Odd} or a {@link Comparison}.
+	 */
+	public interface Condition extends PL0AstNode {
+	}
+
+	public static class Odd implements Condition {
+		public Expression expression;
+	}
+
+	public static class Comparison implements Condition {
+		public enum ComparisonType {
+			Equal,
+			NotEqual,
+			Less,
+			LessEqual,
+			Greater,
+			GreaterEqual
+		}
+		public ComparisonType type;
+		public Expression left;
+		public Expression right;
+	}
+
+	public interface Expression extends PL0AstNode {
+	}
+
+	public static class BinaryExpression implements Expression {
+		public enum BinaryType {
+			Add,
+			Subtract,
+			Multiply,
+			Divide
+		}
+		public BinaryType type;
+		public Expression left;
+		public Expression right;
+	}
+
+	public static class Negate implements Expression {
+		public Expression expression;
+	}
+
+	public static class Number implements Expression {
+		public int value;
+	}
+
+	/**
+	 * A constant or variable.
+	 */
+	public static class Identifier implements Expression {
+		public String name;
+	}
+}
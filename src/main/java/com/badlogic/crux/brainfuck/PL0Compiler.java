@@ -0,0 +1,363 @@
+package com.badlogic.crux.brainfuck;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.badlogic.crux.Lexer;
+import com.badlogic.crux.brainfuck.PL0AstNode.Assignment;
+import com.badlogic.crux.brainfuck.PL0AstNode.BinaryExpression;
+import com.badlogic.crux.brainfuck.PL0AstNode.BinaryExpression.BinaryType;
+import com.badlogic.crux.brainfuck.PL0AstNode.Block;
+import com.badlogic.crux.brainfuck.PL0AstNode.Call;
+import com.badlogic.crux.brainfuck.PL0AstNode.Comparison;
+import com.badlogic.crux.brainfuck.PL0AstNode.Compound;
+import com.badlogic.crux.brainfuck.PL0AstNode.Condition;
+import com.badlogic.crux.brainfuck.PL0AstNode.ConstantDeclaration;
+import com.badlogic.crux.brainfuck.PL0AstNode.Expression;
+import com.badlogic.crux.brainfuck.PL0AstNode.Identifier;
+import com.badlogic.crux.brainfuck.PL0AstNode.IfStatement;
+import com.badlogic.crux.brainfuck.PL0AstNode.Negate;
+import com.badlogic.crux.brainfuck.PL0AstNode.Number;
+import com.badlogic.crux.brainfuck.PL0AstNode.Odd;
+import com.badlogic.crux.brainfuck.PL0AstNode.Procedure;
+import com.badlogic.crux.brainfuck.PL0AstNode.Statement;
+import com.badlogic.crux.brainfuck.PL0AstNode.WhileStatement;
+import com.badlogic.dcpu.Assembler;
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+import com.badlogic.dcpu.Disassembler;
+
+/**
+ * Compiles a PL/0 program to dcpu-16 code. The variables of the program block are
+ * static, each procedure activation gets a frame:
+ *
+ * <pre>
+ * [J+2]   static link, the frame of the enclosing procedure
+ * [J+1]   return address
+ * [J]     frame of the caller
+ * [J-1-i] variable i
+ * </pre>
+ *
+ * Procedures declared in the program block don't get a static link, as the program
+ * variables are addressed directly, procedures without variables, static link and
+ * nested procedures don't get a frame. Expressions are evaluated in A, B, C, X, Y,
+ * Z and I, which are free between statements as procedures have no arguments and
+ * no results. Comparisons become IFE/IFN/IFG and ODD an IFB.
+ */
+public class PL0Compiler {
+	static final Register[] REGISTERS = { Register.A, Register.B, Register.C, Register.X, Register.Y, Register.Z, Register.I };
+
+	/** the names declared by a block **/
+	static class Scope {
+		final Scope parent;
+		final int level;
+		final Map<String, Integer> constants = new HashMap<String, Integer>();
+		final Map<String, Integer> variables = new HashMap<String, Integer>();
+		final Map<String, String> procedures = new HashMap<String, String>();
+		boolean frame;
+
+		Scope (Scope parent, Block block) {
+			this.parent = parent;
+			this.level = parent == null? 0: parent.level + 1;
+			for(ConstantDeclaration constant: block.constants) declare(constant.name).constants.put(constant.name, constant.value);
+			for(String variable: block.variables) declare(variable).variables.put(variable, variables.size());
+			frame = level > 0 && (!variables.isEmpty() || hasStaticLink() || !block.procedures.isEmpty());
+		}
+
+		Scope declare (String name) {
+			if(constants.containsKey(name) || variables.containsKey(name) || procedures.containsKey(name)) {
+				throw new RuntimeException("'" + name + "' declared twice");
+			}
+			return this;
+		}
+
+		boolean hasStaticLink () {
+			return level > 1;
+		}
+
+		Scope lookup (String name) {
+			for(Scope scope = this; scope != null; scope = scope.parent) {
+				if(scope.constants.containsKey(name) || scope.variables.containsKey(name) || scope.procedures.containsKey(name)) return scope;
+			}
+			throw new RuntimeException("unknown identifier '" + name + "'");
+		}
+	}
+
+	final Assembler asm = new Assembler();
+	final Map<String, Integer> addresses = new HashMap<String, Integer>();
+	final Block program;
+	Scope scope;
+	int labels;
+
+	public PL0Compiler (Block program) {
+		this.program = program;
+	}
+
+	/** @return the address of the program variable, valid after {@link #compile()} **/
+	public int getAddress (String variable) {
+		Integer address = addresses.get(variable);
+		if(address == null) throw new RuntimeException("unknown program variable '" + variable + "'");
+		return address;
+	}
+
+	public short[] compile () {
+		scope = new Scope(null, program);
+		declare(program);
+		statement(program.statement);
+		asm.val((short)0);
+		for(Procedure procedure: program.procedures) {
+			procedure(procedure);
+		}
+		for(String variable: program.variables) {
+			asm.markLabel(label(variable));
+			addresses.put(variable, asm.size());
+			asm.val((short)0);
+		}
+		return asm.getDump();
+	}
+
+	String label (String variable) {
+		return "pl0." + variable;
+	}
+
+	String newLabel (String name) {
+		return name + "." + labels++;
+	}
+
+	/** declares the procedures of the block in the current scope **/
+	void declare (Block block) {
+		for(Procedure procedure: block.procedures) {
+			scope.declare(procedure.name).procedures.put(procedure.name, newLabel(procedure.name));
+		}
+	}
+
+	void procedure (Procedure procedure) {
+		String label = scope.procedures.get(procedure.name);
+		scope = new Scope(scope, procedure.block);
+		declare(procedure.block);
+		asm.markLabel(label);
+		if(scope.frame) {
+			asm.op(Opcode.SET, Arg.push(), Arg.reg(Register.J));
+			asm.op(Opcode.SET, Arg.reg(Register.J), Arg.sp());
+			if(!scope.variables.isEmpty()) asm.op(Opcode.SUB, Arg.sp(), Arg.lit(scope.variables.size()));
+		}
+		statement(procedure.block.statement);
+		if(scope.frame) {
+			if(!scope.variables.isEmpty()) asm.op(Opcode.SET, Arg.sp(), Arg.reg(Register.J));
+			asm.op(Opcode.SET, Arg.reg(Register.J), Arg.pop());
+		}
+		asm.op(Opcode.SET, Arg.pc(), Arg.pop());
+		for(Procedure nested: procedure.block.procedures) {
+			procedure(nested);
+		}
+		scope = scope.parent;
+	}
+
+	// -------------------------------------------------------------------------
+	// statements
+	// -------------------------------------------------------------------------
+
+	void statement (Statement statement) {
+		if(statement instanceof Assignment) {
+			assignment((Assignment)statement);
+		} else if(statement instanceof Call) {
+			call((Call)statement);
+		} else if(statement instanceof Compound) {
+			for(Statement child: ((Compound)statement).statements) statement(child);
+		} else if(statement instanceof IfStatement) {
+			IfStatement ifStatement = (IfStatement)statement;
+			String end = newLabel("endif");
+			jumpIf(ifStatement.condition, end, false);
+			statement(ifStatement.statement);
+			asm.markLabel(end);
+		} else if(statement instanceof WhileStatement) {
+			// rotated, the condition is tested once in front of the loop and at its end
+			WhileStatement whileStatement = (WhileStatement)statement;
+			String loop = newLabel("while");
+			String end = newLabel("endwhile");
+			jumpIf(whileStatement.condition, end, false);
+			asm.markLabel(loop);
+			statement(whileStatement.statement);
+			jumpIf(whileStatement.condition, loop, true);
+			asm.markLabel(end);
+		} else {
+			throw new RuntimeException("unknown statement " + statement);
+		}
+	}
+
+	void assignment (Assignment assignment) {
+		Scope owner = scope.lookup(assignment.identifier);
+		if(!owner.variables.containsKey(assignment.identifier)) throw new RuntimeException("can't assign to '" + assignment.identifier + "'");
+		Expression expression = assignment.expression;
+		if(isLeaf(expression)) {
+			asm.op(Opcode.SET, variable(assignment.identifier, 0), operand(expression, 1));
+			return;
+		}
+		// x := x op leaf and x := leaf op x for commutative ops work on the variable directly
+		if(expression instanceof BinaryExpression) {
+			BinaryExpression binary = (BinaryExpression)expression;
+			boolean commutative = binary.type == BinaryType.Add || binary.type == BinaryType.Multiply;
+			Expression other = null;
+			if(isVariable(binary.left, assignment.identifier) && isLeaf(binary.right)) other = binary.right;
+			else if(commutative && isVariable(binary.right, assignment.identifier) && isLeaf(binary.left)) other = binary.left;
+			if(other != null) {
+				asm.op(opcode(binary), variable(assignment.identifier, 0), operand(other, 1));
+				return;
+			}
+		}
+		expression(expression, 0);
+		asm.op(Opcode.SET, variable(assignment.identifier, 1), Arg.reg(REGISTERS[0]));
+	}
+
+	void call (Call call) {
+		Scope owner = scope.lookup(call.identifier);
+		String label = owner.procedures.get(call.identifier);
+		if(label == null) throw new RuntimeException("can't call '" + call.identifier + "'");
+		// the callee is nested in the owner, its static link is the owner's frame
+		boolean staticLink = owner.level > 0;
+		if(staticLink) asm.op(Opcode.SET, Arg.push(), frame(owner, 0));
+		asm.eop(Opcode.JSR, asm.label(label));
+		if(staticLink) asm.op(Opcode.ADD, Arg.sp(), Arg.lit(1));
+	}
+
+	/** @return the frame pointer of the scope's activation, follows the static links using the register if necessary **/
+	Arg frame (Scope owner, int register) {
+		if(owner == scope) return Arg.reg(Register.J);
+		Register base = REGISTERS[register];
+		asm.op(Opcode.SET, Arg.reg(base), Arg.mem(Register.J, 2));
+		for(Scope current = scope.parent; current != owner; current = current.parent) {
+			asm.op(Opcode.SET, Arg.reg(base), Arg.mem(base, 2));
+		}
+		return Arg.reg(base);
+	}
+
+	/** @return the memory argument of the variable, may use the register for following static links **/
+	Arg variable (String name, int register) {
+		Scope owner = scope.lookup(name);
+		int index = owner.variables.get(name);
+		if(owner.level == 0) return asm.labelMem(label(name), 0);
+		if(owner == scope) return Arg.mem(Register.J, -1 - index);
+		if(register >= REGISTERS.length) throw new RuntimeException("expression too complex");
+		frame(owner, register);
+		return Arg.mem(REGISTERS[register], -1 - index);
+	}
+
+	// -------------------------------------------------------------------------
+	// conditions
+	// -------------------------------------------------------------------------
+
+	/** jumps to the label if the condition is when, falls through otherwise **/
+	void jumpIf (Condition condition, String label, boolean when) {
+		Opcode opcode;
+		boolean negated = false;
+		Arg left, right;
+		if(condition instanceof Odd) {
+			left = value(((Odd)condition).expression, 0);
+			right = Arg.lit(1);
+			opcode = Opcode.IFB;
+		} else {
+			Comparison comparison = (Comparison)condition;
+			Expression first = comparison.left;
+			Expression second = comparison.right;
+			switch(comparison.type) {
+			case Equal: opcode = Opcode.IFE; break;
+			case NotEqual: opcode = Opcode.IFN; break;
+			case Greater: opcode = Opcode.IFG; break;
+			case LessEqual: opcode = Opcode.IFG; negated = true; break;
+			case Less: opcode = Opcode.IFG; first = comparison.right; second = comparison.left; break;
+			default: opcode = Opcode.IFG; negated = true; first = comparison.right; second = comparison.left; break;
+			}
+			left = value(first, 0);
+			right = value(second, 1);
+		}
+		if(negated == when) {
+			// jump if the test fails, IFG and IFB have no counterpart so they jump over the jump
+			if(opcode == Opcode.IFE) {
+				opcode = Opcode.IFN;
+			} else if(opcode == Opcode.IFN) {
+				opcode = Opcode.IFE;
+			} else {
+				String skip = newLabel("skip");
+				asm.op(opcode, left, right);
+				asm.op(Opcode.SET, Arg.pc(), asm.label(skip));
+				asm.op(Opcode.SET, Arg.pc(), asm.label(label));
+				asm.markLabel(skip);
+				return;
+			}
+		}
+		asm.op(opcode, left, right);
+		asm.op(Opcode.SET, Arg.pc(), asm.label(label));
+	}
+
+	// -------------------------------------------------------------------------
+	// expressions
+	// -------------------------------------------------------------------------
+
+	static boolean isVariable (Expression expression, String name) {
+		return expression instanceof Identifier && ((Identifier)expression).name.equals(name);
+	}
+
+	static boolean isLeaf (Expression expression) {
+		return expression instanceof Number || expression instanceof Identifier;
+	}
+
+	Opcode opcode (BinaryExpression binary) {
+		switch(binary.type) {
+		case Add: return Opcode.ADD;
+		case Subtract: return Opcode.SUB;
+		case Multiply: return Opcode.MUL;
+		default: return Opcode.DIV;
+		}
+	}
+
+	/** @return the argument for a number, constant or variable, may use the register for following static links **/
+	Arg operand (Expression expression, int register) {
+		if(expression instanceof Number) return Arg.lit(((Number)expression).value & 0xffff);
+		String name = ((Identifier)expression).name;
+		Scope owner = scope.lookup(name);
+		if(owner.constants.containsKey(name)) return Arg.lit(owner.constants.get(name) & 0xffff);
+		if(!owner.variables.containsKey(name)) throw new RuntimeException("'" + name + "' is a procedure");
+		return variable(name, register);
+	}
+
+	/** @return an argument holding the value of the expression, evaluated in the register if it is no leaf **/
+	Arg value (Expression expression, int register) {
+		if(isLeaf(expression)) return operand(expression, register);
+		expression(expression, register);
+		return Arg.reg(REGISTERS[register]);
+	}
+
+	/** evaluates the expression to the register, higher registers are used for temporaries **/
+	void expression (Expression expression, int register) {
+		if(register >= REGISTERS.length) throw new RuntimeException("expression too complex");
+		Arg target = Arg.reg(REGISTERS[register]);
+		if(isLeaf(expression)) {
+			asm.op(Opcode.SET, target, operand(expression, register));
+		} else if(expression instanceof Negate) {
+			expression(((Negate)expression).expression, register);
+			asm.op(Opcode.MUL, target, Arg.lit(0xffff));
+		} else {
+			BinaryExpression binary = (BinaryExpression)expression;
+			expression(binary.left, register);
+			asm.op(opcode(binary), target, value(binary.right, register + 1));
+		}
+	}
+
+	public static void main (String[] args) throws FileNotFoundException {
+		PL0Parser parser = new PL0Parser(new Lexer(new FileInputStream(args.length > 0? args[0]: "data/simple.pl0")));
+		parser.parse();
+		PL0Compiler compiler = new PL0Compiler(parser.getProgram());
+		short[] code = compiler.compile();
+		System.out.println(Disassembler.disassemble(code, 0, code.length));
+		Cpu cpu = new Cpu(code);
+		cpu.runUntilHalted();
+		for(String variable: parser.getProgram().variables) {
+			System.out.println(variable + " = " + cpu.getMemValue(compiler.getAddress(variable)));
+		}
+		System.out.println("cycles: " + cpu.getCycles());
+	}
+}
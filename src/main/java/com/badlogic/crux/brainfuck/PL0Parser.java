@@ -3,11 +3,35 @@ package com.badlogic.crux.brainfuck;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 
+import com.badlogic.crux.CruxCompiler;
 import com.badlogic.crux.Lexer;
 import com.badlogic.crux.Parser;
 import com.badlogic.crux.Lexer.TokenType;
+import com.badlogic.crux.brainfuck.PL0AstNode.Assignment;
+import com.badlogic.crux.brainfuck.PL0AstNode.BinaryExpression;
+import com.badlogic.crux.brainfuck.PL0AstNode.BinaryExpression.BinaryType;
+import com.badlogic.crux.brainfuck.PL0AstNode.Block;
+import com.badlogic.crux.brainfuck.PL0AstNode.Call;
+import com.badlogic.crux.brainfuck.PL0AstNode.Comparison;
+import com.badlogic.crux.brainfuck.PL0AstNode.Comparison.ComparisonType;
+import com.badlogic.crux.brainfuck.PL0AstNode.Compound;
+import com.badlogic.crux.brainfuck.PL0AstNode.Condition;
+import com.badlogic.crux.brainfuck.PL0AstNode.ConstantDeclaration;
+import com.badlogic.crux.brainfuck.PL0AstNode.Expression;
+import com.badlogic.crux.brainfuck.PL0AstNode.Identifier;
+import com.badlogic.crux.brainfuck.PL0AstNode.IfStatement;
+import com.badlogic.crux.brainfuck.PL0AstNode.Negate;
+import com.badlogic.crux.brainfuck.PL0AstNode.Number;
+import com.badlogic.crux.brainfuck.PL0AstNode.Odd;
+import com.badlogic.crux.brainfuck.PL0AstNode.Procedure;
+import com.badlogic.crux.brainfuck.PL0AstNode.Statement;
+import com.badlogic.crux.brainfuck.PL0AstNode.WhileStatement;
 
 public class PL0Parser extends Parser {
+	static final int CONST = 0, VAR = 1, PROCEDURE = 2, CALL = 3, BEGIN = 4, END = 5, IF = 6, THEN = 7, WHILE = 8, DO = 9, ODD = 10;
+
+	protected Block program;
+
 	public PL0Parser (Lexer lexer) {
 		super(lexer, new String[] {
 			"CONST",
@@ -24,13 +48,22 @@ public class PL0Parser extends Parser {
 		});
 	}
 
+	public Block getProgram () {
+		return program;
+	}
+
 	@Override
 	public void parse () {
-		program();
+		program = program();
 	}
 	
-	private void program() {
-		block();
+	/**
+	 * program = block "." .
+	 */
+	private Block program() {
+		Block block = block();
+		accept(TokenType.PERIOD);
+		return block;
 	}
 	
 	/**
@@ -39,28 +72,38 @@ public class PL0Parser extends Parser {
     *      ["var" ident {"," ident} ";"]
     *      {"procedure" ident ";" block ";"} statement .
 	 */
-	private void block() {
-		if(accept("CONST")) {
+	private Block block() {
+		Block block = new Block();
+		if(accept(CONST)) {
 			do {
+				ConstantDeclaration constant = new ConstantDeclaration();
 				expect(TokenType.IDENTIFIER);
+				constant.name = lastToken.text;
 				expect(TokenType.ASSIGN);
 				expect(TokenType.NUMBER);
+				constant.value = CruxCompiler.parseNumber(lastToken.text);
+				block.constants.add(constant);
 			} while(accept(TokenType.COMMA));
 			expect(TokenType.SEMICOLON);
 		}
-		if(accept("VAR")) {
+		if(accept(VAR)) {
 			do {
 				expect(TokenType.IDENTIFIER);
+				block.variables.add(lastToken.text);
 			} while(accept(TokenType.COMMA));
 			expect(TokenType.SEMICOLON);
 		}
-		while(accept("PROCEDURE")) {
+		while(accept(PROCEDURE)) {
+			Procedure procedure = new Procedure();
 			expect(TokenType.IDENTIFIER);
+			procedure.name = lastToken.text;
 			expect(TokenType.SEMICOLON);
-			block();
+			procedure.block = block();
 			expect(TokenType.SEMICOLON);
+			block.procedures.add(procedure);
 		}
-		statement();
+		block.statement = statement();
+		return block;
 	}
 	
 	/**
@@ -72,27 +115,52 @@ public class PL0Parser extends Parser {
     *     | "while" condition "do" statement
     *     ] .
 	 */
-	private void statement() {
-		if(accept("CALL")) {
+	private Statement statement() {
+		switch(token.keyword) {
+		case CALL: {
+			nextToken();
+			Call call = new Call();
 			expect(TokenType.IDENTIFIER);
-		} else if(accept("BEGIN")) {
+			call.identifier = lastToken.text;
+			return call;
+		}
+		case BEGIN: {
+			nextToken();
+			Compound compound = new Compound();
 			do {
-				statement();
+				compound.statements.add(statement());
 			} while(accept(TokenType.SEMICOLON));
-			expect("END");
-		} else if(accept("IF")) {
-			condition();
-			expect("THEN");
-			statement();
-		} else if(accept("WHILE")) {
-			condition();
-			expect("DO");
-			statement();
-		} else if(accept(TokenType.IDENTIFIER)) {
-			expect(TokenType.COLON);
-			expect(TokenType.ASSIGN);
-			expression();
+			expect(END);
+			return compound;
+		}
+		case IF: {
+			nextToken();
+			IfStatement statement = new IfStatement();
+			statement.condition = condition();
+			expect(THEN);
+			statement.statement = statement();
+			return statement;
+		}
+		case WHILE: {
+			nextToken();
+			WhileStatement statement = new WhileStatement();
+			statement.condition = condition();
+			expect(DO);
+			statement.statement = statement();
+			return statement;
+		}
+		case -1:
+			if(accept(TokenType.IDENTIFIER)) {
+				Assignment assignment = new Assignment();
+				assignment.identifier = lastToken.text;
+				expect(TokenType.COLON);
+				expect(TokenType.ASSIGN);
+				assignment.expression = expression();
+				return assignment;
+			}
 		}
+		// the empty statement, e.g. before an END
+		return new Compound();
 	}
 	
 	/**
@@ -100,49 +168,68 @@ public class PL0Parser extends Parser {
     *     "odd" expression
     *     | expression ("="|"#"|"<"|"<="|">"|">=") expression .
 	 */
-	private void condition() {
-		if(accept("ODD")) {
-			expression();
+	private Condition condition() {
+		if(accept(ODD)) {
+			Odd odd = new Odd();
+			odd.expression = expression();
+			return odd;
 		} else {
-			expression();
-			if(token.type == TokenType.ASSIGN ||
-				token.type == TokenType.HASH ||
-				token.type == TokenType.LESS ||
-				token.type == TokenType.LESSE ||
-				token.type == TokenType.GREATER ||
-				token.type == TokenType.GREATERE) {
-				nextToken();
-				expression();
-			} else {
+			Comparison comparison = new Comparison();
+			comparison.left = expression();
+			switch(token.type) {
+			case ASSIGN: comparison.type = ComparisonType.Equal; break;
+			case HASH: comparison.type = ComparisonType.NotEqual; break;
+			case LESS: comparison.type = ComparisonType.Less; break;
+			case LESSE: comparison.type = ComparisonType.LessEqual; break;
+			case GREATER: comparison.type = ComparisonType.Greater; break;
+			case GREATERE: comparison.type = ComparisonType.GreaterEqual; break;
+			default:
 				error("expected comparison operator (=, #, <, <=, >, >=)");
-				nextToken();
 			}
+			nextToken();
+			comparison.right = expression();
+			return comparison;
 		}
 	}
 	
 	/**
 	 *  expression = ["+"|"-"] term {("+"|"-") term} .
 	 */
-	private void expression() {
-		if(token.type == TokenType.PLUS || token.type == TokenType.MINUS) {
-			nextToken();
+	private Expression expression() {
+		Expression expression;
+		if(accept(TokenType.MINUS)) {
+			Negate negate = new Negate();
+			negate.expression = term();
+			expression = negate;
+		} else {
+			accept(TokenType.PLUS);
+			expression = term();
 		}
-		term();
 		while(token.type == TokenType.PLUS || token.type == TokenType.MINUS) {
+			BinaryExpression binary = new BinaryExpression();
+			binary.type = token.type == TokenType.PLUS? BinaryType.Add: BinaryType.Subtract;
 			nextToken();
-			term();
+			binary.left = expression;
+			binary.right = term();
+			expression = binary;
 		}
+		return expression;
 	}
 	
 	/** 
 	 * term = factor {("*"|"/") factor} .
 	 */
-	private void term() {
-		factor();
+	private Expression term() {
+		Expression expression = factor();
 		while(token.type == TokenType.MUL || token.type == TokenType.DIV) {
+			BinaryExpression binary = new BinaryExpression();
+			binary.type = token.type == TokenType.MUL? BinaryType.Multiply: BinaryType.Divide;
 			nextToken();
-			factor();
+			binary.left = expression;
+			binary.right = factor();
+			expression = binary;
 		}
+		return expression;
 	}
 	
 	/**
@@ -151,17 +238,22 @@ public class PL0Parser extends Parser {
     *    | number
     *    | "(" expression ")" .
 	 */
-	private void factor() {
+	private Expression factor() {
 		if(accept(TokenType.IDENTIFIER)) {
-			
+			Identifier identifier = new Identifier();
+			identifier.name = lastToken.text;
+			return identifier;
 		} else if(accept(TokenType.NUMBER)) {
-			
+			Number number = new Number();
+			number.value = CruxCompiler.parseNumber(lastToken.text);
+			return number;
 		} else if(accept(TokenType.L_PARA)) {
-			expression();
+			Expression expression = expression();
 			expect(TokenType.R_PARA);
+			return expression;
 		} else {
 			error("expected identifier, number or (");
-			nextToken();
+			return null;
 		}
 	}
 	
@@ -0,0 +1,38 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A basic block. The arguments of the phis at the start
+ * of the block are in the order of the predecessors.
+ */
+public class Block {
+	public final int id;
+	public final List<Instruction> instructions = new ArrayList<Instruction>();
+	public final List<Block> predecessors = new ArrayList<Block>();
+	public final List<Block> successors = new ArrayList<Block>();
+	public int loopDepth;
+
+	Block (int id) {
+		this.id = id;
+	}
+
+	/** @return the terminating instruction or null if the block is still open **/
+	public Instruction terminator () {
+		if(instructions.isEmpty()) return null;
+		Instruction last = instructions.get(instructions.size() - 1);
+		return last.op.isTerminator()? last: null;
+	}
+
+	/** inserts the instruction in front of the terminator **/
+	public void insertBeforeTerminator (Instruction instruction) {
+		int index = terminator() != null? instructions.size() - 1: instructions.size();
+		instructions.add(index, instruction);
+		instruction.block = this;
+	}
+
+	public String toString () {
+		return "b" + id;
+	}
+}
@@ -0,0 +1,66 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.crux.ssa.Instruction.Op;
+
+/**
+ * Dominator based value numbering. A pure instruction is replaced by an
+ * equivalent instruction in a dominating block. Loads are never merged as
+ * stores and calls may change memory in between. Comparisons stay with their
+ * branches, which test them with IFx instructions without computing a value.
+ */
+public class CommonSubexpressionElimination {
+	public static boolean run (Function function) {
+		Dominators dominators = new Dominators(function);
+		Map<Value, Value> replacements = new HashMap<Value, Value>();
+		visit(function.entry(), dominators, new HashMap<String, Instruction>(), replacements);
+		function.replace(replacements);
+		return !replacements.isEmpty();
+	}
+
+	static void visit (Block block, Dominators dominators, Map<String, Instruction> available, Map<Value, Value> replacements) {
+		List<String> added = new ArrayList<String>();
+		for(Iterator<Instruction> iter = block.instructions.iterator(); iter.hasNext();) {
+			Instruction instruction = iter.next();
+			for(int i = 0; i < instruction.args.size(); i++) {
+				instruction.args.set(i, ConstantPropagation.resolve(replacements, instruction.args.get(i)));
+			}
+			if(!instruction.op.isPure() || instruction.op == Op.COPY || instruction.op.isComparison()) continue;
+			String key = key(instruction);
+			Instruction existing = available.get(key);
+			if(existing != null) {
+				replacements.put(instruction, existing);
+				iter.remove();
+			} else {
+				available.put(key, instruction);
+				added.add(key);
+			}
+		}
+		for(Block child: dominators.children(block)) {
+			visit(child, dominators, available, replacements);
+		}
+		for(String key: added) available.remove(key);
+	}
+
+	static String key (Instruction instruction) {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append(instruction.op.ordinal()).append(':').append(instruction.symbol).append(':').append(instruction.index);
+		String left = instruction.args.size() > 0? key(instruction.arg(0)): "";
+		String right = instruction.args.size() > 1? key(instruction.arg(1)): "";
+		if(instruction.op.isCommutative() && left.compareTo(right) > 0) {
+			String tmp = left;
+			left = right;
+			right = tmp;
+		}
+		return buffer.append(':').append(left).append(':').append(right).toString();
+	}
+
+	static String key (Value value) {
+		return value instanceof Constant? "c" + ((Constant)value).value: "v" + ((Instruction)value).id;
+	}
+}
@@ -0,0 +1,17 @@
+package com.badlogic.crux.ssa;
+
+/**
+ * A 16-bit constant, stored sign extended like the
+ * registers of the {@link com.badlogic.dcpu.Cpu}.
+ */
+public class Constant extends Value {
+	public final int value;
+
+	public Constant (int value) {
+		this.value = (short)value;
+	}
+
+	public String toString () {
+		return Integer.toString(value);
+	}
+}
@@ -0,0 +1,200 @@
+package com.badlogic.crux.ssa;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.badlogic.crux.ssa.Instruction.Op;
+
+/**
+ * Folds instructions with constant arguments, simplifies algebraic identities,
+ * removes trivial phis and copies and turns branches on constants into jumps,
+ * removing the blocks that become unreachable. Runs until nothing changes.
+ * Arithmetic follows the {@link com.badlogic.dcpu.Cpu}: values are sign extended
+ * 16-bit words, division and modulo by zero yield zero.
+ */
+public class ConstantPropagation {
+	public static boolean run (Function function) {
+		boolean changed = false;
+		boolean iteration = true;
+		while(iteration) {
+			iteration = false;
+			Map<Value, Value> replacements = new HashMap<Value, Value>();
+			for(Block block: function.blocks) {
+				for(Iterator<Instruction> iter = block.instructions.iterator(); iter.hasNext();) {
+					Instruction instruction = iter.next();
+					for(int i = 0; i < instruction.args.size(); i++) {
+						instruction.args.set(i, resolve(replacements, instruction.args.get(i)));
+					}
+					Value value = simplify(instruction);
+					if(value == instruction) {
+						iteration = true;
+					} else if(value != null) {
+						replacements.put(instruction, value);
+						iter.remove();
+						iteration = true;
+					}
+				}
+				Instruction terminator = block.terminator();
+				if(terminator != null && terminator.op == Op.BRANCH && terminator.arg(0) instanceof Constant) {
+					Block other = block.successors.get(((Constant)terminator.arg(0)).value != 0? 1: 0);
+					Function.removeEdge(block, other);
+					terminator.op = Op.JUMP;
+					terminator.args.clear();
+					iteration = true;
+				}
+			}
+			function.replace(replacements);
+			if(function.removeUnreachable()) iteration = true;
+			changed |= iteration;
+		}
+		return changed;
+	}
+
+	static Value resolve (Map<Value, Value> replacements, Value value) {
+		Value replacement = replacements.get(value);
+		while(replacement != null) {
+			value = replacement;
+			replacement = replacements.get(value);
+		}
+		return value;
+	}
+
+	static boolean isConstant (Value value, int constant) {
+		return value instanceof Constant && ((Constant)value).value == (short)constant;
+	}
+
+	static boolean same (Value a, Value b) {
+		if(a == b) return true;
+		return a instanceof Constant && b instanceof Constant && ((Constant)a).value == ((Constant)b).value;
+	}
+
+	/**
+	 * @return null if the instruction stays as is, the instruction itself if it was
+	 *         changed in place or the value replacing it
+	 */
+	static Value simplify (Instruction instruction) {
+		switch(instruction.op) {
+		case COPY:
+			return instruction.arg(0);
+		case PHI: {
+			Value same = null;
+			for(Value arg: instruction.args) {
+				if(arg == instruction || (same != null && same(arg, same))) continue;
+				if(same != null) return null;
+				same = arg;
+			}
+			return same == null? new Constant(0): same;
+		}
+		default:
+		}
+		if(!instruction.op.isBinary()) return null;
+
+		Value left = instruction.arg(0);
+		Value right = instruction.arg(1);
+		if(left instanceof Constant && right instanceof Constant) {
+			return new Constant(fold(instruction.op, ((Constant)left).value, ((Constant)right).value));
+		}
+
+		// constants go to the right
+		if(left instanceof Constant && instruction.op.isCommutative()) {
+			instruction.args.set(0, right);
+			instruction.args.set(1, left);
+			Value value = simplify(instruction);
+			return value == null? instruction: value;
+		}
+		if(left instanceof Constant) return null;
+
+		if(left == right) {
+			switch(instruction.op) {
+			case SUB:
+			case XOR:
+			case LT:
+			case GT:
+			case NE: return new Constant(0);
+			case EQ:
+			case LE:
+			case GE: return new Constant(1);
+			case AND:
+			case OR: return left;
+			default:
+			}
+		}
+		if(!(right instanceof Constant)) return null;
+		int c = ((Constant)right).value;
+		switch(instruction.op) {
+		case SUB:
+			// x - c becomes x + -c so it can be combined with other additions
+			instruction.op = Op.ADD;
+			instruction.args.set(1, new Constant(-c));
+			Value value = simplify(instruction);
+			return value == null? instruction: value;
+		case ADD:
+			if(c == 0) return left;
+			if(left instanceof Instruction) {
+				Instruction inner = (Instruction)left;
+				if(inner.op == Op.ADD && inner.arg(1) instanceof Constant) {
+					instruction.args.set(0, inner.arg(0));
+					instruction.args.set(1, new Constant(c + ((Constant)inner.arg(1)).value));
+					return instruction;
+				}
+				if(inner.op == Op.FRAME) {
+					instruction.op = Op.FRAME;
+					instruction.index = inner.index + c;
+					instruction.args.clear();
+					return instruction;
+				}
+			}
+			return null;
+		case MUL:
+			if(c == 0) return right;
+			if(c == 1) return left;
+			return null;
+		case DIV:
+			if(c == 1) return left;
+			if(c == 0) return right;
+			return null;
+		case MOD:
+			if(c == 1 || c == -1 || c == 0) return new Constant(0);
+			return null;
+		case AND:
+			if(c == 0) return right;
+			if(c == -1) return left;
+			return null;
+		case OR:
+			if(c == 0) return left;
+			if(c == -1) return right;
+			return null;
+		case XOR:
+		case SHL:
+		case SHR:
+			if(c == 0) return left;
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	/** evaluates the operation like the dcpu-16 does **/
+	public static int fold (Op op, int l, int r) {
+		switch(op) {
+		case ADD: return (short)(l + r);
+		case SUB: return (short)(l - r);
+		case MUL: return (short)(l * r);
+		case DIV: return r == 0? 0: (short)(l / r);
+		case MOD: return r == 0? 0: (short)(l % r);
+		case SHL: return (short)(l << r);
+		case SHR: return (short)(l >>> r);
+		case AND: return l & r;
+		case OR: return l | r;
+		case XOR: return l ^ r;
+		case LT: return l < r? 1: 0;
+		case LE: return l <= r? 1: 0;
+		case EQ: return l == r? 1: 0;
+		case NE: return l != r? 1: 0;
+		case GE: return l >= r? 1: 0;
+		case GT: return l > r? 1: 0;
+		default: throw new RuntimeException("can't fold " + op);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import com.badlogic.crux.ssa.Instruction.Op;
+
+/**
+ * Removes instructions whose results are never used and that have no side effects,
+ * starting from stores, calls and terminators. Afterwards blocks only consisting of
+ * a jump are bypassed and a block is merged with its successor if it is the
+ * successor's only predecessor.
+ */
+public class DeadCodeElimination {
+	public static boolean run (Function function) {
+		boolean changed = removeDeadInstructions(function);
+		changed |= removeEmptyBlocks(function);
+		changed |= mergeBlocks(function);
+		return changed;
+	}
+
+	static boolean removeDeadInstructions (Function function) {
+		Set<Instruction> live = new HashSet<Instruction>();
+		LinkedList<Instruction> work = new LinkedList<Instruction>();
+		for(Block block: function.blocks) {
+			for(Instruction instruction: block.instructions) {
+				if(instruction.op == Op.STORE || instruction.op == Op.CALL || instruction.op.isTerminator()) {
+					live.add(instruction);
+					work.add(instruction);
+				}
+			}
+		}
+		while(!work.isEmpty()) {
+			for(Value arg: work.removeFirst().args) {
+				if(arg instanceof Instruction && live.add((Instruction)arg)) work.add((Instruction)arg);
+			}
+		}
+
+		boolean changed = false;
+		for(Block block: function.blocks) {
+			for(Iterator<Instruction> iter = block.instructions.iterator(); iter.hasNext();) {
+				if(!live.contains(iter.next())) {
+					iter.remove();
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/** retargets the predecessors of blocks that only jump to a block without phis **/
+	static boolean removeEmptyBlocks (Function function) {
+		boolean changed = false;
+		for(Block block: new ArrayList<Block>(function.blocks)) {
+			if(block == function.entry() || block.instructions.size() != 1 || block.terminator() == null || block.terminator().op != Op.JUMP) continue;
+			Block target = block.successors.get(0);
+			if(target == block || target.instructions.get(0).op == Op.PHI) continue;
+			for(Block pred: block.predecessors) {
+				pred.successors.set(pred.successors.indexOf(block), target);
+				target.predecessors.add(pred);
+			}
+			target.predecessors.remove(block);
+			function.blocks.remove(block);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/** merges blocks with their single successor if they are its single predecessor **/
+	static boolean mergeBlocks (Function function) {
+		boolean changed = false;
+		Map<Value, Value> replacements = new HashMap<Value, Value>();
+		for(int i = 0; i < function.blocks.size(); i++) {
+			Block block = function.blocks.get(i);
+			while(block.successors.size() == 1) {
+				Block succ = block.successors.get(0);
+				if(succ == block || succ == function.entry() || succ.predecessors.size() != 1) break;
+				block.instructions.remove(block.instructions.size() - 1);
+				for(Instruction instruction: succ.instructions) {
+					if(instruction.op == Op.PHI) {
+						replacements.put(instruction, instruction.arg(0));
+						continue;
+					}
+					instruction.block = block;
+					block.instructions.add(instruction);
+				}
+				block.successors.clear();
+				for(Block next: succ.successors) {
+					block.successors.add(next);
+					next.predecessors.set(next.predecessors.indexOf(succ), block);
+				}
+				if(function.blocks.indexOf(succ) < i) i--;
+				function.blocks.remove(succ);
+				changed = true;
+			}
+		}
+		function.replace(replacements);
+		return changed;
+	}
+}
@@ -0,0 +1,85 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dominator tree of a {@link Function}, computed with the iterative
+ * algorithm of Cooper, Harvey and Kennedy on the reverse postorder.
+ */
+public class Dominators {
+	public final List<Block> order = new ArrayList<Block>();
+	final Map<Block, Integer> number = new HashMap<Block, Integer>();
+	final Map<Block, Block> idom = new HashMap<Block, Block>();
+	final Map<Block, List<Block>> children = new HashMap<Block, List<Block>>();
+
+	public Dominators (Function function) {
+		postorder(function.entry(), new HashSet<Block>());
+		Collections.reverse(order);
+		for(int i = 0; i < order.size(); i++) {
+			number.put(order.get(i), i);
+			children.put(order.get(i), new ArrayList<Block>());
+		}
+
+		Block entry = function.entry();
+		idom.put(entry, entry);
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(Block block: order) {
+				if(block == entry) continue;
+				Block dom = null;
+				for(Block pred: block.predecessors) {
+					if(!idom.containsKey(pred)) continue;
+					dom = dom == null? pred: intersect(pred, dom);
+				}
+				if(dom != null && idom.get(block) != dom) {
+					idom.put(block, dom);
+					changed = true;
+				}
+			}
+		}
+		for(Block block: order) {
+			if(block != entry) children.get(idom.get(block)).add(block);
+		}
+	}
+
+	private void postorder (Block block, Set<Block> visited) {
+		visited.add(block);
+		for(Block succ: block.successors) {
+			if(!visited.contains(succ)) postorder(succ, visited);
+		}
+		order.add(block);
+	}
+
+	private Block intersect (Block a, Block b) {
+		while(a != b) {
+			while(number.get(a) > number.get(b)) a = idom.get(a);
+			while(number.get(b) > number.get(a)) b = idom.get(b);
+		}
+		return a;
+	}
+
+	/** @return the immediate dominator, the entry block for the entry block **/
+	public Block idom (Block block) {
+		return idom.get(block);
+	}
+
+	public List<Block> children (Block block) {
+		return children.get(block);
+	}
+
+	public boolean dominates (Block a, Block b) {
+		while(true) {
+			if(a == b) return true;
+			Block dom = idom.get(b);
+			if(dom == b || dom == null) return false;
+			b = dom;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.badlogic.crux.ssa.Instruction.Op;
+
+/**
+ * A function in SSA form. The first block is the entry block. Arguments
+ * live at [J+2] and above, locals that have to be in memory below J.
+ */
+public class Function {
+	public final String name;
+	public final List<Block> blocks = new ArrayList<Block>();
+	public final List<String> literals = new ArrayList<String>();
+	/** number of words of locals in memory below J **/
+	public int frameWords;
+	/** number of argument words **/
+	public int argumentWords;
+	private int nextBlock;
+	private int nextInstruction;
+
+	public Function (String name) {
+		this.name = name;
+	}
+
+	public Block entry () {
+		return blocks.get(0);
+	}
+
+	public Block newBlock () {
+		Block block = new Block(nextBlock++);
+		blocks.add(block);
+		return block;
+	}
+
+	/** creates an instruction not yet part of any block **/
+	public Instruction instruction (Op op, Value... args) {
+		return new Instruction(nextInstruction++, op, args);
+	}
+
+	/** @return an upper bound of the instruction ids, for id indexed arrays **/
+	public int instructionCount () {
+		return nextInstruction;
+	}
+
+	public static void addEdge (Block from, Block to) {
+		from.successors.add(to);
+		to.predecessors.add(from);
+	}
+
+	/** removes the edge and the corresponding phi arguments of the target **/
+	public static void removeEdge (Block from, Block to) {
+		from.successors.remove(to);
+		int index = to.predecessors.indexOf(from);
+		to.predecessors.remove(index);
+		for(Instruction phi: to.instructions) {
+			if(phi.op != Op.PHI) break;
+			phi.args.remove(index);
+		}
+	}
+
+	/** inserts a new block on the edge, returns the new block **/
+	public Block splitEdge (Block from, Block to) {
+		Block block = new Block(nextBlock++);
+		blocks.add(blocks.indexOf(from) + 1, block);
+		from.successors.set(from.successors.indexOf(to), block);
+		to.predecessors.set(to.predecessors.indexOf(from), block);
+		block.predecessors.add(from);
+		block.successors.add(to);
+		block.loopDepth = Math.min(from.loopDepth, to.loopDepth);
+		Instruction jump = instruction(Op.JUMP);
+		jump.block = block;
+		block.instructions.add(jump);
+		return block;
+	}
+
+	/** removes all blocks that can't be reached from the entry block **/
+	public boolean removeUnreachable () {
+		Set<Block> reached = new HashSet<Block>();
+		LinkedList<Block> work = new LinkedList<Block>();
+		work.add(entry());
+		reached.add(entry());
+		while(!work.isEmpty()) {
+			for(Block succ: work.removeFirst().successors) {
+				if(reached.add(succ)) work.add(succ);
+			}
+		}
+		if(reached.size() == blocks.size()) return false;
+		for(Iterator<Block> iter = blocks.iterator(); iter.hasNext();) {
+			Block block = iter.next();
+			if(reached.contains(block)) continue;
+			for(Block succ: new ArrayList<Block>(block.successors)) {
+				if(reached.contains(succ)) removeEdge(block, succ);
+			}
+			iter.remove();
+		}
+		return true;
+	}
+
+	/** replaces all uses of the keys by their values, following chains of replacements **/
+	public void replace (Map<Value, Value> replacements) {
+		if(replacements.isEmpty()) return;
+		for(Block block: blocks) {
+			for(Instruction instruction: block.instructions) {
+				for(int i = 0; i < instruction.args.size(); i++) {
+					Value arg = instruction.args.get(i);
+					Value replacement = replacements.get(arg);
+					if(replacement == null) continue;
+					while(replacements.containsKey(replacement) && replacements.get(replacement) != replacement) {
+						replacement = replacements.get(replacement);
+					}
+					instruction.args.set(i, replacement);
+				}
+			}
+		}
+	}
+
+	public String toString () {
+		StringBuilder buffer = new StringBuilder();
+		buffer.append("func ").append(name).append("\n");
+		for(Block block: blocks) {
+			buffer.append(block).append(" <- ").append(block.predecessors).append(", depth ").append(block.loopDepth).append("\n");
+			for(Instruction instruction: block.instructions) {
+				buffer.append("   ").append(instruction.format()).append("\n");
+			}
+		}
+		return buffer.toString();
+	}
+}
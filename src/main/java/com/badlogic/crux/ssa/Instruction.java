@@ -0,0 +1,93 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An instruction of a {@link Block}, its result is the value
+ * it defines. Phis come first in a block, the last instruction
+ * is a terminator (JUMP, BRANCH or RETURN).
+ */
+public class Instruction extends Value {
+	public enum Op {
+		/** argument word at [J+index] **/
+		PARAM,
+		/** address of the global named by symbol **/
+		GLOBAL,
+		/** address J+index of a local in memory **/
+		FRAME,
+		/** address of the function named by symbol **/
+		FUNCTION,
+		/** address of the string literal labeled symbol **/
+		LITERAL,
+		LOAD,
+		STORE,
+		/** calls the function named by symbol, or args[0] if there's no symbol **/
+		CALL,
+		ADD, SUB, MUL, DIV, MOD, SHL, SHR, AND, OR, XOR,
+		LT, LE, EQ, NE, GE, GT,
+		PHI,
+		COPY,
+		JUMP,
+		/** jumps to the first successor if args[0] is not zero, to the second otherwise **/
+		BRANCH,
+		RETURN;
+
+		public boolean isBinary () {
+			return ordinal() >= ADD.ordinal() && ordinal() <= GT.ordinal();
+		}
+
+		public boolean isComparison () {
+			return ordinal() >= LT.ordinal() && ordinal() <= GT.ordinal();
+		}
+
+		public boolean isCommutative () {
+			return this == ADD || this == MUL || this == AND || this == OR || this == XOR || this == EQ || this == NE;
+		}
+
+		public boolean isTerminator () {
+			return this == JUMP || this == BRANCH || this == RETURN;
+		}
+
+		/** @return whether the result only depends on the arguments and there are no side effects **/
+		public boolean isPure () {
+			return isBinary() || this == GLOBAL || this == FRAME || this == FUNCTION || this == LITERAL || this == COPY;
+		}
+	}
+
+	public final int id;
+	public Op op;
+	public final List<Value> args = new ArrayList<Value>();
+	public Block block;
+	public String symbol;
+	public int index;
+
+	Instruction (int id, Op op, Value... args) {
+		this.id = id;
+		this.op = op;
+		for(Value arg: args) this.args.add(arg);
+	}
+
+	public Value arg (int index) {
+		return args.get(index);
+	}
+
+	public String toString () {
+		return "v" + id;
+	}
+
+	public String format () {
+		StringBuilder buffer = new StringBuilder();
+		if(!op.isTerminator() && op != Op.STORE) buffer.append(this).append(" = ");
+		buffer.append(op.name().toLowerCase());
+		if(symbol != null) buffer.append(" ").append(symbol);
+		if(op == Op.PARAM || op == Op.FRAME) buffer.append(" ").append(index);
+		for(int i = 0; i < args.size(); i++) {
+			buffer.append(i == 0 && symbol == null && op != Op.PARAM && op != Op.FRAME? " ": ", ").append(args.get(i));
+		}
+		if(op == Op.JUMP || op == Op.BRANCH) {
+			for(Block target: block.successors) buffer.append(", ").append(target);
+		}
+		return buffer.toString();
+	}
+}
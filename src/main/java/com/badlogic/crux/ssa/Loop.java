@@ -0,0 +1,81 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A natural loop, identified by its header. The preheader is the
+ * single block outside of the loop jumping to the header, null if
+ * there is no such block.
+ */
+public class Loop {
+	public final Block header;
+	public final Set<Block> blocks = new HashSet<Block>();
+	public final List<Block> latches = new ArrayList<Block>();
+	public Block preheader;
+	public int depth;
+
+	Loop (Block header) {
+		this.header = header;
+	}
+
+	public boolean contains (Value value) {
+		return value instanceof Instruction && blocks.contains(((Instruction)value).block);
+	}
+
+	/**
+	 * Finds the natural loops of the function and sets the loop depth of all blocks.
+	 * @return the loops, innermost loops first
+	 */
+	public static List<Loop> find (Function function, Dominators dominators) {
+		Map<Block, Loop> loops = new LinkedHashMap<Block, Loop>();
+		for(Block block: dominators.order) {
+			for(Block succ: block.successors) {
+				if(!dominators.dominates(succ, block)) continue;
+				Loop loop = loops.get(succ);
+				if(loop == null) {
+					loop = new Loop(succ);
+					loop.blocks.add(succ);
+					loops.put(succ, loop);
+				}
+				loop.latches.add(block);
+				LinkedList<Block> work = new LinkedList<Block>();
+				if(loop.blocks.add(block)) work.add(block);
+				while(!work.isEmpty()) {
+					for(Block pred: work.removeFirst().predecessors) {
+						if(loop.blocks.add(pred)) work.add(pred);
+					}
+				}
+			}
+		}
+
+		for(Block block: function.blocks) block.loopDepth = 0;
+		for(Loop loop: loops.values()) {
+			for(Block block: loop.blocks) block.loopDepth++;
+			Block outside = null;
+			int count = 0;
+			for(Block pred: loop.header.predecessors) {
+				if(!loop.blocks.contains(pred)) {
+					outside = pred;
+					count++;
+				}
+			}
+			if(count == 1 && outside.successors.size() == 1) loop.preheader = outside;
+		}
+		List<Loop> result = new ArrayList<Loop>(loops.values());
+		for(Loop loop: result) loop.depth = loop.header.loopDepth;
+		Collections.sort(result, new Comparator<Loop>() {
+			public int compare (Loop a, Loop b) {
+				return b.depth - a.depth;
+			}
+		});
+		return result;
+	}
+}
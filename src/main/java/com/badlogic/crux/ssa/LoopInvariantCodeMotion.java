@@ -0,0 +1,44 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.badlogic.crux.ssa.Instruction.Op;
+
+/**
+ * Hoists pure instructions whose arguments are defined outside of a loop
+ * into the loop's preheader, innermost loops first so invariants move out
+ * of whole loop nests. Pure instructions can't trap, so hoisting them out
+ * of conditional code is safe. Comparisons stay with their branches, a
+ * branch tests them with an IFx instruction without computing a value.
+ */
+public class LoopInvariantCodeMotion {
+	public static boolean run (Function function) {
+		Dominators dominators = new Dominators(function);
+		boolean changed = false;
+		for(Loop loop: Loop.find(function, dominators)) {
+			if(loop.preheader == null) continue;
+			for(Block block: dominators.order) {
+				if(!loop.blocks.contains(block)) continue;
+				List<Instruction> hoisted = new ArrayList<Instruction>();
+				for(Instruction instruction: block.instructions) {
+					if(!instruction.op.isPure() || instruction.op == Op.PHI || instruction.op.isComparison()) continue;
+					boolean invariant = true;
+					for(Value arg: instruction.args) {
+						if(loop.contains(arg)) invariant = false;
+					}
+					if(!invariant) continue;
+					hoisted.add(instruction);
+					// later instructions of the block see this one as defined outside of the loop
+					instruction.block = loop.preheader;
+				}
+				for(Instruction instruction: hoisted) {
+					block.instructions.remove(instruction);
+					loop.preheader.insertBeforeTerminator(instruction);
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+}
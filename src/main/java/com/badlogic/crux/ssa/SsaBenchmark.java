@@ -0,0 +1,84 @@
+package com.badlogic.crux.ssa;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import com.badlogic.crux.AstNode.Program;
+import com.badlogic.crux.CruxCompiler;
+import com.badlogic.crux.CruxParser;
+import com.badlogic.crux.Lexer;
+import com.badlogic.crux.ssa.SsaCompiler.Pass;
+import com.badlogic.dcpu.Cpu;
+import com.badlogic.dcpu.Cpu.Register;
+import com.badlogic.dcpu.Disassembler;
+
+/**
+ * Runs the programs of a benchmark corpus (data/bench by default) compiled with the
+ * {@link CruxCompiler}, without optimizations, with each pass on its own, with all
+ * passes and with all passes but one, and reports the cycle counts and their deltas,
+ * the code size and the number of memory operands that need a next word.
+ * The result in register A has to be the same for all variants.
+ */
+public class SsaBenchmark {
+	static Program parse (File file) throws FileNotFoundException {
+		CruxParser parser = new CruxParser(new Lexer(new FileInputStream(file), false, true));
+		parser.parse();
+		return parser.getProgram();
+	}
+
+	static Cpu run (short[] dump) {
+		Cpu cpu = new Cpu(dump);
+		cpu.runUntilHalted();
+		return cpu;
+	}
+
+	/** @return the number of [next word] and [next word + register] operands in the code **/
+	static int memoryOperands (short[] dump) {
+		String code = Disassembler.disassemble(dump, 0, dump.length);
+		int count = 0;
+		for(int i = code.indexOf("[0x"); i != -1; i = code.indexOf("[0x", i + 1)) count++;
+		return count;
+	}
+
+	static void report (String name, Cpu cpu, short[] dump, int baseline, int result) {
+		if(cpu.getRegValue(Register.A) != result) throw new RuntimeException(name + " computed " + cpu.getRegValue(Register.A) + ", expected " + result);
+		int delta = cpu.getCycles() - baseline;
+		System.out.println(String.format("   %-40s %8d cycles %+8d %6d words %5d [0x..]", name, cpu.getCycles(), delta, dump.length, memoryOperands(dump)));
+	}
+
+	public static void main (String[] args) throws FileNotFoundException {
+		File[] files = new File(args.length > 0? args[0]: "data/bench").listFiles();
+		Arrays.sort(files);
+		for(File file: files) {
+			if(!file.getName().endsWith(".crux")) continue;
+			Program program = parse(file);
+			System.out.println(file.getName());
+
+			short[] astDump = CruxCompiler.compile(program);
+			Cpu ast = run(astDump);
+			int result = ast.getRegValue(Register.A);
+			short[] dump = SsaCompiler.compile(program, EnumSet.noneOf(Pass.class));
+			Cpu none = run(dump);
+			int baseline = none.getCycles();
+			report("ast", ast, astDump, baseline, result);
+			report("ssa, no passes", none, dump, baseline, result);
+
+			for(Pass pass: Pass.values()) {
+				dump = SsaCompiler.compile(program, EnumSet.of(pass));
+				report("+ " + pass.name().toLowerCase(), run(dump), dump, baseline, result);
+			}
+			dump = SsaCompiler.compile(program, EnumSet.allOf(Pass.class));
+			Cpu all = run(dump);
+			report("all passes", all, dump, baseline, result);
+			for(Pass pass: Pass.values()) {
+				EnumSet<Pass> passes = EnumSet.allOf(Pass.class);
+				passes.remove(pass);
+				dump = SsaCompiler.compile(program, passes);
+				report("all - " + pass.name().toLowerCase(), run(dump), dump, all.getCycles(), result);
+			}
+		}
+	}
+}
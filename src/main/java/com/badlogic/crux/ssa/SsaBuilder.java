@@ -0,0 +1,568 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.badlogic.crux.AstNode.Assignment;
+import com.badlogic.crux.AstNode.BinaryExpression;
+import com.badlogic.crux.AstNode.BreakStatement;
+import com.badlogic.crux.AstNode.Dereference;
+import com.badlogic.crux.AstNode.Expression;
+import com.badlogic.crux.AstNode.FunctionCall;
+import com.badlogic.crux.AstNode.FunctionDefinition;
+import com.badlogic.crux.AstNode.FunctionReturnValue;
+import com.badlogic.crux.AstNode.IfStatement;
+import com.badlogic.crux.AstNode.LValue;
+import com.badlogic.crux.AstNode.Literal;
+import com.badlogic.crux.AstNode.Number;
+import com.badlogic.crux.AstNode.OffsetDereference;
+import com.badlogic.crux.AstNode.RValue;
+import com.badlogic.crux.AstNode.ReturnStatement;
+import com.badlogic.crux.AstNode.Statement;
+import com.badlogic.crux.AstNode.TypeDefinition;
+import com.badlogic.crux.AstNode.UnaryExpression;
+import com.badlogic.crux.AstNode.UnaryExpression.UnaryOperator;
+import com.badlogic.crux.AstNode.VariableDeclaration;
+import com.badlogic.crux.AstNode.WhileStatement;
+import com.badlogic.crux.CruxCompiler;
+import com.badlogic.crux.CruxCompiler.Field;
+import com.badlogic.crux.CruxCompiler.Variable;
+import com.badlogic.crux.ssa.Instruction.Op;
+
+/**
+ * Translates a {@link FunctionDefinition} to SSA form. Scalar locals and arguments
+ * whose address is never taken become SSA values, using the algorithm of Braun et al.,
+ * "Simple and Efficient Construction of Static Single Assignment Form". Everything
+ * else lives in memory and is accessed via LOAD and STORE. While loops are rotated,
+ * the condition is tested before the loop and at its end.
+ */
+public class SsaBuilder {
+	static class Local {
+		final TypeDefinition type;
+		final int size;
+		boolean ssa;
+		int offset;
+
+		Local (TypeDefinition type, int size) {
+			this.type = type;
+			this.size = size;
+		}
+	}
+
+	/** an ssa local or a memory address of the given type **/
+	static class Place {
+		Local local;
+		Value address;
+		TypeDefinition type;
+	}
+
+	final CruxCompiler program;
+	final FunctionDefinition func;
+	final Function function;
+	final LinkedList<Map<String, Local>> scopes = new LinkedList<Map<String, Local>>();
+	final Set<String> addressTaken = new HashSet<String>();
+	final Map<Block, Map<Local, Value>> definitions = new HashMap<Block, Map<Local, Value>>();
+	final Map<Block, Map<Local, Instruction>> incompletePhis = new HashMap<Block, Map<Local, Instruction>>();
+	final Set<Block> sealed = new HashSet<Block>();
+	final LinkedList<Block> breakTargets = new LinkedList<Block>();
+	Block current;
+
+	public SsaBuilder (CruxCompiler program, FunctionDefinition func) {
+		this.program = program;
+		this.func = func;
+		this.function = new Function(func.identifier);
+	}
+
+	public Function build () {
+		collectAddressTaken(func.statements);
+		current = function.newBlock();
+		seal(current);
+
+		scopes.push(new HashMap<String, Local>());
+		int offset = 2;
+		for(VariableDeclaration decl: func.signature.arguments) {
+			Local local = declare(decl, false);
+			if(local.ssa) {
+				Instruction param = emit(Op.PARAM);
+				param.index = offset;
+				write(local, current, param);
+			} else {
+				local.offset = offset;
+			}
+			offset += local.size;
+		}
+		function.argumentWords = offset - 2;
+		scopes.push(new HashMap<String, Local>());
+		statements(func.statements);
+		scopes.pop();
+		scopes.pop();
+		if(current.terminator() == null) emit(Op.RETURN);
+		return function;
+	}
+
+	static void error (String message) {
+		CruxCompiler.error(message);
+	}
+
+	// -------------------------------------------------------------------------
+	// variables
+	// -------------------------------------------------------------------------
+
+	void collectAddressTaken (List<Statement> statements) {
+		for(Statement statement: statements) {
+			if(statement instanceof Assignment) {
+				collectAddressTaken(((Assignment)statement).lvalue);
+				collectAddressTaken(((Assignment)statement).rvalue);
+			} else if(statement instanceof FunctionCall) {
+				collectAddressTaken((FunctionCall)statement);
+			} else if(statement instanceof IfStatement) {
+				collectAddressTaken(((IfStatement)statement).condition);
+				collectAddressTaken(((IfStatement)statement).trueStatements);
+				collectAddressTaken(((IfStatement)statement).elseStatements);
+			} else if(statement instanceof WhileStatement) {
+				collectAddressTaken(((WhileStatement)statement).condition);
+				collectAddressTaken(((WhileStatement)statement).statements);
+			} else if(statement instanceof ReturnStatement) {
+				if(((ReturnStatement)statement).expression != null) collectAddressTaken(((ReturnStatement)statement).expression);
+			}
+		}
+	}
+
+	void collectAddressTaken (FunctionCall call) {
+		collectAddressTaken(call.lvalue);
+		for(Expression arg: call.arguments) collectAddressTaken(arg);
+	}
+
+	void collectAddressTaken (LValue lvalue) {
+		for(LValue part = lvalue; part != null; part = part.fieldAccess) {
+			if(part instanceof Dereference) collectAddressTaken(((Dereference)part).lvalue);
+			else if(((OffsetDereference)part).offsetExpression != null) collectAddressTaken(((OffsetDereference)part).offsetExpression);
+		}
+	}
+
+	void collectAddressTaken (Expression expr) {
+		if(expr instanceof BinaryExpression) {
+			collectAddressTaken(((BinaryExpression)expr).left);
+			collectAddressTaken(((BinaryExpression)expr).right);
+		} else if(expr instanceof UnaryExpression) {
+			collectAddressTaken(((UnaryExpression)expr).factor);
+		} else if(expr instanceof RValue) {
+			RValue rvalue = (RValue)expr;
+			if(rvalue.references > 0 && rvalue.lvalue instanceof OffsetDereference) addressTaken.add(((OffsetDereference)rvalue.lvalue).identifier);
+			collectAddressTaken(rvalue.lvalue);
+		} else if(expr instanceof FunctionReturnValue) {
+			collectAddressTaken(((FunctionReturnValue)expr).functionCall);
+		}
+	}
+
+	Local declare (VariableDeclaration decl, boolean memory) {
+		Local local = new Local(decl.typeDef, program.size(decl.typeDef));
+		local.ssa = local.size == 1 && !CruxCompiler.isStructValue(decl.typeDef) && !addressTaken.contains(decl.identifier);
+		if(scopes.peek().put(decl.identifier, local) != null) error("variable '" + decl.identifier + "' declared twice in function '" + func.identifier + "'");
+		if(memory && !local.ssa) {
+			function.frameWords += local.size;
+			local.offset = -function.frameWords;
+		}
+		return local;
+	}
+
+	Local lookup (String identifier) {
+		for(Map<String, Local> scope: scopes) {
+			Local local = scope.get(identifier);
+			if(local != null) return local;
+		}
+		return null;
+	}
+
+	void write (Local local, Block block, Value value) {
+		Map<Local, Value> defs = definitions.get(block);
+		if(defs == null) {
+			defs = new HashMap<Local, Value>();
+			definitions.put(block, defs);
+		}
+		defs.put(local, value);
+	}
+
+	Value read (Local local, Block block) {
+		Map<Local, Value> defs = definitions.get(block);
+		if(defs != null && defs.containsKey(local)) return defs.get(local);
+		Value value;
+		if(!sealed.contains(block)) {
+			Instruction phi = phi(block);
+			Map<Local, Instruction> incomplete = incompletePhis.get(block);
+			if(incomplete == null) {
+				incomplete = new HashMap<Local, Instruction>();
+				incompletePhis.put(block, incomplete);
+			}
+			incomplete.put(local, phi);
+			value = phi;
+		} else if(block.predecessors.size() == 1) {
+			value = read(local, block.predecessors.get(0));
+		} else if(block.predecessors.isEmpty()) {
+			// read before any assignment or in unreachable code
+			value = new Constant(0);
+		} else {
+			Instruction phi = phi(block);
+			write(local, block, phi);
+			for(Block pred: block.predecessors) phi.args.add(read(local, pred));
+			value = phi;
+		}
+		write(local, block, value);
+		return value;
+	}
+
+	Instruction phi (Block block) {
+		Instruction phi = function.instruction(Op.PHI);
+		phi.block = block;
+		block.instructions.add(0, phi);
+		return phi;
+	}
+
+	void seal (Block block) {
+		Map<Local, Instruction> incomplete = incompletePhis.remove(block);
+		if(incomplete != null) {
+			for(Map.Entry<Local, Instruction> entry: incomplete.entrySet()) {
+				for(Block pred: block.predecessors) entry.getValue().args.add(read(entry.getKey(), pred));
+			}
+		}
+		sealed.add(block);
+	}
+
+	// -------------------------------------------------------------------------
+	// statements
+	// -------------------------------------------------------------------------
+
+	Instruction emit (Op op, Value... args) {
+		Instruction instruction = function.instruction(op, args);
+		instruction.block = current;
+		current.instructions.add(instruction);
+		return instruction;
+	}
+
+	Value constant (int value) {
+		return new Constant(value);
+	}
+
+	void jump (Block target) {
+		if(current.terminator() != null) return;
+		emit(Op.JUMP);
+		Function.addEdge(current, target);
+	}
+
+	/** starts a new block after a jump, code in it is unreachable **/
+	void unreachable () {
+		current = function.newBlock();
+		seal(current);
+	}
+
+	void statements (List<Statement> statements) {
+		for(Statement statement: statements) {
+			if(current.terminator() != null) unreachable();
+			statement(statement);
+		}
+	}
+
+	void statement (Statement statement) {
+		if(statement instanceof VariableDeclaration) {
+			declare((VariableDeclaration)statement, true);
+		} else if(statement instanceof Assignment) {
+			assignment((Assignment)statement);
+		} else if(statement instanceof FunctionCall) {
+			call((FunctionCall)statement);
+		} else if(statement instanceof IfStatement) {
+			ifStatement((IfStatement)statement);
+		} else if(statement instanceof WhileStatement) {
+			whileStatement((WhileStatement)statement);
+		} else if(statement instanceof BreakStatement) {
+			if(breakTargets.isEmpty()) error("break outside of loop in function '" + func.identifier + "'");
+			jump(breakTargets.peek());
+		} else if(statement instanceof ReturnStatement) {
+			ReturnStatement ret = (ReturnStatement)statement;
+			if(ret.expression != null) emit(Op.RETURN, expression(ret.expression));
+			else emit(Op.RETURN);
+		}
+	}
+
+	void assignment (Assignment assignment) {
+		Place place = place(assignment.lvalue);
+		if(CruxCompiler.isStructValue(place.type)) {
+			if(!(assignment.rvalue instanceof RValue) || ((RValue)assignment.rvalue).references != 0) error("expected struct value in assignment in function '" + func.identifier + "'");
+			Place source = place(((RValue)assignment.rvalue).lvalue);
+			if(!CruxCompiler.isStructValue(source.type) || !source.type.name.equals(place.type.name)) error("can't assign to struct '" + place.type.name + "' in function '" + func.identifier + "'");
+			for(int i = 0; i < program.size(place.type); i++) {
+				emit(Op.STORE, offset(place.address, i), emit(Op.LOAD, offset(source.address, i)));
+			}
+			return;
+		}
+		store(place, expression(assignment.rvalue));
+	}
+
+	void ifStatement (IfStatement ifStmt) {
+		Block then = function.newBlock();
+		Block join = function.newBlock();
+		Block otherwise = ifStmt.elseStatements.isEmpty()? join: function.newBlock();
+		condition(ifStmt.condition, then, otherwise);
+		seal(then);
+		current = then;
+		statements(ifStmt.trueStatements);
+		jump(join);
+		if(otherwise != join) {
+			seal(otherwise);
+			current = otherwise;
+			statements(ifStmt.elseStatements);
+			jump(join);
+		}
+		seal(join);
+		current = join;
+	}
+
+	void whileStatement (WhileStatement whileStmt) {
+		Block preheader = function.newBlock();
+		Block body = function.newBlock();
+		Block exit = function.newBlock();
+		condition(whileStmt.condition, preheader, exit);
+		seal(preheader);
+		current = preheader;
+		jump(body);
+		current = body;
+		breakTargets.push(exit);
+		statements(whileStmt.statements);
+		breakTargets.pop();
+		if(current.terminator() == null) condition(whileStmt.condition, body, exit);
+		seal(body);
+		seal(exit);
+		current = exit;
+	}
+
+	/** terminates the current block with branches to whenTrue or whenFalse **/
+	void condition (Expression cond, Block whenTrue, Block whenFalse) {
+		if(cond instanceof BinaryExpression) {
+			BinaryExpression bin = (BinaryExpression)cond;
+			switch(bin.operator) {
+			case LogicalAnd:
+			case LogicalOr: {
+				Block next = function.newBlock();
+				if(bin.operator == BinaryExpression.BinaryOperator.LogicalAnd) condition(bin.left, next, whenFalse);
+				else condition(bin.left, whenTrue, next);
+				seal(next);
+				current = next;
+				condition(bin.right, whenTrue, whenFalse);
+				return;
+			}
+			default:
+			}
+		}
+		if(cond instanceof UnaryExpression && ((UnaryExpression)cond).operator == UnaryOperator.Not) {
+			condition(((UnaryExpression)cond).factor, whenFalse, whenTrue);
+			return;
+		}
+		emit(Op.BRANCH, expression(cond));
+		Function.addEdge(current, whenTrue);
+		Function.addEdge(current, whenFalse);
+	}
+
+	// -------------------------------------------------------------------------
+	// expressions
+	// -------------------------------------------------------------------------
+
+	Op op (BinaryExpression.BinaryOperator operator) {
+		switch(operator) {
+		case Add: return Op.ADD;
+		case Subtract: return Op.SUB;
+		case Multiply: return Op.MUL;
+		case Divide:
+		case SignedDivide: return Op.DIV;
+		case Modulo: return Op.MOD;
+		case ShiftLeft: return Op.SHL;
+		case ShiftRight: return Op.SHR;
+		case And: return Op.AND;
+		case Or: return Op.OR;
+		case Xor: return Op.XOR;
+		case Less: return Op.LT;
+		case LessEqual: return Op.LE;
+		case Equal: return Op.EQ;
+		case NotEqual: return Op.NE;
+		case GreaterEqual: return Op.GE;
+		case Greater: return Op.GT;
+		default: return null;
+		}
+	}
+
+	Value expression (Expression expr) {
+		if(expr instanceof Number) return constant(CruxCompiler.parseNumber(((Number)expr).value));
+		if(expr instanceof Literal) {
+			function.literals.add(((Literal)expr).value);
+			Instruction literal = emit(Op.LITERAL);
+			literal.symbol = func.identifier + ".literal" + (function.literals.size() - 1);
+			return literal;
+		}
+		if(expr instanceof RValue) return rvalue((RValue)expr);
+		if(expr instanceof FunctionReturnValue) {
+			FunctionReturnValue ret = (FunctionReturnValue)expr;
+			if(ret.references != 0) error("can't take the address of a return value in function '" + func.identifier + "'");
+			return call(ret.functionCall);
+		}
+		if(expr instanceof UnaryExpression) {
+			UnaryExpression unary = (UnaryExpression)expr;
+			Value value = expression(unary.factor);
+			if(unary.operator == UnaryOperator.Negate) return emit(Op.MUL, value, constant(-1));
+			return emit(Op.EQ, value, constant(0));
+		}
+
+		BinaryExpression bin = (BinaryExpression)expr;
+		Op op = op(bin.operator);
+		if(op != null) {
+			Value left = expression(bin.left);
+			return emit(op, left, expression(bin.right));
+		}
+
+		// logical operators as values are branches joined by a phi
+		Block whenTrue = function.newBlock();
+		Block whenFalse = function.newBlock();
+		Block join = function.newBlock();
+		condition(bin, whenTrue, whenFalse);
+		seal(whenTrue);
+		seal(whenFalse);
+		current = whenTrue;
+		jump(join);
+		current = whenFalse;
+		jump(join);
+		seal(join);
+		current = join;
+		Instruction phi = phi(join);
+		phi.args.add(constant(1));
+		phi.args.add(constant(0));
+		return phi;
+	}
+
+	Value rvalue (RValue rvalue) {
+		if(rvalue.lvalue instanceof OffsetDereference) {
+			OffsetDereference deref = (OffsetDereference)rvalue.lvalue;
+			if(lookup(deref.identifier) == null && !program.globals.containsKey(deref.identifier) && program.functions.containsKey(deref.identifier)) {
+				if(deref.offsetExpression != null || deref.fieldAccess != null || rvalue.references > 1) error("invalid use of function '" + deref.identifier + "'");
+				Instruction address = emit(Op.FUNCTION);
+				address.symbol = deref.identifier;
+				return address;
+			}
+		}
+		if(rvalue.references > 1) error("can't take the address of an address in function '" + func.identifier + "'");
+		Place place = place(rvalue.lvalue);
+		if(rvalue.references == 1) {
+			if(place.local != null) error("internal error, address of ssa local taken");
+			return place.address;
+		}
+		if(CruxCompiler.isStructValue(place.type)) error("struct '" + place.type.name + "' used as a value in function '" + func.identifier + "'");
+		return load(place);
+	}
+
+	Value offset (Value address, int offset) {
+		return offset == 0? address: emit(Op.ADD, address, constant(offset));
+	}
+
+	Value load (Place place) {
+		if(place.local != null) return read(place.local, current);
+		return emit(Op.LOAD, place.address);
+	}
+
+	void store (Place place, Value value) {
+		if(place.local != null) write(place.local, current, value);
+		else emit(Op.STORE, place.address, value);
+	}
+
+	Place place (LValue lvalue) {
+		Place place = new Place();
+		if(lvalue instanceof OffsetDereference) {
+			OffsetDereference deref = (OffsetDereference)lvalue;
+			Local local = lookup(deref.identifier);
+			if(local != null) {
+				place.type = local.type;
+				if(local.ssa) {
+					place.local = local;
+				} else {
+					Instruction frame = emit(Op.FRAME);
+					frame.index = local.offset;
+					place.address = frame;
+				}
+			} else {
+				Variable global = program.globals.get(deref.identifier);
+				if(global == null) error("unknown variable '" + deref.identifier + "' in function '" + func.identifier + "'");
+				Instruction address = emit(Op.GLOBAL);
+				address.symbol = global.label;
+				place.address = address;
+				place.type = global.type;
+			}
+			if(deref.offsetExpression != null) place = index(place, deref.offsetExpression);
+		} else {
+			Place ref = place(((Dereference)lvalue).lvalue);
+			place.type = CruxCompiler.pointee(ref.type);
+			place.address = load(ref);
+		}
+		for(LValue field = lvalue.fieldAccess; field != null; field = field.fieldAccess) {
+			if(!(field instanceof OffsetDereference)) error("expected field name in function '" + func.identifier + "'");
+			OffsetDereference name = (OffsetDereference)field;
+			if(!CruxCompiler.isStructValue(place.type)) error("field access '" + name.identifier + "' on non-struct in function '" + func.identifier + "'");
+			Field f = program.struct(place.type.name).fields.get(name.identifier);
+			if(f == null) error("unknown field '" + name.identifier + "' in struct '" + place.type.name + "'");
+			place.address = offset(place.address, f.offset);
+			place.type = f.type;
+			if(name.offsetExpression != null) place = index(place, name.offsetExpression);
+		}
+		return place;
+	}
+
+	Place index (Place ref, Expression offset) {
+		Place place = new Place();
+		place.type = CruxCompiler.pointee(ref.type);
+		Value pointer = load(ref);
+		Value index = expression(offset);
+		int size = program.size(place.type);
+		if(size != 1) index = emit(Op.MUL, index, constant(size));
+		place.address = emit(Op.ADD, pointer, index);
+		return place;
+	}
+
+	Value call (FunctionCall call) {
+		String callee = null;
+		List<TypeDefinition> parameters = new ArrayList<TypeDefinition>();
+		if(call.lvalue instanceof OffsetDereference && call.lvalue.fieldAccess == null) {
+			OffsetDereference deref = (OffsetDereference)call.lvalue;
+			if(deref.offsetExpression == null && lookup(deref.identifier) == null && !program.globals.containsKey(deref.identifier)) {
+				FunctionDefinition def = program.functions.get(deref.identifier);
+				if(def == null) error("unknown function '" + deref.identifier + "' in function '" + func.identifier + "'");
+				if(def.signature.arguments.size() != call.arguments.size()) error("wrong number of arguments calling '" + deref.identifier + "' in function '" + func.identifier + "'");
+				for(VariableDeclaration arg: def.signature.arguments) parameters.add(arg.typeDef);
+				callee = def.identifier;
+			}
+		}
+
+		// arguments are evaluated from right to left, like they are pushed
+		LinkedList<Value> words = new LinkedList<Value>();
+		for(int i = call.arguments.size() - 1; i >= 0; i--) {
+			Expression arg = call.arguments.get(i);
+			if(i < parameters.size() && CruxCompiler.isStructValue(parameters.get(i))) {
+				if(!(arg instanceof RValue) || ((RValue)arg).references != 0) error("expected struct value as argument " + i + " in function '" + func.identifier + "'");
+				Place place = place(((RValue)arg).lvalue);
+				for(int j = program.size(place.type) - 1; j >= 0; j--) {
+					words.addFirst(emit(Op.LOAD, offset(place.address, j)));
+				}
+			} else {
+				words.addFirst(expression(arg));
+			}
+		}
+
+		Instruction instruction;
+		if(callee != null) {
+			instruction = emit(Op.CALL);
+			instruction.symbol = callee;
+		} else {
+			instruction = emit(Op.CALL, load(place(call.lvalue)));
+		}
+		instruction.args.addAll(words);
+		return instruction;
+	}
+}
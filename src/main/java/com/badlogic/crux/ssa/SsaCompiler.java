@@ -0,0 +1,94 @@
+package com.badlogic.crux.ssa;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.util.EnumSet;
+
+import com.badlogic.crux.AstNode.FunctionDefinition;
+import com.badlogic.crux.AstNode.Program;
+import com.badlogic.crux.CruxCompiler;
+import com.badlogic.crux.CruxParser;
+import com.badlogic.crux.Lexer;
+import com.badlogic.dcpu.Assembler;
+import com.badlogic.dcpu.Cpu;
+import com.badlogic.dcpu.Cpu.Register;
+import com.badlogic.dcpu.Disassembler;
+
+/**
+ * Optimizing Crux compiler, translates each function to SSA form via the {@link SsaBuilder},
+ * runs the enabled {@link Pass}es and generates code with the {@link SsaEmitter}. Produces
+ * programs with the same layout and calling convention as {@link CruxCompiler}.
+ */
+public class SsaCompiler {
+	public enum Pass {
+		CONSTANT_PROPAGATION,
+		COMMON_SUBEXPRESSION_ELIMINATION,
+		LOOP_INVARIANT_CODE_MOTION,
+		STRENGTH_REDUCTION,
+		DEAD_CODE_ELIMINATION
+	}
+
+	final CruxCompiler program;
+	final EnumSet<Pass> passes;
+	boolean dump;
+
+	public SsaCompiler (Program program, EnumSet<Pass> passes) {
+		this.program = new CruxCompiler(program);
+		this.passes = passes;
+	}
+
+	/** prints the SSA form of each function after optimization **/
+	public void setDump (boolean dump) {
+		this.dump = dump;
+	}
+
+	public void compile (Assembler asm) {
+		program.emitEntry(asm);
+		for(FunctionDefinition func: program.functions.values()) {
+			compileFunction(func, asm);
+		}
+		program.emitGlobals(asm);
+	}
+
+	public void compileFunction (FunctionDefinition func, Assembler asm) {
+		Function function = new SsaBuilder(program, func).build();
+		function.removeUnreachable();
+		optimize(function);
+		if(dump) System.out.println(function);
+		new SsaEmitter(function).emit(asm);
+	}
+
+	public void optimize (Function function) {
+		if(passes.contains(Pass.CONSTANT_PROPAGATION)) ConstantPropagation.run(function);
+		if(passes.contains(Pass.COMMON_SUBEXPRESSION_ELIMINATION)) CommonSubexpressionElimination.run(function);
+		if(passes.contains(Pass.LOOP_INVARIANT_CODE_MOTION)) LoopInvariantCodeMotion.run(function);
+		if(passes.contains(Pass.STRENGTH_REDUCTION)) StrengthReduction.run(function);
+		// strength reduction leaves new constant arguments and redundant induction variables behind
+		if(passes.contains(Pass.CONSTANT_PROPAGATION)) ConstantPropagation.run(function);
+		if(passes.contains(Pass.COMMON_SUBEXPRESSION_ELIMINATION)) CommonSubexpressionElimination.run(function);
+		if(passes.contains(Pass.DEAD_CODE_ELIMINATION)) DeadCodeElimination.run(function);
+		// loop depths for the dump
+		Loop.find(function, new Dominators(function));
+	}
+
+	public static short[] compile (Program program, EnumSet<Pass> passes) {
+		Assembler asm = new Assembler();
+		new SsaCompiler(program, passes).compile(asm);
+		return asm.getDump();
+	}
+
+	public static void main (String[] args) throws FileNotFoundException {
+		Lexer lexer = new Lexer(new FileInputStream(args.length > 0? args[0]: "data/bench/fib.crux"), false, true);
+		CruxParser parser = new CruxParser(lexer);
+		parser.parse();
+		Assembler asm = new Assembler();
+		SsaCompiler compiler = new SsaCompiler(parser.getProgram(), EnumSet.allOf(Pass.class));
+		compiler.setDump(true);
+		compiler.compile(asm);
+		short[] dump = asm.getDump();
+		System.out.println(Disassembler.disassemble(dump, 0, dump.length));
+		Cpu cpu = new Cpu(dump);
+		cpu.runUntilHalted();
+		System.out.println("result: " + cpu.getRegValue(Register.A) + ", cycles: " + cpu.getCycles());
+	}
+}
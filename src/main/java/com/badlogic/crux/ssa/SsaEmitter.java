@@ -0,0 +1,470 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.badlogic.crux.ssa.Instruction.Op;
+import com.badlogic.dcpu.Assembler;
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+import com.badlogic.dcpu.RegisterAllocator;
+import com.badlogic.dcpu.RegisterAllocator.Virtual;
+
+/**
+ * Generates dcpu-16 code for a {@link Function} in SSA form, using the calling
+ * convention and frame layout of {@link com.badlogic.crux.CruxCompiler}.</p>
+ *
+ * Constant offsets of addresses are folded into the addressing modes, comparisons
+ * only used by a branch become IFx instructions and a load, binary operation and
+ * store of the same address in a row become one instruction on memory, e.g.
+ * ADD [calls], 1. Small negative constants are added as subtractions of short
+ * literals and the other way around. Every other value gets a virtual
+ * register of a {@link RegisterAllocator}, phis become parallel moves at the end of
+ * the predecessors which the allocator coalesces where the live ranges allow. A, B,
+ * X, Y, Z and I are allocated, C is the scratch register for spilled addresses.
+ */
+public class SsaEmitter {
+	static final Register[] REGISTERS = { Register.A, Register.B, Register.X, Register.Y, Register.Z, Register.I };
+	static final Register[] CALLEE_SAVED = { Register.X, Register.Y, Register.Z, Register.I };
+
+	final Function function;
+	final Assembler asm = new Assembler();
+	final RegisterAllocator allocator = new RegisterAllocator(asm, REGISTERS);
+	Virtual[] registers;
+	boolean[] folded;
+	/** per store that modifies the loaded word in place the other operand of the binary operation **/
+	Value[] modified;
+	List<List<Instruction>> users;
+	int skips;
+
+	public SsaEmitter (Function function) {
+		this.function = function;
+		allocator.setScratch(Register.C);
+		allocator.setClobbered(Register.A, Register.B, Register.C);
+		allocator.setLiveOut(Register.A);
+		allocator.setSpillArea(Register.J, -(function.frameWords + 1));
+	}
+
+	public void emit (Assembler out) {
+		splitEdges();
+		analyze();
+		List<Block> order = layout();
+		for(int i = 0; i < order.size(); i++) {
+			block(order.get(i), i + 1 < order.size()? order.get(i + 1): null);
+		}
+		allocator.allocate();
+
+		List<Register> saved = new ArrayList<Register>();
+		for(Register register: CALLEE_SAVED) {
+			if(allocator.getUsedRegisters().contains(register)) saved.add(register);
+		}
+		int locals = function.frameWords + allocator.getSpillSlots();
+		boolean frame = locals > 0 || function.argumentWords > 0;
+		out.markLabel(function.name);
+		if(frame) {
+			out.op(Opcode.SET, Arg.push(), Arg.reg(Register.J));
+			out.op(Opcode.SET, Arg.reg(Register.J), Arg.sp());
+			if(locals > 0) out.op(Opcode.SUB, Arg.sp(), Arg.lit(locals));
+		}
+		for(Register register: saved) {
+			out.op(Opcode.SET, Arg.push(), Arg.reg(register));
+		}
+		out.append(asm);
+
+		out.markLabel(function.name + ".return");
+		for(int i = saved.size() - 1; i >= 0; i--) {
+			out.op(Opcode.SET, Arg.reg(saved.get(i)), Arg.pop());
+		}
+		if(frame) {
+			if(locals > 0) out.op(Opcode.SET, Arg.sp(), Arg.reg(Register.J));
+			out.op(Opcode.SET, Arg.reg(Register.J), Arg.pop());
+		}
+		out.op(Opcode.SET, Arg.pc(), Arg.pop());
+
+		for(int i = 0; i < function.literals.size(); i++) {
+			out.markLabel(function.name + ".literal" + i);
+			for(char c: function.literals.get(i).toCharArray()) out.val((short)c);
+			out.val((short)0);
+		}
+	}
+
+	/** splits edges from blocks with several successors to blocks with phis, so phi moves have a place **/
+	void splitEdges () {
+		for(Block block: new ArrayList<Block>(function.blocks)) {
+			if(block.successors.size() < 2) continue;
+			for(Block succ: new ArrayList<Block>(block.successors)) {
+				if(!succ.instructions.isEmpty() && succ.instructions.get(0).op == Op.PHI) function.splitEdge(block, succ);
+			}
+		}
+	}
+
+	/**
+	 * @return the blocks in reverse postorder, visiting the successors last to first so a
+	 *         branch is followed by its first successor, e.g. the body of a loop or an if
+	 */
+	List<Block> layout () {
+		List<Block> order = new ArrayList<Block>();
+		postorder(function.entry(), new HashSet<Block>(), order);
+		Collections.reverse(order);
+		return order;
+	}
+
+	void postorder (Block block, Set<Block> visited, List<Block> order) {
+		visited.add(block);
+		// the successor visited last follows the block
+		List<Block> successors = new ArrayList<Block>(block.successors);
+		if(successors.size() == 2 && !fallsThroughOnFalse(block)) Collections.reverse(successors);
+		for(Block succ: successors) {
+			if(!visited.contains(succ)) postorder(succ, visited, order);
+		}
+		order.add(block);
+	}
+
+	/** @return whether the block ends with a branch on a > or < comparison, IFG then jumps to the first successor **/
+	boolean fallsThroughOnFalse (Block block) {
+		Instruction branch = block.instructions.get(block.instructions.size() - 1);
+		if(!(branch.arg(0) instanceof Instruction)) return false;
+		Instruction condition = (Instruction)branch.arg(0);
+		return folded[condition.id] && (condition.op == Op.GT || condition.op == Op.LT);
+	}
+
+	// -------------------------------------------------------------------------
+	// analysis
+	// -------------------------------------------------------------------------
+
+	static boolean isLabel (Value value) {
+		if(!(value instanceof Instruction)) return false;
+		Op op = ((Instruction)value).op;
+		return op == Op.GLOBAL || op == Op.FUNCTION || op == Op.LITERAL;
+	}
+
+	static boolean isAddressUse (Instruction user, int index) {
+		return index == 0 && (user.op == Op.LOAD || user.op == Op.STORE);
+	}
+
+	void analyze () {
+		int count = function.instructionCount();
+		folded = new boolean[count];
+		users = new ArrayList<List<Instruction>>(count);
+		for(int i = 0; i < count; i++) users.add(new ArrayList<Instruction>());
+		for(Block block: function.blocks) {
+			for(Instruction instruction: block.instructions) {
+				for(Value arg: instruction.args) {
+					if(arg instanceof Instruction) users.get(((Instruction)arg).id).add(instruction);
+				}
+			}
+		}
+
+		// addresses only used by loads and stores become part of the addressing mode,
+		// constant offsets first so the frame addresses they are added to can be folded too
+		for(Block block: function.blocks) {
+			for(Instruction instruction: block.instructions) {
+				if(instruction.op == Op.ADD && instruction.arg(1) instanceof Constant && !(instruction.arg(0) instanceof Constant)) {
+					folded[instruction.id] = isAddressOnly(instruction);
+				} else if(instruction.op.isComparison() && users.get(instruction.id).size() == 1) {
+					Instruction user = users.get(instruction.id).get(0);
+					folded[instruction.id] = user.op == Op.BRANCH && user.block == block;
+				}
+			}
+		}
+		for(Block block: function.blocks) {
+			for(Instruction instruction: block.instructions) {
+				if(isLabel(instruction)) folded[instruction.id] = true;
+				else if(instruction.op == Op.FRAME) folded[instruction.id] = isAddressOnly(instruction);
+			}
+		}
+
+		// load, operation and store of an address in a row whose values have no other use
+		modified = new Value[count];
+		for(Block block: function.blocks) {
+			List<Instruction> instructions = block.instructions;
+			for(int i = 2; i < instructions.size(); i++) {
+				Instruction load = instructions.get(i - 2), operation = instructions.get(i - 1), store = instructions.get(i);
+				if(store.op != Op.STORE || store.arg(1) != operation || load.op != Op.LOAD || load.arg(0) != store.arg(0)) continue;
+				if(!operation.op.isBinary() || operation.op.isComparison() || folded[operation.id]) continue;
+				if(users.get(load.id).size() != 1 || users.get(operation.id).size() != 1) continue;
+				Value other;
+				if(operation.arg(0) == load && operation.arg(1) != load) other = operation.arg(1);
+				else if(operation.arg(1) == load && operation.arg(0) != load && operation.op.isCommutative()) other = operation.arg(0);
+				else continue;
+				folded[load.id] = true;
+				folded[operation.id] = true;
+				modified[store.id] = other;
+			}
+		}
+
+		// values without uses, left behind by passes run without dead code elimination
+		for(Block block: function.blocks) {
+			for(Instruction instruction: block.instructions) {
+				if(instruction.op.isPure() && users.get(instruction.id).isEmpty()) folded[instruction.id] = true;
+			}
+		}
+
+		registers = new Virtual[count];
+		for(Block block: function.blocks) {
+			for(Instruction instruction: block.instructions) {
+				if(needsRegister(instruction)) registers[instruction.id] = allocator.register();
+			}
+		}
+	}
+
+	boolean isAddressOnly (Instruction instruction) {
+		List<Instruction> uses = users.get(instruction.id);
+		if(uses.isEmpty()) return false;
+		for(Instruction user: uses) {
+			for(int i = 0; i < user.args.size(); i++) {
+				if(user.arg(i) != instruction) continue;
+				boolean offset = i == 0 && user.op == Op.ADD && folded[user.id];
+				if(!offset && !isAddressUse(user, i)) return false;
+			}
+		}
+		return true;
+	}
+
+	boolean needsRegister (Instruction instruction) {
+		if(folded[instruction.id] || instruction.op.isTerminator() || instruction.op == Op.STORE) return false;
+		return instruction.op != Op.CALL || !users.get(instruction.id).isEmpty();
+	}
+
+	// -------------------------------------------------------------------------
+	// emission
+	// -------------------------------------------------------------------------
+
+	String label (Block block) {
+		return function.name + "." + block.id;
+	}
+
+	Virtual register (Value value) {
+		return value instanceof Instruction? registers[((Instruction)value).id]: null;
+	}
+
+	Arg operand (Value value) {
+		if(value instanceof Constant) return Arg.lit(((Constant)value).value & 0xffff);
+		Instruction instruction = (Instruction)value;
+		if(isLabel(instruction)) return allocator.label(instruction.symbol, 0);
+		return registers[instruction.id];
+	}
+
+	/** @return the memory argument for the address **/
+	Arg address (Value value) {
+		if(value instanceof Constant) return Arg.mem(((Constant)value).value & 0xffff);
+		Instruction instruction = (Instruction)value;
+		int offset = 0;
+		if(folded[instruction.id] && instruction.op == Op.ADD) {
+			offset = ((Constant)instruction.arg(1)).value;
+			value = instruction.arg(0);
+			if(value instanceof Constant) return Arg.mem((((Constant)value).value + offset) & 0xffff);
+			instruction = (Instruction)value;
+		}
+		if(instruction.op == Op.GLOBAL) return allocator.labelMem(instruction.symbol, offset);
+		if(instruction.op == Op.FRAME && folded[instruction.id]) return Arg.mem(Register.J, instruction.index + offset);
+		Virtual base = registers[instruction.id];
+		if(base == null) {
+			// a function or literal address
+			base = allocator.register();
+			allocator.op(Opcode.SET, base, operand(instruction));
+		}
+		return offset == 0? RegisterAllocator.mem(base): RegisterAllocator.mem(base, offset);
+	}
+
+	void block (Block block, Block next) {
+		allocator.markLabel(label(block));
+		for(Instruction instruction: block.instructions) {
+			Virtual register = registers[instruction.id];
+			switch(instruction.op) {
+			case PHI:
+			case GLOBAL:
+			case FUNCTION:
+			case LITERAL:
+				break;
+			case PARAM:
+				if(register != null) allocator.op(Opcode.SET, register, Arg.mem(Register.J, instruction.index));
+				break;
+			case FRAME:
+				if(folded[instruction.id]) break;
+				allocator.op(Opcode.SET, register, Arg.reg(Register.J));
+				if(instruction.index != 0) allocator.op(Opcode.ADD, register, Arg.lit(instruction.index & 0xffff));
+				break;
+			case LOAD:
+				if(folded[instruction.id]) break;
+				allocator.op(Opcode.SET, register, address(instruction.arg(0)));
+				break;
+			case STORE: {
+				Arg address = address(instruction.arg(0));
+				if(modified[instruction.id] != null) arithmetic(((Instruction)instruction.arg(1)).op, address, modified[instruction.id]);
+				else allocator.op(Opcode.SET, address, operand(instruction.arg(1)));
+				break;
+			}
+			case CALL:
+				call(instruction, register);
+				break;
+			case COPY:
+				if(folded[instruction.id]) break;
+				allocator.op(Opcode.SET, register, operand(instruction.arg(0)));
+				break;
+			case JUMP:
+				moves(block, block.successors.get(0));
+				if(block.successors.get(0) != next) allocator.op(Opcode.SET, Arg.pc(), allocator.label(label(block.successors.get(0))));
+				break;
+			case BRANCH:
+				branch(instruction, next);
+				break;
+			case RETURN:
+				if(!instruction.args.isEmpty()) allocator.op(Opcode.SET, Arg.reg(Register.A), operand(instruction.arg(0)));
+				if(next != null) allocator.op(Opcode.SET, Arg.pc(), allocator.label(function.name + ".return"));
+				break;
+			default:
+				if(folded[instruction.id]) break;
+				if(instruction.op.isComparison()) compareValue(instruction, register);
+				else binary(instruction, register);
+			}
+		}
+	}
+
+	Opcode opcode (Op op) {
+		switch(op) {
+		case ADD: return Opcode.ADD;
+		case SUB: return Opcode.SUB;
+		case MUL: return Opcode.MUL;
+		case DIV: return Opcode.DIV;
+		case MOD: return Opcode.MOD;
+		case SHL: return Opcode.SHL;
+		case SHR: return Opcode.SHR;
+		case AND: return Opcode.AND;
+		case OR: return Opcode.BOR;
+		case XOR: return Opcode.XOR;
+		default: throw new RuntimeException("no opcode for " + op);
+		}
+	}
+
+	void binary (Instruction instruction, Virtual register) {
+		allocator.op(Opcode.SET, register, operand(instruction.arg(0)));
+		arithmetic(instruction.op, register, instruction.arg(1));
+	}
+
+	/** emits target = target op value, -1 to -31 fit a short literal if added as subtraction **/
+	void arithmetic (Op op, Arg target, Value value) {
+		if((op == Op.ADD || op == Op.SUB) && value instanceof Constant) {
+			int negated = -((Constant)value).value & 0xffff;
+			if(negated > 0 && negated < 0x20) {
+				allocator.op(op == Op.ADD? Opcode.SUB: Opcode.ADD, target, Arg.lit(negated));
+				return;
+			}
+		}
+		allocator.op(opcode(op), target, operand(value));
+	}
+
+	void compareValue (Instruction instruction, Virtual register) {
+		Arg left = operand(instruction.arg(0));
+		Arg right = operand(instruction.arg(1));
+		boolean negated = instruction.op == Op.LE || instruction.op == Op.GE;
+		allocator.op(Opcode.SET, register, Arg.lit(negated? 1: 0));
+		switch(instruction.op) {
+		case EQ: allocator.op(Opcode.IFE, left, right); break;
+		case NE: allocator.op(Opcode.IFN, left, right); break;
+		case GT:
+		case LE: allocator.op(Opcode.IFG, left, right); break;
+		default: allocator.op(Opcode.IFG, right, left); break;
+		}
+		allocator.op(Opcode.SET, register, Arg.lit(negated? 0: 1));
+	}
+
+	void branch (Instruction branch, Block next) {
+		Block whenTrue = branch.block.successors.get(0);
+		Block whenFalse = branch.block.successors.get(1);
+		if(whenFalse == next) {
+			jumpIf(branch.arg(0), label(whenTrue), true);
+		} else if(whenTrue == next) {
+			jumpIf(branch.arg(0), label(whenFalse), false);
+		} else {
+			jumpIf(branch.arg(0), label(whenTrue), true);
+			allocator.op(Opcode.SET, Arg.pc(), allocator.label(label(whenFalse)));
+		}
+	}
+
+	/** jumps to the label if the condition is when, falls through otherwise **/
+	void jumpIf (Value condition, String label, boolean when) {
+		if(condition instanceof Instruction && folded[((Instruction)condition).id]) {
+			Instruction compare = (Instruction)condition;
+			Arg left = operand(compare.arg(0));
+			Arg right = operand(compare.arg(1));
+			Op op = compare.op;
+			if(op == Op.EQ || op == Op.NE) {
+				allocator.op((op == Op.EQ) == when? Opcode.IFE: Opcode.IFN, left, right);
+				allocator.op(Opcode.SET, Arg.pc(), allocator.label(label));
+				return;
+			}
+			if(op == Op.GT || op == Op.LE) allocator.op(Opcode.IFG, left, right);
+			else allocator.op(Opcode.IFG, right, left);
+			boolean ifgMeans = op == Op.GT || op == Op.LT;
+			if(ifgMeans == when) {
+				allocator.op(Opcode.SET, Arg.pc(), allocator.label(label));
+			} else {
+				String skip = label + ".skip" + skips++;
+				allocator.op(Opcode.SET, Arg.pc(), allocator.label(skip));
+				allocator.op(Opcode.SET, Arg.pc(), allocator.label(label));
+				allocator.markLabel(skip);
+			}
+			return;
+		}
+		allocator.op(when? Opcode.IFN: Opcode.IFE, operand(condition), Arg.lit(0));
+		allocator.op(Opcode.SET, Arg.pc(), allocator.label(label));
+	}
+
+	void call (Instruction call, Virtual register) {
+		int first = call.symbol != null? 0: 1;
+		for(int i = call.args.size() - 1; i >= first; i--) {
+			allocator.op(Opcode.SET, Arg.push(), operand(call.arg(i)));
+		}
+		if(call.symbol != null) allocator.eop(Opcode.JSR, allocator.label(call.symbol));
+		else allocator.eop(Opcode.JSR, operand(call.arg(0)));
+		if(call.args.size() > first) allocator.op(Opcode.ADD, Arg.sp(), Arg.lit(call.args.size() - first));
+		if(register != null) allocator.op(Opcode.SET, register, Arg.reg(Register.A));
+	}
+
+	/** emits the parallel copies into the phis of the successor **/
+	void moves (Block from, Block to) {
+		int index = to.predecessors.indexOf(from);
+		List<Virtual> destinations = new ArrayList<Virtual>();
+		List<Value> sources = new ArrayList<Value>();
+		for(Instruction phi: to.instructions) {
+			if(phi.op != Op.PHI) break;
+			Virtual destination = registers[phi.id];
+			if(destination == null || destination == register(phi.arg(index))) continue;
+			destinations.add(destination);
+			sources.add(phi.arg(index));
+		}
+
+		while(!destinations.isEmpty()) {
+			int ready = -1;
+			for(int i = 0; i < destinations.size() && ready == -1; i++) {
+				boolean blocked = false;
+				for(int j = 0; j < sources.size(); j++) {
+					if(j != i && destinations.get(i) == register(sources.get(j))) blocked = true;
+				}
+				if(!blocked) ready = i;
+			}
+			if(ready != -1) {
+				allocator.op(Opcode.SET, destinations.remove(ready), operand(sources.remove(ready)));
+			} else {
+				// a cycle, move one source out of the way
+				Instruction copy = function.instruction(Op.COPY, sources.get(0));
+				registers = grow(registers, copy.id);
+				registers[copy.id] = allocator.register();
+				allocator.op(Opcode.SET, registers[copy.id], operand(sources.get(0)));
+				sources.set(0, copy);
+			}
+		}
+	}
+
+	static Virtual[] grow (Virtual[] registers, int id) {
+		if(id < registers.length) return registers;
+		Virtual[] grown = new Virtual[id + 16];
+		System.arraycopy(registers, 0, grown, 0, registers.length);
+		return grown;
+	}
+}
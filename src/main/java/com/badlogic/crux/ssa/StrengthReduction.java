@@ -0,0 +1,250 @@
+package com.badlogic.crux.ssa;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.crux.ssa.Instruction.Op;
+
+/**
+ * Replaces expensive operations by cheaper ones. On the dcpu-16 DIV and MOD take
+ * 3 cycles, AND takes 1 and all other arithmetic 2, literals above 0x1f cost an
+ * extra word and cycle.
+ * <ul>
+ * <li>multiplications by a power of two become shifts, the shift amount always fits a short literal</li>
+ * <li>divisions and modulos of values known to be non-negative by a power of two become SHR and AND,
+ * SHR is arithmetic and rounds towards negative infinity so this is only valid for non-negative values</li>
+ * <li>in loops, multiplications of induction variables by constants and additions of loop invariants
+ * to induction variables become new induction variables, updated with an addition per iteration</li>
+ * </ul>
+ * Expects constants on the right hand side of commutative operations, as produced by
+ * {@link ConstantPropagation}.
+ */
+public class StrengthReduction {
+	/** an induction variable phi = phi(init, phi + step) of a loop **/
+	static class InductionVariable {
+		final Loop loop;
+		final Instruction phi;
+		final Instruction next;
+		final int step;
+
+		InductionVariable (Loop loop, Instruction phi, Instruction next, int step) {
+			this.loop = loop;
+			this.phi = phi;
+			this.next = next;
+			this.step = step;
+		}
+
+		Value init () {
+			return phi.arg(phi.block.predecessors.indexOf(loop.preheader));
+		}
+	}
+
+	final Function function;
+	final Map<Instruction, InductionVariable> inductionVariables = new HashMap<Instruction, InductionVariable>();
+	final Map<String, Instruction> derived = new HashMap<String, Instruction>();
+	final Map<Value, Value> replacements = new HashMap<Value, Value>();
+
+	StrengthReduction (Function function) {
+		this.function = function;
+	}
+
+	public static boolean run (Function function) {
+		return new StrengthReduction(function).reduce();
+	}
+
+	boolean reduce () {
+		boolean changed = false;
+		Dominators dominators = new Dominators(function);
+		for(Loop loop: Loop.find(function, dominators)) {
+			changed |= reduceLoop(loop);
+		}
+		function.replace(replacements);
+		// the replaced operations and induction variables would still be updated per iteration
+		if(changed) DeadCodeElimination.removeDeadInstructions(function);
+		for(Block block: function.blocks) {
+			for(Instruction instruction: block.instructions) {
+				changed |= reduceOperation(instruction);
+			}
+		}
+		return changed;
+	}
+
+	static int log2 (int value) {
+		value &= 0xffff;
+		if(value == 0 || (value & (value - 1)) != 0) return -1;
+		return Integer.numberOfTrailingZeros(value);
+	}
+
+	boolean reduceOperation (Instruction instruction) {
+		if(!instruction.op.isBinary() || !(instruction.arg(1) instanceof Constant)) return false;
+		int c = ((Constant)instruction.arg(1)).value;
+		int shift = log2(c);
+		if(shift <= 0 || shift > 14) return false;
+		switch(instruction.op) {
+		case MUL:
+			instruction.op = Op.SHL;
+			instruction.args.set(1, new Constant(shift));
+			return true;
+		case DIV:
+			if(!isNonNegative(instruction.arg(0), 0)) return false;
+			instruction.op = Op.SHR;
+			instruction.args.set(1, new Constant(shift));
+			return true;
+		case MOD:
+			if(!isNonNegative(instruction.arg(0), 0)) return false;
+			instruction.op = Op.AND;
+			instruction.args.set(1, new Constant(c - 1));
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/** @return whether the value is known to be in the range [0, 0x7fff] **/
+	boolean isNonNegative (Value value, int depth) {
+		if(value instanceof Constant) return ((Constant)value).value >= 0;
+		if(depth > 8) return false;
+		Instruction instruction = (Instruction)value;
+		switch(instruction.op) {
+		case AND:
+			return isNonNegative(instruction.arg(0), depth + 1) || isNonNegative(instruction.arg(1), depth + 1);
+		case SHR:
+		case DIV:
+		case MOD:
+			return isNonNegative(instruction.arg(0), depth + 1) && instruction.arg(1) instanceof Constant && ((Constant)instruction.arg(1)).value > 0;
+		case LT:
+		case LE:
+		case EQ:
+		case NE:
+		case GE:
+		case GT:
+			return true;
+		case PHI:
+			InductionVariable iv = inductionVariables.get(instruction);
+			return iv != null && isBounded(iv);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * An induction variable with a non-negative initial value and a positive step
+	 * stays non-negative if the loop is only continued while next < n or next <= n
+	 * for a constant n that can't overflow.
+	 */
+	boolean isBounded (InductionVariable iv) {
+		if(!(iv.init() instanceof Constant) || ((Constant)iv.init()).value < 0 || iv.step <= 0) return false;
+		for(Block latch: iv.loop.latches) {
+			Instruction branch = latch.terminator();
+			if(branch.op != Op.BRANCH || latch.successors.get(0) != iv.loop.header) return false;
+			if(!(branch.arg(0) instanceof Instruction)) return false;
+			Instruction condition = (Instruction)branch.arg(0);
+			if(condition.op != Op.LT && condition.op != Op.LE) return false;
+			if(condition.arg(0) != iv.next || !(condition.arg(1) instanceof Constant)) return false;
+			int bound = ((Constant)condition.arg(1)).value + (condition.op == Op.LE? 1: 0);
+			if(bound + iv.step - 1 > Short.MAX_VALUE) return false;
+		}
+		return true;
+	}
+
+	boolean reduceLoop (Loop loop) {
+		if(loop.preheader == null || loop.latches.size() != 1 || loop.header.predecessors.size() != 2) return false;
+		Block latch = loop.latches.get(0);
+		int latchIndex = loop.header.predecessors.indexOf(latch);
+
+		LinkedList<InductionVariable> work = new LinkedList<InductionVariable>();
+		for(Instruction phi: loop.header.instructions) {
+			if(phi.op != Op.PHI) break;
+			Value next = phi.arg(latchIndex);
+			if(!(next instanceof Instruction)) continue;
+			Instruction add = (Instruction)next;
+			if(add.op != Op.ADD || add.arg(0) != phi || !(add.arg(1) instanceof Constant)) continue;
+			InductionVariable iv = new InductionVariable(loop, phi, add, ((Constant)add.arg(1)).value);
+			inductionVariables.put(phi, iv);
+			work.add(iv);
+		}
+
+		boolean changed = false;
+		while(!work.isEmpty()) {
+			InductionVariable iv = work.removeFirst();
+			for(Block block: new ArrayList<Block>(loop.blocks)) {
+				for(Instruction instruction: new ArrayList<Instruction>(block.instructions)) {
+					if(instruction == iv.next || replacements.containsKey(instruction)) continue;
+					for(int i = 0; i < instruction.args.size(); i++) {
+						instruction.args.set(i, ConstantPropagation.resolve(replacements, instruction.args.get(i)));
+					}
+					InductionVariable reduced = derive(iv, instruction, latchIndex);
+					if(reduced != null) work.add(reduced);
+					changed |= replacements.containsKey(instruction);
+				}
+			}
+		}
+		return changed;
+	}
+
+	/** @return the new induction variable replacing the instruction or null if it can't be reduced **/
+	InductionVariable derive (InductionVariable iv, Instruction instruction, int latchIndex) {
+		Loop loop = iv.loop;
+		Value init;
+		int step;
+		String key;
+		if((instruction.op == Op.MUL || instruction.op == Op.SHL) && instruction.arg(0) == iv.phi && instruction.arg(1) instanceof Constant) {
+			int factor = ((Constant)instruction.arg(1)).value;
+			if(instruction.op == Op.SHL) {
+				if(factor < 0 || factor > 15) return null;
+				factor = 1 << factor;
+			}
+			key = iv.phi.id + "*" + (short)factor;
+			if(derived.containsKey(key)) {
+				replacements.put(instruction, derived.get(key));
+				return null;
+			}
+			init = preheaderOp(loop, Op.MUL, iv.init(), new Constant(factor));
+			step = iv.step * factor;
+		} else if(instruction.op == Op.ADD && (instruction.arg(0) == iv.phi || instruction.arg(1) == iv.phi)) {
+			// constant offsets are left alone, the code generator folds them into the addressing mode
+			Value invariant = instruction.arg(0) == iv.phi? instruction.arg(1): instruction.arg(0);
+			if(!(invariant instanceof Instruction) || loop.contains(invariant)) return null;
+			key = iv.phi.id + "+" + ((Instruction)invariant).id;
+			if(derived.containsKey(key)) {
+				replacements.put(instruction, derived.get(key));
+				return null;
+			}
+			init = preheaderOp(loop, Op.ADD, iv.init(), invariant);
+			step = iv.step;
+		} else {
+			return null;
+		}
+
+		Instruction phi = function.instruction(Op.PHI);
+		phi.block = loop.header;
+		loop.header.instructions.add(0, phi);
+		Instruction next = function.instruction(Op.ADD, phi, new Constant(step));
+		next.block = iv.next.block;
+		iv.next.block.instructions.add(iv.next.block.instructions.indexOf(iv.next) + 1, next);
+		for(int i = 0; i < loop.header.predecessors.size(); i++) {
+			phi.args.add(i == latchIndex? next: init);
+		}
+		derived.put(key, phi);
+		replacements.put(instruction, phi);
+		return new InductionVariable(loop, phi, next, (short)step);
+	}
+
+	/** creates the operation in the preheader, folds it if both arguments are constants **/
+	Value preheaderOp (Loop loop, Op op, Value left, Value right) {
+		if(left instanceof Constant && right instanceof Constant) {
+			return new Constant(ConstantPropagation.fold(op, ((Constant)left).value, ((Constant)right).value));
+		}
+		if(left instanceof Constant && op.isCommutative()) {
+			Value tmp = left;
+			left = right;
+			right = tmp;
+		}
+		Instruction instruction = function.instruction(op, left, right);
+		loop.preheader.insertBeforeTerminator(instruction);
+		return instruction;
+	}
+}
@@ -0,0 +1,8 @@
+package com.badlogic.crux.ssa;
+
+/**
+ * A value of the SSA form, either a {@link Constant} or
+ * the result of an {@link Instruction}.
+ */
+public abstract class Value {
+}
@@ -28,12 +28,28 @@ public class Assembler {
 	
 	private void patchLabels() {
 		for(Label label: labels.values()) {
-			for(int i = 0; i < label.addresses.size; i++) {
-				mem.set(label.addresses.get(i), (short)label.targetAddress);
-			}
+			patchLabel(label);
 		}
 	}
 	
+	private void patchLabel(Label label) {
+		for(int i = 0; i < label.addresses.size; i++) {
+			mem.set(label.addresses.get(i) & 0xffff, (short)(label.targetAddress + label.offsets.get(i)));
+		}
+	}
+	
+	/**
+	 * Patches the references to a label assembled so far and forgets the label, so that
+	 * long programs don't keep labels only used locally, e.g. within a function.
+	 * @param name the name of the label.
+	 */
+	public void resolveLabel(String name) {
+		Label label = labels.remove(name);
+		if(label == null) return;
+		if(!label.marked) throw new RuntimeException("Label '" + name + "' used but not marked");
+		patchLabel(label);
+	}
+	
 	/**
 	 * Writes the opcode plus its arguments. Extended
 	 * opcodes should be written with {@link #eop(Opcode, Arg)}.
@@ -99,12 +115,39 @@ public class Assembler {
 	 * @return
 	 */
 	public Arg label( Register reg, String name) {
-		Label label = labels.get(name);
-		if(label == null) {
-			label = new Label(0x1f, name, this);
-			labels.put(name, label);
-		}
-		return new ExLabel(0x10+reg.index, label);
+		return label(reg, name, 0);
+	}
+	
+	/**
+	 * Creates a [label + offset + register] argument, the offset is added
+	 * to the label's address when it is back patched in {@link #getDump()}.
+	 * @param reg
+	 * @param name
+	 * @param offset
+	 * @return
+	 */
+	public Arg label(Register reg, String name, int offset) {
+		return new ExLabel(0x10+reg.index, label(name), offset);
+	}
+	
+	/**
+	 * Creates a label + offset literal argument, back patched in {@link #getDump()}.
+	 * @param name
+	 * @param offset
+	 * @return
+	 */
+	public Arg label(String name, int offset) {
+		return new ExLabel(0x1f, label(name), offset);
+	}
+	
+	/**
+	 * Creates a [label + offset] argument, back patched in {@link #getDump()}.
+	 * @param name
+	 * @param offset
+	 * @return
+	 */
+	public Arg labelMem(String name, int offset) {
+		return new ExLabel(0x1e, label(name), offset);
 	}
 
 	/**
@@ -118,19 +161,70 @@ public class Assembler {
 			labels.put(name, label);
 		}
 		label.targetAddress = mem.size;
+		label.marked = true;
+		return label;
+	}
+	
+	/**
+	 * Defines a label with a value instead of an address, e.g. a frame size that is only
+	 * known after the code using it was assembled. The value is not relocated by
+	 * {@link #append(Assembler)}.
+	 * @param name the name of the label.
+	 * @param value the value it is patched with.
+	 */
+	public Label defineLabel(String name, int value) {
+		Label label = markLabel(name);
+		label.targetAddress = value;
+		label.constant = true;
 		return label;
 	}
 	
+	/**
+	 * @return the number of words assembled so far.
+	 */
+	public int size() {
+		return mem.size;
+	}
+	
+	/**
+	 * Appends the code assembled by another assembler and relocates its labels.
+	 * Labels are shared by name, references to labels the other assembler did not
+	 * mark are resolved against the labels of this assembler. Used to link code
+	 * that was generated separately, e.g. a function body before its prologue. 
+	 * @param other the assembler to append
+	 */
+	public void append(Assembler other) {
+		int offset = mem.size;
+		for(int i = 0; i < other.mem.size; i++) {
+			mem.add(other.mem.get(i));
+		}
+		for(Label label: other.labels.values()) {
+			Label target = label(label.name);
+			if(label.marked) {
+				if(target.marked) throw new RuntimeException("Label '" + label.name + "' marked twice");
+				target.targetAddress = label.constant? label.targetAddress: label.targetAddress + offset;
+				target.marked = true;
+				target.constant = label.constant;
+			}
+			for(int i = 0; i < label.addresses.size; i++) {
+				target.addresses.add((short)((label.addresses.get(i) & 0xffff) + offset));
+				target.offsets.add(label.offsets.get(i));
+			}
+		}
+	}
+	
 	public static class ExLabel extends Arg {
 		 final Label parent;
-		 ExLabel (int bits, Label parent) {
+		 final int offset;
+		 ExLabel (int bits, Label parent, int offset) {
 			super(bits);
 			this.parent = parent;
+			this.offset = offset;
 		}
 
 			@Override
 			void writeNextWord (ShortArray array) {
-				parent.writeNextWord(array);
+				parent.writeNextWord(array, offset);
 			}
 
 	}
@@ -138,7 +232,10 @@ public class Assembler {
 	public static class Label extends Arg {
 		final Assembler assembler;
 		final ShortArray addresses = new ShortArray();
+		final ShortArray offsets = new ShortArray();
 		int targetAddress = 0;
+		boolean marked;
+		boolean constant;
 		final String name;
 		
 		Label (int bits, String name, Assembler assembler) {
@@ -149,7 +246,12 @@ public class Assembler {
 		
 		@Override
 		void writeNextWord (ShortArray array) {
+			writeNextWord(array, 0);
+		}
+		
+		void writeNextWord (ShortArray array, int offset) {
 			addresses.add((short)(array.size));
+			offsets.add((short)offset);
 			array.add((short)0xdead);
 		}
 	}
@@ -1,5 +1,8 @@
 package com.badlogic.dcpu;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Cpu emulation for <a href="http://0x10c.com/doc/dcpu-16.txt">dcpu-16</a>
@@ -90,12 +93,55 @@ public class Cpu {
 			Opcode.SHL, Opcode.SHR, Opcode.AND, Opcode.BOR, Opcode.XOR,
 			Opcode.IFE, Opcode.IFN, Opcode.IFG, Opcode.IFB }; 
 	
+	/** the longest loop that is checked for being idle, in instructions per iteration **/
+	public static final int MAX_IDLE_INSTRUCTIONS = 32;
+	/** the longest counted loop that is skipped, in instructions per iteration **/
+	public static final int MAX_COUNTED_INSTRUCTIONS = 32;
+	/** the number of words of an instruction indexed by its first word **/
+	private static final byte[] LENGTHS = new byte[RAM_SIZE];
+	/** the first word of SET PC, literal without its literal **/
+	private static final int JUMP = 0x1c << 4 | 0x1;
+	
+	static {
+		for(int v = 0; v < LENGTHS.length; v++) {
+			int a = (v & 0x3f0) >>> 4;
+			int b = (v & 0xfc00) >>> 10;
+			LENGTHS[v] = (byte)(1 + ((v & 0xf) != 0 && hasNextWord(a)? 1: 0) + (hasNextWord(b)? 1: 0));
+		}
+	}
+	
 	private final short mem[] = new short[RAM_SIZE];
 	private final short reg[] = new short[REGISTERS];
 	private final StorageLocation storageLocation = new StorageLocation();
 	private int cycles;
-	private boolean skipNext;
 	private boolean halted;
+	/** set if the guest loops without writing anything, until memory it reads changes **/
+	private boolean idle;
+	private boolean probing;
+	/** the cycles per iteration of the idle loop, the addresses it reads and their values **/
+	private int idleCycles;
+	private final IntArray idleReads = new IntArray();
+	private final IntArray idleValues = new IntArray();
+	/** the head of the last loop that wasn't skipped and whose first instruction writes, not checked again **/
+	private int plainHead = -1;
+	/** set while a run method ticks, counted loops are only skipped up to the cycle count it ends at **/
+	private boolean running;
+	private int runEnd;
+	/** callbacks of devices at cycle counts, see {@link #schedule(int, TimingWheel.Callback)} **/
+	private final TimingWheel timers = new TimingWheel(0);
+	/** callbacks posted by other threads, guarded by the cpu, see {@link #post(TimingWheel.Callback)} **/
+	private final List<TimingWheel.Callback> posted = new ArrayList<TimingWheel.Callback>();
+	private volatile boolean hasPosted;
+	/** memory read or written by devices as start, length pairs, see {@link #mapDevice(int, int)} **/
+	private final IntArray devices = new IntArray();
+	/** the instructions of a counted loop and per register whether the loop sets it, to what or what it adds per iteration **/
+	private final IntArray countedStarts = new IntArray();
+	private final boolean[] countedWritten = new boolean[8];
+	private final boolean[] countedSet = new boolean[8];
+	private final int[] countedValues = new int[8];
+	/** the memory a counted loop writes as start, length, value triples and the addresses it reads **/
+	private final IntArray countedWrites = new IntArray();
+	private final IntArray countedReads = new IntArray();
 	
 	public Cpu(short[] mem) {
 		if(mem.length > RAM_SIZE) throw new RuntimeException("mem length must be < " + RAM_SIZE);
@@ -202,7 +248,7 @@ public class Cpu {
 			return;
 		case 0x1a:
 			storageLocation.isReg = false;
-			storageLocation.address = reg[Register.SP.index];
+			storageLocation.address = --reg[Register.SP.index];
 			return;
 		case 0x1b:
 			storageLocation.isReg = true;
@@ -229,23 +275,403 @@ public class Cpu {
 		}		
 	}
 	
+	/**
+	 * Runs until the cpu halts. While the guest is idle and no timer is scheduled the calling
+	 * thread waits for a {@link #setMemValue(int, int)} changing the memory the guest's loop
+	 * reads or a {@link #post(TimingWheel.Callback)}, the cycle counter is not advanced while
+	 * waiting.
+	 */
 	public void runUntilHalted() {
-		while(!halted) tick();
+		running = true;
+		try {
+			while(!halted) runTo(cycles + Integer.MAX_VALUE, true);
+		} finally {
+			running = false;
+		}
+	}
+	
+	/**
+	 * Runs until at least the given number of cycles passed or the cpu halted. An idle
+	 * guest is fast forwarded by the whole iterations of its loop that take at least the
+	 * remaining cycles, so the counter is the same as if the loop had been executed.
+	 * Counted loops are skipped the same way, see {@link #mapDevice(int, int)}.
+	 * @return the number of cycles run
+	 */
+	public int run(int cycles) {
+		int start = this.cycles;
+		int end = start + cycles;
+		running = true;
+		try {
+			runTo(end, false);
+		} finally {
+			running = false;
+		}
+		return this.cycles - start;
+	}
+	
+	/**
+	 * Runs until the cycle count reaches end or the cpu halts. Instructions are executed
+	 * without checking the timers up to the next timer, then the due timers fire.
+	 * @param wait whether to wait for input if the guest is idle and no timer is due before end
+	 */
+	private void runTo(int end, boolean wait) {
+		while(!halted && end - cycles > 0) {
+			if(hasPosted) firePosted();
+			int bound = end;
+			if(!timers.isEmpty() && timers.next() - end < 0) bound = timers.next();
+			runEnd = bound;
+			while(!idle && !halted && bound - cycles > 0) execute();
+			if(idle && bound - cycles > 0) {
+				if(isInputChanged()) {
+					idle = false;
+				} else if(wait && bound == end) {
+					waitForInput();
+				} else {
+					// bound - cycles is up to 2^31 - 1, rounding it up to whole iterations needs a long
+					long iterations = ((long)(bound - cycles) + idleCycles - 1) / idleCycles;
+					cycles += (int)(iterations * idleCycles);
+				}
+			}
+			if(!timers.isEmpty()) timers.advance(cycles);
+		}
+	}
+	
+	/**
+	 * Calls the callback once the given number of cycles passed, on the thread running the
+	 * cpu. It fires after the instruction reaching that cycle count, an idle guest is fast
+	 * forwarded to it. Devices use timers instead of checking the cycle count per instruction.
+	 * Must be called by the thread running the cpu, e.g. from a callback, or while it's stopped.
+	 */
+	public TimingWheel.Timer schedule(int delay, TimingWheel.Callback callback) {
+		if(delay < 0) throw new RuntimeException("Delay must be >= 0, got " + delay);
+		if(timers.isEmpty()) timers.advance(cycles);
+		return timers.schedule(cycles + delay, callback);
+	}
+	
+	public void cancel(TimingWheel.Timer timer) {
+		timers.cancel(timer);
+	}
+	
+	/**
+	 * Calls the callback on the thread running the cpu, may be called from any thread. It fires
+	 * before the run methods check the timers the next time or right after a guest waiting in
+	 * {@link #runUntilHalted()} is woken up by it. Devices post callbacks to pass input to an
+	 * idle guest, as the cpu thread only waits while no timer is scheduled.
+	 */
+	public synchronized void post(TimingWheel.Callback callback) {
+		posted.add(callback);
+		hasPosted = true;
+		notifyAll();
+	}
+	
+	private void firePosted() {
+		TimingWheel.Callback[] callbacks;
+		synchronized(this) {
+			callbacks = posted.toArray(new TimingWheel.Callback[posted.size()]);
+			posted.clear();
+			hasPosted = false;
+		}
+		for(TimingWheel.Callback callback: callbacks) callback.fire(cycles);
+	}
+	
+	/**
+	 * Marks memory a device reads or writes besides the guest. The run methods skip loops
+	 * that count a register down to zero with SUB r, 1 / IFN r, 0 / SET PC, loop by computing
+	 * the registers, memory and cycles after them, unless they read or write device memory.
+	 */
+	public void mapDevice(int start, int length) {
+		if(length < 0 || length > RAM_SIZE) throw new RuntimeException("Invalid device memory length " + length);
+		devices.add(start & 0xffff);
+		devices.add(length);
+	}
+	
+	private synchronized void waitForInput() {
+		try {
+			while(!isInputChanged() && !hasPosted) wait();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		// the posted callbacks fire next and may change the memory
+		if(isInputChanged()) idle = false;
+	}
+	
+	private boolean isInputChanged() {
+		for(int i = 0; i < idleReads.size(); i++) {
+			if(mem[idleReads.get(i)] != idleValues.get(i)) return true;
+		}
+		return false;
+	}
+	
+	/** called after a jump backwards from the instruction at the address **/
+	private void loop(int jump) {
+		// single steps execute one instruction and let the timers fire after it
+		if(!running) return;
+		int head = reg[Register.PC.index] & 0xffff;
+		if(head == plainHead) return;
+		// the run ends at the jump, the next one checks the loop again
+		if(runEnd - cycles <= 0) return;
+		if(accelerate(head, jump)) return;
+		if(!detectIdle()) plainHead = head;
+	}
+	
+	/**
+	 * Called after a jump backwards. Executes the loop from its head as long as its
+	 * instructions only test and jump. If that arrives at the head again, nothing was
+	 * written, so the guest repeats the same iteration until memory it reads changes.
+	 * @return false if the first instruction of the loop writes
+	 */
+	private boolean detectIdle() {
+		int head = reg[Register.PC.index] & 0xffff;
+		probing = true;
+		idleReads.clear();
+		int start = cycles;
+		boolean pure = true;
+		for(int i = 0; i < MAX_IDLE_INSTRUCTIONS; i++) {
+			if(!isPure(reg[Register.PC.index] & 0xffff)) {
+				pure = i > 0;
+				break;
+			}
+			execute();
+			if((reg[Register.PC.index] & 0xffff) == head) {
+				idle = true;
+				idleCycles = cycles - start;
+				idleValues.clear();
+				for(int j = 0; j < idleReads.size(); j++) idleValues.add(mem[idleReads.get(j)]);
+				break;
+			}
+		}
+		probing = false;
+		return pure;
+	}
+	
+	/**
+	 * Skips the remaining iterations of a loop ending with SUB r, 1 / IFN r, 0 / SET PC, head
+	 * whose other instructions SET, ADD or SUB registers other than r or SET memory at a
+	 * constant address or indexed by r. The values they use must not change during the loop,
+	 * so they are literals, registers it doesn't write or memory it doesn't write. If a run
+	 * method ends before the loop, only the iterations up to its end are skipped.
+	 * @return false if the loop has another form or touches device memory or its own code
+	 */
+	private boolean accelerate(int head, int jump) {
+		// decode the instructions up to the jump
+		IntArray starts = countedStarts;
+		starts.clear();
+		int pc = head;
+		while(pc < jump) {
+			if(starts.size() == MAX_COUNTED_INSTRUCTIONS) return false;
+			starts.add(pc);
+			pc += length(mem[pc]);
+		}
+		if(pc != jump || starts.size() < 2) return false;
+		int sub = mem[starts.get(starts.size() - 2)];
+		int ifn = mem[starts.get(starts.size() - 1)];
+		int r = (sub & 0x3f0) >>> 4;
+		if((sub & 0xf) != Opcode.SUB.code || r > 0x7 || (sub & 0xfc00) >>> 10 != 0x21) return false;
+		if((ifn & 0xf) != Opcode.IFN.code || (ifn & 0x3f0) >>> 4 != r || (ifn & 0xfc00) >>> 10 != 0x20) return false;
+		if((mem[jump] & 0xfc00) >>> 10 < 0x1f) return false;
+		
+		// the registers written decide which values don't change
+		int body = starts.size() - 2;
+		for(int i = 0; i < 8; i++) {
+			countedWritten[i] = i == r;
+			countedSet[i] = false;
+			countedValues[i] = 0;
+		}
+		for(int i = 0; i < body; i++) {
+			int v = mem[starts.get(i)];
+			int opcode = v & 0xf;
+			int a = (v & 0x3f0) >>> 4;
+			if(opcode != Opcode.SET.code && opcode != Opcode.ADD.code && opcode != Opcode.SUB.code) return false;
+			if(a < 0x8 && a != r) countedWritten[a] = true;
+			else if(opcode != Opcode.SET.code || (a != 0x8 + r && a != 0x10 + r && a != 0x1e)) return false;
+		}
+		
+		int counter = reg[r] & 0xffff;
+		int total = counter == 0? RAM_SIZE: counter;
+		int iterations = total;
+		int cyclesPerIteration = 0;
+		for(int i = 0; i <= body + 1; i++) cyclesPerIteration += cycles(mem[starts.get(i)]);
+		cyclesPerIteration += cycles(mem[jump]);
+		int last = Opcode.SET.cycles + 1 - cycles(mem[jump]);
+		int remaining = runEnd - cycles;
+		if(remaining < total * cyclesPerIteration + last) {
+			iterations = Math.min(total, (remaining + cyclesPerIteration - 1) / cyclesPerIteration);
+		}
+		
+		// the effect of the body per register and on memory
+		countedWrites.clear();
+		countedReads.clear();
+		for(int i = 0; i < body; i++) {
+			int start = starts.get(i);
+			int v = mem[start];
+			int opcode = v & 0xf;
+			int a = (v & 0x3f0) >>> 4;
+			int b = (v & 0xfc00) >>> 10;
+			int next = (start + 1) & 0xffff;
+			int value = invariant(b, hasNextWord(a)? (next + 1) & 0xffff: next);
+			if(value == -1) return false;
+			if(a < 0x8) {
+				if(opcode == Opcode.SET.code) {
+					countedSet[a] = true;
+					countedValues[a] = value;
+				} else {
+					countedValues[a] += opcode == Opcode.ADD.code? value: -value;
+				}
+			} else if(a == 0x1e) {
+				countedWrites.add(mem[next] & 0xffff);
+				countedWrites.add(1);
+				countedWrites.add(value);
+			} else {
+				int base = a == 0x8 + r? 0: mem[next];
+				// r counts down from counter, the first address written is the lowest
+				countedWrites.add((base + counter - iterations + 1) & 0xffff);
+				countedWrites.add(iterations);
+				countedWrites.add(value);
+			}
+		}
+		
+		// the writes must not overlap each other, the code, reads or devices
+		for(int i = 0; i < countedWrites.size(); i += 3) {
+			int start = countedWrites.get(i);
+			int length = countedWrites.get(i + 1);
+			if(overlaps(start, length, head, jump + length(mem[jump]) - head)) return false;
+			for(int j = i + 3; j < countedWrites.size(); j += 3) {
+				if(overlaps(start, length, countedWrites.get(j), countedWrites.get(j + 1))) return false;
+			}
+			for(int j = 0; j < countedReads.size(); j++) {
+				if(overlaps(start, length, countedReads.get(j), 1)) return false;
+			}
+			if(isDevice(start, length)) return false;
+		}
+		for(int j = 0; j < countedReads.size(); j++) {
+			if(isDevice(countedReads.get(j), 1)) return false;
+		}
+		
+		for(int i = 0; i < 8; i++) {
+			if(countedSet[i]) reg[i] = (short)countedValues[i];
+			else reg[i] += iterations * countedValues[i];
+		}
+		for(int i = 0; i < countedWrites.size(); i += 3) {
+			int start = countedWrites.get(i);
+			int length = countedWrites.get(i + 1);
+			short value = (short)countedWrites.get(i + 2);
+			int end = Math.min(start + length, RAM_SIZE);
+			Arrays.fill(mem, start, end, value);
+			Arrays.fill(mem, 0, start + length - end, value);
+		}
+		// the last SUB r, 1 sets O
+		int before = (short)(counter - iterations + 1);
+		reg[Register.O.index] = (short)((before - 1) >>> 16);
+		reg[r] = (short)(counter - iterations);
+		cycles += iterations * cyclesPerIteration;
+		if(iterations == total) {
+			cycles += last;
+			reg[Register.PC.index] = (short)(jump + length(mem[jump]));
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the value of an operand that is the same in every iteration of a counted
+	 * loop, records the memory address it reads, or -1 if it may change
+	 */
+	private int invariant(int operand, int next) {
+		int address;
+		if(operand >= 0x20) return operand - 0x20;
+		if(operand == 0x1f) return mem[next] & 0xffff;
+		if(operand < 0x8) return countedWritten[operand]? -1: reg[operand] & 0xffff;
+		if(operand < 0x10 && !countedWritten[operand - 0x8]) address = reg[operand - 0x8] & 0xffff;
+		else if(operand >= 0x10 && operand <= 0x17 && !countedWritten[operand - 0x10]) address = (mem[next] + reg[operand - 0x10]) & 0xffff;
+		else if(operand == 0x1e) address = mem[next] & 0xffff;
+		else return -1;
+		countedReads.add(address);
+		return mem[address] & 0xffff;
+	}
+	
+	/** @return whether the memory ranges overlap, they may wrap around the end of memory **/
+	private static boolean overlaps(int start, int length, int start2, int length2) {
+		return ((start2 - start) & 0xffff) < length || ((start - start2) & 0xffff) < length2;
+	}
+	
+	private boolean isDevice(int start, int length) {
+		for(int i = 0; i < devices.size(); i += 2) {
+			if(overlaps(start, length, devices.get(i), devices.get(i + 1))) return true;
+		}
+		return false;
+	}
+	
+	/** @return the number of words of the instruction **/
+	private static int length(int v) {
+		return LENGTHS[v & 0xffff];
+	}
+	
+	/** @return the cycles the instruction takes if it's not skipped **/
+	private static int cycles(int v) {
+		return OPCODES[v & 0xf].cycles + length(v) - 1;
+	}
+	
+	/**
+	 * @return whether the instruction at the address writes nothing but PC, records the
+	 * addresses it reads including its own words
+	 */
+	private boolean isPure(int pc) {
+		int v = mem[pc];
+		int opcode = v & 0xf;
+		int a = (v & 0x3f0) >>> 4;
+		int b = (v & 0xfc00) >>> 10;
+		int next = (pc + 1) & 0xffff;
+		idleReads.add(pc);
+		if(opcode >= Opcode.IFE.code) {
+			if(!isPure(a, next)) return false;
+			if(hasNextWord(a)) next = (next + 1) & 0xffff;
+			if(!isPure(b, next)) return false;
+			// the branch reads the instruction after it to skip or jump
+			next = (pc + length(v)) & 0xffff;
+			for(int i = 0; i < length(mem[next]); i++) idleReads.add((next + i) & 0xffff);
+			return true;
+		}
+		if(opcode == Opcode.SET.code && a == 0x1c) return isPure(b, next);
+		return false;
+	}
+	
+	/** @return whether reading the operand has no side effect, records the addresses it reads **/
+	private boolean isPure(int operand, int next) {
+		if(operand >= 0x8 && operand <= 0xf) {
+			idleReads.add(reg[operand - 0x8] & 0xffff);
+		} else if(operand >= 0x10 && operand <= 0x17) {
+			idleReads.add(next);
+			idleReads.add((mem[next] + reg[operand - 0x10]) & 0xffff);
+		} else if(operand == 0x19) {
+			idleReads.add(reg[Register.SP.index] & 0xffff);
+		} else if(operand == 0x1e) {
+			idleReads.add(next);
+			idleReads.add(mem[next] & 0xffff);
+		} else if(operand == 0x1f) {
+			idleReads.add(next);
+		}
+		return operand != 0x18 && operand != 0x1a;
+	}
+	
+	private static boolean hasNextWord(int operand) {
+		return (operand >= 0x10 && operand <= 0x17) || operand == 0x1e || operand == 0x1f;
 	}
 	
+	/** executes an instruction and fires the posted callbacks and the timers due after it **/
 	public void tick() {
+		execute();
+		if(hasPosted) firePosted();
+		if(!timers.isEmpty() && timers.next() - cycles <= 0) timers.advance(cycles);
+	}
+	
+	private void execute() {
+		int pc = reg[Register.PC.index] & 0xffff;
 		int v = mem[reg[Register.PC.index]++ & 0xffff];
 		Opcode opcode = OPCODES[v & 0xf];
 		int a = (v & 0x3f0) >>> 4;
 		int b = (v & 0xfc00) >>> 10;
 		
 		cycles += opcode.cycles;
-		if(skipNext) {
-			cycles++;
-			if((b >= 0x10 && b <= 0x17) || b == 0x1e || b == 0x1f) reg[Register.PC.index]++;
-			skipNext = false;
-			return;
-		}
 		
 		switch(opcode) {
 		case EXTENDED:
@@ -260,6 +686,8 @@ public class Cpu {
 		case SET:
 			store(a);
 			storageLocation.set(load(b));
+			// jumps backwards may be counted or idle loops
+			if(a == 0x1c && !probing && (reg[Register.PC.index] & 0xffff) <= pc) loop(pc);
 			break;
 		case ADD:
 			store(a);
@@ -320,22 +748,46 @@ public class Cpu {
 			storageLocation.set(val);
 			break;
 		case IFE:
-			if(!(load(a) == load(b))) skipNext = true;
+			branch(load(a) == load(b));
 			break;
 		case IFN:
-			if(!(load(a) != load(b))) skipNext = true;
+			branch(load(a) != load(b));
 			break;
 		case IFG:
-			if(!(load(a) > load(b))) skipNext = true;
+			branch(load(a) > load(b));
 			break;
 		case IFB:
-			if((load(a) & load(b)) != 0) skipNext = true;
+			branch((load(a) & load(b)) != 0);
 			break;
 		default:
 			throw new RuntimeException("Unkown opcode 0x" + Integer.toHexString(v & 0xf));
 		}
 	}
 	
+	/**
+	 * Handles the instruction after an IFx in the same tick. A skipped instruction costs its
+	 * opcode's cycles plus one and is stepped over by its precomputed length, a SET PC to a
+	 * literal is executed right away. Other instructions run in the next tick.
+	 */
+	private void branch(boolean condition) {
+		int next = reg[Register.PC.index] & 0xffff;
+		int v = mem[next];
+		if(!condition) {
+			cycles += OPCODES[v & 0xf].cycles + 1;
+			reg[Register.PC.index] += LENGTHS[v & 0xffff];
+		} else if((v & 0x3ff) == JUMP && (v & 0xfc00) >>> 10 >= 0x1f) {
+			int b = (v & 0xfc00) >>> 10;
+			cycles += Opcode.SET.cycles;
+			if(b == 0x1f) {
+				cycles++;
+				reg[Register.PC.index] = mem[(next + 1) & 0xffff];
+			} else {
+				reg[Register.PC.index] = (short)(b - 0x20);
+			}
+			if(!probing && (reg[Register.PC.index] & 0xffff) <= next) loop(next);
+		}
+	}
+	
 	public int getRegValue(Register register) {
 		return reg[register.index];
 	}
@@ -343,6 +795,24 @@ public class Cpu {
 	public int getMemValue(int address) {
 		return mem[address & 0xffff];
 	}
+	
+	/**
+	 * Writes to memory, wakes the guest if it is idle and reads the address. Writes from
+	 * other threads are only guaranteed to be seen by an idle guest.
+	 */
+	public synchronized void setMemValue(int address, int value) {
+		mem[address & 0xffff] = (short)value;
+		if(idle) notifyAll();
+	}
+	
+	/** @return whether the guest loops until memory it reads changes, see {@link #run(int)} **/
+	public boolean isIdle() {
+		return idle;
+	}
+	
+	public boolean isHalted() {
+		return halted;
+	}
 
 	public int getCycles() {
 		return cycles;
@@ -351,8 +821,4 @@ public class Cpu {
 	public short[] getMemory() {	
 		return mem;
 	}
-
-	public boolean isNextSkipped() {
-		return skipNext;
-	}
 }
\ No newline at end of file
@@ -49,7 +49,6 @@ public class Debugger {
 	
 	public void step() {
 		cpu.tick();
-		if(cpu.isNextSkipped()) cpu.tick();
 	}
 	
 	private int parseInt(String value) {
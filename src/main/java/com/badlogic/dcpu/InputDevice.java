@@ -0,0 +1,145 @@
+package com.badlogic.dcpu;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes input words like key codes or packet data from a host thread to a guest. The host
+ * thread calls {@link #offer(int)}, which puts the word into a single producer, single
+ * consumer queue without locks or waiting. Every few cycles a timer on the thread running
+ * the cpu moves the queued words to a ring buffer in guest memory, so guest memory is only
+ * written by that thread. Once the queue is empty and the guest is idle the timer stops, so
+ * {@link Cpu#runUntilHalted()} can wait instead of fast forwarding the guest to it. The next
+ * offer then posts a callback to the cpu, see {@link Cpu#post(TimingWheel.Callback)}, which
+ * wakes it, moves the word and restarts the timer. The ring starts at the device's address:
+ *
+ * <pre>
+ * address         index of the next word the device writes, set by the device
+ * address + 1     index of the next word the guest reads, set by the guest
+ * address + 2     capacity words of data
+ * </pre>
+ *
+ * The ring is empty if both indices are equal, the guest reads the word at the read index
+ * and advances it modulo the capacity. One word of the ring stays free to tell a full ring
+ * from an empty one, words that don't fit stay queued. The guest only reads and writes its
+ * own memory, a loop polling the indices is idle until the device writes.
+ */
+public class InputDevice {
+	public static final int DEFAULT_PERIOD = 100;
+
+	final Cpu cpu;
+	final int address;
+	final int capacity;
+	final int[] queue;
+	final int mask;
+	/** the words taken by the cpu thread and offered by the host thread **/
+	final AtomicLong head = new AtomicLong();
+	final AtomicLong tail = new AtomicLong();
+	/** the head last seen by the host thread, so it reads the shared counter only if the queue looks full **/
+	long headCache;
+	final int period;
+	long delivered;
+	/** set by the cpu thread when it stops the timer, the host thread then posts a wake up **/
+	volatile boolean sleeping;
+	final TimingWheel.Callback poll = new TimingWheel.Callback() {
+		public void fire (int cycle) {
+			drain();
+			if(cpu.isIdle() && head.get() == tail.get()) {
+				sleeping = true;
+				// a word offered while the flag wasn't visible yet is moved by the timer
+				if(head.get() == tail.get()) return;
+				sleeping = false;
+			}
+			cpu.schedule(period, this);
+		}
+	};
+	final TimingWheel.Callback wake = new TimingWheel.Callback() {
+		public void fire (int cycle) {
+			// several offers may post a wake up before the first one fires
+			if(!sleeping) return;
+			sleeping = false;
+			drain();
+			cpu.schedule(period, poll);
+		}
+	};
+
+	/**
+	 * Maps the ring into the memory of the cpu and starts polling the queue, must be called
+	 * by the thread running the cpu or while it's stopped.
+	 * @param capacity the words of the ring in guest memory
+	 * @param queueCapacity the words the host thread can queue, a power of two
+	 * @param period the cycles between moving queued words to the ring
+	 */
+	public InputDevice (Cpu cpu, int address, int capacity, int queueCapacity, int period) {
+		if(capacity < 2 || capacity > Cpu.RAM_SIZE - 2) throw new RuntimeException("Invalid ring capacity " + capacity);
+		if(queueCapacity <= 0 || (queueCapacity & (queueCapacity - 1)) != 0) throw new RuntimeException("Queue capacity must be a power of two, got " + queueCapacity);
+		if(period <= 0) throw new RuntimeException("Period must be > 0");
+		this.cpu = cpu;
+		this.address = address & 0xffff;
+		this.capacity = capacity;
+		this.queue = new int[queueCapacity];
+		this.mask = queueCapacity - 1;
+		this.period = period;
+		short[] mem = cpu.getMemory();
+		mem[this.address] = 0;
+		mem[(this.address + 1) & 0xffff] = 0;
+		cpu.mapDevice(this.address, capacity + 2);
+		cpu.schedule(period, poll);
+	}
+
+	public InputDevice (Cpu cpu, int address, int capacity) {
+		this(cpu, address, capacity, 1024, DEFAULT_PERIOD);
+	}
+
+	/**
+	 * Queues a word for the guest, only one thread may call this.
+	 * @return false if the queue is full
+	 */
+	public boolean offer (int value) {
+		long tail = this.tail.get();
+		if(tail - headCache >= queue.length) {
+			headCache = head.get();
+			if(tail - headCache >= queue.length) return false;
+		}
+		queue[(int)tail & mask] = value;
+		// the word is written before the new tail is published, the tail is published before
+		// the flag is read, so the cpu thread either sees the word or the wake up
+		this.tail.set(tail + 1);
+		if(sleeping) cpu.post(wake);
+		return true;
+	}
+
+	/** moves the queued words to the ring until it's full, called on the thread running the cpu **/
+	void drain () {
+		long head = this.head.get();
+		long tail = this.tail.get();
+		if(head == tail) return;
+		short[] mem = cpu.getMemory();
+		int write = mem[address] & 0xffff;
+		int read = mem[(address + 1) & 0xffff] & 0xffff;
+		if(write >= capacity) write = 0;
+		while(head != tail) {
+			int next = write + 1 == capacity? 0: write + 1;
+			if(next == read) break;
+			mem[(address + 2 + write) & 0xffff] = (short)queue[(int)head & mask];
+			write = next;
+			head++;
+			delivered++;
+		}
+		mem[address] = (short)write;
+		// the slots are read before the host thread may reuse them
+		this.head.lazySet(head);
+	}
+
+	/** @return the words moved to the guest's ring so far **/
+	public long getDelivered () {
+		return delivered;
+	}
+
+	public int getAddress () {
+		return address;
+	}
+
+	public int getCapacity () {
+		return capacity;
+	}
+}
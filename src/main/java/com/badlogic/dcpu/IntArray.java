@@ -6,9 +6,9 @@ public class IntArray {
 	
 	private void ensureCapacity(int numElements) {
 		int required = size + numElements;
-		if(required < elements.length) return;
-		int[] tmp = new int[required];
-		System.arraycopy(elements, 0, tmp, 0, required);
+		if(required <= elements.length) return;
+		int[] tmp = new int[Math.max(required, elements.length * 2)];
+		System.arraycopy(elements, 0, tmp, 0, size);
 		elements = tmp;
 	}
 	
@@ -25,6 +25,15 @@ public class IntArray {
 		elements[index] = value;
 	}
 	
+	/** removes and returns the last element **/
+	public int pop() {
+		return elements[--size];
+	}
+	
+	public void clear() {
+		size = 0;
+	}
+	
 	public int size() {
 		return size;
 	}
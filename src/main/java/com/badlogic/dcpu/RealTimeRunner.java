@@ -0,0 +1,185 @@
+package com.badlogic.dcpu;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+
+/**
+ * Runs {@link Cpu}s at a fixed clock rate on the calling thread. Every period the cycles due
+ * since a guest was added are computed from {@link System#nanoTime()} and each guest runs
+ * until it caught up via {@link Cpu#run(int)}, then the thread parks until the next period.
+ * As the due cycles are derived from the clock and not summed per period, late wake ups and
+ * cycles run past the due count are corrected in the next batch instead of adding up. The
+ * period trades timer accuracy for host load: longer periods mean fewer wake ups and larger
+ * batches. A guest that falls behind by more than a second, e.g. as the host is overloaded,
+ * drops the cycles it can't catch up on.
+ */
+public class RealTimeRunner {
+	/** the clock rate of the dcpu-16 **/
+	public static final int DEFAULT_HZ = 100000;
+	public static final long DEFAULT_PERIOD = 10000000;
+
+	static class Guest {
+		final Cpu cpu;
+		/** the due cycle count when the guest was added plus the cycles dropped **/
+		long base;
+		long cycles;
+
+		Guest (Cpu cpu) {
+			this.cpu = cpu;
+		}
+	}
+
+	final int hz;
+	final long period;
+	final List<Guest> guests = new ArrayList<Guest>();
+	long start = -1;
+	volatile boolean stopped;
+	long batches;
+	long droppedCycles;
+	long lateNanos;
+	long maxLateNanos;
+
+	public RealTimeRunner () {
+		this(DEFAULT_HZ, DEFAULT_PERIOD);
+	}
+
+	/**
+	 * @param hz the cycles per second each guest runs
+	 * @param period the nanoseconds between batches
+	 */
+	public RealTimeRunner (int hz, long period) {
+		if(hz <= 0 || period <= 0) throw new RuntimeException("Clock rate and period must be > 0");
+		this.hz = hz;
+		this.period = period;
+	}
+
+	/** adds a guest, it runs from the next batch on **/
+	public void add (Cpu cpu) {
+		Guest guest = new Guest(cpu);
+		if(start != -1) guest.base = due(System.nanoTime());
+		guests.add(guest);
+	}
+
+	/** @return the cycles due since the first run, whole seconds are scaled apart so the product fits a long after days **/
+	long due (long now) {
+		long elapsed = now - start;
+		return elapsed / 1000000000L * hz + elapsed % 1000000000L * hz / 1000000000L;
+	}
+
+	/** runs the guests until the time passed, all guests halted or {@link #stop()} was called **/
+	public void run (long nanos) {
+		stopped = false;
+		long now = System.nanoTime();
+		if(start == -1) start = now;
+		long end = now + nanos;
+		long next = now;
+		while(!stopped && end - now > 0) {
+			long due = due(now);
+			boolean running = false;
+			for(int i = 0; i < guests.size(); i++) {
+				Guest guest = guests.get(i);
+				if(guest.cpu.isHalted()) continue;
+				running = true;
+				long behind = due - guest.base - guest.cycles;
+				if(behind > hz) {
+					guest.base += behind - hz;
+					droppedCycles += behind - hz;
+					behind = hz;
+				}
+				if(behind > 0) guest.cycles += guest.cpu.run((int)behind);
+			}
+			batches++;
+			if(!running) return;
+
+			next += period;
+			now = System.nanoTime();
+			if(next - now > 0) {
+				LockSupport.parkNanos(Math.min(next, end) - now);
+				now = System.nanoTime();
+				// parkNanos wakes up late by the timer slack of the host
+				long late = now - Math.min(next, end);
+				if(late > 0) {
+					lateNanos += late;
+					maxLateNanos = Math.max(maxLateNanos, late);
+				}
+			} else {
+				// the batch took longer than a period, start the next one right away
+				next = now;
+			}
+		}
+	}
+
+	/** makes {@link #run(long)} return after the current batch, may be called from any thread **/
+	public void stop () {
+		stopped = true;
+	}
+
+	/** @return the cycles the guest is behind the clock, negative if it ran ahead by the last instruction **/
+	public long getDrift (Cpu cpu) {
+		for(Guest guest: guests) {
+			if(guest.cpu == cpu) return due(System.nanoTime()) - guest.base - guest.cycles;
+		}
+		throw new RuntimeException("Unknown cpu");
+	}
+
+	public long getBatches () {
+		return batches;
+	}
+
+	/** @return the cycles dropped by guests that fell behind by more than a second **/
+	public long getDroppedCycles () {
+		return droppedCycles;
+	}
+
+	/** @return the total and the largest time the thread woke up after the end of a period **/
+	public long getLateNanos () {
+		return lateNanos;
+	}
+
+	public long getMaxLateNanos () {
+		return maxLateNanos;
+	}
+
+	/**
+	 * Runs a number of idle and busy guests (1000 by default) at 100kHz for 5 seconds and
+	 * prints the host cpu time used and the drift of the guests.
+	 */
+	public static void main (String[] args) {
+		int count = args.length > 0? Integer.parseInt(args[0]): 1000;
+		Assembler busy = new Assembler();
+		busy.markLabel("loop");
+		busy.op(Opcode.ADD, Arg.reg(Register.A), Arg.lit(1));
+		busy.op(Opcode.SET, Arg.mem(0x8000), Arg.reg(Register.A));
+		busy.op(Opcode.SET, Arg.pc(), busy.label("loop"));
+		Assembler idle = new Assembler();
+		idle.markLabel("wait");
+		idle.op(Opcode.IFE, Arg.mem(0x1000), Arg.lit(0));
+		idle.op(Opcode.SET, Arg.pc(), idle.label("wait"));
+
+		for(long period: new long[] { 1000000, DEFAULT_PERIOD, 50000000 }) {
+			RealTimeRunner runner = new RealTimeRunner(DEFAULT_HZ, period);
+			List<Cpu> cpus = new ArrayList<Cpu>();
+			for(int i = 0; i < count; i++) {
+				Cpu cpu = new Cpu(i % 10 == 0? busy.getDump(): idle.getDump());
+				cpus.add(cpu);
+				runner.add(cpu);
+			}
+			long cpuTime = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+			long start = System.nanoTime();
+			runner.run(5000000000L);
+			long wall = System.nanoTime() - start;
+			cpuTime = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - cpuTime;
+			long maxDrift = 0;
+			for(Cpu cpu: cpus) maxDrift = Math.max(maxDrift, Math.abs(runner.getDrift(cpu)));
+			System.out.println(String.format("%d guests, period %.1fms: host cpu %.1f%%, %d batches, max drift %d cycles, late wake ups %.3fms avg, %.3fms max, %d cycles dropped",
+				count, period / 1000000f, cpuTime * 100f / wall, runner.getBatches(), maxDrift,
+				runner.getLateNanos() / 1000000f / runner.getBatches(), runner.getMaxLateNanos() / 1000000f, runner.getDroppedCycles()));
+		}
+	}
+}
@@ -0,0 +1,658 @@
+package com.badlogic.dcpu;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Assembler.ExLabel;
+import com.badlogic.dcpu.Assembler.Label;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+
+/**
+ * Linear scan register allocator with an {@link Assembler} like front. Code generators emit
+ * instructions with virtual registers created by {@link #register()}, which can be used as
+ * register operands and as bases of memory operands via {@link #mem(Virtual, int)}. Physical
+ * registers can be used as well, e.g. for return values, they are treated as fixed intervals.</p>
+ *
+ * {@link #allocate()} computes the liveness of all registers on the control flow given by the
+ * instruction order, jumps to labels and IFx skips. Jumps to labels not marked here and returns
+ * leave the code. Moves between virtual registers whose live ranges don't overlap are coalesced,
+ * the most frequently executed first. Intervals are then assigned in the order of their start,
+ * a register is free for an interval if it isn't occupied at any of the positions the interval
+ * is live at, registers of move partners are tried first. If no register is free either the
+ * interval or the intervals it conflicts with in the cheapest register are spilled. The spill
+ * cost is the number of uses and definitions weighted by 10^loop depth, loops are found via
+ * backward jumps.</p>
+ *
+ * Spilled registers live in frame slots and are used as memory operands directly, as bases of
+ * memory operands they are reloaded into the scratch register. Registers used as bases in
+ * instructions that can be skipped are never spilled, as no reload can be placed in front of
+ * them.
+ */
+public class RegisterAllocator {
+	static final int PHYSICAL = 8;
+	static final int INFINITE = Integer.MAX_VALUE;
+
+	/** a virtual register, replaced by a physical register or a spill slot in {@link RegisterAllocator#allocate()} **/
+	public static class Virtual extends Arg {
+		final int id;
+
+		Virtual (int id) {
+			super(0);
+			this.id = id;
+		}
+	}
+
+	/** [virtual register + offset] **/
+	static class VirtualMem extends Arg {
+		final Virtual base;
+		final int offset;
+
+		VirtualMem (Virtual base, int offset) {
+			super(0);
+			this.base = base;
+			this.offset = offset;
+		}
+	}
+
+	/** a buffered instruction, a label if op is null and label is set, a data word otherwise **/
+	static class Instruction {
+		Opcode op;
+		Arg a;
+		Arg b;
+		String label;
+		short value;
+	}
+
+	final Assembler out;
+	final Register[] registers;
+	final List<Instruction> instructions = new ArrayList<Instruction>();
+	final Map<String, Integer> labels = new HashMap<String, Integer>();
+	Register scratch;
+	Register[] clobbered = new Register[0];
+	Register[] liveOut = new Register[0];
+	Register spillBase = Register.J;
+	int spillOffset = -1;
+	int virtuals;
+
+	int[] alias;
+	int[] location;
+	int slots;
+	final List<Register> used = new ArrayList<Register>();
+
+	/**
+	 * @param out the assembler the code is written to by {@link #allocate()}, labels are shared with it
+	 * @param registers the registers to allocate, in order of preference
+	 */
+	public RegisterAllocator (Assembler out, Register ... registers) {
+		this.out = out;
+		this.registers = registers;
+	}
+
+	/** sets the register spilled memory bases are loaded into, it must not be allocated or used by the code **/
+	public void setScratch (Register scratch) {
+		this.scratch = scratch;
+	}
+
+	/** sets the registers a subroutine called via JSR might overwrite **/
+	public void setClobbered (Register ... clobbered) {
+		this.clobbered = clobbered;
+	}
+
+	/** sets the registers that are read after the code returns or jumps out, e.g. the return value **/
+	public void setLiveOut (Register ... liveOut) {
+		this.liveOut = liveOut;
+	}
+
+	/** spill slot i is addressed as [base + offset - i], by default the slots are below J **/
+	public void setSpillArea (Register base, int offset) {
+		this.spillBase = base;
+		this.spillOffset = offset;
+	}
+
+	/** @return a new virtual register **/
+	public Virtual register () {
+		return new Virtual(PHYSICAL + virtuals++);
+	}
+
+	/** [virtual register] **/
+	public static Arg mem (Virtual base) {
+		return new VirtualMem(base, 0);
+	}
+
+	/** [next word + virtual register] **/
+	public static Arg mem (Virtual base, int offset) {
+		return new VirtualMem(base, offset);
+	}
+
+	public void op (Opcode op, Arg a, Arg b) {
+		if(op.code == 0) throw new RuntimeException("Use RegisterAllocator#eop() for extended Opcodes " + op);
+		Instruction instruction = new Instruction();
+		instruction.op = op;
+		instruction.a = a;
+		instruction.b = b;
+		instructions.add(instruction);
+	}
+
+	public void eop (Opcode eop, Arg a) {
+		if(eop.code != 0) throw new RuntimeException("Use RegisterAllocator#op() for non-extended Opcodes like " + eop);
+		Instruction instruction = new Instruction();
+		instruction.op = eop;
+		instruction.a = a;
+		instructions.add(instruction);
+	}
+
+	public void val (short val) {
+		Instruction instruction = new Instruction();
+		instruction.value = val;
+		instructions.add(instruction);
+	}
+
+	public void markLabel (String name) {
+		Instruction instruction = new Instruction();
+		instruction.label = name;
+		instructions.add(instruction);
+	}
+
+	public Label label (String name) {
+		return out.label(name);
+	}
+
+	public Arg label (String name, int offset) {
+		return out.label(name, offset);
+	}
+
+	public Arg labelMem (String name, int offset) {
+		return out.labelMem(name, offset);
+	}
+
+	/** @return the number of spill slots used, valid after {@link #allocate()} **/
+	public int getSpillSlots () {
+		return slots;
+	}
+
+	/** @return the physical registers assigned to virtual registers, valid after {@link #allocate()} **/
+	public List<Register> getUsedRegisters () {
+		return used;
+	}
+
+	// -------------------------------------------------------------------------
+	// analysis
+	// -------------------------------------------------------------------------
+
+	static boolean isIf (Opcode op) {
+		return op == Opcode.IFE || op == Opcode.IFN || op == Opcode.IFG || op == Opcode.IFB;
+	}
+
+	/** @return whether the instruction might be skipped by an IFx **/
+	boolean isConditional (int position) {
+		return position > 0 && isIf(instructions.get(position - 1).op);
+	}
+
+	/** @return the register or virtual register the argument denotes, -1 if it isn't one **/
+	static int node (Arg arg) {
+		if(arg instanceof Virtual) return ((Virtual)arg).id;
+		if(arg.getClass() == Arg.class && arg.bits < PHYSICAL) return arg.bits;
+		return -1;
+	}
+
+	/** @return the base register of a memory argument, -1 if it has none **/
+	static int base (Arg arg) {
+		if(arg instanceof VirtualMem) return ((VirtualMem)arg).base.id;
+		if(arg instanceof Virtual || arg instanceof Label) return -1;
+		if(arg.bits >= 0x8 && arg.bits < 0x18) return arg.bits & 0x7;
+		return -1;
+	}
+
+	void operands (Instruction instruction, BitSet uses, BitSet defs) {
+		if(instruction.op == null) return;
+		if(instruction.op.code == 0) {
+			use(instruction.a, uses);
+			for(Register register: clobbered) defs.set(register.index);
+			return;
+		}
+		use(instruction.b, uses);
+		int a = node(instruction.a);
+		if(a == -1) {
+			use(instruction.a, uses);
+		} else {
+			if(instruction.op != Opcode.SET) uses.set(a);
+			if(!isIf(instruction.op)) defs.set(a);
+		}
+	}
+
+	static void use (Arg arg, BitSet uses) {
+		int node = node(arg);
+		if(node == -1) node = base(arg);
+		if(node != -1) uses.set(node);
+	}
+
+	/** @return the name of the label a SET PC jumps to, null for other jumps **/
+	static String target (Arg arg) {
+		if(arg.bits != 0x1f) return null;
+		if(arg instanceof Label) return ((Label)arg).name;
+		if(arg instanceof ExLabel && ((ExLabel)arg).offset == 0) return ((ExLabel)arg).parent.name;
+		return null;
+	}
+
+	/** @return the successors of the instruction, the number of instructions stands for leaving the code **/
+	int[] successors (int position) {
+		Instruction instruction = instructions.get(position);
+		int n = instructions.size();
+		if(instruction.op == null && instruction.label == null) return new int[0];
+		if(instruction.op == Opcode.SET && instruction.a.getClass() == Arg.class && instruction.a.bits == 0x1c) {
+			String target = target(instruction.b);
+			Integer label = target != null? labels.get(target): null;
+			return new int[] { label != null? label: n };
+		}
+		if(instruction.op != null && isIf(instruction.op)) return new int[] { position + 1, Math.min(position + 2, n) };
+		return new int[] { position + 1 };
+	}
+
+	/**
+	 * A jump backwards to a header closes a loop, its body are the instructions reachable
+	 * from the header that reach the jump without passing the header.
+	 */
+	void loopDepths (int[][] successors, int[] depth) {
+		int n = instructions.size();
+		List<List<Integer>> predecessors = new ArrayList<List<Integer>>();
+		for(int p = 0; p <= n; p++) predecessors.add(new ArrayList<Integer>());
+		for(int p = 0; p < n; p++) {
+			for(int s: successors[p]) predecessors.get(s).add(p);
+		}
+		Map<Integer, BitSet> loops = new HashMap<Integer, BitSet>();
+		for(int p = 0; p < n; p++) {
+			for(int header: successors[p]) {
+				if(header > p) continue;
+				BitSet forward = new BitSet();
+				List<Integer> work = new ArrayList<Integer>();
+				work.add(header);
+				while(!work.isEmpty()) {
+					int q = work.remove(work.size() - 1);
+					if(q >= n || forward.get(q)) continue;
+					forward.set(q);
+					for(int s: successors[q]) work.add(s);
+				}
+				BitSet body = loops.get(header);
+				if(body == null) loops.put(header, body = new BitSet());
+				body.set(header);
+				work.add(p);
+				while(!work.isEmpty()) {
+					int q = work.remove(work.size() - 1);
+					if(body.get(q) || !forward.get(q)) continue;
+					body.set(q);
+					work.addAll(predecessors.get(q));
+				}
+			}
+		}
+		for(BitSet body: loops.values()) {
+			for(int q = body.nextSetBit(0); q >= 0; q = body.nextSetBit(q + 1)) depth[q]++;
+		}
+	}
+
+	static int weight (int depth) {
+		int weight = 1;
+		for(int i = 0; i < Math.min(depth, 4); i++) weight *= 10;
+		return weight;
+	}
+
+	static int add (int a, int b) {
+		return (int)Math.min(INFINITE, (long)a + b);
+	}
+
+	int find (int node) {
+		while(alias[node] != node) node = alias[node];
+		return node;
+	}
+
+	// -------------------------------------------------------------------------
+	// allocation
+	// -------------------------------------------------------------------------
+
+	/** allocates the registers and writes the code to the target assembler **/
+	public void allocate () {
+		final int n = instructions.size();
+		int nodes = PHYSICAL + virtuals;
+		for(int p = 0; p < n; p++) {
+			if(instructions.get(p).label != null) labels.put(instructions.get(p).label, p);
+		}
+
+		int[][] successors = new int[n][];
+		BitSet[] uses = new BitSet[n];
+		BitSet[] defs = new BitSet[n];
+		final int[] depth = new int[n];
+		for(int p = 0; p < n; p++) {
+			uses[p] = new BitSet();
+			defs[p] = new BitSet();
+			operands(instructions.get(p), uses[p], defs[p]);
+			successors[p] = successors(p);
+		}
+		loopDepths(successors, depth);
+
+		// liveness, position n is the exit
+		BitSet[] liveIn = new BitSet[n + 1];
+		BitSet[] liveOut = new BitSet[n];
+		for(int p = 0; p < n; p++) liveIn[p] = new BitSet();
+		liveIn[n] = new BitSet();
+		for(Register register: this.liveOut) liveIn[n].set(register.index);
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(int p = n - 1; p >= 0; p--) {
+				BitSet live = new BitSet();
+				for(int s: successors[p]) live.or(liveIn[s]);
+				liveOut[p] = (BitSet)live.clone();
+				live.andNot(defs[p]);
+				live.or(uses[p]);
+				if(!live.equals(liveIn[p])) {
+					liveIn[p] = live;
+					changed = true;
+				}
+			}
+		}
+
+		// a register is occupied at 2p if it is read by or live into instruction p, at 2p + 1 if it is written or live out
+		BitSet[] occupied = new BitSet[nodes];
+		int[] cost = new int[nodes];
+		for(int i = 0; i < nodes; i++) occupied[i] = new BitSet();
+		for(int p = 0; p < n; p++) {
+			for(int i = liveIn[p].nextSetBit(0); i >= 0; i = liveIn[p].nextSetBit(i + 1)) occupied[i].set(2 * p);
+			for(int i = liveOut[p].nextSetBit(0); i >= 0; i = liveOut[p].nextSetBit(i + 1)) occupied[i].set(2 * p + 1);
+			for(int i = defs[p].nextSetBit(0); i >= 0; i = defs[p].nextSetBit(i + 1)) {
+				occupied[i].set(2 * p + 1);
+				cost[i] = add(cost[i], weight(depth[p]));
+			}
+			for(int i = uses[p].nextSetBit(0); i >= 0; i = uses[p].nextSetBit(i + 1)) cost[i] = add(cost[i], weight(depth[p]));
+		}
+
+		// only one spilled base can be reloaded per instruction and none in front of a skipped one
+		for(int p = 0; p < n; p++) {
+			Instruction instruction = instructions.get(p);
+			if(instruction.op == null) continue;
+			int a = instruction.a instanceof VirtualMem? base(instruction.a): -1;
+			int b = instruction.b instanceof VirtualMem? base(instruction.b): -1;
+			if(isConditional(p)) {
+				if(a != -1) cost[a] = INFINITE;
+				if(b != -1) cost[b] = INFINITE;
+			} else if(a != -1 && b != -1 && a != b) {
+				cost[b] = INFINITE;
+			}
+		}
+
+		// coalescing, moves in loops first
+		alias = new int[nodes];
+		for(int i = 0; i < nodes; i++) alias[i] = i;
+		List<Integer> moves = new ArrayList<Integer>();
+		for(int p = 0; p < n; p++) {
+			Instruction instruction = instructions.get(p);
+			if(instruction.op == Opcode.SET && node(instruction.a) != -1 && node(instruction.b) != -1) moves.add(p);
+		}
+		Collections.sort(moves, new Comparator<Integer>() {
+			public int compare (Integer a, Integer b) {
+				return depth[b] - depth[a];
+			}
+		});
+		List<List<Integer>> hints = new ArrayList<List<Integer>>();
+		for(int i = 0; i < nodes; i++) hints.add(new ArrayList<Integer>());
+		for(int p: moves) {
+			int a = find(node(instructions.get(p).a));
+			int b = find(node(instructions.get(p).b));
+			if(a == b) continue;
+			if(a >= PHYSICAL && b >= PHYSICAL && !occupied[a].intersects(occupied[b])) {
+				alias[b] = a;
+				occupied[a].or(occupied[b]);
+				cost[a] = add(cost[a], cost[b]);
+				hints.get(a).addAll(hints.get(b));
+			} else {
+				hints.get(a).add(b);
+				hints.get(b).add(a);
+			}
+		}
+
+		// linear scan over the intervals in the order of their start
+		List<Integer> intervals = new ArrayList<Integer>();
+		for(int i = PHYSICAL; i < nodes; i++) {
+			if(find(i) == i && !occupied[i].isEmpty()) intervals.add(i);
+		}
+		final BitSet[] occupation = occupied;
+		Collections.sort(intervals, new Comparator<Integer>() {
+			public int compare (Integer a, Integer b) {
+				return occupation[a].nextSetBit(0) - occupation[b].nextSetBit(0);
+			}
+		});
+		location = new int[nodes];
+		for(int i = 0; i < nodes; i++) location[i] = i < PHYSICAL? i: -1;
+		List<List<Integer>> assigned = new ArrayList<List<Integer>>();
+		for(int i = 0; i < PHYSICAL; i++) assigned.add(new ArrayList<Integer>());
+		List<Integer> spilled = new ArrayList<Integer>();
+
+		for(int interval: intervals) {
+			int register = -1;
+			for(int hint: hints.get(interval)) {
+				int candidate = location[find(hint)];
+				if(candidate != -1 && candidate < PHYSICAL && isAllocatable(candidate) && isFree(candidate, interval, occupied, assigned)) {
+					register = candidate;
+					break;
+				}
+			}
+			for(int i = 0; i < registers.length && register == -1; i++) {
+				if(isFree(registers[i].index, interval, occupied, assigned)) register = registers[i].index;
+			}
+
+			if(register == -1) {
+				// evict the cheapest conflicting intervals if they are cheaper than this one
+				int cheapest = INFINITE;
+				for(Register candidate: registers) {
+					if(occupied[candidate.index].intersects(occupied[interval])) continue;
+					int evictionCost = 0;
+					for(int other: assigned.get(candidate.index)) {
+						if(occupied[other].intersects(occupied[interval])) evictionCost = add(evictionCost, cost[other]);
+					}
+					if(evictionCost < cheapest) {
+						cheapest = evictionCost;
+						register = candidate.index;
+					}
+				}
+				if(register != -1 && cheapest < cost[interval]) {
+					List<Integer> others = assigned.get(register);
+					for(int i = others.size() - 1; i >= 0; i--) {
+						if(!occupied[others.get(i)].intersects(occupied[interval])) continue;
+						location[others.get(i)] = -1;
+						spilled.add(others.remove(i));
+					}
+				} else {
+					if(cost[interval] == INFINITE) throw new RuntimeException("Out of registers for memory bases");
+					spilled.add(interval);
+					register = -1;
+				}
+			}
+			if(register != -1) {
+				location[interval] = register;
+				assigned.get(register).add(interval);
+			}
+		}
+
+		// spill slots are shared by intervals that don't overlap
+		List<BitSet> slotOccupation = new ArrayList<BitSet>();
+		for(int interval: spilled) {
+			int slot = 0;
+			while(slot < slotOccupation.size() && slotOccupation.get(slot).intersects(occupied[interval])) slot++;
+			if(slot == slotOccupation.size()) slotOccupation.add(new BitSet());
+			slotOccupation.get(slot).or(occupied[interval]);
+			location[interval] = PHYSICAL + slot;
+		}
+		slots = slotOccupation.size();
+		for(Register register: registers) {
+			if(!assigned.get(register.index).isEmpty()) used.add(register);
+		}
+
+		emit();
+	}
+
+	boolean isAllocatable (int index) {
+		for(Register register: registers) {
+			if(register.index == index) return true;
+		}
+		return false;
+	}
+
+	static boolean isFree (int register, int interval, BitSet[] occupied, List<List<Integer>> assigned) {
+		if(occupied[register].intersects(occupied[interval])) return false;
+		for(int other: assigned.get(register)) {
+			if(occupied[other].intersects(occupied[interval])) return false;
+		}
+		return true;
+	}
+
+	// -------------------------------------------------------------------------
+	// rewriting
+	// -------------------------------------------------------------------------
+
+	/** @return the register index or PHYSICAL + spill slot of a register argument, -1 for other arguments **/
+	int location (Arg arg) {
+		int node = node(arg);
+		return node == -1? -1: location[find(node)];
+	}
+
+	Arg resolve (int location) {
+		if(location < PHYSICAL) return Arg.reg(Register.values()[location]);
+		return Arg.mem(spillBase, spillOffset - (location - PHYSICAL));
+	}
+
+	Arg resolve (Arg arg) {
+		if(arg instanceof Virtual) return resolve(location(arg));
+		if(!(arg instanceof VirtualMem)) return arg;
+		VirtualMem mem = (VirtualMem)arg;
+		int location = location(mem.base);
+		Register base;
+		if(location < PHYSICAL) {
+			base = Register.values()[location];
+		} else {
+			if(scratch == null) throw new RuntimeException("No scratch register to reload spilled memory bases");
+			out.op(Opcode.SET, Arg.reg(scratch), resolve(location));
+			base = scratch;
+		}
+		return mem.offset == 0? Arg.mem(base): Arg.mem(base, mem.offset);
+	}
+
+	/** @return the position of the first instruction at or after the position that is emitted, the number of instructions if there is none **/
+	int next (int position, boolean[] removed) {
+		while(position < instructions.size() && (removed[position] || instructions.get(position).label != null)) position++;
+		return position;
+	}
+
+	/** @return whether the last emitted instruction before the position is an IFx **/
+	boolean isConditional (int position, boolean[] removed) {
+		position--;
+		while(position >= 0 && (removed[position] || instructions.get(position).label != null)) position--;
+		return position >= 0 && isIf(instructions.get(position).op);
+	}
+
+	boolean isJump (Instruction instruction) {
+		return instruction.op == Opcode.SET && instruction.a.getClass() == Arg.class && instruction.a.bits == 0x1c;
+	}
+
+	/**
+	 * Removes the moves coalescing made redundant, threads jumps through the blocks that became
+	 * empty and removes the jumps to the next instruction and the code that is no longer reached.
+	 * @return the removed instructions, the final jump targets are stored in targets
+	 */
+	boolean[] clean (String[] targets) {
+		int n = instructions.size();
+		boolean[] removed = new boolean[n];
+		for(int p = 0; p < n; p++) {
+			Instruction instruction = instructions.get(p);
+			if(instruction.op != Opcode.SET || isConditional(p)) continue;
+			int a = location(instruction.a);
+			removed[p] = a != -1 && a == location(instruction.b);
+		}
+
+		for(int p = 0; p < n; p++) {
+			Instruction instruction = instructions.get(p);
+			if(instruction.op != null && isJump(instruction)) targets[p] = target(instruction.b);
+		}
+
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			int[] destinations = new int[n];
+			for(int p = 0; p < n; p++) {
+				if(removed[p] || targets[p] == null) continue;
+				destinations[p] = n;
+				if(targets[p] == null || !labels.containsKey(targets[p])) continue;
+				int destination = next(labels.get(targets[p]), removed);
+				for(int i = 0; i < n && destination < n && destination != p; i++) {
+					Instruction jump = instructions.get(destination);
+					if(!isJump(jump) || isConditional(destination, removed)) break;
+					String target = target(jump.b);
+					if(target == null || !labels.containsKey(target)) break;
+					targets[p] = target;
+					destination = next(labels.get(target), removed);
+				}
+				destinations[p] = destination;
+			}
+
+			// code no longer reached
+			boolean[] reached = new boolean[n + 1];
+			List<Integer> work = new ArrayList<Integer>();
+			work.add(next(0, removed));
+			while(!work.isEmpty()) {
+				int p = work.remove(work.size() - 1);
+				if(p >= n || reached[p]) continue;
+				reached[p] = true;
+				Instruction instruction = instructions.get(p);
+				if(instruction.op == null) continue;
+				if(isJump(instruction)) {
+					if(targets[p] != null) work.add(destinations[p]);
+					continue;
+				}
+				int following = next(p + 1, removed);
+				work.add(following);
+				if(isIf(instruction.op) && following < n) work.add(next(following + 1, removed));
+			}
+			for(int p = 0; p < n; p++) {
+				if(!removed[p] && !reached[p] && instructions.get(p).op != null) {
+					removed[p] = true;
+					changed = true;
+				}
+			}
+
+			// jumps to the next instruction
+			for(int p = 0; p < n; p++) {
+				if(removed[p] || targets[p] == null || !labels.containsKey(targets[p])) continue;
+				if(isConditional(p, removed)) continue;
+				if(destinations[p] == next(p + 1, removed)) {
+					removed[p] = true;
+					changed = true;
+				}
+			}
+		}
+		return removed;
+	}
+
+	void emit () {
+		String[] targets = new String[instructions.size()];
+		boolean[] removed = clean(targets);
+		for(int p = 0; p < instructions.size(); p++) {
+			Instruction instruction = instructions.get(p);
+			if(removed[p]) continue;
+			if(instruction.op == null) {
+				if(instruction.label != null) out.markLabel(instruction.label);
+				else out.val(instruction.value);
+			} else if(instruction.op.code == 0) {
+				out.eop(instruction.op, resolve(instruction.a));
+			} else if(targets[p] != null && labels.containsKey(targets[p])) {
+				out.op(Opcode.SET, Arg.pc(), out.label(targets[p]));
+			} else {
+				Arg b = resolve(instruction.b);
+				out.op(instruction.op, resolve(instruction.a), b);
+			}
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package com.badlogic.dcpu;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+
+/**
+ * Runs many {@link Cpu}s on the calling thread. Each guest runs for a slice of cycles via
+ * {@link Cpu#run(int)}, so it is preempted at an instruction boundary. Runnable guests share
+ * the host by weighted fair queuing: the virtual time of a guest advances by the cycles it
+ * ran divided by its weight and the guest with the lowest virtual time runs next. A guest
+ * stops for good when it or its {@link Tenant} used up its cycle quota. A guest with a rate
+ * limit waits until its token bucket holds enough cycles for a slice. A slice may end a few
+ * cycles after a quota or bucket ran out because the last instruction, or the fast forwarded
+ * iteration of an idle or counted loop, is finished. Those cycles are accounted too.
+ */
+public class Scheduler {
+	public static final long UNLIMITED = Long.MAX_VALUE;
+	public static final int DEFAULT_SLICE = 10000;
+	/** virtual time is cycles scaled by this divided by the weight **/
+	static final int WEIGHT_SCALE = 1 << 16;
+
+	public static enum State {
+		RUNNABLE, THROTTLED, HALTED, OUT_OF_QUOTA
+	}
+
+	/** guests sharing a cycle quota **/
+	public static class Tenant {
+		final String name;
+		final long quota;
+		long cycles;
+
+		public Tenant (String name, long quota) {
+			this.name = name;
+			this.quota = quota;
+		}
+
+		public String getName () {
+			return name;
+		}
+
+		public long getQuota () {
+			return quota;
+		}
+
+		/** @return the cycles run by all guests of the tenant **/
+		public long getCycles () {
+			return cycles;
+		}
+	}
+
+	public class Guest {
+		final Cpu cpu;
+		final Tenant tenant;
+		final int weight;
+		long quota = UNLIMITED;
+		/** the bucket is refilled with rate cycles per second up to burst cycles, rate 0 means no limit **/
+		long rate;
+		long burst;
+		long tokens;
+		long refilled;
+		long wakeTime;
+		long virtualTime;
+		State state = State.RUNNABLE;
+		long cycles;
+		long slices;
+		long preemptions;
+		long throttles;
+
+		Guest (Cpu cpu, Tenant tenant, int weight) {
+			this.cpu = cpu;
+			this.tenant = tenant;
+			this.weight = weight;
+		}
+
+		/** stops the guest after it ran the given number of cycles **/
+		public void setQuota (long quota) {
+			this.quota = quota;
+		}
+
+		/**
+		 * Limits the guest to the given cycles per second, e.g. 100000 for the speed of a real
+		 * dcpu-16. The bucket starts full.
+		 * @param burst the most cycles the guest may run ahead, at least a slice is run at once
+		 */
+		public void setRate (long rate, long burst) {
+			if(rate <= 0 || burst <= 0) throw new RuntimeException("Rate and burst must be > 0");
+			this.rate = rate;
+			this.burst = burst;
+			this.tokens = burst;
+			this.refilled = nanoTime();
+		}
+
+		private void refill (long now) {
+			long elapsed = now - refilled;
+			// the seconds past filling the bucket don't count, so long pauses don't overflow
+			long seconds = Math.min(elapsed / 1000000000L, burst / rate + 1);
+			tokens = Math.min(burst, tokens + seconds * rate + elapsed % 1000000000L * rate / 1000000000L);
+			refilled = now;
+		}
+
+		public Cpu getCpu () {
+			return cpu;
+		}
+
+		public Tenant getTenant () {
+			return tenant;
+		}
+
+		public int getWeight () {
+			return weight;
+		}
+
+		public State getState () {
+			return state;
+		}
+
+		public long getCycles () {
+			return cycles;
+		}
+
+		public long getSlices () {
+			return slices;
+		}
+
+		/** @return the number of slices after which the guest could have run on **/
+		public long getPreemptions () {
+			return preemptions;
+		}
+
+		/** @return the number of times the guest had to wait for its token bucket **/
+		public long getThrottles () {
+			return throttles;
+		}
+	}
+
+	final int slice;
+	final List<Guest> guests = new ArrayList<Guest>();
+	final PriorityQueue<Guest> runnable = new PriorityQueue<Guest>(64, new Comparator<Guest>() {
+		public int compare (Guest a, Guest b) {
+			return a.virtualTime < b.virtualTime? -1: a.virtualTime > b.virtualTime? 1: 0;
+		}
+	});
+	final PriorityQueue<Guest> throttled = new PriorityQueue<Guest>(64, new Comparator<Guest>() {
+		public int compare (Guest a, Guest b) {
+			return a.wakeTime < b.wakeTime? -1: a.wakeTime > b.wakeTime? 1: 0;
+		}
+	});
+	/** the virtual time of the last guest run, new and woken guests start there **/
+	long virtualTime;
+	long cycles;
+	long slices;
+
+	public Scheduler () {
+		this(DEFAULT_SLICE);
+	}
+
+	/** @param slice the most cycles a guest runs before another guest is picked **/
+	public Scheduler (int slice) {
+		if(slice <= 0) throw new RuntimeException("Slice must be > 0");
+		this.slice = slice;
+	}
+
+	/** @param weight the share of the guest relative to the other guests, >= 1 **/
+	public Guest add (Cpu cpu, Tenant tenant, int weight) {
+		if(weight < 1) throw new RuntimeException("Weight must be >= 1, got " + weight);
+		Guest guest = new Guest(cpu, tenant, weight);
+		guest.virtualTime = virtualTime;
+		guests.add(guest);
+		runnable.add(guest);
+		return guest;
+	}
+
+	/**
+	 * Runs a slice of the runnable guest with the lowest virtual time.
+	 * @return false if no guest is runnable, throttled guests may become runnable later
+	 */
+	public boolean runSlice () {
+		if(!throttled.isEmpty()) wake();
+		Guest guest;
+		while(true) {
+			guest = runnable.poll();
+			if(guest == null) return false;
+			if(guest.tenant.cycles < guest.tenant.quota) break;
+			guest.state = State.OUT_OF_QUOTA;
+		}
+		virtualTime = guest.virtualTime;
+
+		long budget = Math.min(slice, Math.min(guest.quota - guest.cycles, guest.tenant.quota - guest.tenant.cycles));
+		long now = guest.rate > 0? nanoTime(): 0;
+		if(guest.rate > 0) {
+			guest.refill(now);
+			budget = Math.min(budget, guest.tokens);
+		}
+		int ran = guest.cpu.run((int)budget);
+
+		guest.cycles += ran;
+		guest.tenant.cycles += ran;
+		guest.slices++;
+		guest.virtualTime += (long)ran * WEIGHT_SCALE / guest.weight;
+		cycles += ran;
+		slices++;
+		if(guest.cpu.isHalted()) {
+			guest.state = State.HALTED;
+		} else if(guest.cycles >= guest.quota || guest.tenant.cycles >= guest.tenant.quota) {
+			guest.state = State.OUT_OF_QUOTA;
+		} else if(guest.rate > 0 && (guest.tokens -= ran) < Math.min(slice, guest.burst)) {
+			long missing = Math.min(slice, guest.burst) - guest.tokens;
+			guest.wakeTime = now + (missing * 1000000000L + guest.rate - 1) / guest.rate;
+			guest.state = State.THROTTLED;
+			guest.throttles++;
+			throttled.add(guest);
+		} else {
+			guest.preemptions++;
+			runnable.add(guest);
+		}
+		return true;
+	}
+
+	/** moves the throttled guests whose wake time passed to the runnable guests **/
+	private void wake () {
+		long now = nanoTime();
+		while(!throttled.isEmpty() && throttled.peek().wakeTime - now <= 0) {
+			Guest guest = throttled.poll();
+			guest.state = State.RUNNABLE;
+			guest.virtualTime = Math.max(guest.virtualTime, virtualTime);
+			runnable.add(guest);
+		}
+	}
+
+	/**
+	 * Runs slices until the given time passed or no guest is runnable or throttled. While
+	 * all guests wait for their buckets the thread parks until the first one can run.
+	 */
+	public void run (long nanos) {
+		long end = nanoTime() + nanos;
+		while(end - nanoTime() > 0) {
+			if(runSlice()) continue;
+			if(throttled.isEmpty()) return;
+			long wait = Math.min(throttled.peek().wakeTime, end) - nanoTime();
+			if(wait > 0) LockSupport.parkNanos(wait);
+		}
+	}
+
+	/** the time source of the token buckets, in nanoseconds **/
+	protected long nanoTime () {
+		return System.nanoTime();
+	}
+
+	public List<Guest> getGuests () {
+		return guests;
+	}
+
+	/** @return the cycles run by all guests **/
+	public long getCycles () {
+		return cycles;
+	}
+
+	public long getSlices () {
+		return slices;
+	}
+
+	/**
+	 * Compares running a number of guests (10000 by default) round robin by calling
+	 * {@link Cpu#run(int)} directly with running them through a scheduler with different
+	 * weights. The cost per slice is measured with slices of one cycle, where the guests'
+	 * instructions don't hide it. Needs about 2GB of heap for 10000 guests.
+	 */
+	public static void main (String[] args) {
+		int count = args.length > 0? Integer.parseInt(args[0]): 10000;
+		Assembler asm = new Assembler();
+		asm.markLabel("loop");
+		asm.op(Opcode.ADD, Arg.reg(Register.A), Arg.lit(1));
+		asm.op(Opcode.SET, Arg.mem(0x8000), Arg.reg(Register.A));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("loop"));
+		short[] dump = asm.getDump();
+
+		Cpu[] direct = new Cpu[count];
+		Scheduler scheduler = new Scheduler();
+		Scheduler single = new Scheduler(1);
+		Tenant tenant = new Tenant("all", UNLIMITED);
+		for(int i = 0; i < count; i++) {
+			direct[i] = new Cpu(dump);
+			Cpu cpu = new Cpu(dump);
+			scheduler.add(cpu, tenant, 1 + i % 4);
+			single.add(cpu, tenant, 1 + i % 4);
+		}
+		for(int run = 0; run < 5; run++) {
+			long directNanos = 0, schedulerNanos = 0, directSingle = 0, schedulerSingle = 0;
+			long directCycles = 0, schedulerCycles = scheduler.getCycles();
+			for(int round = 0; round < 10; round++) {
+				long start = System.nanoTime();
+				for(Cpu cpu: direct) directCycles += cpu.run(DEFAULT_SLICE);
+				directNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				for(int i = 0; i < count; i++) scheduler.runSlice();
+				schedulerNanos += System.nanoTime() - start;
+				start = System.nanoTime();
+				for(Cpu cpu: direct) cpu.run(1);
+				directSingle += System.nanoTime() - start;
+				start = System.nanoTime();
+				for(int i = 0; i < count; i++) single.runSlice();
+				schedulerSingle += System.nanoTime() - start;
+			}
+			schedulerCycles = scheduler.getCycles() - schedulerCycles;
+
+			float directRate = (float)directNanos / directCycles;
+			float schedulerRate = (float)schedulerNanos / schedulerCycles;
+			float perSlice = (float)(schedulerSingle - directSingle) / (10 * count);
+			System.out.println(String.format("%d guests, direct: %.2fns/cycle, scheduler: %.2fns/cycle, scheduling: %.0fns/slice, %.2f%% of a %d cycle slice",
+				count, directRate, schedulerRate, perSlice, perSlice / (directRate * DEFAULT_SLICE) * 100, DEFAULT_SLICE));
+		}
+	}
+}
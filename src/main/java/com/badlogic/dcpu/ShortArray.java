@@ -6,9 +6,9 @@ public class ShortArray {
 	
 	private void ensureCapacity(int numElements) {
 		int required = size + numElements;
-		if(required < elements.length) return;
-		short[] tmp = new short[required];
-		System.arraycopy(elements, 0, tmp, 0, elements.length);
+		if(required <= elements.length) return;
+		short[] tmp = new short[Math.max(required, elements.length * 2)];
+		System.arraycopy(elements, 0, tmp, 0, size);
 		elements = tmp;
 	}
 	
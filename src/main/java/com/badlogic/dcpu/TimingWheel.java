@@ -0,0 +1,164 @@
+package com.badlogic.dcpu;
+
+/**
+ * Hierarchical timing wheel of callbacks indexed by cycle counts. Each of the four levels
+ * has 256 slots for one byte of the cycle count. A timer is stored at the level of the
+ * highest byte in which its cycle count differs from the current one, so level 0 holds
+ * the timers due in the current 256 cycles. When {@link #advance(int)} enters the range of
+ * a slot on a higher level, the slot's timers are moved down. Bitmaps of the occupied
+ * slots let {@link #next()} find the first due timer without visiting empty slots. Cycle
+ * counts wrap around like {@link Cpu#getCycles()}, timers must be due within 2^31 cycles.
+ */
+public class TimingWheel {
+	static final int LEVELS = 4, BITS = 8, SLOTS = 1 << BITS, MASK = SLOTS - 1;
+
+	public interface Callback {
+		/** @param cycle the cycle count the timer was due at, the current one may be later **/
+		public void fire (int cycle);
+	}
+
+	public static class Timer {
+		final Callback callback;
+		final int cycle;
+		Timer previous, next;
+		int level = -1, slot;
+
+		Timer (Callback callback, int cycle) {
+			this.callback = callback;
+			this.cycle = cycle;
+		}
+
+		public int getCycle () {
+			return cycle;
+		}
+
+		/** @return whether the timer is neither fired nor cancelled **/
+		public boolean isPending () {
+			return level != -1;
+		}
+	}
+
+	final Timer[][] slots = new Timer[LEVELS][SLOTS];
+	final long[][] occupied = new long[LEVELS][SLOTS / 64];
+	int now;
+	int size;
+
+	public TimingWheel (int now) {
+		this.now = now;
+	}
+
+	/** @return a timer calling the callback at the given cycle count, or right away if it passed **/
+	public Timer schedule (int cycle, Callback callback) {
+		Timer timer = new Timer(callback, cycle);
+		insert(timer);
+		size++;
+		return timer;
+	}
+
+	public void cancel (Timer timer) {
+		if(!timer.isPending()) return;
+		remove(timer);
+		size--;
+	}
+
+	private void insert (Timer timer) {
+		int cycle = timer.cycle - now < 0? now: timer.cycle;
+		int differ = cycle ^ now;
+		int level = differ == 0? 0: (31 - Integer.numberOfLeadingZeros(differ)) / BITS;
+		int slot = (cycle >>> (level * BITS)) & MASK;
+		Timer head = slots[level][slot];
+		timer.previous = null;
+		timer.next = head;
+		if(head != null) head.previous = timer;
+		slots[level][slot] = timer;
+		occupied[level][slot >>> 6] |= 1L << slot;
+		timer.level = level;
+		timer.slot = slot;
+	}
+
+	private void remove (Timer timer) {
+		int level = timer.level, slot = timer.slot;
+		if(timer.previous != null) timer.previous.next = timer.next;
+		else slots[level][slot] = timer.next;
+		if(timer.next != null) timer.next.previous = timer.previous;
+		if(slots[level][slot] == null) occupied[level][slot >>> 6] &= ~(1L << slot);
+		timer.previous = timer.next = null;
+		timer.level = -1;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	/** @return the cycle count of the first timer, the current one if it is due, only valid if not empty **/
+	public int next () {
+		int from = now & MASK;
+		int slot = nextOccupied(0, from, SLOTS);
+		if(slot != -1) return (now & ~MASK) | slot;
+		for(int level = 1; level < LEVELS; level++) {
+			from = ((now >>> (level * BITS)) & MASK) + 1;
+			slot = nextOccupied(level, from, SLOTS);
+			// the counts wrap around, on the top level the slots before the current one are later
+			if(slot == -1 && level == LEVELS - 1) slot = nextOccupied(level, 0, from);
+			if(slot == -1) continue;
+			int first = slots[level][slot].cycle;
+			for(Timer timer = slots[level][slot].next; timer != null; timer = timer.next) {
+				if(timer.cycle - first < 0) first = timer.cycle;
+			}
+			return first;
+		}
+		throw new RuntimeException("No timers");
+	}
+
+	/** @return the first occupied slot of the level in [from, to) or -1 **/
+	private int nextOccupied (int level, int from, int to) {
+		long[] bits = occupied[level];
+		for(int i = from >>> 6; i < SLOTS / 64 && i << 6 < to; i++) {
+			long word = bits[i];
+			if(i == from >>> 6) word &= -1L << from;
+			if(word != 0) {
+				int slot = (i << 6) + Long.numberOfTrailingZeros(word);
+				return slot < to? slot: -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Sets the current cycle count and fires the timers due up to it in order. Callbacks may
+	 * schedule and cancel timers, those due already fire in the same call.
+	 */
+	public void advance (int cycle) {
+		while(size > 0) {
+			int next = next();
+			if(next - cycle > 0) break;
+			moveTo(next);
+			Timer timer = slots[0][next & MASK];
+			remove(timer);
+			size--;
+			timer.callback.fire(timer.cycle);
+		}
+		moveTo(cycle);
+	}
+
+	/** sets the current cycle count, no timer may be due before it **/
+	private void moveTo (int cycle) {
+		if(cycle - now <= 0) return;
+		int previous = now;
+		now = cycle;
+		// the timers in the slots whose range was entered move to the lower levels
+		for(int level = LEVELS - 1; level > 0; level--) {
+			int shift = level * BITS;
+			if(cycle >>> shift == previous >>> shift) continue;
+			int slot = (cycle >>> shift) & MASK;
+			Timer timer = slots[level][slot];
+			slots[level][slot] = null;
+			occupied[level][slot >>> 6] &= ~(1L << slot);
+			while(timer != null) {
+				Timer next = timer.next;
+				insert(timer);
+				timer = next;
+			}
+		}
+	}
+}
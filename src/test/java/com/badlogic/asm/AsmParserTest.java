@@ -1,14 +1,19 @@
 package com.badlogic.asm;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import static junit.framework.TestCase.*;
+
 import org.junit.Test;
 
 import com.badlogic.dcpu.Assembler;
+import com.badlogic.dcpu.Cpu;
+import com.badlogic.dcpu.Cpu.Register;
 
 public class AsmParserTest {
 
@@ -29,4 +34,32 @@ public class AsmParserTest {
 		os.close();
 	}
 
+	@Test
+	public void testMacrosAndConstants() throws Exception {
+		InputStream is = AsmParserTest.class.getResourceAsStream("/codeTest2.asm");
+		Assembler asm = new Assembler();
+		AsmInternalParser parser = new AsmInternalParser(asm, is, "UTF-8");
+		parser.file();
+		Cpu cpu = new Cpu(asm.getDump());
+		cpu.runUntilHalted();
+		assertEquals(5, cpu.getRegValue(Register.A));
+		assertEquals(0x43, cpu.getRegValue(Register.B));
+		assertEquals(0x41, cpu.getMemValue(0x8000 + 64));
+		assertEquals(5, cpu.getMemValue(0x8001));
+		assertEquals(-1, cpu.getMemValue(0x1002));
+		assertEquals(7, cpu.getRegValue(Register.X));
+		assertEquals(29, cpu.getRegValue(Register.Y));
+	}
+
+	@Test
+	public void testMinusWithoutSpaces() throws Exception {
+		String source = ".equ SIZE 8\n\t\tset a, SIZE-1\n\t\tset b, SIZE-SIZE+2\n";
+		Assembler asm = new Assembler();
+		AsmInternalParser parser = new AsmInternalParser(asm, new ByteArrayInputStream(source.getBytes("UTF-8")), "UTF-8");
+		parser.file();
+		Cpu cpu = new Cpu(asm.getDump());
+		cpu.runUntilHalted();
+		assertEquals(7, cpu.getRegValue(Register.A));
+		assertEquals(2, cpu.getRegValue(Register.B));
+	}
 }
@@ -0,0 +1,78 @@
+package com.badlogic.crux;
+
+import static junit.framework.TestCase.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.badlogic.crux.Lexer.Token;
+import com.badlogic.crux.Lexer.TokenType;
+
+public class ArrayLexerTest {
+	private void assertSameTokens(String name, InputStream expected, InputStream actual, boolean reportShift) {
+		Lexer lexer = new Lexer(expected, false, reportShift);
+		ArrayLexer arrayLexer = new ArrayLexer(actual, false, reportShift);
+		KeywordTable keywords = new KeywordTable(new String[] { "var", "func", "end", "VAR", "BEGIN", "END" });
+		lexer.setKeywords(keywords);
+		arrayLexer.setKeywords(keywords);
+		Token token;
+		do {
+			token = lexer.nextToken();
+			Token arrayToken = arrayLexer.nextToken();
+			String message = name + ": " + token + " != " + arrayToken;
+			assertEquals(message, token.type, arrayToken.type);
+			assertEquals(message, token.text, arrayToken.text);
+			assertEquals(message, token.line, arrayToken.line);
+			assertEquals(message, token.keyword, arrayToken.keyword);
+			if(token.type != TokenType.LITERAL && token.type != TokenType.ERROR) assertEquals(message, token.col, arrayToken.col);
+		} while(token.type != TokenType.EOF);
+	}
+
+	@Test
+	public void testSameTokens() throws Exception {
+		for(File dir: new File[] { new File("data"), new File("data/bench"), new File("src/test/resources") }) {
+			for(File file: dir.listFiles()) {
+				if(!file.getName().endsWith(".crux") && !file.getName().endsWith(".pl0")) continue;
+				assertSameTokens(file.getPath(), new FileInputStream(file), new FileInputStream(file), true);
+			}
+		}
+		assertSameTokens("simple.brainfuck", new FileInputStream("data/simple.brainfuck"), new FileInputStream("data/simple.brainfuck"), false);
+		byte[] source = "_a1 b_ 0x1F 0b101 12 \"a\\\"b\\n\" << >>= <= != == && || & | ^ % // comment\r\n x=y; \"unterminated".getBytes();
+		assertSameTokens("edge cases", new ByteArrayInputStream(source), new ByteArrayInputStream(source), true);
+	}
+
+	@Test
+	public void testKeywordTable() {
+		String[] keywords = { "var", "num", "struct", "func", "end", "if", "then", "else", "while", "do", "return", "break" };
+		KeywordTable table = new KeywordTable(keywords);
+		for(int i = 0; i < keywords.length; i++) {
+			assertEquals(i, table.lookup(keywords[i]));
+			assertEquals(i, table.lookup(("x" + keywords[i]).toCharArray(), 1, keywords[i].length()));
+		}
+		assertEquals(-1, table.lookup("vars"));
+		assertEquals(-1, table.lookup("en"));
+		assertEquals(-1, table.lookup("End"));
+		assertEquals(-1, new KeywordTable(new String[0]).lookup("var"));
+	}
+
+	@Test
+	public void testIndices() {
+		ArrayLexer lexer = new ArrayLexer("var x\n  x = x", false, true);
+		int token = lexer.next();
+		assertEquals(TokenType.IDENTIFIER, lexer.type(token));
+		assertEquals(3, lexer.length(token));
+		lexer.next();
+		lexer.next();
+		token = lexer.next();
+		assertEquals(2, lexer.line(token));
+		assertEquals(5, lexer.col(token));
+		assertEquals(TokenType.ASSIGN, lexer.type(token));
+		// identifiers are interned
+		assertSame(lexer.text(1), lexer.text(lexer.next()));
+		assertEquals(2, lexer.getSymbols().size());
+	}
+}
@@ -0,0 +1,75 @@
+package com.badlogic.crux;
+
+import static junit.framework.TestCase.*;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import com.badlogic.crux.ssa.SsaCompiler;
+import com.badlogic.crux.ssa.SsaCompiler.Pass;
+import com.badlogic.dcpu.Cpu;
+import com.badlogic.dcpu.Cpu.Register;
+
+public class CruxCompilerTest {
+
+	@Test
+	public void test() throws Exception {
+		CruxParser parser = new CruxParser(new Lexer(CruxCompilerTest.class.getResourceAsStream("/compileTest.crux"), false, true));
+		parser.parse();
+		Cpu cpu = new Cpu(CruxCompiler.compile(parser.getProgram()));
+		cpu.runUntilHalted();
+		// loop: 0+2+4+5+6+8 - 4 = 21, deep: 1+2*(3-(4+(5-6*(1+(2-6))))) = -47, apply: -18, table: 7 + 9
+		assertEquals((short)(21 - 47 - 18 + 7 + 9), (short)cpu.getRegValue(Register.A));
+		assertEquals(0, cpu.getRegValue(Register.SP));
+	}
+
+	/** constants are signed words like at runtime, && and || only evaluate their right operand if needed **/
+	static final String SIGNED = "var num hits\n\n"
+		+ "func hit(num v): num\n   hits = hits + 1\n   return v\nend\n\n"
+		+ "func main: num\n   var num x\n   var num y\n   var num m\n   var num z\n"
+		+ "   x = -1 < 2\n   y = 0\n   if -1 < 2 then\n      y = 1\n   end\n   m = -1\n"
+		+ "   z = (hit(0) && hit(1)) + (hit(1) || hit(1)) + (0 && hit(1)) + (1 || hit(1))\n"
+		+ "   return x * 16 + y + ((-1 / 2) * 16 + m / 2) * 256 + hits * 1024 + z * 4096\n"
+		+ "end\n";
+
+	@Test
+	public void testSignedConstants() {
+		CruxParser parser = new CruxParser(new ArrayLexer(SIGNED, false, true));
+		parser.parse();
+		int expected = 0x11 + 2 * 1024 + 2 * 4096;
+		Cpu cpu = new Cpu(CruxCompiler.compile(parser.getProgram()));
+		cpu.runUntilHalted();
+		assertEquals(expected, cpu.getRegValue(Register.A));
+		cpu = new Cpu(SsaCompiler.compile(parser.getProgram(), EnumSet.allOf(Pass.class)));
+		cpu.runUntilHalted();
+		assertEquals(expected, cpu.getRegValue(Register.A));
+	}
+
+	/** calls on the right of && and || while outer temporaries are live or spilled, the jump around them must find them in place **/
+	static final String LOGICAL_CALLS = "func f(num v): num\n   return v\nend\n\n"
+		+ "func main: num\n   var num a\n   var num b\n   var num c\n   var num x\n   var num y\n   var num z\n   var num w\n"
+		+ "   a = 0\n   b = 5\n   c = 1\n"
+		+ "   x = b * 3 + (a && f(1))\n"
+		+ "   y = b * 2 + (b * 4 + (c && f(b) + f(2) * (b + 1)))\n"
+		+ "   z = b + (c || f(1)) * 10 + (a || f(0)) * 100 + (c && (b - 5)) * 1000 + ((a && f(1)) || b + (c && b * f(3)))\n"
+		+ "   w = b * 2 + (b * 3 + (b * 4 + (b * 5 + (a && (b * 6 + (b * 7 + (c || f(b + (b * 2 + f(3))))))))))"
+		+ " + (b * 8 + (c || f(2) + (a && b * (b + (b + f(1))))))\n"
+		+ "   return x + y * 64 + z * 2048 + w\n"
+		+ "end\n";
+
+	@Test
+	public void testLogicalCalls() {
+		CruxParser parser = new CruxParser(new ArrayLexer(LOGICAL_CALLS, false, true));
+		parser.parse();
+		// x = 15 + 0, y = 10 + (20 + 1), z = 5 + 10 + 0 + 0 + 1, w = 10 + 15 + 20 + 25 + 0 + 40 + 1 spills
+		short expected = (short)(15 + 31 * 64 + 16 * 2048 + 111);
+		Cpu cpu = new Cpu(CruxCompiler.compile(parser.getProgram()));
+		cpu.runUntilHalted();
+		assertEquals(expected, cpu.getRegValue(Register.A));
+		assertEquals(0, cpu.getRegValue(Register.SP));
+		cpu = new Cpu(SsaCompiler.compile(parser.getProgram(), EnumSet.noneOf(Pass.class)));
+		cpu.runUntilHalted();
+		assertEquals(expected, cpu.getRegValue(Register.A));
+	}
+}
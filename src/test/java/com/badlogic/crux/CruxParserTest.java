@@ -0,0 +1,186 @@
+package com.badlogic.crux;
+
+import static junit.framework.TestCase.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.badlogic.crux.AstNode.Assignment;
+import com.badlogic.crux.AstNode.BinaryExpression;
+import com.badlogic.crux.AstNode.Expression;
+import com.badlogic.crux.AstNode.FunctionDefinition;
+import com.badlogic.crux.AstNode.Number;
+import com.badlogic.crux.AstNode.UnaryExpression;
+import com.badlogic.crux.Parser.Diagnostic;
+
+public class CruxParserTest {
+	private static final String SOURCE =
+		"struct Pair\n" +
+		"   num first\n" +
+		"   42 second\n" +
+		"end\n" +
+		"func broken(num a: num\n" +
+		"   return a\n" +
+		"end\n" +
+		"func main: num\n" +
+		"   var num x\n" +
+		"   x = (1 + 2\n" +
+		"   x = x * $ 3\n" +
+		"   if x > 2 then\n" +
+		"      x = \n" +
+		"   end\n" +
+		"   return x\n" +
+		"end\n";
+
+	@Test
+	public void testRecovery() {
+		CruxParser parser = new CruxParser(new Lexer(new ByteArrayInputStream(SOURCE.getBytes()), false, true));
+		parser.setLenient(true);
+		parser.parse();
+		List<Diagnostic> diagnostics = parser.getDiagnostics();
+		assertEquals(diagnostics.toString(), 5, diagnostics.size());
+		int[] lines = { 3, 5, 11, 11, 14 };
+		for(int i = 0; i < lines.length; i++) assertEquals(diagnostics.toString(), lines[i], diagnostics.get(i).line);
+		// main survives with the statements that parsed
+		assertEquals(1, parser.getProgram().parts.size());
+		FunctionDefinition main = (FunctionDefinition)parser.getProgram().parts.get(0);
+		assertEquals("main", main.identifier);
+		assertEquals(3, main.statements.size());
+	}
+
+	@Test
+	public void testAllErrorsReported() {
+		CruxParser parser = new CruxParser(new Lexer(new ByteArrayInputStream(SOURCE.getBytes()), false, true));
+		try {
+			parser.parse();
+			fail();
+		} catch(RuntimeException e) {
+			assertEquals(5, e.getMessage().split("\n").length);
+		}
+	}
+
+	@Test
+	public void testArena() throws Exception {
+		final AstArena arena = new AstArena();
+		int program = new CruxParser(new ArrayLexer(new FileInputStream("data/bench/fib.crux"))).parse(arena);
+		assertEquals(CruxArena.STRUCT, arena.kind(arena.firstChild(program)));
+		assertEquals("Point", arena.getString(arena.value(arena.firstChild(program))));
+		assertEquals(7, arena.childCount(program));
+		final StringBuilder functions = new StringBuilder();
+		arena.visit(program, new AstArena.Visitor() {
+			public boolean enter (AstArena arena, int node) {
+				if(arena.kind(node) == CruxArena.FUNCTION) functions.append(arena.getString(arena.value(node))).append(' ');
+				return arena.kind(node) != CruxArena.FUNCTION;
+			}
+
+			public void leave (AstArena arena, int node) {
+			}
+		});
+		assertEquals("fib sum move main ", functions.toString());
+	}
+
+	@Test
+	public void testArenaSpans() {
+		AstArena arena = new AstArena();
+		int program = new CruxParser(new ArrayLexer("func f: num\n   return 1 + 2\nend\n", false, true)).parse(arena);
+		// func f : num return 1 + 2 end
+		int function = arena.firstChild(program);
+		assertEquals(0, arena.start(function));
+		assertEquals(9, arena.length(function));
+		int signature = arena.firstChild(function);
+		assertEquals(CruxArena.SIGNATURE, arena.kind(signature));
+		assertEquals(2, arena.start(signature));
+		assertEquals(2, arena.length(signature));
+		int ret = arena.nextSibling(signature);
+		assertEquals(CruxArena.RETURN, arena.kind(ret));
+		assertEquals(4, arena.start(ret));
+		assertEquals(4, arena.length(ret));
+		int binary = arena.firstChild(ret);
+		assertEquals(CruxArena.BINARY, arena.kind(binary));
+		assertEquals(5, arena.start(binary));
+		assertEquals(3, arena.length(binary));
+		int right = arena.nextSibling(arena.firstChild(binary));
+		assertEquals(7, arena.start(right));
+		assertEquals(1, arena.length(right));
+	}
+
+	static final String[] KINDS = { "PROGRAM", "VARIABLE", "STRUCT", "FUNCTION", "SIGNATURE", "FUNCTION_TYPE_SIGNATURE", "RETURN_TYPE",
+		"NUMBER_TYPE", "STRUCT_TYPE", "FUNCTION_TYPE", "NAME", "ASSIGNMENT", "CALL", "IF", "BLOCK", "WHILE", "BREAK", "RETURN", "BINARY",
+		"UNARY", "NUMBER", "LITERAL", "DEREFERENCE", "OFFSET_DEREFERENCE", "FIELD", "RVALUE", "RETURN_VALUE" };
+
+	@Test
+	public void testArenaNodes() {
+		String source = "struct P\n   num x\n   @P next\nend\n"
+			+ "var func g(num, @P): num\n"
+			+ "func f(num a, P p): @num\n"
+			+ "   var num b\n"
+			+ "   b = -a + 2 * (3 - a) - a\n"
+			+ "   x = = 3\n"
+			+ "   p.next.x = !b\n"
+			+ "   if a < 1 then\n      g(1, \"s\")\n   else\n      break\n   end\n"
+			+ "   while [b] do\n      return @p.x[a] + f(b, p)\n   end\n"
+			+ "   if a then\n   end\n"
+			+ "   return\n"
+			+ "end\n";
+		CruxParser parser = new CruxParser(new ArrayLexer(source, false, true));
+		parser.setLenient(true);
+		AstArena arena = new AstArena();
+		int program = parser.parse(arena);
+		// the broken assignment is left out
+		assertEquals(1, parser.getDiagnostics().size());
+		assertEquals("PROGRAM(STRUCT P(VARIABLE x(NUMBER_TYPE) VARIABLE next(STRUCT_TYPE 1(NAME P))) "
+			+ "VARIABLE g(FUNCTION_TYPE(FUNCTION_TYPE_SIGNATURE(NUMBER_TYPE STRUCT_TYPE 1(NAME P) RETURN_TYPE(NUMBER_TYPE)))) "
+			+ "FUNCTION f(SIGNATURE(VARIABLE a(NUMBER_TYPE) VARIABLE p(STRUCT_TYPE(NAME P)) RETURN_TYPE(NUMBER_TYPE 1)) "
+			+ "VARIABLE b(NUMBER_TYPE) "
+			+ "ASSIGNMENT(OFFSET_DEREFERENCE b BINARY 9(BINARY 8(UNARY(RVALUE(OFFSET_DEREFERENCE a)) "
+			+ "BINARY 10(NUMBER 2 BINARY 9(NUMBER 3 RVALUE(OFFSET_DEREFERENCE a)))) RVALUE(OFFSET_DEREFERENCE a))) "
+			+ "ASSIGNMENT(OFFSET_DEREFERENCE p(FIELD(OFFSET_DEREFERENCE next(FIELD(OFFSET_DEREFERENCE x)))) UNARY 1(RVALUE(OFFSET_DEREFERENCE b))) "
+			+ "IF(BINARY(RVALUE(OFFSET_DEREFERENCE a) NUMBER 1) BLOCK(CALL(OFFSET_DEREFERENCE g NUMBER 1 LITERAL s)) BLOCK(BREAK)) "
+			+ "WHILE(RVALUE(DEREFERENCE(OFFSET_DEREFERENCE b)) RETURN(BINARY 8(RVALUE 1(OFFSET_DEREFERENCE p(FIELD(OFFSET_DEREFERENCE x(RVALUE(OFFSET_DEREFERENCE a))))) "
+			+ "RETURN_VALUE(CALL(OFFSET_DEREFERENCE f RVALUE(OFFSET_DEREFERENCE b) RVALUE(OFFSET_DEREFERENCE p)))))) "
+			+ "IF(RVALUE(OFFSET_DEREFERENCE a) BLOCK BLOCK) "
+			+ "RETURN))", toString(arena, program));
+	}
+
+	private String toString (AstArena arena, int node) {
+		int kind = arena.kind(node);
+		StringBuilder builder = new StringBuilder(KINDS[kind]);
+		switch(kind) {
+		case CruxArena.VARIABLE: case CruxArena.STRUCT: case CruxArena.FUNCTION: case CruxArena.NAME: case CruxArena.NUMBER:
+		case CruxArena.LITERAL: case CruxArena.OFFSET_DEREFERENCE:
+			builder.append(' ').append(arena.getString(arena.value(node)));
+			break;
+		default:
+			if(arena.value(node) != 0) builder.append(' ').append(arena.value(node));
+		}
+		if(arena.firstChild(node) != AstArena.NONE) {
+			builder.append('(');
+			for(int child = arena.firstChild(node); child != AstArena.NONE; child = arena.nextSibling(child)) {
+				if(child != arena.firstChild(node)) builder.append(' ');
+				builder.append(toString(arena, child));
+			}
+			builder.append(')');
+		}
+		return builder.toString();
+	}
+
+	@Test
+	public void testPrecedence() {
+		CruxParser parser = new CruxParser(new ArrayLexer("func main\n   x = 1 - 2 - 3 < 4 + -5 * 6 && 7 | 8 ^ 9 == 10\nend\n", false, true));
+		parser.parse();
+		Assignment assignment = (Assignment)((FunctionDefinition)parser.getProgram().parts.get(0)).statements.get(0);
+		assertEquals("Equal(Less(Subtract(Subtract(1, 2), 3), LogicalAnd(Add(4, Multiply(Negate(5), 6)), Xor(Or(7, 8), 9))), 10)", toString(assignment.rvalue));
+	}
+
+	private String toString(Expression expr) {
+		if(expr instanceof BinaryExpression) {
+			BinaryExpression binary = (BinaryExpression)expr;
+			return binary.operator + "(" + toString(binary.left) + ", " + toString(binary.right) + ")";
+		}
+		if(expr instanceof UnaryExpression) return ((UnaryExpression)expr).operator + "(" + toString(((UnaryExpression)expr).factor) + ")";
+		return ((Number)expr).value;
+	}
+}
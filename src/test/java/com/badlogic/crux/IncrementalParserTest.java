@@ -0,0 +1,77 @@
+package com.badlogic.crux;
+
+import static junit.framework.TestCase.*;
+
+import java.io.FileInputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.badlogic.crux.AstNode.FunctionDefinition;
+import com.badlogic.crux.AstNode.Program;
+import com.badlogic.crux.AstNode.ProgramPart;
+import com.badlogic.crux.AstNode.StructureDeclaration;
+import com.badlogic.crux.AstNode.VariableDeclaration;
+
+public class IncrementalParserTest {
+	@Test
+	public void testEdits() throws Exception {
+		String source = new String(ArrayLexer.read(new FileInputStream("data/bench/fib.crux"))).replace("\r\n", "\n");
+		IncrementalParser parser = new IncrementalParser(source);
+		assertSameAsFullParse(parser);
+		Program before = parser.getProgram();
+
+		// an edit inside fib only replaces fib and the part before it
+		edit(parser, "calls + 1", "calls + 2");
+		Program after = parser.getProgram();
+		assertEquals(before.parts.size(), after.parts.size());
+		for(int i = 0; i < before.parts.size(); i++) {
+			if(i == 2 || i == 3) continue;
+			assertSame(before.parts.get(i), after.parts.get(i));
+		}
+		assertNotSame(before.parts.get(3), after.parts.get(3));
+		assertSameAsFullParse(parser);
+
+		// removing the end of fib swallows sum, restoring it splits them again
+		edit(parser, "fib(n - 2)\nend", "fib(n - 2)\n");
+		assertSameAsFullParse(parser);
+		assertFalse(parser.getDiagnostics().isEmpty());
+		edit(parser, "fib(n - 2)\n", "fib(n - 2)\nend");
+		assertSameAsFullParse(parser);
+		assertTrue(parser.getDiagnostics().isEmpty());
+
+		// errors shift with the lines inserted before them
+		edit(parser, "   i = 0\n", "   i = 0 +\n");
+		edit(parser, "var num calls\n", "var num calls\n\n\nvar num other\n");
+		assertSameAsFullParse(parser);
+		edit(parser, "func move", "fun move");
+		edit(parser, "struct Point", "");
+		assertSameAsFullParse(parser);
+	}
+
+	private void edit(IncrementalParser parser, String text, String replacement) {
+		int offset = parser.getSource().indexOf(text);
+		assertTrue(text, offset != -1);
+		parser.edit(offset, text.length(), replacement);
+	}
+
+	private void assertSameAsFullParse(IncrementalParser parser) {
+		CruxParser full = new CruxParser(new ArrayLexer(parser.getSource(), false, true));
+		full.setLenient(true);
+		full.parse();
+		assertEquals(full.getDiagnostics().toString(), parser.getDiagnostics().toString());
+		List<ProgramPart> expected = full.getProgram().parts;
+		List<ProgramPart> actual = parser.getProgram().parts;
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getClass(), actual.get(i).getClass());
+			assertEquals(name(expected.get(i)), name(actual.get(i)));
+		}
+	}
+
+	private String name(ProgramPart part) {
+		if(part instanceof VariableDeclaration) return ((VariableDeclaration)part).identifier;
+		if(part instanceof StructureDeclaration) return ((StructureDeclaration)part).name;
+		return ((FunctionDefinition)part).identifier + ((FunctionDefinition)part).statements.size();
+	}
+}
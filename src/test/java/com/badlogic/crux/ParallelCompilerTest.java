@@ -0,0 +1,51 @@
+package com.badlogic.crux;
+
+import static junit.framework.TestCase.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class ParallelCompilerTest {
+	@Test
+	public void testSameCode() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			// small chunks, so every part ends up in its own chunk
+			ParallelCompiler compiler = new ParallelCompiler(executor, 1000);
+			for(File file: new File("data/bench").listFiles()) {
+				String source = new String(ArrayLexer.read(new FileInputStream(file)));
+				assertTrue(file.getName(), Arrays.equals(sequential(source), compiler.compile(source)));
+			}
+			String source = ParallelCompiler.generate(100);
+			assertEquals(102, ParallelCompiler.split(source.toCharArray(), 1000).size());
+			assertTrue(Arrays.equals(sequential(source), compiler.compile(source)));
+
+			// syntax errors are reported like the sequential parser does
+			String broken = source.replace("return total\n", "return (total\n");
+			try {
+				compiler.compile(broken);
+				fail();
+			} catch(RuntimeException e) {
+				try {
+					sequential(broken);
+					fail();
+				} catch(RuntimeException expected) {
+					assertEquals(expected.getMessage(), e.getMessage());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private short[] sequential(String source) {
+		CruxParser parser = new CruxParser(new ArrayLexer(source, false, true));
+		parser.parse();
+		return CruxCompiler.compile(parser.getProgram());
+	}
+}
@@ -0,0 +1,71 @@
+package com.badlogic.crux;
+
+import static junit.framework.TestCase.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.badlogic.crux.Lexer.Token;
+import com.badlogic.crux.Lexer.TokenType;
+import com.badlogic.crux.brainfuck.PL0Parser;
+
+public class PipelinedLexerTest {
+	@Test
+	public void testSameTokens() throws Exception {
+		KeywordTable keywords = new KeywordTable(CruxParser.KEYWORDS);
+		for(File file: new File("data/bench").listFiles()) {
+			Lexer lexer = new Lexer(new FileInputStream(file));
+			// a tiny ring, so the lexer thread has to wait for the consumer
+			Lexer pipelined = new PipelinedLexer(new Lexer(new FileInputStream(file)), 2);
+			lexer.setKeywords(keywords);
+			pipelined.setKeywords(keywords);
+			Token token;
+			do {
+				token = lexer.nextToken();
+				Token pipelinedToken = pipelined.nextToken();
+				assertEquals(token.type, pipelinedToken.type);
+				assertEquals(token.text, pipelinedToken.text);
+				assertEquals(token.line, pipelinedToken.line);
+				assertEquals(token.keyword, pipelinedToken.keyword);
+			} while(token.type != TokenType.EOF);
+			assertEquals(TokenType.EOF, pipelined.nextToken().type);
+		}
+
+		PL0Parser parser = new PL0Parser(new PipelinedLexer(new Lexer(new FileInputStream("data/simple.pl0"), false, false)));
+		parser.parse();
+		assertNotNull(parser.getProgram());
+	}
+
+	@Test
+	public void testErrorsInOrder() {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < 1000; i++) builder.append("func f" + i + ": num\n   return 1\nend\n");
+		final byte[] source = builder.toString().getBytes();
+		// fails when reading past the end of the source
+		InputStream in = new InputStream() {
+			InputStream bytes = new ByteArrayInputStream(source);
+
+			@Override
+			public int read () throws IOException {
+				int c = bytes.read();
+				if(c == -1) throw new IOException("disk on fire");
+				return c;
+			}
+		};
+		PipelinedLexer lexer = new PipelinedLexer(new Lexer(in), 4);
+		int tokens = 0;
+		try {
+			while(lexer.nextToken().type != TokenType.EOF) tokens++;
+			fail();
+		} catch(RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("disk on fire"));
+		}
+		// every token before the failure was delivered first
+		assertEquals(7000, tokens);
+	}
+}
@@ -0,0 +1,61 @@
+package com.badlogic.crux;
+
+import static junit.framework.TestCase.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+import org.junit.Test;
+
+import com.badlogic.dcpu.Cpu;
+import com.badlogic.dcpu.Cpu.Register;
+
+public class StreamingCompilerTest {
+	@Test
+	public void testSameResults() throws Exception {
+		File[] files = new File("data/bench").listFiles();
+		File[] all = new File[files.length + 1];
+		System.arraycopy(files, 0, all, 0, files.length);
+		all[files.length] = new File("src/test/resources/compileTest.crux");
+		for(File file: all) {
+			CruxParser parser = new CruxParser(new Lexer(new FileInputStream(file), false, true));
+			parser.parse();
+			Cpu expected = run(CruxCompiler.compile(parser.getProgram()));
+			Cpu cpu = run(StreamingCompiler.compile(new Lexer(new FileInputStream(file), false, true)));
+			assertEquals(file.getName(), expected.getRegValue(Register.A), cpu.getRegValue(Register.A));
+			assertEquals(file.getName(), 0, cpu.getRegValue(Register.SP));
+		}
+	}
+
+	@Test
+	public void testSinglePass() {
+		// functions can be called before they are defined, deep expressions spill
+		String source = "func main: num\n   var num x\n   x = 3\n   return twice(x) + (1 + (x + (2 + (x + (3 + (x + (4 + (x + twice(5)))))))))\nend\n"
+			+ "func twice(num v): num\n   return v * 2\nend\n";
+		assertEquals(6 + 1 + 3 + 2 + 3 + 3 + 3 + 4 + 3 + 10, run(StreamingCompiler.compile(new ArrayLexer(source, false, true))).getRegValue(Register.A));
+
+		// globals have to be declared before they are used
+		try {
+			StreamingCompiler.compile(new ArrayLexer("func main: num\n   return g\nend\nvar num g\n", false, true));
+			fail();
+		} catch(RuntimeException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("'g' used before its declaration"));
+		}
+	}
+
+	@Test
+	public void testSignedConstants() {
+		CruxParser parser = new CruxParser(new ArrayLexer(CruxCompilerTest.SIGNED, false, true));
+		parser.parse();
+		Cpu expected = run(CruxCompiler.compile(parser.getProgram()));
+		Cpu cpu = run(StreamingCompiler.compile(new ArrayLexer(CruxCompilerTest.SIGNED, false, true)));
+		assertEquals(0x11 + 2 * 1024 + 2 * 4096, cpu.getRegValue(Register.A));
+		assertEquals(expected.getRegValue(Register.A), cpu.getRegValue(Register.A));
+	}
+
+	private Cpu run(short[] dump) {
+		Cpu cpu = new Cpu(dump);
+		cpu.runUntilHalted();
+		return cpu;
+	}
+}
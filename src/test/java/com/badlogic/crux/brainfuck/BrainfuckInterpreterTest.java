@@ -0,0 +1,43 @@
+package com.badlogic.crux.brainfuck;
+
+import static junit.framework.TestCase.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.badlogic.crux.Lexer;
+
+public class BrainfuckInterpreterTest {
+	private String run(InputStream source, String input) {
+		BrainfuckParser parser = new BrainfuckParser(new Lexer(source, false, false));
+		parser.parse();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new BrainfuckInterpreter(parser.getProgram()).run(new ByteArrayInputStream(input.getBytes()), out);
+		return out.toString();
+	}
+
+	private String run(String source, String input) {
+		return run(new ByteArrayInputStream(source.getBytes()), input);
+	}
+
+	@Test
+	public void testHelloWorld() throws Exception {
+		assertEquals("Hello World!\n", run(new FileInputStream("data/simple.brainfuck"), ""));
+		assertEquals("bc", run(",[+.,]", "ab"));
+	}
+
+	@Test
+	public void testTapeGrowth() {
+		StringBuilder source = new StringBuilder();
+		// an 'A' far to the right of the start, then one far to the left
+		for(int i = 0; i < 10000; i++) source.append('>');
+		source.append("++++++++[>++++++++<-]>+.");
+		for(int i = 0; i < 20000; i++) source.append('<');
+		source.append("++++++++[>++++++++<-]>+.");
+		assertEquals("AA", run(source.toString(), ""));
+	}
+}
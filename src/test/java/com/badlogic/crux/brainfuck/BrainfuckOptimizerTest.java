@@ -0,0 +1,64 @@
+package com.badlogic.crux.brainfuck;
+
+import static junit.framework.TestCase.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.badlogic.crux.AstArena;
+import com.badlogic.crux.Lexer;
+import com.badlogic.crux.brainfuck.IrNode.Add;
+import com.badlogic.crux.brainfuck.IrNode.Instruction;
+import com.badlogic.crux.brainfuck.IrNode.Move;
+import com.badlogic.crux.brainfuck.IrNode.MultiplyAdd;
+import com.badlogic.crux.brainfuck.IrNode.Output;
+import com.badlogic.crux.brainfuck.IrNode.Scan;
+import com.badlogic.crux.brainfuck.IrNode.Set;
+
+public class BrainfuckOptimizerTest {
+	private List<Instruction> optimize(String source) {
+		BrainfuckParser parser = new BrainfuckParser(new Lexer(new ByteArrayInputStream(source.getBytes()), false, false));
+		parser.parse();
+		return BrainfuckOptimizer.optimize(parser.getProgram()).instructions;
+	}
+
+	@Test
+	public void testIdioms() {
+		List<Instruction> ir = optimize("[.]+++[->++>+++<<]>[-]+>>.<[>]");
+		assertEquals(9, ir.size());
+		assertEquals(3, ((Add)ir.get(0)).value);
+		assertEquals(2, ((MultiplyAdd)ir.get(1)).factor);
+		assertEquals(2, ((MultiplyAdd)ir.get(2)).offset);
+		assertEquals(0, ((Set)ir.get(3)).offset);
+		assertEquals(1, ((Move)ir.get(4)).distance);
+		assertEquals(1, ((Set)ir.get(5)).value);
+		assertEquals(2, ((Output)ir.get(6)).offset);
+		assertEquals(1, ((Move)ir.get(7)).distance);
+		assertEquals(1, ((Scan)ir.get(8)).step);
+	}
+
+	@Test
+	public void testArena() {
+		String source = "[.]+++[->++>+++<<]>[-]+>>.<[>]";
+		AstArena arena = new AstArena();
+		for(int run = 0; run < 2; run++) {
+			arena.reset();
+			int program = new BrainfuckParser(new Lexer(new ByteArrayInputStream(source.getBytes()), false, false)).parse(arena);
+			// one node per token except ']', plus the program
+			assertEquals(source.length() - 4 + 1, arena.size());
+			assertEquals(source.length(), arena.length(program));
+			// the loop [->++>+++<<] spans 12 tokens starting at the 7th
+			int loop = arena.nextSibling(arena.nextSibling(arena.nextSibling(arena.nextSibling(arena.firstChild(program)))));
+			assertEquals(BrainfuckParser.LOOP, arena.kind(loop));
+			assertEquals(6, arena.start(loop));
+			assertEquals(12, arena.length(loop));
+
+			List<Instruction> expected = optimize(source);
+			List<Instruction> actual = BrainfuckOptimizer.optimize(arena, program).instructions;
+			assertEquals(expected.size(), actual.size());
+			for(int i = 0; i < expected.size(); i++) assertEquals(expected.get(i).getClass(), actual.get(i).getClass());
+		}
+	}
+}
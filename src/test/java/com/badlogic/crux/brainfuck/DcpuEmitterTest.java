@@ -0,0 +1,63 @@
+package com.badlogic.crux.brainfuck;
+
+import static junit.framework.TestCase.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.badlogic.crux.Lexer;
+import com.badlogic.dcpu.Cpu;
+
+public class DcpuEmitterTest {
+	private Cpu cpu(InputStream in) {
+		return cpu(in, 8);
+	}
+
+	private Cpu cpu(InputStream in, int cellBits) {
+		BrainfuckParser parser = new BrainfuckParser(new Lexer(in, false, false));
+		parser.parse();
+		return new Cpu(DcpuEmitter.compile(parser.getProgram(), cellBits));
+	}
+
+	private String run(String program, int cellBits) {
+		Cpu cpu = cpu(new ByteArrayInputStream(program.getBytes()), cellBits);
+		cpu.runUntilHalted();
+		return DcpuEmitter.getOutput(cpu);
+	}
+
+	@Test
+	public void testHelloWorld() throws Exception {
+		Cpu cpu = cpu(new FileInputStream("data/simple.brainfuck"));
+		cpu.runUntilHalted();
+		assertEquals("Hello World!\n", DcpuEmitter.getOutput(cpu));
+	}
+
+	@Test
+	public void testInput() {
+		Cpu cpu = cpu(new ByteArrayInputStream(",[+.,]".getBytes()));
+		cpu.getMemory()[DcpuEmitter.KEYBOARD] = 'a';
+		cpu.getMemory()[DcpuEmitter.KEYBOARD + 1] = 'b';
+		cpu.runUntilHalted();
+		assertEquals("bc", DcpuEmitter.getOutput(cpu));
+		assertEquals(0, cpu.getMemValue(DcpuEmitter.KEYBOARD));
+	}
+
+	@Test
+	public void testLeftOfStart() {
+		// the cell left of the start is in the guard gap, not the halt at the end of the code
+		assertEquals("\u0001", run("<+.", 8));
+		assertEquals("\u0001\u0002", run("<+.>>++.", 8));
+	}
+
+	@Test
+	public void testCellWidth() {
+		assertEquals("\u00ff", run("-.", 8));
+		assertEquals("\uffff", run("-.", 16));
+		// counts up from 1 until the cell wraps around to 0
+		assertEquals("\u00ff", run("+[>+<+]>.", 8));
+		assertEquals("\uffff", run("+[>+<+]>.", 16));
+	}
+}
@@ -0,0 +1,34 @@
+package com.badlogic.crux.brainfuck;
+
+import static junit.framework.TestCase.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.badlogic.crux.Lexer;
+
+public class JvmEmitterTest {
+	private byte[] run(InputStream source, String input) {
+		BrainfuckParser parser = new BrainfuckParser(new Lexer(source, false, false));
+		parser.parse();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		JvmEmitter.run(parser.getProgram(), new ByteArrayInputStream(input.getBytes()), out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testHelloWorld() throws Exception {
+		assertEquals("Hello World!\n", new String(run(new FileInputStream("data/simple.brainfuck"), "")));
+	}
+
+	@Test
+	public void testInput() {
+		// 0 at the end of the input, bytes wrap around
+		assertEquals("bc", new String(run(new ByteArrayInputStream(",[+.,]".getBytes()), "ab")));
+		assertEquals((byte)0xff, run(new ByteArrayInputStream("-.".getBytes()), "")[0]);
+	}
+}
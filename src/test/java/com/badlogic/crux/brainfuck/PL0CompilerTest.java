@@ -0,0 +1,44 @@
+package com.badlogic.crux.brainfuck;
+
+import static junit.framework.TestCase.*;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.badlogic.crux.Lexer;
+import com.badlogic.dcpu.Cpu;
+
+public class PL0CompilerTest {
+	private Cpu run(PL0Compiler compiler) {
+		Cpu cpu = new Cpu(compiler.compile());
+		cpu.runUntilHalted();
+		return cpu;
+	}
+
+	private PL0Compiler compiler(InputStream in) {
+		PL0Parser parser = new PL0Parser(new Lexer(in));
+		parser.parse();
+		return new PL0Compiler(parser.getProgram());
+	}
+
+	@Test
+	public void testSimple() throws Exception {
+		PL0Compiler compiler = compiler(new FileInputStream("data/simple.pl0"));
+		Cpu cpu = run(compiler);
+		// gcd(84, 36) after multiply, divide 25 / 3
+		assertEquals(12, cpu.getMemValue(compiler.getAddress("z")));
+		assertEquals(8, cpu.getMemValue(compiler.getAddress("q")));
+		assertEquals(1, cpu.getMemValue(compiler.getAddress("r")));
+	}
+
+	@Test
+	public void testNested() throws Exception {
+		PL0Compiler compiler = compiler(PL0CompilerTest.class.getResourceAsStream("/nested.pl0"));
+		Cpu cpu = run(compiler);
+		// 10 + 8 + 6 + 4 + 2 via static links, -3 is odd, 4 isn't
+		assertEquals(130, cpu.getMemValue(compiler.getAddress("result")));
+		assertEquals(0, cpu.getRegValue(com.badlogic.dcpu.Cpu.Register.SP));
+	}
+}
@@ -0,0 +1,46 @@
+package com.badlogic.crux.ssa;
+
+import static junit.framework.TestCase.*;
+
+import java.io.File;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import com.badlogic.crux.AstNode.Program;
+import com.badlogic.crux.CruxCompiler;
+import com.badlogic.crux.ssa.SsaCompiler.Pass;
+import com.badlogic.dcpu.Cpu;
+import com.badlogic.dcpu.Cpu.Register;
+
+public class SsaCompilerTest {
+	static final String[] PROGRAMS = { "fib", "invariant", "matrix", "sieve", "structs" };
+
+	@Test
+	public void testPassesAgree() throws Exception {
+		for(String name: PROGRAMS) {
+			Program program = SsaBenchmark.parse(new File("data/bench/" + name + ".crux"));
+			Cpu ast = SsaBenchmark.run(CruxCompiler.compile(program));
+			int expected = ast.getRegValue(Register.A);
+			check(name, program, EnumSet.noneOf(Pass.class), expected);
+			Cpu optimized = check(name, program, EnumSet.allOf(Pass.class), expected);
+			assertTrue(name + " optimized took " + optimized.getCycles() + " cycles, the ast compiler's code " + ast.getCycles(), optimized.getCycles() <= ast.getCycles());
+			for(Pass pass: Pass.values()) {
+				check(name, program, EnumSet.of(pass), expected);
+			}
+		}
+	}
+
+	@Test
+	public void testSieve() throws Exception {
+		Program program = SsaBenchmark.parse(new File("data/bench/sieve.crux"));
+		assertEquals(168, SsaBenchmark.run(SsaCompiler.compile(program, EnumSet.allOf(Pass.class))).getRegValue(Register.A));
+	}
+
+	Cpu check (String name, Program program, EnumSet<Pass> passes, int expected) {
+		Cpu cpu = SsaBenchmark.run(SsaCompiler.compile(program, passes));
+		assertEquals(name + " " + passes, expected, cpu.getRegValue(Register.A));
+		assertEquals(name + " " + passes, 0, cpu.getRegValue(Register.SP));
+		return cpu;
+	}
+}
@@ -46,4 +46,201 @@ public class CpuTest {
 		cpu = run(asm);
 		assertEquals((short)(0x0 - 0x2), cpu.getRegValue(Register.A));
 	}
+
+	@Test
+	public void testPushAndSkip() {
+		Assembler asm = new Assembler();
+		asm.op(Opcode.SET, Arg.push(), Arg.lit(0x1234));
+		asm.op(Opcode.SET, Arg.push(), Arg.lit(0x5));
+		asm.op(Opcode.SET, Arg.reg(Register.A), Arg.pop());
+		asm.op(Opcode.SET, Arg.reg(Register.B), Arg.pop());
+		asm.op(Opcode.IFE, Arg.reg(Register.A), Arg.lit(0x6));
+		asm.op(Opcode.SET, Arg.mem(0x1000), Arg.lit(0x20));
+		asm.op(Opcode.SET, Arg.reg(Register.C), Arg.lit(0x7));
+		Cpu cpu = run(asm);
+		assertEquals(0x5, cpu.getRegValue(Register.A));
+		assertEquals(0x1234, cpu.getRegValue(Register.B));
+		assertEquals(0x0, cpu.getRegValue(Register.SP));
+		assertEquals(0x0, cpu.getMemValue(0x1000));
+		assertEquals(0x7, cpu.getRegValue(Register.C));
+	}
+
+	@Test
+	public void testIfb() {
+		Assembler asm = new Assembler();
+		asm.op(Opcode.SET, Arg.reg(Register.A), Arg.lit(0x6));
+		asm.op(Opcode.IFB, Arg.reg(Register.A), Arg.lit(0x2));
+		asm.op(Opcode.SET, Arg.reg(Register.B), Arg.lit(0x1));
+		asm.op(Opcode.IFB, Arg.reg(Register.A), Arg.lit(0x1));
+		asm.op(Opcode.SET, Arg.reg(Register.C), Arg.lit(0x1));
+		Cpu cpu = run(asm);
+		assertEquals(0x1, cpu.getRegValue(Register.B));
+		assertEquals(0x0, cpu.getRegValue(Register.C));
+	}
+	
+	@Test
+	public void testBranch() {
+		Assembler asm = new Assembler();
+		asm.op(Opcode.IFE, Arg.reg(Register.A), Arg.lit(0x1));
+		asm.op(Opcode.SET, Arg.mem(0x1000), Arg.lit(0x20));
+		asm.op(Opcode.IFE, Arg.reg(Register.A), Arg.lit(0x0));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("target"));
+		asm.op(Opcode.SET, Arg.reg(Register.B), Arg.lit(0x1));
+		asm.markLabel("target");
+		asm.op(Opcode.SET, Arg.reg(Register.C), Arg.lit(0x1));
+		Cpu cpu = new Cpu(asm.getDump());
+		// the skipped instruction costs its cycles plus one, both are a single tick
+		cpu.tick();
+		assertEquals(4, cpu.getRegValue(Register.PC));
+		assertEquals(2 + 2, cpu.getCycles());
+		// a taken jump to a literal is executed with the branch
+		cpu.tick();
+		assertEquals(8, cpu.getRegValue(Register.PC));
+		assertEquals(4 + 2 + 2, cpu.getCycles());
+		cpu.tick();
+		assertEquals(0x0, cpu.getRegValue(Register.B));
+		assertEquals(0x1, cpu.getRegValue(Register.C));
+	}
+
+	@Test
+	public void testIdle() throws Exception {
+		// a self jump is idle after its first iteration, run() fast forwards it
+		Assembler asm = new Assembler();
+		asm.op(Opcode.SET, Arg.reg(Register.A), Arg.lit(0x1));
+		asm.markLabel("crash");
+		asm.op(Opcode.SET, Arg.pc(), asm.label("crash"));
+		Cpu cpu = new Cpu(asm.getDump());
+		// single steps don't probe the loop
+		cpu.tick();
+		cpu.tick();
+		cpu.tick();
+		assertEquals(5, cpu.getCycles());
+		assertFalse(cpu.isIdle());
+		cpu = new Cpu(asm.getDump());
+		assertEquals(1000001, cpu.run(1000000));
+		assertTrue(cpu.isIdle());
+		assertEquals(0x1, cpu.getRegValue(Register.A));
+
+		// a busy wait on memory continues when the memory is written
+		asm = new Assembler();
+		asm.markLabel("wait");
+		asm.op(Opcode.IFE, Arg.mem(0x1000), Arg.lit(0));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("wait"));
+		asm.op(Opcode.SET, Arg.reg(Register.B), Arg.mem(0x1000));
+		final Cpu waiting = new Cpu(asm.getDump());
+		waiting.run(100);
+		assertTrue(waiting.isIdle());
+		int cycles = waiting.getCycles();
+		assertEquals(0, cycles % 5);
+		waiting.setMemValue(0x2000, 1);
+		waiting.run(100);
+		assertTrue(waiting.isIdle());
+		// the longest run is fast forwarded by whole iterations, the counter wraps like an int
+		cycles = waiting.getCycles();
+		long ran = waiting.run(Integer.MAX_VALUE) & 0xffffffffL;
+		assertTrue(ran >= Integer.MAX_VALUE && ran < Integer.MAX_VALUE + 5L);
+		assertEquals(0, ran % 5);
+		assertEquals(cycles + (int)ran, waiting.getCycles());
+		Thread thread = new Thread() {
+			public void run () {
+				waiting.runUntilHalted();
+			}
+		};
+		thread.start();
+		Thread.sleep(50);
+		waiting.setMemValue(0x1000, 7);
+		thread.join(10000);
+		assertTrue(waiting.isHalted());
+		assertEquals(7, waiting.getRegValue(Register.B));
+	}
+	
+	@Test
+	public void testCountedLoop() {
+		Assembler asm = new Assembler();
+		asm.op(Opcode.SET, Arg.mem(0x1000), Arg.lit(0x55));
+		asm.op(Opcode.SET, Arg.reg(Register.I), Arg.lit(1000));
+		asm.markLabel("loop");
+		asm.op(Opcode.ADD, Arg.reg(Register.A), Arg.lit(3));
+		asm.op(Opcode.SET, Arg.reg(Register.B), Arg.lit(7));
+		asm.op(Opcode.SET, Arg.mem(Register.I, 0x2000), Arg.mem(0x1000));
+		asm.op(Opcode.SUB, Arg.reg(Register.I), Arg.lit(1));
+		asm.op(Opcode.IFN, Arg.reg(Register.I), Arg.lit(0));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("loop"));
+		// 65536 iterations
+		asm.markLabel("delay");
+		asm.op(Opcode.SUB, Arg.reg(Register.J), Arg.lit(1));
+		asm.op(Opcode.IFN, Arg.reg(Register.J), Arg.lit(0));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("delay"));
+		short[] dump = asm.getDump();
+		
+		// ticking doesn't skip loops
+		Cpu ticked = new Cpu(dump);
+		while(!ticked.isHalted()) ticked.tick();
+		assertEquals(3000, ticked.getRegValue(Register.A));
+		
+		Cpu skipped = new Cpu(dump);
+		skipped.runUntilHalted();
+		assertSame(ticked, skipped);
+		
+		// a run ending in the loop skips only part of it
+		Cpu partial = new Cpu(dump);
+		Cpu reference = new Cpu(dump);
+		int cycles = partial.run(500);
+		assertTrue(cycles >= 500);
+		while(reference.getCycles() < cycles) reference.tick();
+		assertSame(reference, partial);
+		partial.runUntilHalted();
+		assertSame(ticked, partial);
+		
+		// runs ending at a jump skip the loop in the following runs
+		for(int slice = 1; slice <= 40; slice++) {
+			Cpu sliced = new Cpu(dump);
+			while(!sliced.isHalted()) sliced.run(slice);
+			assertSame(ticked, sliced);
+		}
+		
+		// loops writing device memory are executed
+		Cpu device = new Cpu(dump);
+		device.mapDevice(0x2100, 1);
+		device.runUntilHalted();
+		assertSame(ticked, device);
+	}
+	
+	@Test
+	public void testTimers() {
+		// a guest waiting for a device to write memory
+		Assembler asm = new Assembler();
+		asm.markLabel("wait");
+		asm.op(Opcode.IFE, Arg.mem(0x1000), Arg.lit(0));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("wait"));
+		asm.op(Opcode.SET, Arg.reg(Register.B), Arg.mem(0x1000));
+		final Cpu cpu = new Cpu(asm.getDump());
+		final int[] ticks = { 0 };
+		cpu.schedule(100, new TimingWheel.Callback() {
+			public void fire (int cycle) {
+				ticks[0]++;
+				if(ticks[0] < 50) cpu.schedule(100 - (cpu.getCycles() - cycle), this);
+				else cpu.setMemValue(0x1000, 7);
+			}
+		});
+		TimingWheel.Timer cancelled = cpu.schedule(20000, new TimingWheel.Callback() {
+			public void fire (int cycle) {
+				fail();
+			}
+		});
+		cpu.cancel(cancelled);
+		cpu.runUntilHalted();
+		assertEquals(50, ticks[0]);
+		assertEquals(7, cpu.getRegValue(Register.B));
+		// the idle loop was fast forwarded to the timers, the last one fired at 5000 cycles
+		assertTrue(cpu.getCycles() >= 5000 && cpu.getCycles() < 5020);
+	}
+	
+	private static void assertSame(Cpu expected, Cpu actual) {
+		assertEquals(expected.getCycles(), actual.getCycles());
+		for(Register register: Register.values()) {
+			assertEquals(expected.getRegValue(register), actual.getRegValue(register));
+		}
+		for(int i = 0; i < Cpu.RAM_SIZE; i++) assertEquals(expected.getMemValue(i), actual.getMemValue(i));
+	}
 }
@@ -0,0 +1,81 @@
+package com.badlogic.dcpu;
+
+import org.junit.Test;
+import static junit.framework.TestCase.*;
+
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+
+public class InputDeviceTest {
+	@Test
+	public void testInput() throws Exception {
+		// sums the words in A, counts them in Y and sets C if one is out of order, until 0xffff
+		Assembler asm = new Assembler();
+		asm.markLabel("wait");
+		asm.op(Opcode.IFE, Arg.mem(0x9000), Arg.mem(0x9001));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("wait"));
+		asm.op(Opcode.SET, Arg.reg(Register.I), Arg.mem(0x9001));
+		asm.op(Opcode.SET, Arg.reg(Register.X), Arg.mem(Register.I, 0x9002));
+		asm.op(Opcode.ADD, Arg.reg(Register.I), Arg.lit(1));
+		asm.op(Opcode.AND, Arg.reg(Register.I), Arg.lit(15));
+		asm.op(Opcode.SET, Arg.mem(0x9001), Arg.reg(Register.I));
+		asm.op(Opcode.IFE, Arg.reg(Register.X), Arg.lit(0xffff));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("done"));
+		asm.op(Opcode.ADD, Arg.reg(Register.Y), Arg.lit(1));
+		asm.op(Opcode.IFN, Arg.reg(Register.X), Arg.reg(Register.Y));
+		asm.op(Opcode.SET, Arg.reg(Register.C), Arg.lit(1));
+		asm.op(Opcode.ADD, Arg.reg(Register.A), Arg.reg(Register.X));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("wait"));
+		asm.markLabel("done");
+		asm.op(Opcode.SET, Arg.reg(Register.B), Arg.lit(1));
+
+		Cpu cpu = new Cpu(asm.getDump());
+		final InputDevice device = new InputDevice(cpu, 0x9000, 16, 64, 50);
+		Thread producer = new Thread() {
+			public void run () {
+				for(int i = 1; i <= 10001; i++) {
+					int value = i <= 10000? i: 0xffff;
+					while(!device.offer(value)) Thread.yield();
+				}
+			}
+		};
+		producer.start();
+		cpu.runUntilHalted();
+		producer.join(10000);
+		assertEquals(1, cpu.getRegValue(Register.B));
+		assertEquals(10000, cpu.getRegValue(Register.Y) & 0xffff);
+		assertEquals(0, cpu.getRegValue(Register.C));
+		assertEquals((short)(10000 * 10001 / 2), cpu.getRegValue(Register.A));
+		assertEquals(10001, device.getDelivered());
+	}
+
+	@Test
+	public void testIdleGuestWaits() throws Exception {
+		// waits for a word and puts it in B
+		Assembler asm = new Assembler();
+		asm.markLabel("wait");
+		asm.op(Opcode.IFE, Arg.mem(0x9000), Arg.mem(0x9001));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("wait"));
+		asm.op(Opcode.SET, Arg.reg(Register.B), Arg.mem(0x9002));
+
+		final Cpu cpu = new Cpu(asm.getDump());
+		InputDevice device = new InputDevice(cpu, 0x9000, 4);
+		Thread thread = new Thread() {
+			public void run () {
+				cpu.runUntilHalted();
+			}
+		};
+		thread.start();
+		Thread.sleep(100);
+		// the timer stopped, the cpu thread waits instead of fast forwarding the guest
+		int cycles = cpu.getCycles();
+		Thread.sleep(100);
+		assertEquals(cycles, cpu.getCycles());
+		assertTrue(cycles > 0 && cycles < 1000);
+		assertTrue(device.offer(42));
+		thread.join(10000);
+		assertTrue(cpu.isHalted());
+		assertEquals(42, cpu.getRegValue(Register.B));
+	}
+}
@@ -0,0 +1,43 @@
+package com.badlogic.dcpu;
+
+import org.junit.Test;
+import static junit.framework.TestCase.*;
+
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+
+public class RealTimeRunnerTest {
+	@Test
+	public void testRate() {
+		Assembler asm = new Assembler();
+		asm.markLabel("loop");
+		asm.op(Opcode.ADD, Arg.reg(Register.A), Arg.lit(1));
+		asm.op(Opcode.SET, Arg.mem(0x8000), Arg.reg(Register.A));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("loop"));
+		Cpu cpu = new Cpu(asm.getDump());
+		Cpu halted = new Cpu(new short[] { 0 });
+		RealTimeRunner runner = new RealTimeRunner(100000, 5000000);
+		runner.add(cpu);
+		runner.add(halted);
+		long start = System.nanoTime();
+		runner.run(200000000);
+		long elapsed = System.nanoTime() - start;
+		// never ahead of the clock by more than an instruction, behind by at most a period if the host is slow
+		long due = elapsed * 100000 / 1000000000L;
+		assertTrue(cpu.getCycles() <= due + 5);
+		assertTrue(cpu.getCycles() >= due - 1000);
+		assertTrue(runner.getBatches() >= 20 && runner.getBatches() <= 41);
+		assertTrue(halted.isHalted());
+	}
+
+	@Test
+	public void testDueAfterDays() {
+		RealTimeRunner runner = new RealTimeRunner();
+		runner.start = 1000;
+		// (now - start) * hz overflows a long after about 25 hours at 100kHz
+		long hours = 100;
+		assertEquals(hours * 3600 * RealTimeRunner.DEFAULT_HZ, runner.due(1000 + hours * 3600 * 1000000000L));
+		assertEquals(hours * 3600 * RealTimeRunner.DEFAULT_HZ + 50000, runner.due(1000 + hours * 3600 * 1000000000L + 500000000L));
+	}
+}
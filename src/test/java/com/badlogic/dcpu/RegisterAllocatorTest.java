@@ -0,0 +1,63 @@
+package com.badlogic.dcpu;
+
+import org.junit.Test;
+import static junit.framework.TestCase.*;
+
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+import com.badlogic.dcpu.RegisterAllocator.Virtual;
+
+public class RegisterAllocatorTest {
+	private Cpu run(Assembler asm) {
+		short[] dump = asm.getDump();
+		System.out.println(Disassembler.disassemble(dump, 0, dump.length));
+		Cpu cpu = new Cpu(dump);
+		cpu.runUntilHalted();
+		return cpu;
+	}
+
+	@Test
+	public void testCoalescing() {
+		Assembler asm = new Assembler();
+		RegisterAllocator allocator = new RegisterAllocator(asm, Register.A, Register.B);
+		allocator.setLiveOut(Register.A);
+		Virtual a = allocator.register();
+		Virtual b = allocator.register();
+		allocator.op(Opcode.SET, a, Arg.lit(5));
+		allocator.op(Opcode.SET, b, a);
+		allocator.op(Opcode.ADD, b, Arg.lit(1));
+		allocator.op(Opcode.SET, Arg.reg(Register.A), b);
+		allocator.allocate();
+		assertEquals(2, asm.size());
+		assertEquals(6, run(asm).getRegValue(Register.A));
+	}
+
+	@Test
+	public void testSpilling() {
+		Assembler asm = new Assembler();
+		RegisterAllocator allocator = new RegisterAllocator(asm, Register.A, Register.B);
+		allocator.setScratch(Register.C);
+		allocator.setLiveOut(Register.A);
+		Virtual base = allocator.register();
+		Virtual sum = allocator.register();
+		Virtual counter = allocator.register();
+		Virtual other = allocator.register();
+		allocator.op(Opcode.SET, base, Arg.lit(0x1000));
+		allocator.op(Opcode.SET, sum, Arg.lit(0));
+		allocator.op(Opcode.SET, counter, Arg.lit(10));
+		allocator.op(Opcode.SET, other, Arg.lit(0));
+		allocator.markLabel("loop");
+		allocator.op(Opcode.SET, RegisterAllocator.mem(base, 1), counter);
+		allocator.op(Opcode.ADD, sum, RegisterAllocator.mem(base, 1));
+		allocator.op(Opcode.ADD, other, Arg.lit(2));
+		allocator.op(Opcode.SUB, counter, Arg.lit(1));
+		allocator.op(Opcode.IFN, counter, Arg.lit(0));
+		allocator.op(Opcode.SET, Arg.pc(), allocator.label("loop"));
+		allocator.op(Opcode.ADD, sum, other);
+		allocator.op(Opcode.SET, Arg.reg(Register.A), sum);
+		allocator.allocate();
+		assertTrue(allocator.getSpillSlots() > 0);
+		assertEquals(55 + 20, run(asm).getRegValue(Register.A));
+	}
+}
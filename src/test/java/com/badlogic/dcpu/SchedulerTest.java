@@ -0,0 +1,89 @@
+package com.badlogic.dcpu;
+
+import org.junit.Test;
+import static junit.framework.TestCase.*;
+
+import com.badlogic.dcpu.Assembler.Arg;
+import com.badlogic.dcpu.Cpu.Opcode;
+import com.badlogic.dcpu.Cpu.Register;
+import com.badlogic.dcpu.Scheduler.Guest;
+import com.badlogic.dcpu.Scheduler.State;
+import com.badlogic.dcpu.Scheduler.Tenant;
+
+public class SchedulerTest {
+	/** a guest that loops forever, writing memory so the loop is neither idle nor counted **/
+	private static Cpu spin() {
+		Assembler asm = new Assembler();
+		asm.markLabel("loop");
+		asm.op(Opcode.ADD, Arg.reg(Register.A), Arg.lit(1));
+		asm.op(Opcode.SET, Arg.mem(0x8000), Arg.reg(Register.A));
+		asm.op(Opcode.SET, Arg.pc(), asm.label("loop"));
+		return new Cpu(asm.getDump());
+	}
+	
+	@Test
+	public void testWeights() {
+		Scheduler scheduler = new Scheduler(1000);
+		Tenant tenant = new Tenant("test", Scheduler.UNLIMITED);
+		Guest light = scheduler.add(spin(), tenant, 1);
+		Guest heavy = scheduler.add(spin(), tenant, 3);
+		for(int i = 0; i < 400; i++) assertTrue(scheduler.runSlice());
+		assertEquals(3, heavy.getCycles() / (double)light.getCycles(), 0.05);
+		assertEquals(scheduler.getCycles(), tenant.getCycles());
+		assertEquals(400, light.getSlices() + heavy.getSlices());
+		assertEquals(light.getSlices(), light.getPreemptions());
+	}
+	
+	@Test
+	public void testQuotas() {
+		Scheduler scheduler = new Scheduler(1000);
+		Tenant tenant = new Tenant("limited", 50000);
+		Guest guest = scheduler.add(spin(), new Tenant("other", Scheduler.UNLIMITED), 1);
+		guest.setQuota(25000);
+		Guest first = scheduler.add(spin(), tenant, 1);
+		Guest second = scheduler.add(spin(), tenant, 2);
+		while(scheduler.runSlice());
+		assertEquals(State.OUT_OF_QUOTA, guest.getState());
+		assertTrue(guest.getCycles() >= 25000 && guest.getCycles() < 25010);
+		assertEquals(State.OUT_OF_QUOTA, first.getState());
+		assertEquals(State.OUT_OF_QUOTA, second.getState());
+		assertTrue(tenant.getCycles() >= 50000 && tenant.getCycles() < 50010);
+		
+		// halted guests are dropped
+		scheduler = new Scheduler();
+		Guest halted = scheduler.add(new Cpu(new short[] { 0 }), new Tenant("other", Scheduler.UNLIMITED), 1);
+		assertTrue(scheduler.runSlice());
+		assertFalse(scheduler.runSlice());
+		assertEquals(State.HALTED, halted.getState());
+	}
+	
+	@Test
+	public void testRate() {
+		final long[] time = { 0 };
+		Scheduler scheduler = new Scheduler(1000) {
+			protected long nanoTime () {
+				return time[0];
+			}
+		};
+		Guest guest = scheduler.add(spin(), new Tenant("test", Scheduler.UNLIMITED), 1);
+		guest.setRate(100000, 500);
+		assertTrue(scheduler.runSlice());
+		assertTrue(guest.getCycles() >= 500 && guest.getCycles() < 510);
+		assertEquals(State.THROTTLED, guest.getState());
+		assertFalse(scheduler.runSlice());
+		
+		// 500 cycles at 100kHz take 5ms
+		time[0] += 4000000;
+		assertFalse(scheduler.runSlice());
+		time[0] += 1100000;
+		assertTrue(scheduler.runSlice());
+		assertEquals(2, guest.getThrottles());
+		assertTrue(guest.getCycles() >= 1000 && guest.getCycles() < 1010);
+		
+		// after 30 hours the bucket is full and not overflown
+		time[0] += 30 * 3600 * 1000000000L;
+		assertTrue(scheduler.runSlice());
+		assertTrue(guest.getCycles() >= 1500 && guest.getCycles() < 1520);
+		assertEquals(3, guest.getThrottles());
+	}
+}
@@ -0,0 +1,66 @@
+package com.badlogic.dcpu;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static junit.framework.TestCase.*;
+
+import com.badlogic.dcpu.TimingWheel.Callback;
+import com.badlogic.dcpu.TimingWheel.Timer;
+
+public class TimingWheelTest {
+	@Test
+	public void testOrder() {
+		// start close to the end of the int range so the cycle counts wrap around
+		int start = Integer.MAX_VALUE - 100000;
+		TimingWheel wheel = new TimingWheel(start);
+		final List<Integer> fired = new ArrayList<Integer>();
+		Callback callback = new Callback() {
+			public void fire (int cycle) {
+				fired.add(cycle);
+			}
+		};
+		Random random = new Random(7);
+		List<Integer> expected = new ArrayList<Integer>();
+		List<Timer> cancelled = new ArrayList<Timer>();
+		for(int i = 0; i < 2000; i++) {
+			int delay = random.nextInt(4) == 0? random.nextInt(1 << 28): random.nextInt(1000);
+			Timer timer = wheel.schedule(start + delay, callback);
+			if(i % 10 == 0) cancelled.add(timer);
+			else expected.add(delay);
+		}
+		for(Timer timer: cancelled) wheel.cancel(timer);
+		Collections.sort(expected);
+
+		int now = start;
+		while(!wheel.isEmpty()) {
+			now += 1 + random.nextInt(1 << 20);
+			wheel.advance(now);
+		}
+		assertEquals(expected.size(), fired.size());
+		for(int i = 0; i < expected.size(); i++) assertEquals(start + expected.get(i), (int)fired.get(i));
+	}
+
+	@Test
+	public void testNext() {
+		TimingWheel wheel = new TimingWheel(-5);
+		Callback callback = new Callback() {
+			public void fire (int cycle) {
+			}
+		};
+		Timer late = wheel.schedule(70000, callback);
+		wheel.schedule(300, callback);
+		assertEquals(300, wheel.next());
+		wheel.advance(300);
+		assertEquals(70000, wheel.next());
+		assertTrue(late.isPending());
+		wheel.cancel(late);
+		assertTrue(wheel.isEmpty());
+		// timers in the past are due right away
+		wheel.schedule(10, callback);
+		assertEquals(300, wheel.next());
+	}
+}
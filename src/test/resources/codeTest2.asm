@@ -0,0 +1,25 @@
+.equ SCREEN 0x8000
+.equ WIDTH 32
+.equ ROW (WIDTH * 2)
+
+.macro store addr, value
+		set [addr], value
+.endm
+
+.macro clear2 base
+		store base, 0
+		store base + 1, 0
+.endm
+
+		set a, ROW - 60 + 1
+		set b, (1 << 6) | 0x3
+		store SCREEN + ROW, 0x41
+		store SCREEN + 1, a
+		clear2 0x1000
+:lbl	store 0x1002, ~0
+		set [data + 1], 7
+		set x, [data + 1]
+		set i, 2
+		set y, [data + i]
+		dat 0
+:data	dat 1, WIDTH, WIDTH - 3